@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.jfr;
+
+import com.emc.object.util.ClientTracer;
+
+/**
+ * Emits a {@link ClientPhaseEvent} for each signing/codec phase and a {@link TransferPartEvent} for each part of a large
+ * file transfer. When the event types are not enabled in a recording, nothing is recorded or retained.
+ */
+public class JfrClientTracer implements ClientTracer {
+    @Override
+    public Object phaseStarted(String phase, String bucketName, String key) {
+        ClientPhaseEvent event = new ClientPhaseEvent();
+        if (!event.isEnabled()) return null;
+        event.phase = phase;
+        event.bucketName = bucketName;
+        event.key = key;
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void phaseCompleted(Object context) {
+        if (context != null) ((ClientPhaseEvent) context).commit();
+    }
+
+    @Override
+    public Object partStarted(boolean upload, String bucketName, String key, int partNumber, long offset, long length) {
+        TransferPartEvent event = new TransferPartEvent();
+        if (!event.isEnabled()) return null;
+        event.upload = upload;
+        event.bucketName = bucketName;
+        event.key = key;
+        event.partNumber = partNumber;
+        event.offset = offset;
+        event.length = length;
+        event.begin();
+        return event;
+    }
+
+    @Override
+    public void partCompleted(Object context, Throwable error) {
+        if (context == null) return;
+        TransferPartEvent event = (TransferPartEvent) context;
+        if (error != null) event.error = error.toString();
+        event.commit();
+    }
+}
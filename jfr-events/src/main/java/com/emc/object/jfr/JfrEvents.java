@@ -0,0 +1,58 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.jfr;
+
+import com.emc.object.s3.S3Config;
+
+/**
+ * Installs JDK Flight Recorder events into a client configuration. The event types are disabled by default, so they
+ * cost nothing until they are enabled in a recording, i.e. with a custom .jfc settings file or
+ * <code>Recording.enable("com.emc.object.S3Request")</code>. The event names are:
+ * <ul>
+ * <li><code>com.emc.object.S3Request</code> - one per request (see {@link S3RequestEvent})</li>
+ * <li><code>com.emc.object.TransferPart</code> - one per part of a large file transfer (see
+ * {@link TransferPartEvent}); set {@link #TRACER} on the {@link com.emc.object.s3.LargeFileUploader} or
+ * {@link com.emc.object.s3.LargeFileDownloader}</li>
+ * <li><code>com.emc.object.ClientPhase</code> - one per signing or codec phase (see {@link ClientPhaseEvent})</li>
+ * </ul>
+ */
+public final class JfrEvents {
+    public static final JfrClientTracer TRACER = new JfrClientTracer();
+
+    /**
+     * Adds a {@link JfrRequestListener} and sets {@link #TRACER} as the client tracer of <code>s3Config</code>. Call
+     * this before creating the client
+     */
+    public static S3Config enable(S3Config s3Config) {
+        s3Config.addRequestListener(new JfrRequestListener());
+        s3Config.setClientTracer(TRACER);
+        return s3Config;
+    }
+
+    private JfrEvents() {
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.jfr;
+
+import com.emc.object.s3.RequestEvent;
+import com.emc.object.s3.RequestListenerAdapter;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Emits an {@link S3RequestEvent} for each request. The JFR event is begun when the request starts and committed when
+ * the response body is completed or the request fails. This listener relies on receiving the same
+ * {@link RequestEvent} instance for each callback of a request, so it only records events when request listeners are
+ * called synchronously (the default).
+ */
+public class JfrRequestListener extends RequestListenerAdapter {
+    // keyed by identity; weak so a response body that is never closed does not leak its event
+    private final Map<RequestEvent, S3RequestEvent> events =
+            Collections.synchronizedMap(new WeakHashMap<RequestEvent, S3RequestEvent>());
+
+    @Override
+    public void requestStarted(RequestEvent event) {
+        S3RequestEvent jfrEvent = new S3RequestEvent();
+        if (!jfrEvent.isEnabled()) return;
+        jfrEvent.operation = event.getOperation();
+        jfrEvent.method = event.getMethod();
+        jfrEvent.bucketName = event.getBucketName();
+        jfrEvent.key = event.getKey();
+        jfrEvent.begin();
+        events.put(event, jfrEvent);
+    }
+
+    @Override
+    public void bodyCompleted(RequestEvent event) {
+        commit(event);
+    }
+
+    @Override
+    public void requestFailed(RequestEvent event) {
+        commit(event);
+    }
+
+    private void commit(RequestEvent event) {
+        S3RequestEvent jfrEvent = events.remove(event);
+        if (jfrEvent == null) return;
+        jfrEvent.end();
+        jfrEvent.host = event.getHost();
+        jfrEvent.statusCode = event.getStatusCode();
+        jfrEvent.bytesSent = event.getBytesSent();
+        jfrEvent.bytesReceived = event.getBytesReceived();
+        jfrEvent.retryCount = event.getRetryCount();
+        if (event.getError() != null) jfrEvent.error = event.getError().toString();
+        jfrEvent.commit();
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.jfr;
+
+import com.emc.object.s3.LargeFileDownloader;
+import com.emc.object.s3.S3Config;
+import com.emc.object.s3.jersey.S3JerseyClient;
+import com.sun.jersey.api.client.Client;
+import com.sun.jersey.api.client.ClientHandler;
+import com.sun.jersey.api.client.ClientHandlerException;
+import com.sun.jersey.api.client.ClientRequest;
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.core.header.InBoundHeaders;
+import com.sun.jersey.spi.MessageBodyWorkers;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Records the client's JFR events against an in-memory object (no server needed)
+ */
+public class JfrEventsTest {
+    private static final int OBJECT_SIZE = 2 * LargeFileDownloader.MIN_PART_SIZE + 1000; // 3 parts at the minimum size
+    private static final MessageBodyWorkers WORKERS = Client.create().getMessageBodyWorkers();
+
+    private byte[] data;
+    private S3JerseyClient client;
+    private Recording recording;
+    private List<File> files = new ArrayList<File>();
+
+    @Before
+    public void setup() throws Exception {
+        data = new byte[OBJECT_SIZE];
+        new Random().nextBytes(data);
+        S3Config s3Config = new S3Config(new URI("http://mock.local:9020")).withIdentity("user").withSecretKey("secret");
+        client = new S3JerseyClient(JfrEvents.enable(s3Config), new ObjectHandler());
+        recording = new Recording();
+    }
+
+    @After
+    public void teardown() {
+        if (client != null) client.destroy();
+        if (recording != null) recording.close();
+        for (File file : files) {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void testS3RequestEvents() throws Exception {
+        recording.enable(S3RequestEvent.class);
+        recording.start();
+        client.getObjectMetadata("bucket", "key");
+        Assert.assertEquals(OBJECT_SIZE, client.readObject("bucket", "key", byte[].class).length);
+        recording.stop();
+
+        List<RecordedEvent> events = getEvents("com.emc.object.S3Request");
+        Assert.assertEquals(2, events.size());
+        RecordedEvent head = events.get(0), get = events.get(1);
+        Assert.assertEquals("HEAD_OBJECT", head.getString("operation"));
+        Assert.assertEquals("GET_OBJECT", get.getString("operation"));
+        Assert.assertEquals("GET", get.getString("method"));
+        Assert.assertEquals("bucket", get.getString("bucketName"));
+        Assert.assertEquals("key", get.getString("key"));
+        Assert.assertEquals("mock.local", get.getString("host"));
+        Assert.assertEquals(200, get.getInt("statusCode"));
+        Assert.assertEquals(OBJECT_SIZE, get.getLong("bytesReceived"));
+        Assert.assertEquals(0, get.getInt("retryCount"));
+        Assert.assertNull(get.getString("error"));
+        Assert.assertFalse(get.getDuration().isNegative());
+
+        // only enabled event types are recorded
+        Assert.assertTrue(getEvents("com.emc.object.TransferPart").isEmpty());
+    }
+
+    @Test
+    public void testTransferPartEvents() throws Exception {
+        File file = File.createTempFile("jfr-events-test", null);
+        files.add(file);
+
+        recording.enable(TransferPartEvent.class);
+        recording.start();
+        LargeFileDownloader downloader = new LargeFileDownloader(client, "bucket", "key", file);
+        downloader.setPartSize(LargeFileDownloader.MIN_PART_SIZE);
+        downloader.setClientTracer(JfrEvents.TRACER);
+        downloader.run();
+        recording.stop();
+
+        List<RecordedEvent> events = getEvents("com.emc.object.TransferPart");
+        Assert.assertEquals(3, events.size());
+        boolean[] seen = new boolean[3];
+        long total = 0;
+        for (RecordedEvent event : events) {
+            int partNumber = event.getInt("partNumber");
+            seen[partNumber - 1] = true;
+            Assert.assertFalse(event.getBoolean("upload"));
+            Assert.assertEquals("bucket", event.getString("bucketName"));
+            Assert.assertEquals("key", event.getString("key"));
+            Assert.assertEquals((partNumber - 1) * LargeFileDownloader.MIN_PART_SIZE, event.getLong("offset"));
+            Assert.assertNull(event.getString("error"));
+            total += event.getLong("length");
+        }
+        Assert.assertTrue(Arrays.equals(new boolean[]{true, true, true}, seen));
+        Assert.assertEquals(OBJECT_SIZE, total);
+
+        // S3Request events were not enabled
+        Assert.assertTrue(getEvents("com.emc.object.S3Request").isEmpty());
+    }
+
+    private List<RecordedEvent> getEvents(String name) throws Exception {
+        File file = File.createTempFile("jfr-events-test", ".jfr");
+        files.add(file);
+        recording.dump(file.toPath());
+        List<RecordedEvent> events = new ArrayList<RecordedEvent>();
+        for (RecordedEvent event : RecordingFile.readAllEvents(file.toPath())) {
+            if (name.equals(event.getEventType().getName())) events.add(event);
+        }
+        return events;
+    }
+
+    /**
+     * Serves HEAD and (ranged) GET requests for a single object
+     */
+    private class ObjectHandler implements ClientHandler {
+        @Override
+        public ClientResponse handle(ClientRequest request) throws ClientHandlerException {
+            InBoundHeaders headers = new InBoundHeaders();
+            if ("HEAD".equals(request.getMethod())) {
+                headers.putSingle("Content-Length", String.valueOf(data.length));
+                return new ClientResponse(200, headers, new ByteArrayInputStream(new byte[0]), WORKERS);
+            }
+
+            int status = 200, offset = 0, length = data.length;
+            Object range = request.getHeaders().getFirst("Range");
+            if (range != null) {
+                String[] bounds = range.toString().substring("bytes=".length()).split("-");
+                offset = Integer.parseInt(bounds[0]);
+                length = Integer.parseInt(bounds[1]) - offset + 1;
+                status = 206;
+            }
+            headers.putSingle("Content-Length", String.valueOf(length));
+            return new ClientResponse(status, headers, new ByteArrayInputStream(data, offset, length), WORKERS);
+        }
+    }
+}
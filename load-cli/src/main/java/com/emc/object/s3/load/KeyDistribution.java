@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.s3.load;
+
+import java.util.Random;
+
+/**
+ * Chooses which key (0 to keyCount - 1) the next operation targets.
+ */
+public abstract class KeyDistribution {
+    public static final double DEFAULT_ZIPFIAN_THETA = 0.99;
+
+    public static KeyDistribution parse(String name, long keyCount, double theta) {
+        if ("uniform".equalsIgnoreCase(name)) return new Uniform(keyCount);
+        if ("zipfian".equalsIgnoreCase(name)) return new Zipfian(keyCount, theta);
+        throw new IllegalArgumentException("unknown key distribution: " + name);
+    }
+
+    protected final long keyCount;
+
+    protected KeyDistribution(long keyCount) {
+        if (keyCount < 1) throw new IllegalArgumentException("key count must be positive");
+        this.keyCount = keyCount;
+    }
+
+    public abstract long next(Random random);
+
+    public long getKeyCount() {
+        return keyCount;
+    }
+
+    public static class Uniform extends KeyDistribution {
+        public Uniform(long keyCount) {
+            super(keyCount);
+        }
+
+        @Override
+        public long next(Random random) {
+            return (long) (random.nextDouble() * keyCount);
+        }
+
+        @Override
+        public String toString() {
+            return "uniform";
+        }
+    }
+
+    /**
+     * Zipfian distribution where key 0 is the most popular, using the method of Gray et al. ("Quickly generating
+     * billion-record synthetic databases"). Setup is O(keyCount); each value is O(1).
+     */
+    public static class Zipfian extends KeyDistribution {
+        private final double theta;
+        private final double zetaN;
+        private final double alpha;
+        private final double eta;
+
+        public Zipfian(long keyCount, double theta) {
+            super(keyCount);
+            if (theta <= 0 || theta >= 1) throw new IllegalArgumentException("zipfian theta must be between 0 and 1");
+            this.theta = theta;
+            this.zetaN = zeta(keyCount, theta);
+            this.alpha = 1 / (1 - theta);
+            this.eta = (1 - Math.pow(2D / keyCount, 1 - theta)) / (1 - zeta(2, theta) / zetaN);
+        }
+
+        private static double zeta(long n, double theta) {
+            double sum = 0;
+            for (long i = 1; i <= n; i++) {
+                sum += 1 / Math.pow(i, theta);
+            }
+            return sum;
+        }
+
+        @Override
+        public long next(Random random) {
+            double u = random.nextDouble();
+            double uz = u * zetaN;
+            if (uz < 1) return 0;
+            if (uz < 1 + Math.pow(0.5, theta)) return Math.min(1, keyCount - 1);
+            return Math.min((long) (keyCount * Math.pow(eta * u - eta + 1, alpha)), keyCount - 1);
+        }
+
+        @Override
+        public String toString() {
+            return "zipfian(" + theta + ")";
+        }
+    }
+}
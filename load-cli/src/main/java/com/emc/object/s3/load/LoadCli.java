@@ -0,0 +1,201 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.s3.load;
+
+import com.emc.object.Protocol;
+import com.emc.object.s3.S3Client;
+import com.emc.object.s3.S3Config;
+import com.emc.object.s3.jersey.S3JerseyClient;
+import com.emc.object.s3.trace.TraceReplayer;
+import com.emc.object.s3.trace.TraceWriter;
+import com.emc.object.util.LatencyHistogram;
+import org.apache.commons.cli.*;
+
+import java.io.File;
+import java.net.URI;
+
+public class LoadCli {
+    public static final String JAR_NAME = "load-cli-{version}.jar";
+    public static final String VERSION = LoadCli.class.getPackage().getImplementationVersion();
+
+    public static void main(String[] args) throws Exception {
+        CommandLine line = null;
+        S3Client client = null;
+        TraceWriter traceWriter = null;
+        try {
+            System.out.println(versionLine());
+
+            line = new DefaultParser().parse(options(), args);
+
+            URI endpoint = new URI(line.getOptionValue('e'));
+            S3Config s3Config;
+            if (line.hasOption("smart-client")) {
+                s3Config = new S3Config(Protocol.valueOf(endpoint.getScheme().toUpperCase()), endpoint.getHost());
+                if (endpoint.getPort() > 0) s3Config.withPort(endpoint.getPort());
+            } else {
+                s3Config = new S3Config(endpoint);
+            }
+            s3Config.withIdentity(line.getOptionValue('a')).withSecretKey(line.getOptionValue('s'));
+            if (line.hasOption("namespace")) s3Config.withNamespace(line.getOptionValue("namespace"));
+            if (line.hasOption("record")) {
+                traceWriter = new TraceWriter(new File(line.getOptionValue("record")));
+                s3Config.withTraceWriter(traceWriter);
+            }
+            client = new S3JerseyClient(s3Config);
+
+            String bucket = line.getOptionValue('b');
+            if (line.hasOption("create-bucket") && !client.bucketExists(bucket)) client.createBucket(bucket);
+
+            if (line.hasOption("replay")) {
+                replay(client, bucket, line);
+                return;
+            }
+
+            long keyCount = Long.parseLong(line.getOptionValue("keys", "" + LoadGenerator.DEFAULT_KEY_COUNT));
+            double theta = Double.parseDouble(line.getOptionValue("zipf-theta",
+                    "" + KeyDistribution.DEFAULT_ZIPFIAN_THETA));
+
+            LoadGenerator generator = new LoadGenerator(client, bucket)
+                    .withPrefix(line.getOptionValue("prefix", LoadGenerator.DEFAULT_PREFIX))
+                    .withOperationMix(OperationMix.parse(line.getOptionValue('m', OperationMix.DEFAULT_SPEC)))
+                    .withSizeDistribution(SizeDistribution.parse(line.getOptionValue('z', SizeDistribution.DEFAULT_SPEC)))
+                    .withKeyDistribution(KeyDistribution.parse(line.getOptionValue("key-dist", "uniform"), keyCount, theta))
+                    .withThreads(Integer.parseInt(line.getOptionValue('t', "" + LoadGenerator.DEFAULT_THREADS)))
+                    .withDuration(Integer.parseInt(line.getOptionValue('d', "" + LoadGenerator.DEFAULT_DURATION)))
+                    .withRate(Double.parseDouble(line.getOptionValue('r', "0")))
+                    .withReportInterval(Integer.parseInt(line.getOptionValue('i', "" + LoadGenerator.DEFAULT_REPORT_INTERVAL)))
+                    .withPrepopulate(line.hasOption("prepopulate"));
+            generator.run();
+
+            Throwable firstError = generator.getFirstError();
+            if (firstError != null) {
+                System.out.println("First error: " + firstError);
+                if (line.hasOption("stacktrace")) firstError.printStackTrace();
+            }
+        } catch (Exception e) {
+            System.out.println("Error: " + e.getMessage());
+            help();
+            if (line != null && line.hasOption("stacktrace")) e.printStackTrace();
+            System.exit(1);
+        } finally {
+            if (client != null) client.destroy();
+            if (traceWriter != null) traceWriter.close();
+        }
+        System.exit(0);
+    }
+
+    static void replay(S3Client client, String bucket, CommandLine line) {
+        TraceReplayer replayer = new TraceReplayer(client, bucket, new File(line.getOptionValue("replay")))
+                .withPrefix(line.getOptionValue("prefix", TraceReplayer.DEFAULT_PREFIX))
+                .withThreads(Integer.parseInt(line.getOptionValue('t', "" + TraceReplayer.DEFAULT_THREADS)))
+                .withTimeScale(Double.parseDouble(line.getOptionValue("time-scale", "1.0")))
+                .withPrepopulate(line.hasOption("prepopulate"));
+        System.out.println(String.format("replaying %s with %d threads at time scale %.2f",
+                replayer.getTraceFile(), replayer.getThreads(), replayer.getTimeScale()));
+        replayer.run();
+
+        double seconds = replayer.getDuration() / 1000000000D;
+        System.out.println(String.format("replayed in %.1fs (%d requests skipped)", seconds, replayer.getSkippedCount()));
+        System.out.println();
+        System.out.println(String.format("%-14s %8s %9s | %8s %9s %9s %9s | %10s %10s %10s %10s",
+                "op", "count", "ops/s", "errors", "p50(ms)", "p99(ms)", "max(ms)",
+                "trace-err", "trace-p50", "trace-p99", "trace-max"));
+        for (TraceReplayer.OperationResult result : replayer.getResults()) {
+            LatencyHistogram latency = result.getLatency(), original = result.getOriginalLatency();
+            System.out.println(String.format("%-14s %8d %9.1f | %8d %9.2f %9.2f %9.2f | %10d %10.2f %10.2f %10.2f",
+                    result.getOperation(), latency.getCount(), latency.getCount() / seconds,
+                    result.getErrorCount(), latency.getPercentile(50) / 1000D, latency.getPercentile(99) / 1000D,
+                    latency.getMax() / 1000D, result.getOriginalErrorCount(), original.getPercentile(50) / 1000D,
+                    original.getPercentile(99) / 1000D, original.getMax() / 1000D));
+        }
+    }
+
+    public static Options options() {
+        Options options = new Options();
+        options.addOption(Option.builder("e").longOpt("endpoint").desc("S3 endpoint URI (i.e. http://10.10.10.11:9020)")
+                .required().hasArg().argName("uri").build());
+        options.addOption(Option.builder().longOpt("smart-client")
+                .desc("Use the endpoint host to discover the other nodes and load-balance across them").build());
+        options.addOption(Option.builder("a").longOpt("access-key").desc("S3 access key (user)")
+                .required().hasArg().argName("access-key").build());
+        options.addOption(Option.builder("s").longOpt("secret-key").desc("S3 secret key")
+                .required().hasArg().argName("secret-key").build());
+        options.addOption(Option.builder().longOpt("namespace").desc("ECS namespace (if not the user's default)")
+                .hasArg().argName("namespace").build());
+        options.addOption(Option.builder("b").longOpt("bucket").desc("Name of the S3 bucket to load")
+                .required().hasArg().argName("bucket-name").build());
+        options.addOption(Option.builder().longOpt("create-bucket").desc("Creates the bucket if it does not exist").build());
+        options.addOption(Option.builder().longOpt("prefix").desc("Key prefix for all objects. Default is "
+                + LoadGenerator.DEFAULT_PREFIX).hasArg().argName("prefix").build());
+        options.addOption(Option.builder("m").longOpt("mix").desc("Operation mix as relative weights of put, get, head, "
+                + "list and delete. Default is " + OperationMix.DEFAULT_SPEC).hasArg().argName("op=weight,...").build());
+        options.addOption(Option.builder("z").longOpt("size").desc("Object size distribution: a fixed size (4k), "
+                + "a uniform range (1k-64k) or a weighted mix (4k:80,1m:20). Default is " + SizeDistribution.DEFAULT_SPEC)
+                .hasArg().argName("size-spec").build());
+        options.addOption(Option.builder().longOpt("keys").desc("Number of distinct keys. Default is "
+                + LoadGenerator.DEFAULT_KEY_COUNT).hasArg().argName("count").build());
+        options.addOption(Option.builder().longOpt("key-dist").desc("Key distribution (uniform or zipfian). Default is uniform")
+                .hasArg().argName("distribution").build());
+        options.addOption(Option.builder().longOpt("zipf-theta").desc("Skew of the zipfian distribution (0-1). Default is "
+                + KeyDistribution.DEFAULT_ZIPFIAN_THETA).hasArg().argName("theta").build());
+        options.addOption(Option.builder().longOpt("prepopulate").desc("Writes every key before the run starts").build());
+        options.addOption(Option.builder("t").longOpt("threads").desc("Number of concurrent threads. Default is "
+                + LoadGenerator.DEFAULT_THREADS).hasArg().argName("threads").build());
+        options.addOption(Option.builder("d").longOpt("duration").desc("Run duration in seconds. Default is "
+                + LoadGenerator.DEFAULT_DURATION).hasArg().argName("seconds").build());
+        options.addOption(Option.builder("r").longOpt("rate").desc("Target arrival rate (ops/s) for an open-loop run, "
+                + "where latency includes any time an operation waits for a thread. Default is closed-loop")
+                .hasArg().argName("ops-per-second").build());
+        options.addOption(Option.builder("i").longOpt("interval").desc("Progress report interval in seconds. Default is "
+                + LoadGenerator.DEFAULT_REPORT_INTERVAL).hasArg().argName("seconds").build());
+        options.addOption(Option.builder().longOpt("record").desc("Records a trace of all requests to a file")
+                .hasArg().argName("trace-file").build());
+        options.addOption(Option.builder().longOpt("replay").desc("Replays a request trace (recorded with "
+                + "S3Config.setTraceWriter) instead of generating a workload").hasArg().argName("trace-file").build());
+        options.addOption(Option.builder().longOpt("time-scale").desc("Scales the time between traced requests "
+                + "(0.5 replays twice as fast, 0 as fast as possible). Default is 1.0").hasArg().argName("scale").build());
+        options.addOption(Option.builder().longOpt("stacktrace").desc("Prints a detailed stacktrace for errors").build());
+        return options;
+    }
+
+    public static String versionLine() {
+        return LoadCli.class.getSimpleName() + (VERSION == null ? "" : " v" + VERSION);
+    }
+
+    public static void help() {
+        System.out.println();
+        System.out.println(LoadCli.class.getSimpleName() +
+                " generates a mixed S3 workload and reports throughput and latency percentiles");
+        System.out.println();
+        HelpFormatter hf = new HelpFormatter();
+        hf.printHelp("java -jar " + JAR_NAME + ".jar", options(), true);
+        System.out.println("* latencies are in milliseconds; 404s on get, head and delete are counted as misses, not errors");
+        System.out.println("* in open-loop mode, use enough threads to cover the target rate times the expected latency");
+        System.out.println("* a replay reports its own latencies and errors next to those recorded in the trace");
+        System.out.println();
+    }
+}
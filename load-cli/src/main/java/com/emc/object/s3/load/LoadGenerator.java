@@ -0,0 +1,441 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.s3.load;
+
+import com.emc.object.s3.S3Client;
+import com.emc.object.s3.S3Exception;
+import com.emc.object.s3.S3ObjectMetadata;
+import com.emc.object.s3.request.ListObjectsRequest;
+import com.emc.object.s3.request.PutObjectRequest;
+import com.emc.object.util.DaemonThreadFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Drives a mixed workload against a bucket for a fixed duration.
+ * <p>
+ * In closed-loop mode (the default), each thread issues its next operation as soon as the previous one completes, so
+ * throughput is limited by latency. In open-loop mode (a target rate is set), operations are scheduled at a fixed
+ * arrival rate and each latency is measured from the operation's <em>scheduled</em> start, so time spent waiting for a
+ * free thread is included. This avoids coordinated omission, where a stalled server delays (and hides) the requests
+ * that would have seen the stall. Threads then only bound the number of outstanding operations.
+ */
+public class LoadGenerator {
+    public static final int DEFAULT_THREADS = 16;
+    public static final int DEFAULT_DURATION = 60; // seconds
+    public static final int DEFAULT_REPORT_INTERVAL = 5; // seconds
+    public static final long DEFAULT_KEY_COUNT = 10000;
+    public static final String DEFAULT_PREFIX = "load/";
+    public static final int LIST_PAGE_SIZE = 1000;
+
+    private static final int BUFFER_SIZE = 128 * 1024;
+
+    private final S3Client client;
+    private final String bucket;
+    private String prefix = DEFAULT_PREFIX;
+    private OperationMix operationMix = OperationMix.parse(OperationMix.DEFAULT_SPEC);
+    private SizeDistribution sizeDistribution = SizeDistribution.parse(SizeDistribution.DEFAULT_SPEC);
+    private KeyDistribution keyDistribution = new KeyDistribution.Uniform(DEFAULT_KEY_COUNT);
+    private int threads = DEFAULT_THREADS;
+    private int duration = DEFAULT_DURATION;
+    private double rate;
+    private int reportInterval = DEFAULT_REPORT_INTERVAL;
+    private boolean prepopulate;
+    private PrintStream out = System.out;
+
+    private final LoadStats stats = new LoadStats();
+    private final AtomicReference<Throwable> firstError = new AtomicReference<Throwable>();
+    private byte[] pattern;
+
+    public LoadGenerator(S3Client client, String bucket) {
+        this.client = client;
+        this.bucket = bucket;
+    }
+
+    public LoadStats run() throws InterruptedException, ExecutionException {
+        pattern = new byte[(int) Math.min(sizeDistribution.getMaxSize(), BUFFER_SIZE) + 1];
+        new Random().nextBytes(pattern);
+
+        if (prepopulate) prepopulate();
+
+        out.println(String.format("running %s for %ds with %d threads (%s), sizes: %s, keys: %d %s",
+                operationMix, duration, threads,
+                rate > 0 ? String.format("open-loop at %.1f ops/s", rate) : "closed-loop",
+                sizeDistribution, keyDistribution.getKeyCount(), keyDistribution));
+
+        final long startNanos = System.nanoTime();
+        final long endNanos = startNanos + TimeUnit.SECONDS.toNanos(duration);
+        final double intervalNanos = rate > 0 ? 1000000000D / rate : 0;
+        final AtomicLong sequence = new AtomicLong();
+        final AtomicLong started = new AtomicLong();
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new DaemonThreadFactory("load-generator"));
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (int i = 0; i < threads; i++) {
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    Random random = new Random();
+                    byte[] buffer = new byte[BUFFER_SIZE];
+                    while (true) {
+                        long opStart;
+                        if (rate > 0) {
+                            opStart = startNanos + (long) (sequence.getAndIncrement() * intervalNanos);
+                            if (opStart - endNanos >= 0) break;
+                            long wait = opStart - System.nanoTime();
+                            if (wait > 0) TimeUnit.NANOSECONDS.sleep(wait);
+                            else if (System.nanoTime() - endNanos >= 0) break;
+                        } else {
+                            opStart = System.nanoTime();
+                            if (opStart - endNanos >= 0) break;
+                        }
+                        started.incrementAndGet();
+                        execute(operationMix.next(random), opStart, random, buffer);
+                    }
+                    return null;
+                }
+            }));
+        }
+        executor.shutdown();
+
+        // report each interval until the workers are done
+        long intervalMillis = TimeUnit.SECONDS.toMillis(reportInterval), lastReport = startNanos;
+        while (!executor.awaitTermination(Math.max(1, intervalMillis - TimeUnit.NANOSECONDS.toMillis(
+                System.nanoTime() - lastReport)), TimeUnit.MILLISECONDS)) {
+            long now = System.nanoTime();
+            if (now - lastReport >= TimeUnit.MILLISECONDS.toNanos(intervalMillis)) {
+                stats.printInterval(out, TimeUnit.NANOSECONDS.toMillis(now - startNanos),
+                        TimeUnit.NANOSECONDS.toMillis(now - lastReport));
+                lastReport = now;
+            }
+        }
+        long durationMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+        for (Future<?> future : futures) {
+            future.get(); // propagate unexpected failures
+        }
+
+        if (rate > 0) {
+            long scheduled = (long) Math.ceil(TimeUnit.SECONDS.toNanos(duration) / intervalNanos);
+            if (scheduled > started.get()) stats.recordLate(scheduled - started.get());
+        }
+
+        out.println();
+        stats.printSummary(out, durationMillis);
+        return stats;
+    }
+
+    /**
+     * Writes every key once so that reads do not miss
+     */
+    protected void prepopulate() throws InterruptedException, ExecutionException {
+        out.println(String.format("prepopulating %d keys...", keyDistribution.getKeyCount()));
+        long start = System.currentTimeMillis();
+        final AtomicLong nextKey = new AtomicLong();
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new DaemonThreadFactory("load-prepopulate"));
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (int i = 0; i < threads; i++) {
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    Random random = new Random();
+                    long key;
+                    while ((key = nextKey.getAndIncrement()) < keyDistribution.getKeyCount()) {
+                        put(keyName(key), sizeDistribution.next(random));
+                    }
+                    return null;
+                }
+            }));
+        }
+        executor.shutdown();
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        out.println(String.format("prepopulated in %.1fs", (System.currentTimeMillis() - start) / 1000D));
+    }
+
+    protected void execute(OpType opType, long opStart, Random random, byte[] buffer) {
+        String key = keyName(keyDistribution.next(random));
+        long bytes = 0;
+        boolean miss = false;
+        try {
+            switch (opType) {
+                case PUT:
+                    bytes = put(key, sizeDistribution.next(random));
+                    break;
+                case GET:
+                    InputStream in = client.readObjectStream(bucket, key, null);
+                    try {
+                        int read;
+                        while ((read = in.read(buffer)) != -1) bytes += read;
+                    } finally {
+                        in.close();
+                    }
+                    break;
+                case HEAD:
+                    client.getObjectMetadata(bucket, key);
+                    break;
+                case LIST:
+                    client.listObjects(new ListObjectsRequest(bucket).withPrefix(prefix).withMaxKeys(LIST_PAGE_SIZE));
+                    break;
+                case DELETE:
+                    client.deleteObject(bucket, key);
+                    break;
+            }
+        } catch (S3Exception e) {
+            if (e.getHttpCode() == 404) {
+                miss = true;
+            } else {
+                error(opType, e);
+                return;
+            }
+        } catch (Exception e) {
+            error(opType, e);
+            return;
+        }
+        stats.record(opType, TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - opStart), bytes, miss);
+    }
+
+    protected long put(String key, long size) {
+        client.putObject(new PutObjectRequest(bucket, key, new PatternInputStream(pattern, size))
+                .withObjectMetadata(new S3ObjectMetadata().withContentLength(size)));
+        return size;
+    }
+
+    protected String keyName(long key) {
+        return prefix + key;
+    }
+
+    private void error(OpType opType, Throwable t) {
+        stats.recordError(opType);
+        firstError.compareAndSet(null, t);
+    }
+
+    /**
+     * Returns the first error that occurred, if any
+     */
+    public Throwable getFirstError() {
+        return firstError.get();
+    }
+
+    public LoadStats getStats() {
+        return stats;
+    }
+
+    public S3Client getClient() {
+        return client;
+    }
+
+    public String getBucket() {
+        return bucket;
+    }
+
+    public String getPrefix() {
+        return prefix;
+    }
+
+    public void setPrefix(String prefix) {
+        this.prefix = prefix;
+    }
+
+    public OperationMix getOperationMix() {
+        return operationMix;
+    }
+
+    public void setOperationMix(OperationMix operationMix) {
+        this.operationMix = operationMix;
+    }
+
+    public SizeDistribution getSizeDistribution() {
+        return sizeDistribution;
+    }
+
+    public void setSizeDistribution(SizeDistribution sizeDistribution) {
+        this.sizeDistribution = sizeDistribution;
+    }
+
+    public KeyDistribution getKeyDistribution() {
+        return keyDistribution;
+    }
+
+    public void setKeyDistribution(KeyDistribution keyDistribution) {
+        this.keyDistribution = keyDistribution;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Sets the number of worker threads (the maximum number of outstanding operations)
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public int getDuration() {
+        return duration;
+    }
+
+    /**
+     * Sets the run duration in seconds
+     */
+    public void setDuration(int duration) {
+        this.duration = duration;
+    }
+
+    public double getRate() {
+        return rate;
+    }
+
+    /**
+     * Sets the target arrival rate (ops/s) for open-loop mode. 0 (the default) means closed-loop
+     */
+    public void setRate(double rate) {
+        this.rate = rate;
+    }
+
+    public int getReportInterval() {
+        return reportInterval;
+    }
+
+    /**
+     * Sets the interval (in seconds) at which progress lines are printed
+     */
+    public void setReportInterval(int reportInterval) {
+        this.reportInterval = reportInterval;
+    }
+
+    public boolean isPrepopulate() {
+        return prepopulate;
+    }
+
+    public void setPrepopulate(boolean prepopulate) {
+        this.prepopulate = prepopulate;
+    }
+
+    public PrintStream getOut() {
+        return out;
+    }
+
+    public void setOut(PrintStream out) {
+        this.out = out;
+    }
+
+    public LoadGenerator withPrefix(String prefix) {
+        setPrefix(prefix);
+        return this;
+    }
+
+    public LoadGenerator withOperationMix(OperationMix operationMix) {
+        setOperationMix(operationMix);
+        return this;
+    }
+
+    public LoadGenerator withSizeDistribution(SizeDistribution sizeDistribution) {
+        setSizeDistribution(sizeDistribution);
+        return this;
+    }
+
+    public LoadGenerator withKeyDistribution(KeyDistribution keyDistribution) {
+        setKeyDistribution(keyDistribution);
+        return this;
+    }
+
+    public LoadGenerator withThreads(int threads) {
+        setThreads(threads);
+        return this;
+    }
+
+    public LoadGenerator withDuration(int duration) {
+        setDuration(duration);
+        return this;
+    }
+
+    public LoadGenerator withRate(double rate) {
+        setRate(rate);
+        return this;
+    }
+
+    public LoadGenerator withReportInterval(int reportInterval) {
+        setReportInterval(reportInterval);
+        return this;
+    }
+
+    public LoadGenerator withPrepopulate(boolean prepopulate) {
+        setPrepopulate(prepopulate);
+        return this;
+    }
+
+    public LoadGenerator withOut(PrintStream out) {
+        setOut(out);
+        return this;
+    }
+
+    /**
+     * Streams <code>length</code> bytes by repeating a random pattern, so object content costs no allocation. The
+     * pattern is one byte longer than the read buffer, so consecutive reads are not identical.
+     */
+    private static class PatternInputStream extends InputStream {
+        private final byte[] pattern;
+        private final long length;
+        private long position;
+
+        PatternInputStream(byte[] pattern, long length) {
+            this.pattern = pattern;
+            this.length = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (position >= length) return -1;
+            return pattern[(int) (position++ % pattern.length)] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (position >= length) return -1;
+            int offset = (int) (position % pattern.length);
+            len = (int) Math.min(Math.min(len, length - position), pattern.length - offset);
+            System.arraycopy(pattern, offset, b, off, len);
+            position += len;
+            return len;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(length - position, Integer.MAX_VALUE);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.s3.load;
+
+import com.emc.object.util.LatencyHistogram;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latency (microseconds), throughput and error counts per operation type, both for the whole run and for the current
+ * reporting interval.
+ */
+public class LoadStats {
+    private final OpStats[] opStats = new OpStats[OpType.values().length];
+    private final LatencyHistogram intervalHistogram = new LatencyHistogram();
+    private final AtomicLong intervalBytes = new AtomicLong();
+    private final AtomicLong intervalErrors = new AtomicLong();
+    private final AtomicLong lateOps = new AtomicLong();
+
+    public LoadStats() {
+        for (int i = 0; i < opStats.length; i++) {
+            opStats[i] = new OpStats();
+        }
+    }
+
+    public void record(OpType opType, long latencyMicros, long bytes, boolean miss) {
+        OpStats stats = opStats[opType.ordinal()];
+        stats.histogram.record(latencyMicros);
+        stats.bytes.addAndGet(bytes);
+        if (miss) stats.misses.incrementAndGet();
+        intervalHistogram.record(latencyMicros);
+        intervalBytes.addAndGet(bytes);
+    }
+
+    public void recordError(OpType opType) {
+        opStats[opType.ordinal()].errors.incrementAndGet();
+        intervalErrors.incrementAndGet();
+    }
+
+    /**
+     * Counts open-loop operations that were scheduled but never started before the run ended
+     */
+    public void recordLate(long count) {
+        lateOps.addAndGet(count);
+    }
+
+    /**
+     * Prints a one-line summary of the interval since the last call and resets the interval
+     */
+    public void printInterval(PrintStream out, long elapsedMillis, long intervalMillis) {
+        double seconds = intervalMillis / 1000D;
+        out.println(String.format("[%6.1fs] %10.1f ops/s %9.2f MB/s %6d errors | p50 %8.2f  p99 %8.2f  p99.9 %8.2f  max %8.2f ms",
+                elapsedMillis / 1000D, intervalHistogram.getCount() / seconds,
+                intervalBytes.get() / seconds / (1024 * 1024), intervalErrors.get(),
+                intervalHistogram.getPercentile(50) / 1000D, intervalHistogram.getPercentile(99) / 1000D,
+                intervalHistogram.getPercentile(99.9) / 1000D, intervalHistogram.getMax() / 1000D));
+        intervalHistogram.reset();
+        intervalBytes.set(0);
+        intervalErrors.set(0);
+    }
+
+    public void printSummary(PrintStream out, long durationMillis) {
+        double seconds = durationMillis / 1000D;
+        out.println(String.format("%-7s %10s %10s %9s %7s %7s %9s %9s %9s %9s %9s %9s",
+                "op", "count", "ops/s", "MB/s", "errors", "misses",
+                "mean(ms)", "p50", "p90", "p99", "p99.9", "max"));
+        for (OpType opType : OpType.values()) {
+            OpStats stats = opStats[opType.ordinal()];
+            LatencyHistogram histogram = stats.histogram;
+            if (histogram.getCount() == 0 && stats.errors.get() == 0) continue;
+            out.println(String.format("%-7s %10d %10.1f %9.2f %7d %7d %9.2f %9.2f %9.2f %9.2f %9.2f %9.2f",
+                    opType, histogram.getCount(), histogram.getCount() / seconds,
+                    stats.bytes.get() / seconds / (1024 * 1024), stats.errors.get(), stats.misses.get(),
+                    histogram.getMean() / 1000, histogram.getPercentile(50) / 1000D,
+                    histogram.getPercentile(90) / 1000D, histogram.getPercentile(99) / 1000D,
+                    histogram.getPercentile(99.9) / 1000D, histogram.getMax() / 1000D));
+        }
+        if (lateOps.get() > 0)
+            out.println(String.format("** %d scheduled operations never started - the target rate was not sustained",
+                    lateOps.get()));
+    }
+
+    public long getCount(OpType opType) {
+        return opStats[opType.ordinal()].histogram.getCount();
+    }
+
+    public long getErrors(OpType opType) {
+        return opStats[opType.ordinal()].errors.get();
+    }
+
+    public long getLateOps() {
+        return lateOps.get();
+    }
+
+    private static class OpStats {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final AtomicLong bytes = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+        final AtomicLong misses = new AtomicLong();
+    }
+}
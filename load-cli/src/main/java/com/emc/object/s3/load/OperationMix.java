@@ -0,0 +1,86 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.s3.load;
+
+import java.util.Random;
+
+/**
+ * Weighted mix of operation types, parsed from a spec like <code>put=20,get=60,head=10,list=5,delete=5</code>.
+ * Weights are relative and do not need to add up to 100.
+ */
+public class OperationMix {
+    public static final String DEFAULT_SPEC = "put=20,get=60,head=10,list=5,delete=5";
+
+    public static OperationMix parse(String spec) {
+        int[] weights = new int[OpType.values().length];
+        for (String entry : spec.split(",")) {
+            String[] pair = entry.trim().split("=");
+            if (pair.length != 2) throw new IllegalArgumentException("invalid operation mix entry: " + entry);
+            int weight = Integer.parseInt(pair[1].trim());
+            if (weight < 0) throw new IllegalArgumentException("negative weight: " + entry);
+            weights[OpType.valueOf(pair[0].trim().toUpperCase()).ordinal()] = weight;
+        }
+        return new OperationMix(weights);
+    }
+
+    private final int[] weights;
+    private final int[] cumulative;
+
+    private OperationMix(int[] weights) {
+        this.weights = weights;
+        this.cumulative = new int[weights.length];
+        int total = 0;
+        for (int i = 0; i < weights.length; i++) {
+            total += weights[i];
+            cumulative[i] = total;
+        }
+        if (total == 0) throw new IllegalArgumentException("operation mix is empty");
+    }
+
+    public OpType next(Random random) {
+        int value = random.nextInt(cumulative[cumulative.length - 1]);
+        for (int i = 0; i < cumulative.length; i++) {
+            if (value < cumulative[i]) return OpType.values()[i];
+        }
+        throw new IllegalStateException("unreachable");
+    }
+
+    public int getWeight(OpType opType) {
+        return weights[opType.ordinal()];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder spec = new StringBuilder();
+        for (OpType opType : OpType.values()) {
+            if (weights[opType.ordinal()] == 0) continue;
+            if (spec.length() > 0) spec.append(',');
+            spec.append(opType.name().toLowerCase()).append('=').append(weights[opType.ordinal()]);
+        }
+        return spec.toString();
+    }
+}
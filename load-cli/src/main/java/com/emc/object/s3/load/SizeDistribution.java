@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.s3.load;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Object size distribution, parsed from one of the following specs (sizes may use k, m or g suffixes, base 1024):
+ * <ul>
+ * <li><code>4k</code> - a fixed size</li>
+ * <li><code>1k-64k</code> - uniformly distributed between two sizes (inclusive)</li>
+ * <li><code>4k:80,1m:15,16m:5</code> - weighted mix of sizes (each size may also be a range)</li>
+ * </ul>
+ */
+public class SizeDistribution {
+    public static final String DEFAULT_SPEC = "4k";
+
+    public static SizeDistribution parse(String spec) {
+        List<long[]> ranges = new ArrayList<long[]>();
+        List<Integer> weights = new ArrayList<Integer>();
+        for (String entry : spec.split(",")) {
+            String[] pair = entry.trim().split(":");
+            String[] bounds = pair[0].split("-");
+            long min = parseSize(bounds[0]), max = bounds.length > 1 ? parseSize(bounds[1]) : min;
+            if (max < min) throw new IllegalArgumentException("invalid size range: " + pair[0]);
+            ranges.add(new long[]{min, max});
+            weights.add(pair.length > 1 ? Integer.parseInt(pair[1].trim()) : 1);
+        }
+        return new SizeDistribution(spec, ranges, weights);
+    }
+
+    public static long parseSize(String size) {
+        size = size.trim().toLowerCase();
+        long multiplier = 1;
+        if (size.endsWith("k")) multiplier = 1024;
+        else if (size.endsWith("m")) multiplier = 1024 * 1024;
+        else if (size.endsWith("g")) multiplier = 1024 * 1024 * 1024;
+        if (multiplier > 1) size = size.substring(0, size.length() - 1);
+        return Long.parseLong(size) * multiplier;
+    }
+
+    private final String spec;
+    private final List<long[]> ranges;
+    private final int[] cumulative;
+    private final long maxSize;
+
+    private SizeDistribution(String spec, List<long[]> ranges, List<Integer> weights) {
+        this.spec = spec;
+        this.ranges = ranges;
+        this.cumulative = new int[weights.size()];
+        int total = 0;
+        long max = 0;
+        for (int i = 0; i < weights.size(); i++) {
+            total += weights.get(i);
+            cumulative[i] = total;
+            max = Math.max(max, ranges.get(i)[1]);
+        }
+        if (total <= 0) throw new IllegalArgumentException("size distribution is empty");
+        this.maxSize = max;
+    }
+
+    public long next(Random random) {
+        int value = random.nextInt(cumulative[cumulative.length - 1]);
+        int i = 0;
+        while (value >= cumulative[i]) i++;
+        long[] range = ranges.get(i);
+        if (range[0] == range[1]) return range[0];
+        return range[0] + (long) (random.nextDouble() * (range[1] - range[0] + 1));
+    }
+
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    @Override
+    public String toString() {
+        return spec;
+    }
+}
@@ -26,6 +26,8 @@
  */
 package com.emc.object;
 
+import com.emc.object.util.ReplayableEntity;
+import com.emc.object.util.RequestTimings;
 import com.emc.object.util.RestUtil;
 import com.emc.rest.smart.SizeOverrideWriter;
 import com.sun.jersey.api.client.Client;
@@ -74,6 +76,11 @@ public abstract class AbstractJerseyClient {
                         log.debug("enabling content-length override ({})", entityRequest.getContentLength().toString());
                         SizeOverrideWriter.setEntitySize(entityRequest.getContentLength());
 
+                        // a replayable entity may know its own length
+                    } else if (entity instanceof ReplayableEntity && ((ReplayableEntity) entity).getLength() >= 0) {
+                        log.debug("enabling content-length override from entity ({})", ((ReplayableEntity) entity).getLength());
+                        SizeOverrideWriter.setEntitySize(((ReplayableEntity) entity).getLength());
+
                         // otherwise chunked encoding will be used. if the request does not support it, try to ensure
                         // that the entity is buffered (will set content length from buffered write)
                     } else if (!entityRequest.isChunkable()) {
@@ -120,8 +127,10 @@ public abstract class AbstractJerseyClient {
     }
 
     protected void fillResponseEntity(Object responseEntity, ClientResponse response) {
-        if (responseEntity instanceof ObjectResponse)
+        if (responseEntity instanceof ObjectResponse) {
             ((ObjectResponse) responseEntity).setHeaders(response.getHeaders());
+            ((ObjectResponse) responseEntity).setTimings((RequestTimings) response.getProperties().get(RestUtil.PROPERTY_REQUEST_TIMINGS));
+        }
     }
 
     protected WebResource.Builder buildRequest(Client client, ObjectRequest request) {
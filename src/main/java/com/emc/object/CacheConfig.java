@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object;
+
+import java.io.File;
+
+/**
+ * Configures the caches used by {@link com.emc.object.s3.jersey.S3CachingClient}. The cache has an off-heap memory
+ * tier and an optional local-disk tier (enabled by setting <code>diskCacheDir</code>); entries evicted from memory are
+ * demoted to disk. Entries younger than <code>ttlSeconds</code> are served without contacting the server; older
+ * entries are revalidated with a conditional GET (<code>If-None-Match</code>), and entries older than
+ * <code>maxAgeSeconds</code> are discarded.
+ * <p>
+ * Object metadata (HEAD responses) is cached separately, bounded by entry count and expiring after
+ * <code>metadataTtlSeconds</code>. Recent 404s are remembered for <code>negativeTtlSeconds</code>.
+ */
+public class CacheConfig {
+    public static final long DEFAULT_MEMORY_CACHE_SIZE = 64 * 1024 * 1024; // 64MB
+    public static final long DEFAULT_DISK_CACHE_SIZE = 1024 * 1024 * 1024; // 1GB
+    public static final int DEFAULT_MAX_OBJECT_SIZE = 1024 * 1024; // 1MB
+    public static final int DEFAULT_TTL_SECONDS = 30;
+    public static final int DEFAULT_MAX_AGE_SECONDS = 60 * 60; // 1 hour
+    public static final int DEFAULT_METADATA_CACHE_SIZE = 10000;
+    public static final int DEFAULT_METADATA_TTL_SECONDS = 30;
+    public static final int DEFAULT_NEGATIVE_CACHE_SIZE = 10000;
+    public static final int DEFAULT_NEGATIVE_TTL_SECONDS = 5;
+
+    // NOTE: if you add a property, make sure you add it to the cloning constructor!
+    private long memoryCacheSize = DEFAULT_MEMORY_CACHE_SIZE;
+    private File diskCacheDir;
+    private long diskCacheSize = DEFAULT_DISK_CACHE_SIZE;
+    private int maxObjectSize = DEFAULT_MAX_OBJECT_SIZE;
+    private int ttlSeconds = DEFAULT_TTL_SECONDS;
+    private int maxAgeSeconds = DEFAULT_MAX_AGE_SECONDS;
+    private int metadataCacheSize = DEFAULT_METADATA_CACHE_SIZE;
+    private int metadataTtlSeconds = DEFAULT_METADATA_TTL_SECONDS;
+    private int negativeCacheSize = DEFAULT_NEGATIVE_CACHE_SIZE;
+    private int negativeTtlSeconds = DEFAULT_NEGATIVE_TTL_SECONDS;
+
+    public CacheConfig() {
+    }
+
+    /**
+     * Cloning constructor.
+     */
+    public CacheConfig(CacheConfig other) {
+        this.memoryCacheSize = other.memoryCacheSize;
+        this.diskCacheDir = other.diskCacheDir;
+        this.diskCacheSize = other.diskCacheSize;
+        this.maxObjectSize = other.maxObjectSize;
+        this.ttlSeconds = other.ttlSeconds;
+        this.maxAgeSeconds = other.maxAgeSeconds;
+        this.metadataCacheSize = other.metadataCacheSize;
+        this.metadataTtlSeconds = other.metadataTtlSeconds;
+        this.negativeCacheSize = other.negativeCacheSize;
+        this.negativeTtlSeconds = other.negativeTtlSeconds;
+    }
+
+    public long getMemoryCacheSize() {
+        return memoryCacheSize;
+    }
+
+    /**
+     * Total bytes held in the off-heap memory tier (allocated in 4KB blocks, which are reused). Default is 64MB
+     */
+    public void setMemoryCacheSize(long memoryCacheSize) {
+        this.memoryCacheSize = memoryCacheSize;
+    }
+
+    public File getDiskCacheDir() {
+        return diskCacheDir;
+    }
+
+    /**
+     * Directory for the disk tier (cache files left in it are cleared when the cache is created). Default is null (no disk tier)
+     */
+    public void setDiskCacheDir(File diskCacheDir) {
+        this.diskCacheDir = diskCacheDir;
+    }
+
+    public long getDiskCacheSize() {
+        return diskCacheSize;
+    }
+
+    /**
+     * Total bytes held in the disk tier. Default is 1GB
+     */
+    public void setDiskCacheSize(long diskCacheSize) {
+        this.diskCacheSize = diskCacheSize;
+    }
+
+    public int getMaxObjectSize() {
+        return maxObjectSize;
+    }
+
+    /**
+     * Objects larger than this are never cached. Default is 1MB
+     */
+    public void setMaxObjectSize(int maxObjectSize) {
+        this.maxObjectSize = maxObjectSize;
+    }
+
+    public int getTtlSeconds() {
+        return ttlSeconds;
+    }
+
+    /**
+     * How long an entry is served without revalidation. Default is 30 seconds
+     */
+    public void setTtlSeconds(int ttlSeconds) {
+        this.ttlSeconds = ttlSeconds;
+    }
+
+    public int getMaxAgeSeconds() {
+        return maxAgeSeconds;
+    }
+
+    /**
+     * Entries older than this are discarded instead of revalidated. Default is 1 hour
+     */
+    public void setMaxAgeSeconds(int maxAgeSeconds) {
+        this.maxAgeSeconds = maxAgeSeconds;
+    }
+
+    public int getMetadataCacheSize() {
+        return metadataCacheSize;
+    }
+
+    /**
+     * Maximum number of entries in the object metadata (HEAD) cache. Set to 0 to disable it. Default is 10000
+     */
+    public void setMetadataCacheSize(int metadataCacheSize) {
+        this.metadataCacheSize = metadataCacheSize;
+    }
+
+    public int getMetadataTtlSeconds() {
+        return metadataTtlSeconds;
+    }
+
+    /**
+     * How long cached object metadata is served before it is fetched again. Default is 30 seconds
+     */
+    public void setMetadataTtlSeconds(int metadataTtlSeconds) {
+        this.metadataTtlSeconds = metadataTtlSeconds;
+    }
+
+    public int getNegativeCacheSize() {
+        return negativeCacheSize;
+    }
+
+    /**
+     * Maximum number of recent 404s remembered. Set to 0 to disable the negative cache. Default is 10000
+     */
+    public void setNegativeCacheSize(int negativeCacheSize) {
+        this.negativeCacheSize = negativeCacheSize;
+    }
+
+    public int getNegativeTtlSeconds() {
+        return negativeTtlSeconds;
+    }
+
+    /**
+     * How long a 404 is remembered. Default is 5 seconds
+     */
+    public void setNegativeTtlSeconds(int negativeTtlSeconds) {
+        this.negativeTtlSeconds = negativeTtlSeconds;
+    }
+
+    public CacheConfig withMemoryCacheSize(long memoryCacheSize) {
+        setMemoryCacheSize(memoryCacheSize);
+        return this;
+    }
+
+    public CacheConfig withDiskCacheDir(File diskCacheDir) {
+        setDiskCacheDir(diskCacheDir);
+        return this;
+    }
+
+    public CacheConfig withDiskCacheSize(long diskCacheSize) {
+        setDiskCacheSize(diskCacheSize);
+        return this;
+    }
+
+    public CacheConfig withMaxObjectSize(int maxObjectSize) {
+        setMaxObjectSize(maxObjectSize);
+        return this;
+    }
+
+    public CacheConfig withTtlSeconds(int ttlSeconds) {
+        setTtlSeconds(ttlSeconds);
+        return this;
+    }
+
+    public CacheConfig withMaxAgeSeconds(int maxAgeSeconds) {
+        setMaxAgeSeconds(maxAgeSeconds);
+        return this;
+    }
+
+    public CacheConfig withMetadataCacheSize(int metadataCacheSize) {
+        setMetadataCacheSize(metadataCacheSize);
+        return this;
+    }
+
+    public CacheConfig withMetadataTtlSeconds(int metadataTtlSeconds) {
+        setMetadataTtlSeconds(metadataTtlSeconds);
+        return this;
+    }
+
+    public CacheConfig withNegativeCacheSize(int negativeCacheSize) {
+        setNegativeCacheSize(negativeCacheSize);
+        return this;
+    }
+
+    public CacheConfig withNegativeTtlSeconds(int negativeTtlSeconds) {
+        setNegativeTtlSeconds(negativeTtlSeconds);
+        return this;
+    }
+}
@@ -28,6 +28,7 @@ package com.emc.object;
 
 import com.emc.object.util.ConfigUri;
 import com.emc.object.util.ConfigUriProperty;
+import com.emc.object.util.LatencyAwareLoadBalancer;
 import com.emc.object.util.RestUtil;
 import com.emc.rest.smart.Host;
 import com.emc.rest.smart.SmartConfig;
@@ -57,6 +58,7 @@ public abstract class ObjectConfig<T extends ObjectConfig<T>> {
             (PACKAGE_VERSION != null ? " v" + PACKAGE_VERSION : ""), System.getProperty("java.version"),
             System.getProperty("os.name"), System.getProperty("os.version"), System.getProperty("os.arch"));
     public static final int DEFAULT_CHUNKED_ENCODING_SIZE = 2 * 1024 * 1024; // 2MB to match ECS buffer size
+    public static final int DEFAULT_HOST_PROBE_INTERVAL = 10; // seconds
 
     // NOTE: if you add a property, make sure you add it to the cloning constructor!
     private Protocol protocol;
@@ -72,6 +74,8 @@ public abstract class ObjectConfig<T extends ObjectConfig<T>> {
     private boolean geoPinningEnabled = false;
     private boolean geoReadRetryFailover = false;
     private int chunkedEncodingSize = DEFAULT_CHUNKED_ENCODING_SIZE;
+    private boolean latencyAwareLoadBalancing = false;
+    private int hostProbeInterval = DEFAULT_HOST_PROBE_INTERVAL;
 
     private Map<String, Object> properties = new HashMap<String, Object>();
 
@@ -127,6 +131,8 @@ public abstract class ObjectConfig<T extends ObjectConfig<T>> {
         this.geoPinningEnabled = other.geoPinningEnabled;
         this.geoReadRetryFailover = other.geoReadRetryFailover;
         this.chunkedEncodingSize = other.chunkedEncodingSize;
+        this.latencyAwareLoadBalancing = other.latencyAwareLoadBalancing;
+        this.hostProbeInterval = other.hostProbeInterval;
         this.properties = new HashMap<String, Object>(other.properties);
     }
 
@@ -171,7 +177,8 @@ public abstract class ObjectConfig<T extends ObjectConfig<T>> {
             allHosts.addAll(vdc.getHosts());
         }
 
-        SmartConfig smartConfig = new SmartConfig(allHosts);
+        SmartConfig smartConfig = latencyAwareLoadBalancing
+                ? new SmartConfig(new LatencyAwareLoadBalancer(allHosts)) : new SmartConfig(allHosts);
 
         if (!smartClient || Boolean.parseBoolean(propAsString(properties, PROPERTY_DISABLE_HEALTH_CHECK)))
             smartConfig.setHealthCheckEnabled(false);
@@ -409,6 +416,33 @@ public abstract class ObjectConfig<T extends ObjectConfig<T>> {
         this.chunkedEncodingSize = chunkedEncodingSize;
     }
 
+    @ConfigUriProperty
+    public boolean isLatencyAwareLoadBalancing() {
+        return latencyAwareLoadBalancing;
+    }
+
+    /**
+     * Set to true to have the smart client prefer the fastest, least-loaded hosts. Response times are tracked per host
+     * and each request goes to the better of two randomly chosen hosts (see {@link LatencyAwareLoadBalancer}).
+     * Only applicable when the smart client is enabled. Disabled by default
+     */
+    public void setLatencyAwareLoadBalancing(boolean latencyAwareLoadBalancing) {
+        this.latencyAwareLoadBalancing = latencyAwareLoadBalancing;
+    }
+
+    @ConfigUriProperty
+    public int getHostProbeInterval() {
+        return hostProbeInterval;
+    }
+
+    /**
+     * When latency-aware load balancing is enabled, hosts that have not received a request within this many seconds
+     * are pinged to keep their response times current. Set to 0 to disable probes. Default is 10 seconds
+     */
+    public void setHostProbeInterval(int hostProbeInterval) {
+        this.hostProbeInterval = hostProbeInterval;
+    }
+
     @ConfigUriProperty(converter = ConfigUri.StringPropertyConverter.class)
     public Map<String, Object> getProperties() {
         return properties;
@@ -494,6 +528,18 @@ public abstract class ObjectConfig<T extends ObjectConfig<T>> {
         return (T) this;
     }
 
+    @SuppressWarnings("unchecked")
+    public T withLatencyAwareLoadBalancing(boolean latencyAwareLoadBalancing) {
+        setLatencyAwareLoadBalancing(latencyAwareLoadBalancing);
+        return (T) this;
+    }
+
+    @SuppressWarnings("unchecked")
+    public T withHostProbeInterval(int hostProbeInterval) {
+        setHostProbeInterval(hostProbeInterval);
+        return (T) this;
+    }
+
     @SuppressWarnings("unchecked")
     public T withProperty(String propName, Object value) {
         setProperty(propName, value);
@@ -515,6 +561,8 @@ public abstract class ObjectConfig<T extends ObjectConfig<T>> {
                 ", userAgent='" + userAgent + '\'' +
                 ", geoPinningEnabled=" + geoPinningEnabled +
                 ", geoReadRetryFailover=" + geoReadRetryFailover +
+                ", latencyAwareLoadBalancing=" + latencyAwareLoadBalancing +
+                ", hostProbeInterval=" + hostProbeInterval +
                 ", properties=" + properties +
                 '}';
     }
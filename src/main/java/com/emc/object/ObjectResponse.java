@@ -26,12 +26,15 @@
  */
 package com.emc.object;
 
+import com.emc.object.util.RequestTimings;
+
 import javax.xml.bind.annotation.XmlTransient;
 import java.util.List;
 import java.util.Map;
 
 public abstract class ObjectResponse {
     private Map<String, List<String>> headers;
+    private RequestTimings timings;
 
     public String firstHeader(String name) {
         if (headers == null) return null;
@@ -48,4 +51,16 @@ public abstract class ObjectResponse {
     public void setHeaders(Map<String, List<String>> headers) {
         this.headers = headers;
     }
+
+    /**
+     * Returns the phase timings of the request that produced this response, or null if request timing is disabled
+     */
+    @XmlTransient
+    public RequestTimings getTimings() {
+        return timings;
+    }
+
+    public void setTimings(RequestTimings timings) {
+        this.timings = timings;
+    }
 }
@@ -0,0 +1,277 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.s3;
+
+import com.emc.object.util.DaemonThreadFactory;
+import com.emc.object.util.SettableFuture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Uses ECS appends ({@link S3Client#appendObject(String, String, Object)}) to treat an object as a shared log.
+ * Records appended from any number of threads are group-committed: they are collected into a batch until the batch
+ * reaches <code>maxBatchSize</code> bytes or the first record in it has waited <code>lingerMs</code>, and each batch
+ * is sent as a single append. Up to <code>maxInFlight</code> appends are pipelined; once that many are outstanding,
+ * callers of {@link #append(byte[])} block until one completes (backpressure).
+ * <p>
+ * Each call to {@link #append(byte[])} returns a future for the offset at which that record was written. Records in
+ * the same batch are contiguous and in call order. Batches are ordered by completion, so if strict ordering across
+ * batches is required, set <code>maxInFlight</code> to 1. Records are written as-is; any framing (i.e. newlines or
+ * length prefixes) is up to the caller.
+ * <pre>
+ *     AppendingLogWriter log = new AppendingLogWriter(s3Client, "my-bucket", "audit.log");
+ *     Future&lt;Long&gt; offset = log.append(event.getBytes("UTF-8"));
+ *     ...
+ *     log.close(); // flushes any pending records
+ * </pre>
+ */
+public class AppendingLogWriter implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(AppendingLogWriter.class);
+
+    public static final int DEFAULT_MAX_BATCH_SIZE = 1024 * 1024; // 1MB
+    public static final int DEFAULT_LINGER_MS = 5;
+    public static final int DEFAULT_MAX_IN_FLIGHT = 4;
+
+    private S3Client s3Client;
+    private String bucket;
+    private String key;
+    private int maxBatchSize;
+    private int lingerMs;
+    private int maxInFlight;
+
+    private final Object lock = new Object();
+    private Batch currentBatch;
+    private int pendingBatches;
+    private boolean closed;
+
+    private Semaphore inFlight;
+    private ExecutorService appendExecutor;
+    private ScheduledExecutorService lingerScheduler;
+
+    public AppendingLogWriter(S3Client s3Client, String bucket, String key) {
+        this(s3Client, bucket, key, DEFAULT_MAX_BATCH_SIZE, DEFAULT_LINGER_MS, DEFAULT_MAX_IN_FLIGHT);
+    }
+
+    /**
+     * @param maxBatchSize a batch is sent as soon as it holds at least this many bytes
+     * @param lingerMs     the longest a record will wait for other records to join its batch
+     * @param maxInFlight  the maximum number of outstanding appends
+     */
+    public AppendingLogWriter(S3Client s3Client, String bucket, String key,
+                              int maxBatchSize, int lingerMs, int maxInFlight) {
+        if (maxBatchSize <= 0) throw new IllegalArgumentException("maxBatchSize must be positive");
+        if (lingerMs < 0) throw new IllegalArgumentException("lingerMs cannot be negative");
+        if (maxInFlight <= 0) throw new IllegalArgumentException("maxInFlight must be positive");
+        this.s3Client = s3Client;
+        this.bucket = bucket;
+        this.key = key;
+        this.maxBatchSize = maxBatchSize;
+        this.lingerMs = lingerMs;
+        this.maxInFlight = maxInFlight;
+        this.inFlight = new Semaphore(maxInFlight);
+        this.appendExecutor = Executors.newFixedThreadPool(maxInFlight, new DaemonThreadFactory("append-writer"));
+        this.lingerScheduler = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("append-linger"));
+    }
+
+    /**
+     * Queues <code>record</code> to be appended. The returned future completes with the offset of the first byte of
+     * the record in the object, or fails with the error of the append that carried it.
+     */
+    public Future<Long> append(byte[] record) {
+        Batch toSend = null;
+        SettableFuture<Long> future;
+        synchronized (lock) {
+            if (closed) throw new IllegalStateException("writer is closed");
+            if (currentBatch == null) {
+                final Batch batch = currentBatch = new Batch();
+                pendingBatches++;
+                if (lingerMs > 0) {
+                    lingerScheduler.schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            sealIfCurrent(batch);
+                        }
+                    }, lingerMs, TimeUnit.MILLISECONDS);
+                }
+            }
+            future = currentBatch.add(record);
+            if (lingerMs == 0 || currentBatch.size() >= maxBatchSize) {
+                toSend = currentBatch;
+                currentBatch = null;
+            }
+        }
+        if (toSend != null) dispatch(toSend);
+        return future;
+    }
+
+    /**
+     * Sends any partial batch and blocks until all outstanding appends have completed.
+     */
+    public void flush() throws InterruptedException {
+        Batch toSend;
+        synchronized (lock) {
+            toSend = currentBatch;
+            currentBatch = null;
+        }
+        if (toSend != null) dispatch(toSend);
+        synchronized (lock) {
+            while (pendingBatches > 0) lock.wait();
+        }
+    }
+
+    /**
+     * Flushes all pending records and releases the writer's threads. Further appends will fail.
+     */
+    @Override
+    public void close() {
+        synchronized (lock) {
+            if (closed) return;
+            closed = true;
+        }
+        try {
+            flush();
+        } catch (InterruptedException e) {
+            log.warn("interrupted while flushing on close; pending records may be lost");
+            Thread.currentThread().interrupt();
+        } finally {
+            lingerScheduler.shutdownNow();
+            appendExecutor.shutdown();
+        }
+    }
+
+    public String getBucket() {
+        return bucket;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    public int getLingerMs() {
+        return lingerMs;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    private void sealIfCurrent(Batch batch) {
+        synchronized (lock) {
+            if (currentBatch != batch) return; // already sent
+            currentBatch = null;
+        }
+        dispatch(batch);
+    }
+
+    private void dispatch(Batch batch) {
+        inFlight.acquireUninterruptibly(); // bounds the number of outstanding appends
+        try {
+            appendExecutor.execute(new AppendTask(batch));
+        } catch (RuntimeException e) {
+            inFlight.release();
+            batch.fail(e);
+            batchComplete();
+            throw e;
+        }
+    }
+
+    private void batchComplete() {
+        synchronized (lock) {
+            pendingBatches--;
+            lock.notifyAll();
+        }
+    }
+
+    protected class AppendTask implements Runnable {
+        private Batch batch;
+
+        public AppendTask(Batch batch) {
+            this.batch = batch;
+        }
+
+        @Override
+        public void run() {
+            try {
+                long offset = s3Client.appendObject(bucket, key, batch.toByteArray());
+                log.debug("appended {} records ({} bytes) at offset {}",
+                        new Object[]{batch.records.size(), batch.size(), offset});
+                batch.complete(offset);
+            } catch (Throwable t) {
+                log.warn("append of {} records failed: {}", batch.records.size(), t.toString());
+                batch.fail(t);
+            } finally {
+                inFlight.release();
+                batchComplete();
+            }
+        }
+    }
+
+    private static class Batch {
+        private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        private List<SettableFuture<Long>> records = new ArrayList<SettableFuture<Long>>();
+        private List<Integer> positions = new ArrayList<Integer>();
+
+        SettableFuture<Long> add(byte[] record) {
+            SettableFuture<Long> future = new SettableFuture<Long>();
+            positions.add(buffer.size());
+            records.add(future);
+            buffer.write(record, 0, record.length);
+            return future;
+        }
+
+        int size() {
+            return buffer.size();
+        }
+
+        byte[] toByteArray() {
+            return buffer.toByteArray();
+        }
+
+        void complete(long offset) {
+            for (int i = 0; i < records.size(); i++) {
+                records.get(i).set(offset + positions.get(i));
+            }
+        }
+
+        void fail(Throwable t) {
+            for (SettableFuture<Long> future : records) {
+                future.setException(t);
+            }
+        }
+    }
+}
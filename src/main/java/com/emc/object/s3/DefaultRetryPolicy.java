@@ -0,0 +1,265 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.s3;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.UnknownHostException;
+import java.util.Random;
+
+/**
+ * The default retry policy. Retries up to {@link S3Config#getRetryLimit()} times with exponential backoff starting at
+ * {@link S3Config#getInitialRetryDelay()}, capped at the max retry delay.
+ * <p>
+ * Which failures are retried:
+ * <ul>
+ * <li>throttling responses (503, 429 or a SlowDown error) and connection failures (where the request was never sent)
+ * are always retried</li>
+ * <li>other 50x responses (except 501) and IO errors are retried for all methods, as in previous versions. The only
+ * POST requests this client sends (initiate and complete multipart upload, and multi-object delete) are safe to send
+ * again: a repeated initiate leaves an unused upload (cleaned up by an abort or lifecycle policy) and a repeated
+ * delete has the same result. A repeated complete can fail with NoSuchUpload if the first attempt succeeded. To only
+ * retry POST requests that were throttled or never sent, see {@link #setRetryPost(boolean)}</li>
+ * </ul>
+ * If the server sends a Retry-After header, the retry waits at least that long (if that is longer than the max retry
+ * delay, the request is not retried).
+ * <p>
+ * Jitter can be added to the backoff so that many clients that failed at the same time do not retry in lockstep:
+ * <ul>
+ * <li>FULL - a random delay between 0 and the exponential backoff</li>
+ * <li>DECORRELATED - a random delay between the initial delay and 3 times the previous delay</li>
+ * </ul>
+ * A retry budget can also be set, which limits retries when many requests are failing. The budget is a bucket of
+ * tokens: each retryable failure takes one token, each success adds back a fraction of a token, and retries are only allowed
+ * while the bucket is more than half full. So during an outage, retries stop instead of multiplying the load on the
+ * remaining nodes.
+ * <p>
+ * By default there is no jitter and no retry budget (the same behavior as previous versions).
+ */
+public class DefaultRetryPolicy implements RetryPolicy {
+
+    private static final Logger log = LoggerFactory.getLogger(DefaultRetryPolicy.class);
+
+    public static final int DEFAULT_MAX_RETRY_DELAY = 20000; // ms
+    public static final float DEFAULT_BUDGET_REFILL = 0.1f;
+
+    public enum Jitter {
+        NONE, FULL, DECORRELATED
+    }
+
+    private Jitter jitter = Jitter.NONE;
+    private int maxRetryDelay = DEFAULT_MAX_RETRY_DELAY;
+    private float retryBudget = 0;
+    private float budgetRefill = DEFAULT_BUDGET_REFILL;
+    private boolean retryPost = true;
+
+    private float retryTokens;
+    private final Random random = new Random();
+
+    @Override
+    public long getRetryDelay(S3Config s3Config, String method, Throwable error, int retryCount, long lastDelay) {
+        if (!isRetryable(method, error)) return NO_RETRY;
+
+        // only retry retryLimit times
+        if (retryCount >= s3Config.getRetryLimit()) return NO_RETRY;
+
+        if (!takeRetryToken()) {
+            log.info("retry budget exhausted; not retrying [{}]", error.toString());
+            return NO_RETRY;
+        }
+
+        long delay = getBackoff(s3Config.getInitialRetryDelay(), retryCount, lastDelay);
+
+        if (error instanceof S3Exception && ((S3Exception) error).getRetryAfter() >= 0) {
+            long retryAfter = ((S3Exception) error).getRetryAfter();
+            if (retryAfter > maxRetryDelay) {
+                log.info("server requested a retry delay of {}ms, which exceeds the max retry delay; not retrying", retryAfter);
+                return NO_RETRY;
+            }
+            delay = Math.max(delay, retryAfter);
+        }
+
+        return delay;
+    }
+
+    @Override
+    public void onSuccess() {
+        if (retryBudget > 0) {
+            synchronized (this) {
+                retryTokens = Math.min(retryBudget, retryTokens + budgetRefill);
+            }
+        }
+    }
+
+    /**
+     * Override to change which failures are retried
+     */
+    protected boolean isRetryable(String method, Throwable error) {
+        boolean idempotent = retryPost || !"POST".equalsIgnoreCase(method);
+
+        if (error instanceof S3Exception) {
+            S3Exception se = (S3Exception) error;
+            if (isThrottled(se)) return true;
+
+            // retry all other 50x errors except 501 (not implemented)
+            return idempotent && se.getHttpCode() >= 500 && se.getHttpCode() != 501;
+        }
+
+        // the request was never sent
+        if (error instanceof ConnectException || error instanceof UnknownHostException) return true;
+
+        return idempotent && error instanceof IOException;
+    }
+
+    protected boolean isThrottled(S3Exception se) {
+        return se.getHttpCode() == 503 || se.getHttpCode() == 429
+                || S3Constants.ERROR_SLOW_DOWN.equals(se.getErrorCode());
+    }
+
+    protected long getBackoff(int initialDelay, int retryCount, long lastDelay) {
+        if (initialDelay <= 0) return 0;
+
+        long backoff = Math.min(maxRetryDelay, initialDelay * (long) Math.pow(2, Math.min(retryCount, 30)));
+        switch (jitter) {
+            case FULL:
+                return (long) (random() * (backoff + 1));
+            case DECORRELATED:
+                long upper = Math.max(initialDelay, lastDelay * 3);
+                return Math.min(maxRetryDelay, initialDelay + (long) (random() * (upper - initialDelay + 1)));
+            default:
+                return backoff;
+        }
+    }
+
+    private double random() {
+        synchronized (random) {
+            return random.nextDouble();
+        }
+    }
+
+    private synchronized boolean takeRetryToken() {
+        if (retryBudget <= 0) return true;
+        boolean allowed = retryTokens > retryBudget / 2;
+        retryTokens = Math.max(0, retryTokens - 1);
+        return allowed;
+    }
+
+    public Jitter getJitter() {
+        return jitter;
+    }
+
+    /**
+     * The type of random jitter to add to the retry delay. Default is NONE
+     */
+    public void setJitter(Jitter jitter) {
+        this.jitter = jitter;
+    }
+
+    public int getMaxRetryDelay() {
+        return maxRetryDelay;
+    }
+
+    /**
+     * The maximum delay (in milliseconds) before a retry. Default is 20 seconds
+     */
+    public void setMaxRetryDelay(int maxRetryDelay) {
+        this.maxRetryDelay = maxRetryDelay;
+    }
+
+    public float getRetryBudget() {
+        return retryBudget;
+    }
+
+    /**
+     * The size of the retry token bucket (i.e. 10). Retries are allowed while more than half of the tokens remain.
+     * Default is 0 (no retry budget)
+     */
+    public synchronized void setRetryBudget(float retryBudget) {
+        this.retryBudget = retryBudget;
+        this.retryTokens = retryBudget;
+    }
+
+    public float getBudgetRefill() {
+        return budgetRefill;
+    }
+
+    /**
+     * The fraction of a token added to the retry budget for each successful request. Default is 0.1 (retries continue
+     * as long as roughly 1 in 10 requests fails or less)
+     */
+    public void setBudgetRefill(float budgetRefill) {
+        this.budgetRefill = budgetRefill;
+    }
+
+    public boolean isRetryPost() {
+        return retryPost;
+    }
+
+    /**
+     * Whether POST requests are retried after a 50x response or an IO error (when the server may have processed
+     * the request). If false, POST requests are only retried when throttled or when the connection failed. Default is
+     * true (the same behavior as previous versions)
+     */
+    public void setRetryPost(boolean retryPost) {
+        this.retryPost = retryPost;
+    }
+
+    /**
+     * Returns the number of tokens currently in the retry budget
+     */
+    public synchronized float getRetryTokens() {
+        return retryTokens;
+    }
+
+    public DefaultRetryPolicy withJitter(Jitter jitter) {
+        setJitter(jitter);
+        return this;
+    }
+
+    public DefaultRetryPolicy withMaxRetryDelay(int maxRetryDelay) {
+        setMaxRetryDelay(maxRetryDelay);
+        return this;
+    }
+
+    public DefaultRetryPolicy withRetryBudget(float retryBudget) {
+        setRetryBudget(retryBudget);
+        return this;
+    }
+
+    public DefaultRetryPolicy withBudgetRefill(float budgetRefill) {
+        setBudgetRefill(budgetRefill);
+        return this;
+    }
+
+    public DefaultRetryPolicy withRetryPost(boolean retryPost) {
+        setRetryPost(retryPost);
+        return this;
+    }
+}
@@ -28,6 +28,7 @@ package com.emc.object.s3;
 
 import com.emc.object.Range;
 import com.emc.object.s3.request.GetObjectRequest;
+import com.emc.object.util.ClientTracer;
 
 import java.io.File;
 import java.io.RandomAccessFile;
@@ -63,6 +64,7 @@ public class LargeFileDownloader implements Runnable {
     private long partSize = DEFAULT_PART_SIZE;
     private int threads = DEFAULT_THREADS;
     private ExecutorService executorService;
+    private ClientTracer clientTracer;
 
     /**
      * Creates a new LargeFileDownloader instance that will use <code>s3Client</code> to download
@@ -180,6 +182,17 @@ public class LargeFileDownloader implements Runnable {
         this.executorService = executorService;
     }
 
+    public ClientTracer getClientTracer() {
+        return clientTracer;
+    }
+
+    /**
+     * Sets a tracer to be notified when each part starts and completes (i.e. to emit profiling events)
+     */
+    public void setClientTracer(ClientTracer clientTracer) {
+        this.clientTracer = clientTracer;
+    }
+
     protected class DownloadPartTask implements Callable<Void> {
         private Range range;
         private FileChannel channel;
@@ -191,9 +204,26 @@ public class LargeFileDownloader implements Runnable {
 
         @Override
         public Void call() throws Exception {
+            if (clientTracer == null) {
+                downloadPart();
+                return null;
+            }
+            int partNumber = (int) (range.getFirst() / partSize) + 1;
+            long length = range.getLast() - range.getFirst() + 1;
+            Object traceContext = clientTracer.partStarted(false, bucket, key, partNumber, range.getFirst(), length);
+            try {
+                downloadPart();
+                clientTracer.partCompleted(traceContext, null);
+                return null;
+            } catch (Exception e) {
+                clientTracer.partCompleted(traceContext, e);
+                throw e;
+            }
+        }
+
+        private void downloadPart() throws Exception {
             byte[] data = s3Client.getObject(new GetObjectRequest(bucket, key).withRange(range), byte[].class).getObject();
             channel.write(ByteBuffer.wrap(data), range.getFirst());
-            return null;
         }
     }
 }
@@ -32,6 +32,7 @@ import com.emc.object.s3.bean.CannedAcl;
 import com.emc.object.s3.bean.CompleteMultipartUploadResult;
 import com.emc.object.s3.bean.MultipartPartETag;
 import com.emc.object.s3.request.*;
+import com.emc.object.util.ClientTracer;
 import com.emc.object.util.InputStreamSegment;
 import com.emc.object.util.ProgressInputStream;
 import com.emc.object.util.ProgressListener;
@@ -82,6 +83,7 @@ public class LargeFileUploader implements Runnable {
     private ExecutorService executorService;
     private AtomicLong bytesTransferred = new AtomicLong();
     private ProgressListener progressListener;
+    private ClientTracer clientTracer;
 
     private String eTag;
 
@@ -329,6 +331,17 @@ public class LargeFileUploader implements Runnable {
         this.progressListener = progressListener;
     }
 
+    public ClientTracer getClientTracer() {
+        return clientTracer;
+    }
+
+    /**
+     * Sets a tracer to be notified when each part starts and completes (i.e. to emit profiling events)
+     */
+    public void setClientTracer(ClientTracer clientTracer) {
+        this.clientTracer = clientTracer;
+    }
+
     public long getPartSize() {
         return partSize;
     }
@@ -414,6 +427,11 @@ public class LargeFileUploader implements Runnable {
         return this;
     }
 
+    public LargeFileUploader withClientTracer(ClientTracer clientTracer) {
+        setClientTracer(clientTracer);
+        return this;
+    }
+
     private class UploadPartTask implements Callable<MultipartPartETag> {
         private String uploadId;
         private int partNumber;
@@ -429,6 +447,19 @@ public class LargeFileUploader implements Runnable {
 
         @Override
         public MultipartPartETag call() throws Exception {
+            if (clientTracer == null) return uploadPart();
+            Object traceContext = clientTracer.partStarted(true, bucket, key, partNumber, offset, length);
+            try {
+                MultipartPartETag etag = uploadPart();
+                clientTracer.partCompleted(traceContext, null);
+                return etag;
+            } catch (Exception e) {
+                clientTracer.partCompleted(traceContext, e);
+                throw e;
+            }
+        }
+
+        private MultipartPartETag uploadPart() throws Exception {
             SizedInputStream segmentStream;
             if (file != null) {
                 segmentStream = new InputStreamSegment(new ProgressInputStream(new FileInputStream(file), progressListener), offset, length);
@@ -456,6 +487,20 @@ public class LargeFileUploader implements Runnable {
 
         @Override
         public String call() throws Exception {
+            if (clientTracer == null) return putRange();
+            int partNumber = (int) (offset / partSize) + 1;
+            Object traceContext = clientTracer.partStarted(true, bucket, key, partNumber, offset, length);
+            try {
+                String etag = putRange();
+                clientTracer.partCompleted(traceContext, null);
+                return etag;
+            } catch (Exception e) {
+                clientTracer.partCompleted(traceContext, e);
+                throw e;
+            }
+        }
+
+        private String putRange() throws Exception {
             Range range = Range.fromOffsetLength(offset, length);
 
             SizedInputStream segmentStream = file != null
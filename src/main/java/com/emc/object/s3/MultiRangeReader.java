@@ -0,0 +1,244 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.s3;
+
+import com.emc.object.Range;
+import com.emc.object.s3.bean.GetObjectResult;
+import com.emc.object.s3.request.GetObjectRequest;
+import com.emc.object.util.DaemonThreadFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Reads many byte ranges of one object at once (i.e. column chunks or index pages). Requested ranges are sorted and
+ * merged whenever the gap between them is no more than <code>maxGap</code> bytes (and the merged range stays under
+ * <code>maxMergedSize</code>), so nearby ranges share a single GET. The merged ranges are then fetched concurrently and
+ * each requested range is returned as a read-only slice of its merged buffer, in the order requested.
+ * <p>
+ * Only bounded ranges (with both first and last byte) are supported. Overlapping and duplicate ranges are allowed.
+ */
+public class MultiRangeReader {
+
+    private static final Logger log = LoggerFactory.getLogger(MultiRangeReader.class);
+
+    public static final int DEFAULT_THREADS = 8;
+    public static final int DEFAULT_MAX_GAP = 64 * 1024; // 64KB
+    public static final int DEFAULT_MAX_MERGED_SIZE = 8 * 1024 * 1024; // 8MB
+
+    private S3Client s3Client;
+    private ExecutorService executor;
+    private boolean ownExecutor;
+    private int maxGap = DEFAULT_MAX_GAP;
+    private int maxMergedSize = DEFAULT_MAX_MERGED_SIZE;
+
+    public MultiRangeReader(S3Client s3Client) {
+        this(s3Client, Executors.newFixedThreadPool(DEFAULT_THREADS, new DaemonThreadFactory("multi-range-reader")));
+        this.ownExecutor = true;
+    }
+
+    /**
+     * Uses a shared executor (which will not be shut down by {@link #shutdown()}).
+     */
+    public MultiRangeReader(S3Client s3Client, ExecutorService executor) {
+        this.s3Client = s3Client;
+        this.executor = executor;
+    }
+
+    /**
+     * Reads all of <code>ranges</code> and returns their content in the same order. Blocks until every range is read.
+     */
+    public List<ByteBuffer> readRanges(String bucket, String key, List<Range> ranges) {
+        List<Future<ByteBuffer>> futures = readRangesAsync(bucket, key, ranges, null);
+        List<ByteBuffer> buffers = new ArrayList<ByteBuffer>(futures.size());
+        try {
+            for (Future<ByteBuffer> future : futures) {
+                buffers.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            for (Future<ByteBuffer> future : futures) future.cancel(true);
+            throw new RuntimeException("interrupted while reading ranges", e);
+        } catch (ExecutionException e) {
+            for (Future<ByteBuffer> future : futures) future.cancel(true);
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw new RuntimeException("error reading ranges", e.getCause());
+        }
+        return buffers;
+    }
+
+    /**
+     * Starts reading <code>ranges</code> and returns a future for each, in the same order. If <code>ifMatch</code> is
+     * set, every GET is conditional on that ETag so that all ranges come from the same version of the object (a
+     * mismatch fails the affected futures).
+     */
+    public List<Future<ByteBuffer>> readRangesAsync(final String bucket, final String key, List<Range> ranges,
+                                                    final String ifMatch) {
+        for (Range range : ranges) {
+            if (range.getFirst() == null || range.getLast() == null || range.getLast() < range.getFirst())
+                throw new IllegalArgumentException("only bounded ranges are supported: " + range);
+        }
+
+        // sort requested ranges by first byte (keeping track of original position)
+        Integer[] order = new Integer[ranges.size()];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+        final List<Range> requested = ranges;
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return requested.get(a).getFirst().compareTo(requested.get(b).getFirst());
+            }
+        });
+
+        List<Future<ByteBuffer>> results = new ArrayList<Future<ByteBuffer>>(Collections.<Future<ByteBuffer>>nCopies(ranges.size(), null));
+        int requestCount = 0;
+        int i = 0;
+        while (i < order.length) {
+            long first = ranges.get(order[i]).getFirst(), last = ranges.get(order[i]).getLast();
+            int j = i + 1;
+            while (j < order.length) {
+                Range next = ranges.get(order[j]);
+                long mergedLast = Math.max(last, next.getLast());
+                if (next.getFirst() - last - 1 > maxGap || mergedLast - first + 1 > maxMergedSize) break;
+                last = mergedLast;
+                j++;
+            }
+
+            final Range merged = new Range(first, last);
+            Future<byte[]> fetch = executor.submit(new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws Exception {
+                    GetObjectResult<byte[]> result = s3Client.getObject(new GetObjectRequest(bucket, key)
+                            .withRange(merged).withIfMatch(ifMatch), byte[].class);
+                    if (result == null)
+                        throw new RuntimeException("object " + bucket + "/" + key + " no longer matches " + ifMatch);
+                    return result.getObject();
+                }
+            });
+            requestCount++;
+
+            for (int k = i; k < j; k++) {
+                Range range = ranges.get(order[k]);
+                results.set(order[k], new SliceFuture(fetch, (int) (range.getFirst() - first),
+                        (int) (range.getLast() - range.getFirst() + 1)));
+            }
+            i = j;
+        }
+        log.debug("reading {} ranges of {}/{} in {} requests", new Object[]{ranges.size(), bucket, key, requestCount});
+        return results;
+    }
+
+    /**
+     * Shuts down the executor (only if the reader created its own).
+     */
+    public void shutdown() {
+        if (ownExecutor) executor.shutdown();
+    }
+
+    public int getMaxGap() {
+        return maxGap;
+    }
+
+    /**
+     * Ranges separated by no more than this many bytes are fetched in the same request (the bytes in between are read
+     * and discarded). Default is 64KB
+     */
+    public void setMaxGap(int maxGap) {
+        this.maxGap = maxGap;
+    }
+
+    public int getMaxMergedSize() {
+        return maxMergedSize;
+    }
+
+    /**
+     * Ranges will not be merged beyond this size, so large reads are still spread over concurrent requests. Default is
+     * 8MB
+     */
+    public void setMaxMergedSize(int maxMergedSize) {
+        this.maxMergedSize = maxMergedSize;
+    }
+
+    public MultiRangeReader withMaxGap(int maxGap) {
+        setMaxGap(maxGap);
+        return this;
+    }
+
+    public MultiRangeReader withMaxMergedSize(int maxMergedSize) {
+        setMaxMergedSize(maxMergedSize);
+        return this;
+    }
+
+    /**
+     * Exposes one requested range of a merged fetch.
+     */
+    private static class SliceFuture implements Future<ByteBuffer> {
+        private Future<byte[]> fetch;
+        private int offset;
+        private int length;
+
+        SliceFuture(Future<byte[]> fetch, int offset, int length) {
+            this.fetch = fetch;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return fetch.cancel(mayInterruptIfRunning);
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return fetch.isCancelled();
+        }
+
+        @Override
+        public boolean isDone() {
+            return fetch.isDone();
+        }
+
+        @Override
+        public ByteBuffer get() throws InterruptedException, ExecutionException {
+            return slice(fetch.get());
+        }
+
+        @Override
+        public ByteBuffer get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+            return slice(fetch.get(timeout, unit));
+        }
+
+        private ByteBuffer slice(byte[] data) throws ExecutionException {
+            if (offset + length > data.length)
+                throw new ExecutionException(new RuntimeException(String.format(
+                        "range extends past end of object (needed %d bytes, got %d)", offset + length, data.length)));
+            return ByteBuffer.wrap(data, offset, length).slice().asReadOnlyBuffer();
+        }
+    }
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.s3;
+
+import com.emc.object.Range;
+import com.emc.object.s3.bean.GetObjectResult;
+import com.emc.object.s3.request.GetObjectRequest;
+import com.emc.object.util.ChecksumError;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Reads individual records from pack objects written by {@link ObjectPackWriter}. The index of each pack is loaded
+ * once (a HEAD plus usually a single ranged GET of the tail) and kept in an LRU cache, after which every record is
+ * served with one ranged GET. Record reads are conditional on the ETag of the cached index, so if a pack is replaced,
+ * its index is reloaded automatically. Record checksums are always verified. Instances are thread-safe.
+ */
+public class ObjectPackReader {
+
+    private static final Logger log = LoggerFactory.getLogger(ObjectPackReader.class);
+
+    public static final int DEFAULT_INDEX_CACHE_SIZE = 1000; // packs
+    public static final int DEFAULT_TAIL_READ_SIZE = 64 * 1024; // 64KB
+
+    private S3Client s3Client;
+    private String bucket;
+    private int tailReadSize = DEFAULT_TAIL_READ_SIZE;
+    private final Map<String, PackIndex> indexCache;
+
+    public ObjectPackReader(S3Client s3Client, String bucket) {
+        this(s3Client, bucket, DEFAULT_INDEX_CACHE_SIZE);
+    }
+
+    public ObjectPackReader(S3Client s3Client, String bucket, final int indexCacheSize) {
+        this.s3Client = s3Client;
+        this.bucket = bucket;
+        this.indexCache = new LinkedHashMap<String, PackIndex>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, PackIndex> eldest) {
+                return size() > indexCacheSize;
+            }
+        };
+    }
+
+    /**
+     * Returns the contents of <code>recordKey</code> in pack <code>packKey</code>, or null if the pack does not
+     * contain the record.
+     *
+     * @throws ChecksumError if the record data does not match the checksum in the index
+     */
+    public byte[] readRecord(String packKey, String recordKey) throws IOException {
+        for (int attempt = 0; attempt < 2; attempt++) {
+            PackIndex index = getIndex(packKey);
+            PackIndex.Entry entry = index.getEntry(recordKey);
+            if (entry == null) return null;
+            if (entry.getLength() == 0) return new byte[0];
+
+            GetObjectRequest request = new GetObjectRequest(bucket, packKey)
+                    .withRange(Range.fromOffsetLength(entry.getOffset(), entry.getLength()));
+            if (index.getETag() != null) request.setIfMatch(index.getETag());
+            GetObjectResult<byte[]> result = s3Client.getObject(request, byte[].class);
+
+            if (result == null) { // If-Match failed; the pack was replaced
+                log.info("pack {}/{} has changed; reloading index", bucket, packKey);
+                invalidate(packKey);
+                continue;
+            }
+
+            byte[] data = result.getObject();
+            CRC32 crc = new CRC32();
+            crc.update(data);
+            if (data.length != entry.getLength() || crc.getValue() != entry.getCrc32())
+                throw new ChecksumError("record " + recordKey + " in pack " + packKey + " is corrupt",
+                        Long.toHexString(entry.getCrc32()), Long.toHexString(crc.getValue()));
+            return data;
+        }
+        throw new IOException("pack " + packKey + " changed while reading record " + recordKey);
+    }
+
+    /**
+     * Returns the (cached) index of <code>packKey</code>, loading it if necessary.
+     */
+    public PackIndex getIndex(String packKey) throws IOException {
+        PackIndex index;
+        synchronized (indexCache) {
+            index = indexCache.get(packKey);
+        }
+        if (index == null) {
+            // concurrent loads of the same pack are harmless (last one wins)
+            index = loadIndex(packKey);
+            synchronized (indexCache) {
+                indexCache.put(packKey, index);
+            }
+        }
+        return index;
+    }
+
+    public void invalidate(String packKey) {
+        synchronized (indexCache) {
+            indexCache.remove(packKey);
+        }
+    }
+
+    public void invalidateAll() {
+        synchronized (indexCache) {
+            indexCache.clear();
+        }
+    }
+
+    protected PackIndex loadIndex(String packKey) throws IOException {
+        S3ObjectMetadata objectMetadata = s3Client.getObjectMetadata(bucket, packKey);
+        long packSize = objectMetadata.getContentLength();
+        String eTag = objectMetadata.getETag();
+        if (packSize < PackIndex.TRAILER_SIZE) throw new IOException("pack " + packKey + " is too small");
+
+        // read the tail; in most cases this will contain the entire index
+        long tailOffset = Math.max(0, packSize - tailReadSize);
+        byte[] tail = readRange(packKey, eTag, tailOffset, packSize - tailOffset);
+        long[] trailer = PackIndex.parseTrailer(tail);
+        long indexOffset = trailer[0];
+        int indexLength = (int) trailer[1];
+        if (indexOffset + indexLength + PackIndex.TRAILER_SIZE != packSize)
+            throw new IOException("pack " + packKey + " has an invalid trailer");
+
+        byte[] indexData;
+        if (indexOffset >= tailOffset) {
+            int start = (int) (indexOffset - tailOffset);
+            indexData = Arrays.copyOfRange(tail, start, start + indexLength);
+        } else {
+            log.debug("index of pack {} is larger than the tail read size; reading the rest", packKey);
+            indexData = readRange(packKey, eTag, indexOffset, indexLength);
+        }
+        return PackIndex.read(indexData, eTag);
+    }
+
+    private byte[] readRange(String packKey, String eTag, long offset, long length) throws IOException {
+        GetObjectRequest request = new GetObjectRequest(bucket, packKey).withRange(Range.fromOffsetLength(offset, length));
+        if (eTag != null) request.setIfMatch(eTag);
+        GetObjectResult<byte[]> result = s3Client.getObject(request, byte[].class);
+        if (result == null) throw new IOException("pack " + packKey + " changed while loading its index");
+        return result.getObject();
+    }
+
+    public String getBucket() {
+        return bucket;
+    }
+
+    public int getTailReadSize() {
+        return tailReadSize;
+    }
+
+    /**
+     * Sets how many bytes are read from the end of a pack when loading its index. If the index fits in this range,
+     * it is loaded with a single GET. Default is 64KB
+     */
+    public void setTailReadSize(int tailReadSize) {
+        if (tailReadSize < PackIndex.TRAILER_SIZE)
+            throw new IllegalArgumentException("tail read size must be at least " + PackIndex.TRAILER_SIZE);
+        this.tailReadSize = tailReadSize;
+    }
+
+    public ObjectPackReader withTailReadSize(int tailReadSize) {
+        setTailReadSize(tailReadSize);
+        return this;
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.s3;
+
+import com.emc.object.s3.request.PutObjectRequest;
+import com.emc.object.util.RestUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.util.zip.CRC32;
+
+/**
+ * Batches many small records into a single pack object with an appended index (see {@link PackIndex} for the
+ * format). Storing records this way costs one PUT per pack instead of one PUT per record, while
+ * {@link ObjectPackReader} still allows random access to individual records through ranged GETs.
+ * <p>
+ * Records are spooled to a local temp file until {@link #close()} is called, at which point the index is appended and
+ * the pack is uploaded (packs of at least <code>multipartThreshold</code> bytes are uploaded with
+ * {@link LargeFileUploader}). Callers that want to bound pack size should check {@link #getSize()} and start a new
+ * writer as needed. Instances are thread-safe.
+ */
+public class ObjectPackWriter implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(ObjectPackWriter.class);
+
+    public static final long DEFAULT_MULTIPART_THRESHOLD = 128 * 1024 * 1024; // 128MB
+
+    private S3Client s3Client;
+    private String bucket;
+    private String key;
+    private long multipartThreshold = DEFAULT_MULTIPART_THRESHOLD;
+
+    private File spoolFile;
+    private OutputStream spool;
+    private long size;
+    private PackIndex index = new PackIndex(null);
+    private String eTag;
+    private boolean closed;
+
+    public ObjectPackWriter(S3Client s3Client, String bucket, String key) throws IOException {
+        this.s3Client = s3Client;
+        this.bucket = bucket;
+        this.key = key;
+        this.spoolFile = File.createTempFile("object-pack", null);
+        this.spoolFile.deleteOnExit();
+        this.spool = new BufferedOutputStream(new FileOutputStream(spoolFile), 64 * 1024);
+    }
+
+    /**
+     * Adds a record to the pack. Record keys must be unique within a pack.
+     */
+    public synchronized PackIndex.Entry add(String recordKey, byte[] data) throws IOException {
+        return add(recordKey, data, 0, data.length);
+    }
+
+    public synchronized PackIndex.Entry add(String recordKey, byte[] data, int offset, int length) throws IOException {
+        if (closed) throw new IllegalStateException("pack writer is closed");
+        if (index.getEntry(recordKey) != null)
+            throw new IllegalArgumentException("duplicate key in pack: " + recordKey);
+
+        CRC32 crc = new CRC32();
+        crc.update(data, offset, length);
+        PackIndex.Entry entry = new PackIndex.Entry(recordKey, size, length, crc.getValue());
+
+        spool.write(data, offset, length);
+        size += length;
+        index.add(entry);
+        return entry;
+    }
+
+    /**
+     * Appends the index and uploads the pack. After this call, {@link #getETag()} returns the ETag of the pack.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        try {
+            index.write(spool, size);
+            spool.close();
+
+            long packSize = spoolFile.length();
+            log.debug("uploading pack {}/{} ({} records, {} bytes)", new Object[]{bucket, key, index.size(), packSize});
+            if (packSize >= multipartThreshold) {
+                LargeFileUploader uploader = new LargeFileUploader(s3Client, bucket, key, spoolFile)
+                        .withObjectMetadata(new S3ObjectMetadata().withContentType(RestUtil.TYPE_APPLICATION_OCTET_STREAM));
+                uploader.doMultipartUpload();
+                eTag = uploader.getETag();
+            } else {
+                S3ObjectMetadata objectMetadata = new S3ObjectMetadata()
+                        .withContentType(RestUtil.TYPE_APPLICATION_OCTET_STREAM).withContentLength(packSize);
+                eTag = s3Client.putObject(new PutObjectRequest(bucket, key, spoolFile)
+                        .withObjectMetadata(objectMetadata)).getETag();
+            }
+        } finally {
+            try {
+                spool.close();
+            } catch (Throwable t) {
+                log.warn("could not close spool file", t);
+            }
+            if (!spoolFile.delete()) log.warn("could not delete spool file {}", spoolFile);
+        }
+    }
+
+    public String getBucket() {
+        return bucket;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Returns the number of record bytes written so far (excluding the index)
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public synchronized int getRecordCount() {
+        return index.size();
+    }
+
+    public String getETag() {
+        return eTag;
+    }
+
+    public long getMultipartThreshold() {
+        return multipartThreshold;
+    }
+
+    /**
+     * Packs of at least this size are uploaded using multipart upload. Default is 128MB
+     */
+    public void setMultipartThreshold(long multipartThreshold) {
+        this.multipartThreshold = multipartThreshold;
+    }
+
+    public ObjectPackWriter withMultipartThreshold(long multipartThreshold) {
+        setMultipartThreshold(multipartThreshold);
+        return this;
+    }
+}
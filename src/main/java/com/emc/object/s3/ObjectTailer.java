@@ -0,0 +1,390 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.s3;
+
+import com.emc.object.Range;
+import com.emc.object.s3.request.GetObjectRequest;
+import com.emc.object.util.DaemonThreadFactory;
+import com.emc.object.util.RestUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Follows append-only objects (see {@link S3Client#appendObject(String, String, Object)}) and delivers new bytes as
+ * they arrive. For each followed object, the tailer tracks the consumed offset and issues a ranged GET starting at that
+ * offset. When nothing new has arrived, the poll interval backs off exponentially from <code>minPollDelayMs</code> to
+ * <code>maxPollDelayMs</code>; as soon as data shows up, it resets, and full reads are followed immediately by another
+ * read, so a busy object is drained at full speed while idle objects cost very little.
+ * <p>
+ * Any number of objects can be followed on the tailer's shared scheduler; only one request per object is outstanding
+ * at a time. New data is delivered either through a {@link TailListener} ({@link #follow(String, String, long,
+ * TailListener)}) or as a blocking stream ({@link #openStream(String, String, long)}). Streams buffer at most
+ * <code>streamBufferSize</code> bytes ahead of the reader; once the buffer is full, polling pauses until the reader
+ * catches up.
+ */
+public class ObjectTailer {
+
+    private static final Logger log = LoggerFactory.getLogger(ObjectTailer.class);
+
+    public static final int DEFAULT_THREADS = 2;
+    public static final int DEFAULT_MIN_POLL_DELAY_MS = 50;
+    public static final int DEFAULT_MAX_POLL_DELAY_MS = 5000;
+    public static final int DEFAULT_MAX_READ_SIZE = 4 * 1024 * 1024; // 4MB
+    public static final int DEFAULT_STREAM_BUFFER_SIZE = 16 * 1024 * 1024; // 16MB
+
+    private static final int STATUS_RANGE_NOT_SATISFIABLE = 416;
+
+    private S3Client s3Client;
+    private ScheduledExecutorService scheduler;
+    private boolean ownScheduler;
+    private int minPollDelayMs = DEFAULT_MIN_POLL_DELAY_MS;
+    private int maxPollDelayMs = DEFAULT_MAX_POLL_DELAY_MS;
+    private int maxReadSize = DEFAULT_MAX_READ_SIZE;
+    private int streamBufferSize = DEFAULT_STREAM_BUFFER_SIZE;
+
+    public ObjectTailer(S3Client s3Client) {
+        this(s3Client, Executors.newScheduledThreadPool(DEFAULT_THREADS, new DaemonThreadFactory("object-tailer")));
+        this.ownScheduler = true;
+    }
+
+    /**
+     * Uses a shared scheduler (which will not be shut down by {@link #shutdown()}).
+     */
+    public ObjectTailer(S3Client s3Client, ScheduledExecutorService scheduler) {
+        this.s3Client = s3Client;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Starts following <code>bucket/key</code> from <code>offset</code>. New data is passed to
+     * <code>listener</code> until the returned handle is stopped.
+     */
+    public TailHandle follow(String bucket, String key, long offset, TailListener listener) {
+        TailHandle handle = new TailHandle(bucket, key, offset, listener);
+        handle.schedule(0);
+        return handle;
+    }
+
+    /**
+     * Returns a stream that yields the content of <code>bucket/key</code> from <code>offset</code> onward, blocking
+     * until new data is appended. The stream never reaches EOF; closing it stops following the object.
+     */
+    public InputStream openStream(String bucket, String key, long offset) {
+        TailInputStream stream = new TailInputStream(streamBufferSize);
+        // the stream needs its handle before the first poll can deliver data
+        stream.handle = new TailHandle(bucket, key, offset, stream);
+        stream.handle.schedule(0);
+        return stream;
+    }
+
+    /**
+     * Stops all polling (only if the tailer created its own scheduler).
+     */
+    public void shutdown() {
+        if (ownScheduler) scheduler.shutdownNow();
+    }
+
+    public int getMinPollDelayMs() {
+        return minPollDelayMs;
+    }
+
+    /**
+     * The poll delay used right after new data was seen. Default is 50ms
+     */
+    public void setMinPollDelayMs(int minPollDelayMs) {
+        this.minPollDelayMs = minPollDelayMs;
+    }
+
+    public int getMaxPollDelayMs() {
+        return maxPollDelayMs;
+    }
+
+    /**
+     * The poll delay will not back off beyond this value. Default is 5 seconds
+     */
+    public void setMaxPollDelayMs(int maxPollDelayMs) {
+        this.maxPollDelayMs = maxPollDelayMs;
+    }
+
+    public int getMaxReadSize() {
+        return maxReadSize;
+    }
+
+    /**
+     * The maximum number of bytes requested in one GET. Default is 4MB
+     */
+    public void setMaxReadSize(int maxReadSize) {
+        this.maxReadSize = maxReadSize;
+    }
+
+    public int getStreamBufferSize() {
+        return streamBufferSize;
+    }
+
+    /**
+     * The number of bytes a stream returned by {@link #openStream(String, String, long)} will buffer ahead of its
+     * reader before polling pauses. The buffer may exceed this by up to one read. Default is 16MB
+     */
+    public void setStreamBufferSize(int streamBufferSize) {
+        this.streamBufferSize = streamBufferSize;
+    }
+
+    public ObjectTailer withMinPollDelayMs(int minPollDelayMs) {
+        setMinPollDelayMs(minPollDelayMs);
+        return this;
+    }
+
+    public ObjectTailer withMaxPollDelayMs(int maxPollDelayMs) {
+        setMaxPollDelayMs(maxPollDelayMs);
+        return this;
+    }
+
+    public ObjectTailer withMaxReadSize(int maxReadSize) {
+        setMaxReadSize(maxReadSize);
+        return this;
+    }
+
+    public ObjectTailer withStreamBufferSize(int streamBufferSize) {
+        setStreamBufferSize(streamBufferSize);
+        return this;
+    }
+
+    /**
+     * Represents one followed object.
+     */
+    public class TailHandle implements Runnable {
+        private final String bucket;
+        private final String key;
+        private final TailListener listener;
+        private volatile long offset;
+        private volatile boolean stopped;
+        private boolean paused;
+        private boolean parked; // a poll was due while paused
+        private long pollDelay;
+        private ScheduledFuture<?> nextPoll;
+
+        TailHandle(String bucket, String key, long offset, TailListener listener) {
+            this.bucket = bucket;
+            this.key = key;
+            this.offset = offset;
+            this.listener = listener;
+            this.pollDelay = minPollDelayMs;
+        }
+
+        @Override
+        public void run() {
+            if (stopped) return;
+            long delay;
+            try {
+                byte[] data = s3Client.getObject(new GetObjectRequest(bucket, key)
+                        .withRange(Range.fromOffsetLength(offset, maxReadSize)), byte[].class).getObject();
+                if (data.length > 0) {
+                    long dataOffset = offset;
+                    offset += data.length;
+                    listener.onData(bucket, key, dataOffset, data);
+                    pollDelay = minPollDelayMs;
+                    delay = data.length >= maxReadSize ? 0 : pollDelay; // more may be waiting
+                } else {
+                    delay = backOff();
+                }
+            } catch (S3Exception e) {
+                if (e.getHttpCode() == STATUS_RANGE_NOT_SATISFIABLE || e.getHttpCode() == RestUtil.STATUS_NOT_FOUND) {
+                    // nothing new yet (or the object hasn't been created yet)
+                    delay = backOff();
+                } else {
+                    listener.onError(bucket, key, e);
+                    delay = backOff();
+                }
+            } catch (Throwable t) {
+                log.warn("error tailing {}/{}: {}", new Object[]{bucket, key, t});
+                listener.onError(bucket, key, t);
+                delay = backOff();
+            }
+            schedule(delay);
+        }
+
+        private long backOff() {
+            long delay = pollDelay;
+            pollDelay = Math.min(maxPollDelayMs, pollDelay * 2);
+            return delay;
+        }
+
+        synchronized void schedule(long delay) {
+            if (stopped) return;
+            if (paused) {
+                parked = true;
+                return;
+            }
+            try {
+                nextPoll = scheduler.schedule(this, delay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                log.debug("scheduler is shut down; no longer following {}/{}", bucket, key);
+                stopped = true;
+            }
+        }
+
+        /**
+         * Holds back the next poll until {@link #resume()} is called. A poll that is already running may still deliver
+         * data.
+         */
+        public synchronized void pause() {
+            paused = true;
+        }
+
+        /**
+         * Resumes polling after {@link #pause()}. If a poll was held back, it runs immediately.
+         */
+        public synchronized void resume() {
+            if (!paused) return;
+            paused = false;
+            if (parked) {
+                parked = false;
+                schedule(0);
+            }
+        }
+
+        public synchronized boolean isPaused() {
+            return paused;
+        }
+
+        /**
+         * Stops following the object. A poll that is already running may still deliver data.
+         */
+        public synchronized void stop() {
+            stopped = true;
+            if (nextPoll != null) nextPoll.cancel(false);
+        }
+
+        public boolean isStopped() {
+            return stopped;
+        }
+
+        /**
+         * Returns the offset up to which data has been delivered
+         */
+        public long getOffset() {
+            return offset;
+        }
+
+        public String getBucket() {
+            return bucket;
+        }
+
+        public String getKey() {
+            return key;
+        }
+    }
+
+    /**
+     * Buffers delivered chunks and hands them to a blocking reader. Polling is paused while
+     * <code>bufferSize</code> or more bytes are waiting to be read.
+     */
+    private static class TailInputStream extends InputStream implements TailListener {
+        private static final byte[] CLOSED = new byte[0];
+        private static final byte[] ERROR = new byte[0];
+
+        private final BlockingQueue<byte[]> chunks = new LinkedBlockingQueue<byte[]>();
+        private final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+        private final int bufferSize;
+        private long buffered;
+        private TailHandle handle;
+        private byte[] current;
+        private int position;
+        private boolean closed;
+
+        TailInputStream(int bufferSize) {
+            this.bufferSize = bufferSize;
+        }
+
+        @Override
+        public void onData(String bucket, String key, long offset, byte[] data) {
+            chunks.add(data);
+            updateBuffered(data.length);
+        }
+
+        @Override
+        public void onError(String bucket, String key, Throwable error) {
+            // keep the latest error; queue (at most) one marker so a blocked reader wakes up and reports it
+            if (this.error.getAndSet(error) == null) chunks.add(ERROR);
+        }
+
+        private synchronized void updateBuffered(long delta) {
+            buffered += delta;
+            if (buffered >= bufferSize) handle.pause();
+            else handle.resume();
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int c = read(b, 0, 1);
+            return c < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (closed) throw new IOException("stream is closed");
+            if (len == 0) return 0;
+            while (current == null || position >= current.length) {
+                try {
+                    current = chunks.take();
+                } catch (InterruptedException e) {
+                    throw new IOException("interrupted while waiting for new data", e);
+                }
+                position = 0;
+                if (current == CLOSED) throw new IOException("stream is closed");
+                if (current == ERROR) {
+                    current = null;
+                    throw new IOException("error while tailing object", error.getAndSet(null));
+                }
+                updateBuffered(-current.length);
+            }
+            int count = Math.min(len, current.length - position);
+            System.arraycopy(current, position, b, off, count);
+            position += count;
+            return count;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return current == null ? 0 : current.length - position;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+            handle.stop();
+            chunks.add(CLOSED); // wake up any blocked reader
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.s3;
+
+import java.io.*;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The index of a pack object (see {@link ObjectPackWriter}). A pack is laid out as follows (all integers are
+ * big-endian):
+ * <pre>
+ *     [record data ...]
+ *     [index]   int entryCount, then per entry: UTF key, long offset, int length, long crc32
+ *     [trailer] long indexOffset, int indexLength, int version, int magic
+ * </pre>
+ * The trailer has a fixed size, so a reader can locate the index from the end of the object.
+ */
+public class PackIndex {
+    public static final int MAGIC = 0x45504b31; // "EPK1"
+    public static final int VERSION = 1;
+    public static final int TRAILER_SIZE = 8 + 4 + 4 + 4;
+
+    /**
+     * Parses the trailer at the end of <code>tail</code> and returns {indexOffset, indexLength}.
+     */
+    public static long[] parseTrailer(byte[] tail) throws IOException {
+        if (tail.length < TRAILER_SIZE) throw new IOException("pack is too small to contain a trailer");
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(tail, tail.length - TRAILER_SIZE, TRAILER_SIZE));
+        long indexOffset = in.readLong();
+        int indexLength = in.readInt();
+        int version = in.readInt();
+        int magic = in.readInt();
+        if (magic != MAGIC) throw new IOException("not a pack object (bad magic number)");
+        if (version != VERSION) throw new IOException("unsupported pack version: " + version);
+        return new long[]{indexOffset, indexLength};
+    }
+
+    public static PackIndex read(byte[] indexData, String eTag) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(indexData));
+        int count = in.readInt();
+        PackIndex index = new PackIndex(eTag);
+        for (int i = 0; i < count; i++) {
+            index.add(new Entry(in.readUTF(), in.readLong(), in.readInt(), in.readLong()));
+        }
+        return index;
+    }
+
+    private String eTag;
+    private Map<String, Entry> entries = new LinkedHashMap<String, Entry>();
+
+    public PackIndex(String eTag) {
+        this.eTag = eTag;
+    }
+
+    public void add(Entry entry) {
+        if (entries.containsKey(entry.getKey()))
+            throw new IllegalArgumentException("duplicate key in pack: " + entry.getKey());
+        entries.put(entry.getKey(), entry);
+    }
+
+    public Entry getEntry(String key) {
+        return entries.get(key);
+    }
+
+    public Collection<Entry> getEntries() {
+        return Collections.unmodifiableCollection(entries.values());
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * The ETag of the pack object this index was read from (null for an index that has not been uploaded yet)
+     */
+    public String getETag() {
+        return eTag;
+    }
+
+    /**
+     * Writes the index followed by the trailer. <code>indexOffset</code> is the offset of the index within the pack.
+     */
+    public void write(OutputStream out, long indexOffset) throws IOException {
+        ByteArrayOutputStream indexBuffer = new ByteArrayOutputStream();
+        DataOutputStream indexOut = new DataOutputStream(indexBuffer);
+        indexOut.writeInt(entries.size());
+        for (Entry entry : entries.values()) {
+            indexOut.writeUTF(entry.getKey());
+            indexOut.writeLong(entry.getOffset());
+            indexOut.writeInt(entry.getLength());
+            indexOut.writeLong(entry.getCrc32());
+        }
+        indexOut.close();
+
+        DataOutputStream dataOut = new DataOutputStream(out);
+        indexBuffer.writeTo(dataOut);
+        dataOut.writeLong(indexOffset);
+        dataOut.writeInt(indexBuffer.size());
+        dataOut.writeInt(VERSION);
+        dataOut.writeInt(MAGIC);
+        dataOut.flush();
+    }
+
+    public static class Entry {
+        private String key;
+        private long offset;
+        private int length;
+        private long crc32;
+
+        public Entry(String key, long offset, int length, long crc32) {
+            this.key = key;
+            this.offset = offset;
+            this.length = length;
+            this.crc32 = crc32;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public int getLength() {
+            return length;
+        }
+
+        public long getCrc32() {
+            return crc32;
+        }
+
+        @Override
+        public String toString() {
+            return "Entry{" +
+                    "key='" + key + '\'' +
+                    ", offset=" + offset +
+                    ", length=" + length +
+                    ", crc32=" + crc32 +
+                    '}';
+        }
+    }
+}
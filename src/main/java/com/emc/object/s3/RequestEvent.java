@@ -0,0 +1,220 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.s3;
+
+import com.emc.object.util.RequestTimings;
+
+/**
+ * The state of a request as seen by a {@link RequestListener}. One instance is updated through the life of a request
+ * (use {@link #copy()} to keep a snapshot).
+ */
+public class RequestEvent {
+    private String operation;
+    private String method;
+    private String bucketName;
+    private String key;
+    private long startTime;
+    private long start;
+    private volatile long end;
+    private volatile String host;
+    private volatile int statusCode = -1;
+    private volatile int retryCount;
+    private volatile long bytesSent;
+    private volatile long bytesReceived;
+    private volatile Throwable error;
+    private volatile RequestTimings timings;
+
+    public RequestEvent(String operation, String method, String bucketName, String key) {
+        this.operation = operation;
+        this.method = method;
+        this.bucketName = bucketName;
+        this.key = key;
+        this.startTime = System.currentTimeMillis();
+        this.start = System.nanoTime();
+    }
+
+    private RequestEvent(RequestEvent other) {
+        this.operation = other.operation;
+        this.method = other.method;
+        this.bucketName = other.bucketName;
+        this.key = other.key;
+        this.startTime = other.startTime;
+        this.start = other.start;
+        this.end = other.end;
+        this.host = other.host;
+        this.statusCode = other.statusCode;
+        this.retryCount = other.retryCount;
+        this.bytesSent = other.bytesSent;
+        this.bytesReceived = other.bytesReceived;
+        this.error = other.error;
+        this.timings = other.timings;
+    }
+
+    /**
+     * Returns a snapshot of this event
+     */
+    public RequestEvent copy() {
+        return new RequestEvent(this);
+    }
+
+    /**
+     * Marks the end of the request (for {@link #getDuration()})
+     */
+    public void end() {
+        end = System.nanoTime();
+    }
+
+    /**
+     * The operation name (i.e. GET_OBJECT or PUT_BUCKET?acl)
+     */
+    public String getOperation() {
+        return operation;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    /**
+     * The bucket of the request, or null for service requests
+     */
+    public String getBucketName() {
+        return bucketName;
+    }
+
+    /**
+     * The object key of the request, or null for bucket and service requests
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Wall-clock time the request started (ms since the epoch)
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * Nanoseconds from the start of the request until it ended (or until now, if it has not ended)
+     */
+    public long getDuration() {
+        return (end != 0 ? end : System.nanoTime()) - start;
+    }
+
+    /**
+     * The host used by the current (or last) attempt, or null if not yet known
+     */
+    public String getHost() {
+        return host;
+    }
+
+    public void setHost(String host) {
+        this.host = host;
+    }
+
+    /**
+     * The HTTP status of the last response, or -1 if none was received
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    public void setStatusCode(int statusCode) {
+        this.statusCode = statusCode;
+    }
+
+    public int getRetryCount() {
+        return retryCount;
+    }
+
+    public void setRetryCount(int retryCount) {
+        this.retryCount = retryCount;
+    }
+
+    /**
+     * The number of entity bytes written so far by the current (or last) attempt
+     */
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    public void setBytesSent(long bytesSent) {
+        this.bytesSent = bytesSent;
+    }
+
+    /**
+     * The number of response body bytes read so far
+     */
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    public void setBytesReceived(long bytesReceived) {
+        this.bytesReceived = bytesReceived;
+    }
+
+    /**
+     * The error of the last failed attempt (for retry and failure events), or null
+     */
+    public Throwable getError() {
+        return error;
+    }
+
+    public void setError(Throwable error) {
+        this.error = error;
+    }
+
+    /**
+     * The phase timings of the request if request timing is enabled (see {@link S3Config#setRequestTimingEnabled}),
+     * otherwise null
+     */
+    public RequestTimings getTimings() {
+        return timings;
+    }
+
+    public void setTimings(RequestTimings timings) {
+        this.timings = timings;
+    }
+
+    @Override
+    public String toString() {
+        return "RequestEvent{" +
+                "operation='" + operation + '\'' +
+                ", bucketName='" + bucketName + '\'' +
+                ", key='" + key + '\'' +
+                ", host='" + host + '\'' +
+                ", statusCode=" + statusCode +
+                ", retryCount=" + retryCount +
+                ", bytesSent=" + bytesSent +
+                ", bytesReceived=" + bytesReceived +
+                ", error=" + error +
+                ", duration=" + getDuration() +
+                '}';
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.s3;
+
+/**
+ * Receives lifecycle events for each request made by a client, for tracing or custom telemetry. For a request, the
+ * events are: {@link #requestStarted}, then for each attempt {@link #requestRetried} (except the first attempt),
+ * {@link #hostSelected} and {@link #responseReceived} (if a response was received), and finally either
+ * {@link #bodyCompleted} or {@link #requestFailed}.
+ * <p>
+ * By default, listeners are called on the request thread and must be thread-safe and fast; in that case the same
+ * event instance is passed to every callback of a request and should not be retained. If
+ * {@link S3Config#setAsyncRequestListeners(boolean) asyncRequestListeners} is enabled, listeners are called from a
+ * background thread with a copy of the event, and events are dropped (rather than blocking requests) if the listeners
+ * cannot keep up. Exceptions thrown by listeners are logged and ignored.
+ *
+ * @see RequestListenerAdapter
+ * @see S3Config#addRequestListener(RequestListener)
+ */
+public interface RequestListener {
+    void requestStarted(RequestEvent event);
+
+    /**
+     * Called before each retry. {@link RequestEvent#getError()} is the error that caused the retry
+     */
+    void requestRetried(RequestEvent event);
+
+    /**
+     * Called for each attempt once the host that was used is known (when the response headers are received or the
+     * attempt fails)
+     */
+    void hostSelected(RequestEvent event);
+
+    /**
+     * Called for each attempt when the response headers are received (including error responses)
+     */
+    void responseReceived(RequestEvent event);
+
+    /**
+     * Called when the response body has been fully consumed or closed
+     */
+    void bodyCompleted(RequestEvent event);
+
+    /**
+     * Called when the request fails (after any retries). {@link RequestEvent#getError()} is the error
+     */
+    void requestFailed(RequestEvent event);
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.s3;
+
+/**
+ * Decides whether and when a failed request is retried. One instance is shared by all requests of a client, so
+ * implementations must be thread-safe and may track client-wide state (i.e. a retry budget).
+ *
+ * @see DefaultRetryPolicy
+ * @see S3Config#setRetryPolicy(RetryPolicy)
+ */
+public interface RetryPolicy {
+    long NO_RETRY = -1;
+
+    /**
+     * Called when a request fails. Returns the number of milliseconds to wait before retrying the request, or
+     * {@link #NO_RETRY} if it should not be retried.
+     *
+     * @param s3Config   the client configuration (retry limit, initial retry delay, etc.)
+     * @param method     the HTTP method of the request
+     * @param error      the failure; an {@link S3Exception} for error responses, otherwise usually an IOException
+     * @param retryCount the number of times the request has already been retried
+     * @param lastDelay  the delay before the previous retry (0 if there was none)
+     */
+    long getRetryDelay(S3Config s3Config, String method, Throwable error, int retryCount, long lastDelay);
+
+    /**
+     * Called when a request succeeds
+     */
+    void onSuccess();
+}
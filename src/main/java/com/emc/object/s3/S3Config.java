@@ -28,11 +28,20 @@ package com.emc.object.s3;
 
 import com.emc.object.ObjectConfig;
 import com.emc.object.Protocol;
+import com.emc.object.s3.metrics.DefaultMetricsRegistry;
+import com.emc.object.s3.metrics.MetricsRegistry;
+import com.emc.object.s3.trace.TraceWriter;
+import com.emc.object.util.CircuitBreaker;
+import com.emc.object.util.ClientTracer;
 import com.emc.object.util.ConfigUriProperty;
+import com.emc.object.util.RequestTimingListener;
 import com.emc.rest.smart.Host;
 import com.emc.rest.smart.ecs.Vdc;
 
 import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * To enable the smart-client with a single VDC, use the {@link #S3Config(Protocol, String...)} constructor:
@@ -65,6 +74,13 @@ public class S3Config extends ObjectConfig<S3Config> {
     public static final int DEFAULT_INITIAL_RETRY_DELAY = 1000; // ms
     public static final int DEFAULT_RETRY_LIMIT = 3;
     public static final int DEFAULT_RETRY_BUFFER_SIZE = 2 * 1024 * 1024;
+    public static final int DEFAULT_COALESCE_BUFFER_SIZE = 1024 * 1024;
+    public static final int DEFAULT_HEDGE_DELAY = 100; // ms
+    public static final int DEFAULT_HEDGE_MIN_DELAY = 10; // ms
+    public static final float DEFAULT_HEDGE_BUDGET = 0.05f;
+    public static final int DEFAULT_HEDGE_MAX_READ_SIZE = 1024 * 1024;
+    public static final float DEFAULT_CIRCUIT_BREAKER_FAILURE_RATE = CircuitBreaker.DEFAULT_FAILURE_RATE;
+    public static final int DEFAULT_CIRCUIT_BREAKER_OPEN_TIME = CircuitBreaker.DEFAULT_OPEN_TIME; // ms
 
     protected static int defaultPort(Protocol protocol) {
         if (protocol == Protocol.HTTP) return DEFAULT_HTTP_PORT;
@@ -80,8 +96,28 @@ public class S3Config extends ObjectConfig<S3Config> {
     protected int initialRetryDelay = DEFAULT_INITIAL_RETRY_DELAY;
     protected int retryLimit = DEFAULT_RETRY_LIMIT;
     protected int retryBufferSize = DEFAULT_RETRY_BUFFER_SIZE;
+    protected RetryPolicy retryPolicy;
     protected float faultInjectionRate = 0.0f;
     protected boolean signMetadataSearch = true;
+    protected boolean coalesceReads = false;
+    protected int coalesceBufferSize = DEFAULT_COALESCE_BUFFER_SIZE;
+    protected boolean hedgeReads = false;
+    protected int hedgeDelay = DEFAULT_HEDGE_DELAY;
+    protected float hedgePercentile = 0.0f;
+    protected int hedgeMinDelay = DEFAULT_HEDGE_MIN_DELAY;
+    protected float hedgeBudget = DEFAULT_HEDGE_BUDGET;
+    protected int hedgeMaxReadSize = DEFAULT_HEDGE_MAX_READ_SIZE;
+    protected boolean circuitBreakerEnabled = false;
+    protected float circuitBreakerFailureRate = DEFAULT_CIRCUIT_BREAKER_FAILURE_RATE;
+    protected int circuitBreakerOpenTime = DEFAULT_CIRCUIT_BREAKER_OPEN_TIME;
+    protected boolean metricsEnabled = false;
+    protected MetricsRegistry metricsRegistry;
+    protected boolean requestTimingEnabled = false;
+    protected RequestTimingListener requestTimingListener;
+    protected List<RequestListener> requestListeners = new ArrayList<RequestListener>();
+    protected boolean asyncRequestListeners = false;
+    protected ClientTracer clientTracer;
+    protected TraceWriter traceWriter;
 
     /**
      * Empty constructor for internal use only!
@@ -125,8 +161,28 @@ public class S3Config extends ObjectConfig<S3Config> {
         this.initialRetryDelay = other.initialRetryDelay;
         this.retryLimit = other.retryLimit;
         this.retryBufferSize = other.retryBufferSize;
+        this.retryPolicy = other.retryPolicy;
         this.faultInjectionRate = other.faultInjectionRate;
         this.signMetadataSearch = other.signMetadataSearch;
+        this.coalesceReads = other.coalesceReads;
+        this.coalesceBufferSize = other.coalesceBufferSize;
+        this.hedgeReads = other.hedgeReads;
+        this.hedgeDelay = other.hedgeDelay;
+        this.hedgePercentile = other.hedgePercentile;
+        this.hedgeMinDelay = other.hedgeMinDelay;
+        this.hedgeBudget = other.hedgeBudget;
+        this.hedgeMaxReadSize = other.hedgeMaxReadSize;
+        this.circuitBreakerEnabled = other.circuitBreakerEnabled;
+        this.circuitBreakerFailureRate = other.circuitBreakerFailureRate;
+        this.circuitBreakerOpenTime = other.circuitBreakerOpenTime;
+        this.metricsEnabled = other.metricsEnabled;
+        this.metricsRegistry = other.metricsRegistry;
+        this.requestTimingEnabled = other.requestTimingEnabled;
+        this.requestTimingListener = other.requestTimingListener;
+        this.requestListeners = new ArrayList<RequestListener>(other.requestListeners);
+        this.asyncRequestListeners = other.asyncRequestListeners;
+        this.clientTracer = other.clientTracer;
+        this.traceWriter = other.traceWriter;
     }
 
     @Override
@@ -229,6 +285,19 @@ public class S3Config extends ObjectConfig<S3Config> {
         this.retryBufferSize = retryBufferSize;
     }
 
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * Sets the policy that decides whether and when failed requests are retried (i.e. a {@link DefaultRetryPolicy}
+     * with jitter and a retry budget). The policy is shared by every client using this config. Default is null (each
+     * client uses a {@link DefaultRetryPolicy} with no jitter or budget)
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
     @ConfigUriProperty
     public float getFaultInjectionRate() {
         return faultInjectionRate;
@@ -258,6 +327,259 @@ public class S3Config extends ObjectConfig<S3Config> {
         this.signMetadataSearch = signMetadataSearch;
     }
 
+    @ConfigUriProperty
+    public boolean isCoalesceReads() {
+        return coalesceReads;
+    }
+
+    /**
+     * Set to true to coalesce concurrent identical GET and HEAD requests (same bucket, key, version, range and
+     * conditions): only one request is sent and its response is shared by all waiting callers. Useful when many threads
+     * read the same hot object at once. Disabled by default
+     */
+    public void setCoalesceReads(boolean coalesceReads) {
+        this.coalesceReads = coalesceReads;
+    }
+
+    @ConfigUriProperty
+    public int getCoalesceBufferSize() {
+        return coalesceBufferSize;
+    }
+
+    /**
+     * When coalescing reads, responses up to this size are buffered and shared; callers waiting on a larger response
+     * send their own request. Default is 1MB
+     */
+    public void setCoalesceBufferSize(int coalesceBufferSize) {
+        this.coalesceBufferSize = coalesceBufferSize;
+    }
+
+    @ConfigUriProperty
+    public boolean isHedgeReads() {
+        return hedgeReads;
+    }
+
+    /**
+     * Set to true to hedge HEAD requests and small ranged GET requests (see {@link #setHedgeMaxReadSize(int)}): if a
+     * response has not been received within the hedge delay, a duplicate request is sent (to a different host when
+     * using the smart client) and whichever responds first is used. This trades a small amount of extra load for lower
+     * tail latency. Disabled by default
+     */
+    public void setHedgeReads(boolean hedgeReads) {
+        this.hedgeReads = hedgeReads;
+    }
+
+    @ConfigUriProperty
+    public int getHedgeDelay() {
+        return hedgeDelay;
+    }
+
+    /**
+     * Milliseconds to wait for a response before sending a hedged request. If a hedge percentile is set, this is only
+     * used until enough response times have been collected. Default is 100ms
+     */
+    public void setHedgeDelay(int hedgeDelay) {
+        this.hedgeDelay = hedgeDelay;
+    }
+
+    @ConfigUriProperty
+    public float getHedgePercentile() {
+        return hedgePercentile;
+    }
+
+    /**
+     * If set (i.e. 95.0), the hedge delay will track this percentile of recent read response times instead of using
+     * a fixed value. Default is 0 (use the fixed hedge delay)
+     */
+    public void setHedgePercentile(float hedgePercentile) {
+        this.hedgePercentile = hedgePercentile;
+    }
+
+    @ConfigUriProperty
+    public int getHedgeMinDelay() {
+        return hedgeMinDelay;
+    }
+
+    /**
+     * The lower bound (in milliseconds) of a hedge delay that tracks a percentile of response times, so that very fast
+     * responses (i.e. from a cache) do not cause every read to be hedged immediately. Default is 10ms
+     */
+    public void setHedgeMinDelay(int hedgeMinDelay) {
+        this.hedgeMinDelay = hedgeMinDelay;
+    }
+
+    @ConfigUriProperty
+    public float getHedgeBudget() {
+        return hedgeBudget;
+    }
+
+    /**
+     * The maximum ratio of hedged requests to reads (i.e. 0.05 allows at most 5% extra requests). Default is 0.05
+     */
+    public void setHedgeBudget(float hedgeBudget) {
+        this.hedgeBudget = hedgeBudget;
+    }
+
+    @ConfigUriProperty
+    public int getHedgeMaxReadSize() {
+        return hedgeMaxReadSize;
+    }
+
+    /**
+     * GET requests are only hedged if they request a byte range of at most this many bytes. Whole-object and
+     * open-ended range reads are never hedged, because the losing response has to be read to the end before its
+     * connection can be reused. Default is 1MB
+     */
+    public void setHedgeMaxReadSize(int hedgeMaxReadSize) {
+        this.hedgeMaxReadSize = hedgeMaxReadSize;
+    }
+
+    @ConfigUriProperty
+    public boolean isCircuitBreakerEnabled() {
+        return circuitBreakerEnabled;
+    }
+
+    /**
+     * Set to true to enable per-host circuit breakers. When a host's recent failure rate (50x responses, connection
+     * errors and timeouts) is too high, the smart client stops sending requests to it until the open time has passed.
+     * Retries will also prefer a host that has not already failed the request. Only applicable when the smart client is
+     * enabled. Disabled by default
+     */
+    public void setCircuitBreakerEnabled(boolean circuitBreakerEnabled) {
+        this.circuitBreakerEnabled = circuitBreakerEnabled;
+    }
+
+    @ConfigUriProperty
+    public float getCircuitBreakerFailureRate() {
+        return circuitBreakerFailureRate;
+    }
+
+    /**
+     * The ratio of failed requests (between 0 and 1) at which a host's circuit breaker opens. Default is 0.5
+     */
+    public void setCircuitBreakerFailureRate(float circuitBreakerFailureRate) {
+        this.circuitBreakerFailureRate = circuitBreakerFailureRate;
+    }
+
+    @ConfigUriProperty
+    public int getCircuitBreakerOpenTime() {
+        return circuitBreakerOpenTime;
+    }
+
+    /**
+     * Milliseconds a host's circuit breaker stays open before trial requests are sent to it. Default is 30 seconds
+     */
+    public void setCircuitBreakerOpenTime(int circuitBreakerOpenTime) {
+        this.circuitBreakerOpenTime = circuitBreakerOpenTime;
+    }
+
+    @ConfigUriProperty
+    public boolean isMetricsEnabled() {
+        return metricsEnabled;
+    }
+
+    /**
+     * Set to true to record per-operation latency histograms, byte counts, retries and per-host/VDC/status counts (see
+     * {@link com.emc.object.s3.jersey.MetricsFilter}). Unless a metrics registry is set, the metrics are kept in a
+     * {@link DefaultMetricsRegistry} and exported through JMX. Disabled by default
+     */
+    public void setMetricsEnabled(boolean metricsEnabled) {
+        this.metricsEnabled = metricsEnabled;
+    }
+
+    public MetricsRegistry getMetricsRegistry() {
+        return metricsRegistry;
+    }
+
+    /**
+     * Sets the registry that receives request metrics when metrics are enabled. The registry is shared by every client
+     * using this config. Default is null (each client creates a {@link DefaultMetricsRegistry} registered with JMX)
+     */
+    public void setMetricsRegistry(MetricsRegistry metricsRegistry) {
+        this.metricsRegistry = metricsRegistry;
+    }
+
+    @ConfigUriProperty
+    public boolean isRequestTimingEnabled() {
+        return requestTimingEnabled;
+    }
+
+    /**
+     * Set to true to record the phase timings of each request (filter chain, connection lease, send, first byte and
+     * body transfer). The timings are available from {@link com.emc.object.ObjectResponse#getTimings()} and are passed
+     * to the request timing listener. Disabled by default
+     */
+    public void setRequestTimingEnabled(boolean requestTimingEnabled) {
+        this.requestTimingEnabled = requestTimingEnabled;
+    }
+
+    public RequestTimingListener getRequestTimingListener() {
+        return requestTimingListener;
+    }
+
+    /**
+     * Sets a listener to be notified of the timings of each request when it completes (only applies when request
+     * timing is enabled). Default is null
+     */
+    public void setRequestTimingListener(RequestTimingListener requestTimingListener) {
+        this.requestTimingListener = requestTimingListener;
+    }
+
+    public List<RequestListener> getRequestListeners() {
+        return requestListeners;
+    }
+
+    /**
+     * Sets the listeners that receive lifecycle events (start, retry, host selected, response, body complete and
+     * failure) for each request, i.e. for tracing. Listeners can also be added to a client with
+     * {@link com.emc.object.s3.jersey.S3JerseyClient#addRequestListener(RequestListener)}. Default is none
+     */
+    public void setRequestListeners(List<RequestListener> requestListeners) {
+        this.requestListeners = requestListeners;
+    }
+
+    public void addRequestListener(RequestListener requestListener) {
+        requestListeners.add(requestListener);
+    }
+
+    @ConfigUriProperty
+    public boolean isAsyncRequestListeners() {
+        return asyncRequestListeners;
+    }
+
+    /**
+     * Set to true to call request listeners from a background thread, so a slow listener cannot stall requests. Events
+     * are dropped if the listeners fall too far behind. Disabled by default
+     */
+    public void setAsyncRequestListeners(boolean asyncRequestListeners) {
+        this.asyncRequestListeners = asyncRequestListeners;
+    }
+
+    public ClientTracer getClientTracer() {
+        return clientTracer;
+    }
+
+    /**
+     * Sets a tracer to be notified when request signing and codec phases begin and end (i.e. to emit profiling events).
+     * Default is null
+     */
+    public void setClientTracer(ClientTracer clientTracer) {
+        this.clientTracer = clientTracer;
+    }
+
+    public TraceWriter getTraceWriter() {
+        return traceWriter;
+    }
+
+    /**
+     * Sets a writer to record a compact trace of every request (operation, hashed bucket and key, sizes, range, timing
+     * and outcome), which can be replayed with {@link com.emc.object.s3.trace.TraceReplayer}. The writer is not
+     * closed by the client. Default is null (no tracing)
+     */
+    public void setTraceWriter(TraceWriter traceWriter) {
+        this.traceWriter = traceWriter;
+    }
+
     public S3Config withUseVHost(boolean useVHost) {
         setUseVHost(useVHost);
         return this;
@@ -293,6 +615,11 @@ public class S3Config extends ObjectConfig<S3Config> {
         return this;
     }
 
+    public S3Config withRetryPolicy(RetryPolicy retryPolicy) {
+        setRetryPolicy(retryPolicy);
+        return this;
+    }
+
     public S3Config withFaultInjectionRate(float faultInjectionRate) {
         setFaultInjectionRate(faultInjectionRate);
         return this;
@@ -303,6 +630,101 @@ public class S3Config extends ObjectConfig<S3Config> {
         return this;
     }
 
+    public S3Config withCoalesceReads(boolean coalesceReads) {
+        setCoalesceReads(coalesceReads);
+        return this;
+    }
+
+    public S3Config withCoalesceBufferSize(int coalesceBufferSize) {
+        setCoalesceBufferSize(coalesceBufferSize);
+        return this;
+    }
+
+    public S3Config withHedgeReads(boolean hedgeReads) {
+        setHedgeReads(hedgeReads);
+        return this;
+    }
+
+    public S3Config withHedgeDelay(int hedgeDelay) {
+        setHedgeDelay(hedgeDelay);
+        return this;
+    }
+
+    public S3Config withHedgePercentile(float hedgePercentile) {
+        setHedgePercentile(hedgePercentile);
+        return this;
+    }
+
+    public S3Config withHedgeMinDelay(int hedgeMinDelay) {
+        setHedgeMinDelay(hedgeMinDelay);
+        return this;
+    }
+
+    public S3Config withHedgeBudget(float hedgeBudget) {
+        setHedgeBudget(hedgeBudget);
+        return this;
+    }
+
+    public S3Config withHedgeMaxReadSize(int hedgeMaxReadSize) {
+        setHedgeMaxReadSize(hedgeMaxReadSize);
+        return this;
+    }
+
+    public S3Config withCircuitBreakerEnabled(boolean circuitBreakerEnabled) {
+        setCircuitBreakerEnabled(circuitBreakerEnabled);
+        return this;
+    }
+
+    public S3Config withCircuitBreakerFailureRate(float circuitBreakerFailureRate) {
+        setCircuitBreakerFailureRate(circuitBreakerFailureRate);
+        return this;
+    }
+
+    public S3Config withCircuitBreakerOpenTime(int circuitBreakerOpenTime) {
+        setCircuitBreakerOpenTime(circuitBreakerOpenTime);
+        return this;
+    }
+
+    public S3Config withMetricsEnabled(boolean metricsEnabled) {
+        setMetricsEnabled(metricsEnabled);
+        return this;
+    }
+
+    public S3Config withMetricsRegistry(MetricsRegistry metricsRegistry) {
+        setMetricsRegistry(metricsRegistry);
+        return this;
+    }
+
+    public S3Config withRequestTimingEnabled(boolean requestTimingEnabled) {
+        setRequestTimingEnabled(requestTimingEnabled);
+        return this;
+    }
+
+    public S3Config withRequestTimingListener(RequestTimingListener requestTimingListener) {
+        setRequestTimingListener(requestTimingListener);
+        return this;
+    }
+
+    public S3Config withRequestListeners(RequestListener... requestListeners) {
+        setRequestListeners(new ArrayList<RequestListener>(Arrays.asList(requestListeners)));
+        return this;
+    }
+
+    public S3Config withAsyncRequestListeners(boolean asyncRequestListeners) {
+        setAsyncRequestListeners(asyncRequestListeners);
+        return this;
+    }
+
+    public S3Config withClientTracer(ClientTracer clientTracer) {
+        setClientTracer(clientTracer);
+        return this;
+    }
+
+    public S3Config withTraceWriter(TraceWriter traceWriter) {
+        setTraceWriter(traceWriter);
+        return this;
+    }
+
     @Override
     public String toString() {
         return "S3Config{" +
@@ -313,8 +735,28 @@ public class S3Config extends ObjectConfig<S3Config> {
                 ", initialRetryDelay=" + initialRetryDelay +
                 ", retryLimit=" + retryLimit +
                 ", retryBufferSize=" + retryBufferSize +
+                ", retryPolicy=" + retryPolicy +
                 ", faultInjectionRate=" + faultInjectionRate +
                 ", signMetadataSearch=" + signMetadataSearch +
+                ", coalesceReads=" + coalesceReads +
+                ", coalesceBufferSize=" + coalesceBufferSize +
+                ", hedgeReads=" + hedgeReads +
+                ", hedgeDelay=" + hedgeDelay +
+                ", hedgePercentile=" + hedgePercentile +
+                ", hedgeMinDelay=" + hedgeMinDelay +
+                ", hedgeBudget=" + hedgeBudget +
+                ", hedgeMaxReadSize=" + hedgeMaxReadSize +
+                ", circuitBreakerEnabled=" + circuitBreakerEnabled +
+                ", circuitBreakerFailureRate=" + circuitBreakerFailureRate +
+                ", circuitBreakerOpenTime=" + circuitBreakerOpenTime +
+                ", metricsEnabled=" + metricsEnabled +
+                ", metricsRegistry=" + metricsRegistry +
+                ", requestTimingEnabled=" + requestTimingEnabled +
+                ", requestTimingListener=" + requestTimingListener +
+                ", requestListeners=" + requestListeners +
+                ", asyncRequestListeners=" + asyncRequestListeners +
+                ", clientTracer=" + clientTracer +
+                ", traceWriter=" + traceWriter +
                 "} " + super.toString();
     }
 }
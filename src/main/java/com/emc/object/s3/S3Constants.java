@@ -91,6 +91,7 @@ public final class S3Constants {
     public static final String ERROR_INTERNAL = "InternalError";
     public static final String ERROR_INVALID_ARGUMENT = "InvalidArgument";
     public static final String ERROR_METHOD_NOT_ALLOWED = "MethodNotAllowed";
+    public static final String ERROR_SLOW_DOWN = "SlowDown";
 
     private S3Constants() {
     }
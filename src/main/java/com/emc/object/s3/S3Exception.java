@@ -30,6 +30,7 @@ public class S3Exception extends RuntimeException {
     private int httpCode;
     private String errorCode;
     private String requestId;
+    private long retryAfter = -1;
 
     public S3Exception(String message, int httpCode) {
         super(message);
@@ -59,4 +60,16 @@ public class S3Exception extends RuntimeException {
     public String getRequestId() {
         return requestId;
     }
+
+    /**
+     * Returns the delay in milliseconds requested by the server (via the Retry-After header) before the request is
+     * retried, or -1 if none was given
+     */
+    public long getRetryAfter() {
+        return retryAfter;
+    }
+
+    public void setRetryAfter(long retryAfter) {
+        this.retryAfter = retryAfter;
+    }
 }
@@ -0,0 +1,425 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.s3;
+
+import com.emc.object.Range;
+import com.emc.object.s3.request.GetObjectRequest;
+import com.emc.object.s3.request.PutObjectRequest;
+import com.emc.object.util.DaemonThreadFactory;
+import com.emc.object.util.RestUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Random-access read/write view of an object, modeled after {@link java.io.RandomAccessFile}. Writes go into an
+ * in-memory page cache and are only sent to the object store on {@link #flush()}, {@link #close()}, or when the amount
+ * of dirty data exceeds <code>maxDirtyBytes</code>. On flush, adjacent dirty pages are coalesced and each contiguous
+ * run is written with a single byte-range update ({@link PutObjectRequest#withRange(Range)}); runs are sent
+ * concurrently. Data written past the end of the object is appended in one final request (any gap is zero-filled).
+ * <p>
+ * Reads are served from the page cache where possible; missing pages are fetched with ranged GETs. A partial write to
+ * a page that has not been read only needs to fetch the page if it is not contiguous with earlier writes to that page.
+ * <p>
+ * This class assumes it is the only writer of the object while it is open. It does not support shrinking the object.
+ */
+public class S3RandomAccessObject implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(S3RandomAccessObject.class);
+
+    public static final int DEFAULT_PAGE_SIZE = 64 * 1024; // 64KB
+    public static final long DEFAULT_CACHE_SIZE = 32 * 1024 * 1024; // 32MB
+    public static final long DEFAULT_MAX_DIRTY_BYTES = 16 * 1024 * 1024; // 16MB
+    public static final int DEFAULT_FLUSH_THREADS = 4;
+
+    private S3Client s3Client;
+    private String bucket;
+    private String key;
+    private int pageSize;
+    private int maxCachedPages;
+    private long maxDirtyBytes = DEFAULT_MAX_DIRTY_BYTES;
+    private ExecutorService executor;
+    private boolean ownExecutor;
+
+    private boolean exists;
+    private long remoteSize;
+    private long length;
+    private long position;
+    private long dirtyBytes;
+    private boolean closed;
+    private LinkedHashMap<Long, Page> pages = new LinkedHashMap<Long, Page>(16, 0.75f, true);
+
+    private AtomicLong putCount = new AtomicLong();
+
+    public S3RandomAccessObject(S3Client s3Client, String bucket, String key) {
+        this(s3Client, bucket, key, DEFAULT_PAGE_SIZE, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * @param pageSize  the size (and alignment) of cached pages
+     * @param cacheSize the memory budget for clean cached pages
+     */
+    public S3RandomAccessObject(S3Client s3Client, String bucket, String key, int pageSize, long cacheSize) {
+        this(s3Client, bucket, key, pageSize, cacheSize,
+                Executors.newFixedThreadPool(DEFAULT_FLUSH_THREADS, new DaemonThreadFactory("random-access-flush")));
+        this.ownExecutor = true;
+    }
+
+    /**
+     * Uses a shared executor to send range updates (which will not be shut down on {@link #close()}).
+     */
+    public S3RandomAccessObject(S3Client s3Client, String bucket, String key, int pageSize, long cacheSize,
+                                ExecutorService executor) {
+        if (pageSize <= 0) throw new IllegalArgumentException("pageSize must be positive");
+        this.s3Client = s3Client;
+        this.bucket = bucket;
+        this.key = key;
+        this.pageSize = pageSize;
+        this.maxCachedPages = (int) Math.max(1, Math.min(Integer.MAX_VALUE, cacheSize / pageSize));
+        this.executor = executor;
+
+        try {
+            remoteSize = s3Client.getObjectMetadata(bucket, key).getContentLength();
+            exists = true;
+        } catch (S3Exception e) {
+            if (e.getHttpCode() != RestUtil.STATUS_NOT_FOUND) throw e;
+            remoteSize = 0;
+            exists = false;
+        }
+        length = remoteSize;
+    }
+
+    public synchronized int read() throws IOException {
+        byte[] b = new byte[1];
+        int c = read(b, 0, 1);
+        return c < 0 ? -1 : b[0] & 0xff;
+    }
+
+    public synchronized int read(byte[] b, int off, int len) throws IOException {
+        checkOpen();
+        if (position >= length) return -1;
+        int total = 0;
+        while (total < len && position < length) {
+            long pageIndex = position / pageSize;
+            int pageOffset = (int) (position - pageIndex * pageSize);
+            Page page = getPage(pageIndex, true);
+            int count = (int) Math.min(Math.min(len - total, pageSize - pageOffset), length - position);
+            System.arraycopy(page.data, pageOffset, b, off + total, count);
+            position += count;
+            total += count;
+        }
+        trimCache();
+        return total;
+    }
+
+    public synchronized void write(byte[] b, int off, int len) throws IOException {
+        checkOpen();
+        int total = 0;
+        while (total < len) {
+            long pageIndex = position / pageSize;
+            int pageOffset = (int) (position - pageIndex * pageSize);
+            int count = Math.min(len - total, pageSize - pageOffset);
+
+            Page page = getPage(pageIndex, false);
+            if (!page.loaded && page.isDirty()
+                    && (pageOffset > page.dirtyEnd || pageOffset + count < page.dirtyStart)) {
+                // the dirty span of a page must be contiguous, so fill in the gap from the object
+                loadPage(pageIndex, page);
+            }
+            System.arraycopy(b, off + total, page.data, pageOffset, count);
+            dirtyBytes -= page.dirtyLength();
+            page.markDirty(pageOffset, pageOffset + count);
+            dirtyBytes += page.dirtyLength();
+
+            position += count;
+            total += count;
+            if (position > length) length = position;
+        }
+        if (dirtyBytes > maxDirtyBytes) flush();
+        else trimCache();
+    }
+
+    public void write(byte[] b) throws IOException {
+        write(b, 0, b.length);
+    }
+
+    /**
+     * Writes all dirty pages to the object. Contiguous dirty regions below the current object size are sent as
+     * concurrent range updates; anything beyond it is appended afterward in a single request.
+     */
+    public synchronized void flush() throws IOException {
+        checkOpen();
+        if (dirtyBytes == 0 && length == remoteSize && exists) return;
+
+        List<Long> dirtyIndexes = new ArrayList<Long>();
+        for (Map.Entry<Long, Page> entry : pages.entrySet()) {
+            if (entry.getValue().isDirty()) dirtyIndexes.add(entry.getKey());
+        }
+        Collections.sort(dirtyIndexes);
+
+        // coalesce dirty spans that touch across page boundaries into runs within the existing object
+        List<long[]> runs = new ArrayList<long[]>();
+        long runStart = -1, runEnd = -1;
+        for (Long index : dirtyIndexes) {
+            Page page = pages.get(index);
+            long start = index * pageSize + page.dirtyStart, end = index * pageSize + page.dirtyEnd;
+            if (start >= remoteSize) continue; // part of the extension
+            end = Math.min(end, remoteSize);
+            if (runStart >= 0 && start == runEnd) {
+                runEnd = end;
+            } else {
+                if (runStart >= 0) runs.add(new long[]{runStart, runEnd});
+                runStart = start;
+                runEnd = end;
+            }
+        }
+        if (runStart >= 0) runs.add(new long[]{runStart, runEnd});
+
+        if (!exists || remoteSize == 0) {
+            // nothing to update in place; write the whole object
+            putObject(new PutObjectRequest(bucket, key, copyRange(0, length)));
+            exists = true;
+        } else {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (long[] run : runs) {
+                final PutObjectRequest request = new PutObjectRequest(bucket, key, copyRange(run[0], run[1]))
+                        .withRange(Range.fromOffsetLength(run[0], run[1] - run[0]));
+                futures.add(executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        putObject(request);
+                    }
+                }));
+            }
+            waitFor(futures);
+
+            if (length > remoteSize) {
+                putObject(new PutObjectRequest(bucket, key, copyRange(remoteSize, length))
+                        .withRange(Range.fromOffset(remoteSize)));
+            }
+        }
+        log.debug("flushed {} dirty bytes of {}/{} in {} range updates",
+                new Object[]{dirtyBytes, bucket, key, runs.size()});
+
+        // everything is clean now; drop pages that were never fully loaded
+        Iterator<Page> iterator = pages.values().iterator();
+        while (iterator.hasNext()) {
+            Page page = iterator.next();
+            page.markClean();
+            if (!page.loaded) iterator.remove();
+        }
+        remoteSize = length;
+        dirtyBytes = 0;
+        trimCache();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) return;
+        try {
+            flush();
+        } finally {
+            closed = true;
+            pages.clear();
+            if (ownExecutor) executor.shutdown();
+        }
+    }
+
+    public synchronized void seek(long position) throws IOException {
+        checkOpen();
+        if (position < 0) throw new IllegalArgumentException("position cannot be negative");
+        this.position = position;
+    }
+
+    public synchronized long getFilePointer() {
+        return position;
+    }
+
+    /**
+     * Returns the logical length of the object, including unflushed writes
+     */
+    public synchronized long length() {
+        return length;
+    }
+
+    private Page getPage(long pageIndex, boolean forRead) throws IOException {
+        Page page = pages.get(pageIndex);
+        if (page == null) {
+            page = new Page(pageSize);
+            pages.put(pageIndex, page);
+            // pages entirely past the end of the object are implicitly zero
+            if (pageIndex * pageSize >= remoteSize) page.loaded = true;
+            else if (forRead) loadPage(pageIndex, page);
+        } else if (forRead && !page.loaded) {
+            loadPage(pageIndex, page);
+        }
+        return page;
+    }
+
+    private void loadPage(long pageIndex, Page page) throws IOException {
+        long start = pageIndex * pageSize;
+        long end = Math.min(remoteSize, start + pageSize);
+        byte[] data = s3Client.getObject(new GetObjectRequest(bucket, key).withRange(new Range(start, end - 1)),
+                byte[].class).getObject();
+        if (data.length != end - start)
+            throw new IOException(String.format("short read from %s/%s (expected %d bytes, got %d)",
+                    bucket, key, end - start, data.length));
+        // don't overwrite dirty data
+        if (page.isDirty()) {
+            System.arraycopy(data, 0, page.data, 0, Math.min(data.length, page.dirtyStart));
+            if (page.dirtyEnd < data.length)
+                System.arraycopy(data, page.dirtyEnd, page.data, page.dirtyEnd, data.length - page.dirtyEnd);
+        } else {
+            System.arraycopy(data, 0, page.data, 0, data.length);
+        }
+        page.loaded = true;
+    }
+
+    private byte[] copyRange(long start, long end) {
+        byte[] buffer = new byte[(int) (end - start)];
+        long pageIndex = start / pageSize;
+        long pos = start;
+        while (pos < end) {
+            int pageOffset = (int) (pos - pageIndex * pageSize);
+            int count = (int) Math.min(pageSize - pageOffset, end - pos);
+            Page page = pages.get(pageIndex);
+            if (page != null) System.arraycopy(page.data, pageOffset, buffer, (int) (pos - start), count);
+            pos += count;
+            pageIndex++;
+        }
+        return buffer;
+    }
+
+    private void putObject(PutObjectRequest request) {
+        s3Client.putObject(request);
+        putCount.incrementAndGet();
+    }
+
+    private void waitFor(List<Future<?>> futures) throws IOException {
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            throw new IOException("interrupted during flush", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw new IOException("error during flush", e.getCause());
+        }
+    }
+
+    /**
+     * Evicts least-recently used clean pages beyond the cache budget (dirty pages are never evicted).
+     */
+    private void trimCache() {
+        int excess = pages.size() - maxCachedPages;
+        Iterator<Page> iterator = pages.values().iterator();
+        while (excess > 0 && iterator.hasNext()) {
+            Page page = iterator.next();
+            if (!page.isDirty()) {
+                iterator.remove();
+                excess--;
+            }
+        }
+    }
+
+    private void checkOpen() throws IOException {
+        if (closed) throw new IOException("object is closed");
+    }
+
+    public String getBucket() {
+        return bucket;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public long getMaxDirtyBytes() {
+        return maxDirtyBytes;
+    }
+
+    /**
+     * When more than this many bytes are dirty, a write will trigger a flush. Default is 16MB
+     */
+    public synchronized void setMaxDirtyBytes(long maxDirtyBytes) {
+        this.maxDirtyBytes = maxDirtyBytes;
+    }
+
+    public S3RandomAccessObject withMaxDirtyBytes(long maxDirtyBytes) {
+        setMaxDirtyBytes(maxDirtyBytes);
+        return this;
+    }
+
+    /**
+     * Returns the number of PUT requests issued by flushes so far
+     */
+    public long getPutCount() {
+        return putCount.get();
+    }
+
+    private static class Page {
+        byte[] data;
+        boolean loaded;
+        int dirtyStart = -1, dirtyEnd = -1;
+
+        Page(int size) {
+            data = new byte[size];
+        }
+
+        boolean isDirty() {
+            return dirtyStart >= 0;
+        }
+
+        int dirtyLength() {
+            return isDirty() ? dirtyEnd - dirtyStart : 0;
+        }
+
+        void markDirty(int start, int end) {
+            if (!isDirty()) {
+                dirtyStart = start;
+                dirtyEnd = end;
+            } else {
+                dirtyStart = Math.min(dirtyStart, start);
+                dirtyEnd = Math.max(dirtyEnd, end);
+            }
+        }
+
+        void markClean() {
+            dirtyStart = dirtyEnd = -1;
+        }
+    }
+}
@@ -0,0 +1,296 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.s3;
+
+import com.emc.object.Range;
+import com.emc.object.s3.bean.GetObjectResult;
+import com.emc.object.s3.request.GetObjectRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A read-only {@link SeekableByteChannel} over an object, backed by ranged GETs. Reads are served from a cache of
+ * aligned blocks (LRU, bounded by <code>cacheSize</code>), so random reads with some locality (file footers, zip
+ * directories, database pages) cost one request per block rather than one per read call.
+ * <p>
+ * When reads walk forward through consecutive blocks, the channel switches to read-ahead: each miss fetches a window of
+ * following blocks in a single request, and the window doubles (up to <code>maxReadAheadBlocks</code>) for as long as
+ * the access pattern stays sequential. Any seek elsewhere resets the window.
+ * <p>
+ * The object's size and ETag are captured when the channel is opened; all block reads are conditional on that ETag, so
+ * if the object is replaced while the channel is open, reads fail with an {@link IOException} rather than return
+ * mixed content.
+ */
+public class S3SeekableByteChannel implements SeekableByteChannel {
+
+    private static final Logger log = LoggerFactory.getLogger(S3SeekableByteChannel.class);
+
+    public static final int DEFAULT_BLOCK_SIZE = 1024 * 1024; // 1MB
+    public static final long DEFAULT_CACHE_SIZE = 32 * 1024 * 1024; // 32MB
+    public static final int DEFAULT_MAX_READ_AHEAD_BLOCKS = 8;
+
+    private S3Client s3Client;
+    private String bucket;
+    private String key;
+    private int blockSize;
+    private int maxBlocks;
+    private int maxReadAheadBlocks = DEFAULT_MAX_READ_AHEAD_BLOCKS;
+
+    private long size;
+    private String eTag;
+    private long position;
+    private boolean open = true;
+    private BlockCache blocks;
+
+    private long lastBlock = -1;
+    private int readAheadBlocks = 1;
+
+    private long cacheHits, cacheMisses, requestCount, bytesFetched;
+
+    public S3SeekableByteChannel(S3Client s3Client, String bucket, String key) {
+        this(s3Client, bucket, key, DEFAULT_BLOCK_SIZE, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * @param blockSize the size (and alignment) of each cached block
+     * @param cacheSize the memory budget for cached blocks (at least one block is always cached)
+     */
+    public S3SeekableByteChannel(S3Client s3Client, String bucket, String key, int blockSize, long cacheSize) {
+        if (blockSize <= 0) throw new IllegalArgumentException("blockSize must be positive");
+        this.s3Client = s3Client;
+        this.bucket = bucket;
+        this.key = key;
+        this.blockSize = blockSize;
+        this.maxBlocks = (int) Math.max(1, Math.min(Integer.MAX_VALUE, cacheSize / blockSize));
+        this.blocks = new BlockCache(maxBlocks);
+
+        S3ObjectMetadata metadata = s3Client.getObjectMetadata(bucket, key);
+        this.size = metadata.getContentLength();
+        this.eTag = metadata.getETag();
+    }
+
+    @Override
+    public synchronized int read(ByteBuffer dst) throws IOException {
+        checkOpen();
+        if (position >= size) return -1;
+        int total = 0;
+        while (dst.hasRemaining() && position < size) {
+            long blockIndex = position / blockSize;
+            byte[] block = getBlock(blockIndex);
+            int blockOffset = (int) (position - blockIndex * blockSize);
+            int count = Math.min(dst.remaining(), block.length - blockOffset);
+            dst.put(block, blockOffset, count);
+            position += count;
+            total += count;
+        }
+        return total;
+    }
+
+    private byte[] getBlock(long blockIndex) throws IOException {
+        // sequential access detection
+        if (blockIndex == lastBlock + 1) {
+            readAheadBlocks = Math.min(maxReadAheadBlocks, Math.max(1, readAheadBlocks * 2));
+        } else if (blockIndex != lastBlock) {
+            readAheadBlocks = 1;
+        }
+        lastBlock = blockIndex;
+
+        byte[] block = blocks.get(blockIndex);
+        if (block != null) {
+            cacheHits++;
+            return block;
+        }
+        cacheMisses++;
+
+        // never read ahead past the cache budget or the end of the object
+        int blockCount = Math.min(readAheadBlocks, maxBlocks);
+        long lastIndex = (size - 1) / blockSize;
+        blockCount = (int) Math.min(blockCount, lastIndex - blockIndex + 1);
+        // stop at the first block that's already cached
+        for (int i = 1; i < blockCount; i++) {
+            if (blocks.containsKey(blockIndex + i)) {
+                blockCount = i;
+                break;
+            }
+        }
+
+        long start = blockIndex * blockSize;
+        long end = Math.min(size, start + (long) blockCount * blockSize) - 1;
+        byte[] data = fetch(start, end);
+
+        for (int i = 0; i < blockCount; i++) {
+            int from = i * blockSize, to = Math.min(data.length, from + blockSize);
+            byte[] b = new byte[to - from];
+            System.arraycopy(data, from, b, 0, b.length);
+            blocks.put(blockIndex + i, b);
+            if (i == 0) block = b;
+        }
+        return block;
+    }
+
+    private byte[] fetch(long start, long end) throws IOException {
+        log.debug("fetching {}/{} range {}-{}", new Object[]{bucket, key, start, end});
+        requestCount++;
+        GetObjectResult<byte[]> result = s3Client.getObject(new GetObjectRequest(bucket, key)
+                .withRange(new Range(start, end)).withIfMatch(eTag), byte[].class);
+        if (result == null) throw new IOException("object " + bucket + "/" + key + " changed while reading");
+        byte[] data = result.getObject();
+        if (data.length != end - start + 1)
+            throw new IOException(String.format("short read from %s/%s (expected %d bytes, got %d)",
+                    bucket, key, end - start + 1, data.length));
+        bytesFetched += data.length;
+        return data;
+    }
+
+    /**
+     * Always throws {@link NonWritableChannelException}
+     */
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public synchronized long position() throws IOException {
+        checkOpen();
+        return position;
+    }
+
+    @Override
+    public synchronized S3SeekableByteChannel position(long newPosition) throws IOException {
+        checkOpen();
+        if (newPosition < 0) throw new IllegalArgumentException("position cannot be negative");
+        this.position = newPosition;
+        return this;
+    }
+
+    @Override
+    public synchronized long size() throws IOException {
+        checkOpen();
+        return size;
+    }
+
+    /**
+     * Always throws {@link NonWritableChannelException}
+     */
+    @Override
+    public SeekableByteChannel truncate(long size) throws IOException {
+        throw new NonWritableChannelException();
+    }
+
+    @Override
+    public synchronized boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        open = false;
+        blocks.clear();
+    }
+
+    private void checkOpen() throws ClosedChannelException {
+        if (!open) throw new ClosedChannelException();
+    }
+
+    public String getBucket() {
+        return bucket;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public String getETag() {
+        return eTag;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public int getMaxReadAheadBlocks() {
+        return maxReadAheadBlocks;
+    }
+
+    /**
+     * The maximum number of blocks fetched in one request during sequential reads. Set to 1 to disable read-ahead.
+     * Default is 8
+     */
+    public synchronized void setMaxReadAheadBlocks(int maxReadAheadBlocks) {
+        if (maxReadAheadBlocks < 1) throw new IllegalArgumentException("maxReadAheadBlocks must be at least 1");
+        this.maxReadAheadBlocks = maxReadAheadBlocks;
+    }
+
+    public S3SeekableByteChannel withMaxReadAheadBlocks(int maxReadAheadBlocks) {
+        setMaxReadAheadBlocks(maxReadAheadBlocks);
+        return this;
+    }
+
+    public synchronized long getCacheHits() {
+        return cacheHits;
+    }
+
+    public synchronized long getCacheMisses() {
+        return cacheMisses;
+    }
+
+    /**
+     * Returns the number of GET requests issued so far
+     */
+    public synchronized long getRequestCount() {
+        return requestCount;
+    }
+
+    public synchronized long getBytesFetched() {
+        return bytesFetched;
+    }
+
+    private static class BlockCache extends LinkedHashMap<Long, byte[]> {
+        private static final long serialVersionUID = 1L;
+
+        private int maxBlocks;
+
+        BlockCache(int maxBlocks) {
+            super(16, 0.75f, true);
+            this.maxBlocks = maxBlocks;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+            return size() > maxBlocks;
+        }
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.s3;
+
+import com.emc.object.Range;
+
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Describes the layout of a striped object. A striped object is one logical object split into
+ * <code>stripeWidth</code> stripe objects, where consecutive units of <code>stripeUnit</code> bytes are placed
+ * round-robin across the stripes (unit 0 in stripe 0, unit 1 in stripe 1, ... unit N in stripe 0, etc.)
+ * <p>
+ * The manifest itself is stored as a zero-byte object under the logical key, with the layout kept in user metadata.
+ * Stripe objects are stored next to the manifest (see {@link #getStripeKey(int)}). Their keys include the ID of the
+ * upload that wrote them, so overwriting a striped object writes new stripes instead of rewriting the ones the current
+ * manifest points to.
+ *
+ * @see StripedObjectUploader
+ * @see StripedObjectInputStream
+ */
+public class StripeManifest {
+    public static final String META_STRIPE_VERSION = "stripe-version";
+    public static final String META_STRIPE_WIDTH = "stripe-width";
+    public static final String META_STRIPE_UNIT = "stripe-unit";
+    public static final String META_STRIPE_SIZE = "stripe-size";
+    public static final String META_STRIPE_UPLOAD_ID = "stripe-upload-id";
+
+    public static final String CURRENT_VERSION = "1";
+    public static final String STRIPE_KEY_FORMAT = "%s.stripe-%s-%04d"; // key, upload ID, stripe index
+
+    /**
+     * Returns true if the specified object metadata describes a striped object.
+     */
+    public static boolean isStriped(S3ObjectMetadata objectMetadata) {
+        return objectMetadata != null && objectMetadata.getUserMetadata(META_STRIPE_VERSION) != null;
+    }
+
+    /**
+     * Returns a new, unique upload ID
+     */
+    public static String newUploadId() {
+        return UUID.randomUUID().toString();
+    }
+
+    /**
+     * Reads the manifest of <code>bucket/key</code> using a single HEAD request.
+     *
+     * @throws IllegalArgumentException if the object is not a striped object
+     */
+    public static StripeManifest load(S3Client s3Client, String bucket, String key) {
+        S3ObjectMetadata objectMetadata = s3Client.getObjectMetadata(bucket, key);
+        if (!isStriped(objectMetadata))
+            throw new IllegalArgumentException(String.format("%s/%s is not a striped object", bucket, key));
+        return fromMetadata(key, objectMetadata);
+    }
+
+    /**
+     * Deletes a striped object (all of its stripes and then the manifest).
+     */
+    public static void delete(S3Client s3Client, String bucket, String key) {
+        StripeManifest manifest = load(s3Client, bucket, key);
+        for (int i = 0; i < manifest.getStripeWidth(); i++) {
+            s3Client.deleteObject(bucket, manifest.getStripeKey(i));
+        }
+        s3Client.deleteObject(bucket, key);
+    }
+
+    public static StripeManifest fromMetadata(String key, S3ObjectMetadata objectMetadata) {
+        String version = objectMetadata.getUserMetadata(META_STRIPE_VERSION);
+        if (!CURRENT_VERSION.equals(version))
+            throw new IllegalArgumentException("unsupported stripe manifest version: " + version);
+        try {
+            return new StripeManifest(key, objectMetadata.getUserMetadata(META_STRIPE_UPLOAD_ID),
+                    Integer.parseInt(objectMetadata.getUserMetadata(META_STRIPE_WIDTH)),
+                    Long.parseLong(objectMetadata.getUserMetadata(META_STRIPE_UNIT)),
+                    Long.parseLong(objectMetadata.getUserMetadata(META_STRIPE_SIZE)));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid stripe manifest for " + key, e);
+        }
+    }
+
+    private String key;
+    private String uploadId;
+    private int stripeWidth;
+    private long stripeUnit;
+    private long size;
+
+    public StripeManifest(String key, String uploadId, int stripeWidth, long stripeUnit, long size) {
+        if (uploadId == null || uploadId.length() == 0) throw new IllegalArgumentException("upload ID is required");
+        if (stripeWidth <= 0) throw new IllegalArgumentException("stripe width must be positive");
+        if (stripeUnit <= 0) throw new IllegalArgumentException("stripe unit must be positive");
+        if (size < 0) throw new IllegalArgumentException("size cannot be negative");
+        this.key = key;
+        this.uploadId = uploadId;
+        this.stripeWidth = stripeWidth;
+        this.stripeUnit = stripeUnit;
+        this.size = size;
+    }
+
+    /**
+     * Writes the layout into the user metadata of <code>objectMetadata</code> (the manifest object's metadata).
+     */
+    public S3ObjectMetadata toMetadata(S3ObjectMetadata objectMetadata) {
+        objectMetadata.addUserMetadata(META_STRIPE_VERSION, CURRENT_VERSION);
+        objectMetadata.addUserMetadata(META_STRIPE_WIDTH, "" + stripeWidth);
+        objectMetadata.addUserMetadata(META_STRIPE_UNIT, "" + stripeUnit);
+        objectMetadata.addUserMetadata(META_STRIPE_SIZE, "" + size);
+        objectMetadata.addUserMetadata(META_STRIPE_UPLOAD_ID, uploadId);
+        return objectMetadata;
+    }
+
+    /**
+     * Removes all layout entries from <code>userMetadata</code>, leaving only the metadata of the logical object.
+     */
+    public static void stripLayout(Map<String, String> userMetadata) {
+        userMetadata.remove(META_STRIPE_VERSION);
+        userMetadata.remove(META_STRIPE_WIDTH);
+        userMetadata.remove(META_STRIPE_UNIT);
+        userMetadata.remove(META_STRIPE_SIZE);
+        userMetadata.remove(META_STRIPE_UPLOAD_ID);
+    }
+
+    public String getStripeKey(int stripeIndex) {
+        return String.format(STRIPE_KEY_FORMAT, key, uploadId, stripeIndex);
+    }
+
+    /**
+     * Total number of stripe units in the logical object.
+     */
+    public long getUnitCount() {
+        return (size + stripeUnit - 1) / stripeUnit;
+    }
+
+    /**
+     * Returns the index of the stripe that holds <code>unitIndex</code>.
+     */
+    public int getStripeIndex(long unitIndex) {
+        return (int) (unitIndex % stripeWidth);
+    }
+
+    /**
+     * Returns the length of unit <code>unitIndex</code> (all units are <code>stripeUnit</code> bytes except
+     * possibly the last).
+     */
+    public long getUnitLength(long unitIndex) {
+        long unitOffset = unitIndex * stripeUnit;
+        return Math.max(0, Math.min(stripeUnit, size - unitOffset));
+    }
+
+    /**
+     * Returns the range within the stripe object that holds <code>unitIndex</code>.
+     */
+    public Range getStripeRange(long unitIndex) {
+        long stripeOffset = (unitIndex / stripeWidth) * stripeUnit;
+        return Range.fromOffsetLength(stripeOffset, getUnitLength(unitIndex));
+    }
+
+    /**
+     * Returns the total size of the stripe object <code>stripeIndex</code>.
+     */
+    public long getStripeLength(int stripeIndex) {
+        long unitCount = getUnitCount();
+        if (stripeIndex >= unitCount) return 0;
+        long stripeUnits = (unitCount - stripeIndex + stripeWidth - 1) / stripeWidth;
+        long length = stripeUnits * stripeUnit;
+        long lastUnit = unitCount - 1;
+        if (getStripeIndex(lastUnit) == stripeIndex) length -= stripeUnit - getUnitLength(lastUnit);
+        return length;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * The ID of the upload that wrote the stripes (part of each stripe key)
+     */
+    public String getUploadId() {
+        return uploadId;
+    }
+
+    public int getStripeWidth() {
+        return stripeWidth;
+    }
+
+    public long getStripeUnit() {
+        return stripeUnit;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return "StripeManifest{" +
+                "key='" + key + '\'' +
+                ", uploadId='" + uploadId + '\'' +
+                ", stripeWidth=" + stripeWidth +
+                ", stripeUnit=" + stripeUnit +
+                ", size=" + size +
+                '}';
+    }
+}
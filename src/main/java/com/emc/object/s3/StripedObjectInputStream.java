@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.s3;
+
+import com.emc.object.s3.request.GetObjectRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.*;
+
+/**
+ * Seekable stream over a striped object (see {@link StripedObjectUploader}). Reads fan out as ranged GETs across the
+ * stripe objects; by default one unit per stripe is kept in flight ahead of the read position, so aggregate bandwidth
+ * scales with the stripe width.
+ * <p>
+ * Memory use is bounded by <code>readAheadUnits * stripeUnit</code>. Not thread-safe (like any other InputStream).
+ */
+public class StripedObjectInputStream extends InputStream {
+
+    private static final Logger log = LoggerFactory.getLogger(StripedObjectInputStream.class);
+
+    private S3Client s3Client;
+    private String bucket;
+    private StripeManifest manifest;
+    private int readAheadUnits;
+    private ExecutorService executorService;
+    private boolean ownExecutor;
+
+    private long position;
+    private TreeMap<Long, Future<byte[]>> pendingUnits = new TreeMap<Long, Future<byte[]>>();
+    private long currentUnit = -1;
+    private byte[] currentData;
+    private boolean closed;
+
+    /**
+     * Opens <code>bucket/key</code> for reading (loads the manifest with a HEAD request).
+     */
+    public StripedObjectInputStream(S3Client s3Client, String bucket, String key) {
+        this(s3Client, bucket, StripeManifest.load(s3Client, bucket, key), null);
+    }
+
+    /**
+     * Opens a striped object using an already-loaded manifest. If <code>executorService</code> is null, a pool with
+     * one thread per stripe is created and shut down when this stream is closed.
+     */
+    public StripedObjectInputStream(S3Client s3Client, String bucket, StripeManifest manifest,
+                                    ExecutorService executorService) {
+        this.s3Client = s3Client;
+        this.bucket = bucket;
+        this.manifest = manifest;
+        this.readAheadUnits = manifest.getStripeWidth();
+        this.executorService = executorService;
+        if (executorService == null) {
+            this.executorService = Executors.newFixedThreadPool(manifest.getStripeWidth());
+            this.ownExecutor = true;
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        int c = read(b, 0, 1);
+        return c < 0 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (closed) throw new IOException("stream is closed");
+        if (len == 0) return 0;
+        if (position >= manifest.getSize()) return -1;
+
+        long unit = position / manifest.getStripeUnit();
+        if (unit != currentUnit) loadUnit(unit);
+
+        int unitOffset = (int) (position - unit * manifest.getStripeUnit());
+        int count = Math.min(len, currentData.length - unitOffset);
+        System.arraycopy(currentData, unitOffset, b, off, count);
+        position += count;
+        return count;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long target = Math.min(manifest.getSize(), position + Math.max(0, n));
+        long skipped = target - position;
+        seek(target);
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        if (currentData == null || position >= manifest.getSize()) return 0;
+        long unitEnd = currentUnit * manifest.getStripeUnit() + currentData.length;
+        return (int) Math.max(0, unitEnd - position);
+    }
+
+    /**
+     * Moves the read position to <code>newPosition</code>. Prefetched units that are still ahead of the new position
+     * are kept; the rest are discarded.
+     */
+    public void seek(long newPosition) throws IOException {
+        if (closed) throw new IOException("stream is closed");
+        if (newPosition < 0) throw new IllegalArgumentException("position cannot be negative");
+        this.position = newPosition;
+    }
+
+    public long getPosition() {
+        return position;
+    }
+
+    public long getSize() {
+        return manifest.getSize();
+    }
+
+    public StripeManifest getManifest() {
+        return manifest;
+    }
+
+    public int getReadAheadUnits() {
+        return readAheadUnits;
+    }
+
+    /**
+     * Sets how many units to keep in flight ahead of the read position. Defaults to the stripe width (one request per
+     * stripe). Must be at least 1.
+     */
+    public void setReadAheadUnits(int readAheadUnits) {
+        if (readAheadUnits < 1) throw new IllegalArgumentException("read-ahead must be at least 1 unit");
+        this.readAheadUnits = readAheadUnits;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        for (Future<byte[]> future : pendingUnits.values()) {
+            future.cancel(true);
+        }
+        pendingUnits.clear();
+        currentData = null;
+        if (ownExecutor) executorService.shutdownNow();
+    }
+
+    protected void loadUnit(long unit) throws IOException {
+        // drop prefetched units that are behind us or too far ahead (i.e. after a seek)
+        Iterator<Map.Entry<Long, Future<byte[]>>> i = pendingUnits.entrySet().iterator();
+        while (i.hasNext()) {
+            Map.Entry<Long, Future<byte[]>> entry = i.next();
+            if (entry.getKey() < unit || entry.getKey() >= unit + readAheadUnits) {
+                entry.getValue().cancel(true);
+                i.remove();
+            }
+        }
+
+        // make sure the unit and the read-ahead window are requested
+        long lastUnit = Math.min(manifest.getUnitCount(), unit + readAheadUnits);
+        for (long u = unit; u < lastUnit; u++) {
+            if (!pendingUnits.containsKey(u)) pendingUnits.put(u, executorService.submit(new ReadUnitTask(u)));
+        }
+
+        Future<byte[]> future = pendingUnits.remove(unit);
+        try {
+            currentData = future.get();
+            currentUnit = unit;
+        } catch (InterruptedException e) {
+            throw new IOException("interrupted while reading stripe unit " + unit, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw new IOException("error reading stripe unit " + unit, e.getCause());
+        }
+
+        long expected = manifest.getUnitLength(unit);
+        if (currentData.length != expected)
+            throw new IOException(String.format("stripe unit %d is %d bytes (expected %d)",
+                    unit, currentData.length, expected));
+    }
+
+    protected class ReadUnitTask implements Callable<byte[]> {
+        private long unit;
+
+        public ReadUnitTask(long unit) {
+            this.unit = unit;
+        }
+
+        @Override
+        public byte[] call() throws Exception {
+            String stripeKey = manifest.getStripeKey(manifest.getStripeIndex(unit));
+            log.debug("reading unit {} from {}", unit, stripeKey);
+            return s3Client.getObject(new GetObjectRequest(bucket, stripeKey)
+                    .withRange(manifest.getStripeRange(unit)), byte[].class).getObject();
+        }
+    }
+}
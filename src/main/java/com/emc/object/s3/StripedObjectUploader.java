@@ -0,0 +1,503 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.s3;
+
+import com.emc.object.s3.request.PutObjectRequest;
+import com.emc.object.util.ProgressInputStream;
+import com.emc.object.util.ProgressListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Convenience class to write one logical object as several stripe objects. Single-object throughput is limited
+ * per object, so splitting a large object into <code>stripeWidth</code> objects and writing all of them concurrently
+ * lets aggregate bandwidth scale with the number of stripes. Once all stripes are written, a small manifest object
+ * describing the layout is stored under the logical key (see {@link StripeManifest}).
+ * <p>
+ * Each upload writes its stripes under a new upload ID, so overwriting a striped object never touches the stripes of
+ * the current version: readers see either the old or the new object, and if the upload fails, the old object is left
+ * intact. The previous version's stripes are deleted after the new manifest is stored.
+ * <p>
+ * Use {@link StripedObjectInputStream} to read the object back.
+ */
+public class StripedObjectUploader implements Runnable {
+
+    private static final Logger log = LoggerFactory.getLogger(StripedObjectUploader.class);
+
+    public static final int DEFAULT_STRIPE_WIDTH = 8;
+    public static final long MIN_STRIPE_UNIT = 64 * 1024; // 64KB
+    public static final long DEFAULT_STRIPE_UNIT = 4 * 1024 * 1024; // 4MB
+
+    // number of units buffered per stripe when reading from a stream
+    private static final int STREAM_QUEUE_DEPTH = 2;
+    private static final long QUEUE_POLL_MS = 500;
+
+    private S3Client s3Client;
+    private String bucket;
+    private String key;
+    private File file;
+    private InputStream stream;
+    private boolean closeStream = true;
+    private long fullSize;
+    private int stripeWidth = DEFAULT_STRIPE_WIDTH;
+    private long stripeUnit = DEFAULT_STRIPE_UNIT;
+    private S3ObjectMetadata objectMetadata;
+    private ExecutorService executorService;
+    private AtomicLong bytesTransferred = new AtomicLong();
+    private ProgressListener progressListener;
+
+    private StripeManifest manifest;
+
+    /**
+     * Creates a new StripedObjectUploader instance that will use <code>s3Client</code> to upload <code>file</code>
+     * to <code>bucket/key</code>.
+     */
+    public StripedObjectUploader(S3Client s3Client, String bucket, String key, File file) {
+        this.s3Client = s3Client;
+        this.bucket = bucket;
+        this.key = key;
+        this.file = file;
+    }
+
+    /**
+     * Creates a new StripedObjectUploader instance that will read <code>size</code> bytes from <code>stream</code>.
+     * The stream is read sequentially and its units are handed off to the stripe writers, so at most
+     * <code>stripeWidth * 2</code> units are buffered at any time.
+     */
+    public StripedObjectUploader(S3Client s3Client, String bucket, String key, InputStream stream, long size) {
+        this.s3Client = s3Client;
+        this.bucket = bucket;
+        this.key = key;
+        this.stream = stream;
+        this.fullSize = size;
+    }
+
+    @Override
+    public void run() {
+        configure();
+
+        boolean ownExecutor = executorService == null;
+        if (ownExecutor) executorService = Executors.newFixedThreadPool(stripeWidth);
+
+        List<BlockingQueue<byte[]>> queues = null;
+        List<Future<String>> futures = new ArrayList<Future<String>>();
+        try {
+            // remember the version we are replacing (its stripes are deleted once our manifest is stored)
+            StripeManifest previousManifest = loadPreviousManifest();
+
+            // submit one task per stripe
+            if (stream != null) queues = new ArrayList<BlockingQueue<byte[]>>();
+            for (int i = 0; i < stripeWidth; i++) {
+                InputStream stripeStream;
+                if (file != null) {
+                    stripeStream = new FileStripeInputStream(i);
+                } else {
+                    BlockingQueue<byte[]> queue = new ArrayBlockingQueue<byte[]>(STREAM_QUEUE_DEPTH);
+                    queues.add(queue);
+                    stripeStream = new QueueInputStream(queue, manifest.getStripeLength(i));
+                }
+                futures.add(executorService.submit(new UploadStripeTask(i, stripeStream)));
+            }
+
+            // feed the stripe writers from the stream (in this thread)
+            if (stream != null) feedStripes(queues, futures);
+
+            // wait for all stripes to finish
+            for (Future<String> future : futures) {
+                future.get();
+            }
+
+            // write the manifest last so readers never see a partial object
+            S3ObjectMetadata manifestMetadata = objectMetadata == null ? new S3ObjectMetadata() : objectMetadata;
+            manifestMetadata.setContentLength(0L);
+            s3Client.putObject(new PutObjectRequest(bucket, key, new byte[0])
+                    .withObjectMetadata(manifest.toMetadata(manifestMetadata)));
+
+            // the previous version is no longer reachable (failures here only leave orphaned stripes)
+            if (previousManifest != null) deleteStripes(previousManifest, "of previous version");
+
+        } catch (Exception e) {
+            for (Future<String> future : futures) {
+                future.cancel(true);
+            }
+
+            // delete any stripes that were written (they belong only to this upload)
+            deleteStripes(manifest, "after failure");
+            if (e instanceof ExecutionException && e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            if (e instanceof RuntimeException) throw (RuntimeException) e;
+            throw new RuntimeException("error during striped upload", e);
+        } finally {
+            if (ownExecutor) {
+                executorService.shutdown();
+                executorService = null;
+            }
+
+            // make sure we close the input stream if necessary
+            if (stream != null && closeStream) {
+                try {
+                    stream.close();
+                } catch (Throwable t) {
+                    log.warn("could not close stream", t);
+                }
+            }
+        }
+    }
+
+    protected void configure() {
+
+        // sanity checks
+        if (file != null) {
+            if (!file.exists() || !file.canRead())
+                throw new IllegalArgumentException("cannot read file: " + file.getPath());
+
+            fullSize = file.length();
+        } else {
+            if (stream == null)
+                throw new IllegalArgumentException("must specify a file or stream to read");
+
+            if (fullSize < 0)
+                throw new IllegalArgumentException("size must be specified for stream");
+
+            // every stripe writer must be running while the stream is fed, so a shared executor could deadlock
+            if (executorService != null) {
+                log.warn("a custom executor cannot be used when reading from a stream; a dedicated pool will be used");
+                executorService = null;
+            }
+        }
+
+        if (stripeUnit < MIN_STRIPE_UNIT) {
+            log.warn(String.format("%,dk is below the minimum stripe unit (%,dk). the minimum will be used instead",
+                    stripeUnit / 1024, MIN_STRIPE_UNIT / 1024));
+            stripeUnit = MIN_STRIPE_UNIT;
+        }
+
+        manifest = new StripeManifest(key, StripeManifest.newUploadId(), stripeWidth, stripeUnit, fullSize);
+    }
+
+    /**
+     * Returns the manifest of the striped object currently stored under the key, or null if there is none
+     */
+    protected StripeManifest loadPreviousManifest() {
+        try {
+            S3ObjectMetadata objectMetadata = s3Client.getObjectMetadata(bucket, key);
+            return StripeManifest.isStriped(objectMetadata) ? StripeManifest.fromMetadata(key, objectMetadata) : null;
+        } catch (S3Exception e) {
+            if (e.getHttpCode() == 404) return null;
+            throw e;
+        }
+    }
+
+    protected void deleteStripes(StripeManifest stripeManifest, String reason) {
+        for (int i = 0; i < stripeManifest.getStripeWidth(); i++) {
+            try {
+                s3Client.deleteObject(bucket, stripeManifest.getStripeKey(i));
+            } catch (Throwable t) {
+                log.warn("could not delete stripe " + stripeManifest.getStripeKey(i) + " " + reason, t);
+            }
+        }
+    }
+
+    /**
+     * Reads the stream sequentially and hands each unit to the queue of the stripe that owns it. Bails out if any
+     * stripe writer fails (otherwise we could block forever on a full queue).
+     */
+    protected void feedStripes(List<BlockingQueue<byte[]>> queues, List<Future<String>> futures) throws Exception {
+        for (long unit = 0; unit < manifest.getUnitCount(); unit++) {
+            byte[] buffer = new byte[(int) manifest.getUnitLength(unit)];
+            int read = 0;
+            while (read < buffer.length) {
+                int c = stream.read(buffer, read, buffer.length - read);
+                if (c < 0) throw new IOException("stream ended before the specified size was read");
+                read += c;
+            }
+
+            int stripe = manifest.getStripeIndex(unit);
+            while (!queues.get(stripe).offer(buffer, QUEUE_POLL_MS, TimeUnit.MILLISECONDS)) {
+                if (futures.get(stripe).isDone()) futures.get(stripe).get(); // will throw the writer's exception
+            }
+        }
+    }
+
+    public S3Client getS3Client() {
+        return s3Client;
+    }
+
+    public String getBucket() {
+        return bucket;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public InputStream getStream() {
+        return stream;
+    }
+
+    public long getFullSize() {
+        return fullSize;
+    }
+
+    public long getBytesTransferred() {
+        return bytesTransferred.get();
+    }
+
+    /**
+     * Returns the layout of the uploaded object (available once the upload has started)
+     */
+    public StripeManifest getManifest() {
+        return manifest;
+    }
+
+    public boolean isCloseStream() {
+        return closeStream;
+    }
+
+    public void setCloseStream(boolean closeStream) {
+        this.closeStream = closeStream;
+    }
+
+    public int getStripeWidth() {
+        return stripeWidth;
+    }
+
+    /**
+     * Sets the number of stripe objects to split the logical object into. All stripes are written concurrently.
+     * Default is 8
+     */
+    public void setStripeWidth(int stripeWidth) {
+        this.stripeWidth = stripeWidth;
+    }
+
+    public long getStripeUnit() {
+        return stripeUnit;
+    }
+
+    /**
+     * Sets the size of each contiguous unit placed in a stripe. Default is 4MB (minimum is 64KB)
+     */
+    public void setStripeUnit(long stripeUnit) {
+        this.stripeUnit = stripeUnit;
+    }
+
+    public S3ObjectMetadata getObjectMetadata() {
+        return objectMetadata;
+    }
+
+    /**
+     * Sets the metadata of the logical object (stored on the manifest)
+     */
+    public void setObjectMetadata(S3ObjectMetadata objectMetadata) {
+        this.objectMetadata = objectMetadata;
+    }
+
+    public ExecutorService getExecutorService() {
+        return executorService;
+    }
+
+    /**
+     * Allows for providing a custom thread executor when uploading a file. The executor must be able to run
+     * <code>stripeWidth</code> tasks concurrently to get full parallelism. Ignored when uploading from a stream.
+     */
+    public void setExecutorService(ExecutorService executorService) {
+        this.executorService = executorService;
+    }
+
+    public ProgressListener getProgressListener() {
+        return progressListener;
+    }
+
+    public void setProgressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    public StripedObjectUploader withStripeWidth(int stripeWidth) {
+        setStripeWidth(stripeWidth);
+        return this;
+    }
+
+    public StripedObjectUploader withStripeUnit(long stripeUnit) {
+        setStripeUnit(stripeUnit);
+        return this;
+    }
+
+    public StripedObjectUploader withObjectMetadata(S3ObjectMetadata objectMetadata) {
+        setObjectMetadata(objectMetadata);
+        return this;
+    }
+
+    public StripedObjectUploader withCloseStream(boolean closeStream) {
+        setCloseStream(closeStream);
+        return this;
+    }
+
+    public StripedObjectUploader withExecutorService(ExecutorService executorService) {
+        setExecutorService(executorService);
+        return this;
+    }
+
+    public StripedObjectUploader withProgressListener(ProgressListener progressListener) {
+        setProgressListener(progressListener);
+        return this;
+    }
+
+    private void updateBytesTransferred(long count) {
+        long totalTransferred = bytesTransferred.addAndGet(count);
+
+        if (progressListener != null) {
+            progressListener.progress(totalTransferred, fullSize);
+        }
+    }
+
+    protected class UploadStripeTask implements Callable<String> {
+        private int stripeIndex;
+        private InputStream stripeStream;
+
+        public UploadStripeTask(int stripeIndex, InputStream stripeStream) {
+            this.stripeIndex = stripeIndex;
+            this.stripeStream = stripeStream;
+        }
+
+        @Override
+        public String call() throws Exception {
+            long length = manifest.getStripeLength(stripeIndex);
+            try {
+                PutObjectRequest request = new PutObjectRequest(bucket, manifest.getStripeKey(stripeIndex),
+                        new ProgressInputStream(stripeStream, progressListener))
+                        .withObjectMetadata(new S3ObjectMetadata().withContentLength(length));
+                String eTag = s3Client.putObject(request).getETag();
+                updateBytesTransferred(length);
+                return eTag;
+            } finally {
+                stripeStream.close();
+            }
+        }
+    }
+
+    /**
+     * Reads the units of one stripe directly from the source file.
+     */
+    protected class FileStripeInputStream extends InputStream {
+        private RandomAccessFile raFile;
+        private int stripeIndex;
+        private long unit;
+        private long unitRemaining;
+
+        public FileStripeInputStream(int stripeIndex) throws IOException {
+            this.raFile = new RandomAccessFile(file, "r");
+            this.stripeIndex = stripeIndex;
+            this.unit = stripeIndex - stripeWidth; // nextUnit() will advance to the first unit
+        }
+
+        private boolean nextUnit() throws IOException {
+            while (unitRemaining == 0) {
+                unit += stripeWidth;
+                if (unit >= manifest.getUnitCount()) return false;
+                raFile.seek(unit * stripeUnit);
+                unitRemaining = manifest.getUnitLength(unit);
+            }
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int c = read(b, 0, 1);
+            return c < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            if (!nextUnit()) return -1;
+            int c = raFile.read(b, off, (int) Math.min(len, unitRemaining));
+            if (c < 0) throw new IOException("file was truncated while reading stripe " + stripeIndex);
+            unitRemaining -= c;
+            return c;
+        }
+
+        @Override
+        public void close() throws IOException {
+            raFile.close();
+        }
+    }
+
+    /**
+     * Reads the units of one stripe as they are handed off by {@link #feedStripes(List, List)}.
+     */
+    protected static class QueueInputStream extends InputStream {
+        private BlockingQueue<byte[]> queue;
+        private long remaining;
+        private byte[] current;
+        private int position;
+
+        public QueueInputStream(BlockingQueue<byte[]> queue, long length) {
+            this.queue = queue;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int c = read(b, 0, 1);
+            return c < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            if (remaining <= 0) return -1;
+            if (current == null || position >= current.length) {
+                try {
+                    current = queue.take();
+                    position = 0;
+                } catch (InterruptedException e) {
+                    throw new IOException("interrupted while waiting for stripe data", e);
+                }
+            }
+            int c = Math.min(len, current.length - position);
+            System.arraycopy(current, position, b, off, c);
+            position += c;
+            remaining -= c;
+            return c;
+        }
+    }
+}
@@ -0,0 +1,591 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.s3;
+
+import com.emc.object.s3.request.PutObjectRequest;
+import com.emc.object.util.DaemonThreadFactory;
+import com.emc.object.util.SettableFuture;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.CRC32;
+
+/**
+ * Write-behind upload queue. {@link #enqueue(String, String, byte[], String)} persists the object to a local spool
+ * directory and returns as soon as it is durable (according to the {@link FsyncPolicy}); the object is then uploaded in
+ * the background with bounded concurrency and retries. Uploads of the same key are applied in the order they were
+ * enqueued.
+ * <p>
+ * The spool is a series of append-only segment files (<code>segment-NNNNNNNN.log</code>). Each record is framed with a
+ * magic number, length and CRC32. Uploaded records are noted in a companion <code>.done</code> file, and a segment is
+ * deleted once it is full and all of its records are uploaded. When the uploader is created on an existing spool
+ * directory, it recovers: a torn record at the end of a segment (from a crash mid-write) is truncated, and every record
+ * not marked done is uploaded again, unless a later record of the same key supersedes it (a failed upload must not
+ * overwrite newer content of the key). Delivery of the latest content of each key is therefore at-least-once; since a
+ * PUT is idempotent, uploading that content again is harmless.
+ * <p>
+ * With {@link FsyncPolicy#ALWAYS}, concurrent enqueues share fsync calls (group commit), so durability costs roughly
+ * one fsync per batch of writers rather than one per object.
+ */
+public class WriteBehindUploader implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(WriteBehindUploader.class);
+
+    public static final long DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024; // 64MB
+    public static final int DEFAULT_CONCURRENT_UPLOADS = 8;
+    public static final int DEFAULT_MAX_RETRIES = 5;
+    public static final int DEFAULT_RETRY_DELAY_MS = 500;
+    public static final int DEFAULT_SYNC_INTERVAL_MS = 100;
+
+    static final int RECORD_MAGIC = 0x57425231; // "WBR1"
+    private static final int FRAME_OVERHEAD = 4 + 4 + 8; // magic, length, crc
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String DONE_SUFFIX = ".done";
+
+    public enum FsyncPolicy {
+        /**
+         * fsync before {@link #enqueue(String, String, byte[], String)} returns (grouped across concurrent callers)
+         */
+        ALWAYS,
+        /**
+         * fsync on a timer (every <code>syncIntervalMs</code>); a crash may lose the most recent objects
+         */
+        INTERVAL,
+        /**
+         * never fsync explicitly; leave it to the OS
+         */
+        NEVER
+    }
+
+    private S3Client s3Client;
+    private File spoolDir;
+    private FsyncPolicy fsyncPolicy;
+    private long segmentSize = DEFAULT_SEGMENT_SIZE;
+    private int maxRetries = DEFAULT_MAX_RETRIES;
+    private int retryDelayMs = DEFAULT_RETRY_DELAY_MS;
+
+    private ScheduledExecutorService executor;
+    private final Object writeLock = new Object();
+    private final Object syncLock = new Object();
+    private Segment currentSegment;
+    private final Set<Segment> openSegments = Collections.synchronizedSet(new HashSet<Segment>());
+    private long nextSegmentId = 1;
+    private volatile boolean closed;
+
+    // uploads that are waiting for an earlier upload of the same key
+    private final Map<String, LinkedList<Record>> keysInFlight = new HashMap<String, LinkedList<Record>>();
+    private int pendingUploads;
+
+    public WriteBehindUploader(S3Client s3Client, File spoolDir) throws IOException {
+        this(s3Client, spoolDir, FsyncPolicy.ALWAYS, DEFAULT_CONCURRENT_UPLOADS);
+    }
+
+    /**
+     * Opens (or creates) the spool in <code>spoolDir</code>, recovers any records left from a previous run and starts
+     * uploading them.
+     */
+    public WriteBehindUploader(S3Client s3Client, File spoolDir, FsyncPolicy fsyncPolicy, int concurrentUploads)
+            throws IOException {
+        if (!spoolDir.isDirectory() && !spoolDir.mkdirs())
+            throw new IOException("cannot create spool directory " + spoolDir);
+        this.s3Client = s3Client;
+        this.spoolDir = spoolDir;
+        this.fsyncPolicy = fsyncPolicy;
+        this.executor = Executors.newScheduledThreadPool(concurrentUploads, new DaemonThreadFactory("write-behind"));
+
+        recover();
+        synchronized (writeLock) {
+            currentSegment = new Segment(nextSegmentId++);
+        }
+
+        if (fsyncPolicy == FsyncPolicy.INTERVAL) {
+            executor.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        sync();
+                    } catch (IOException e) {
+                        log.warn("periodic fsync failed", e);
+                    }
+                }
+            }, DEFAULT_SYNC_INTERVAL_MS, DEFAULT_SYNC_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Persists the object to the spool and schedules it for upload. Returns once the object is durable per the fsync
+     * policy; the returned future completes when the upload succeeds (or fails after all retries, in which case the
+     * record stays in the spool and will be retried on the next restart, unless the key is enqueued again).
+     */
+    public Future<Void> enqueue(String bucket, String key, byte[] data, String contentType) throws IOException {
+        byte[] body = encodeBody(bucket, key, contentType, data);
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        ByteBuffer frame = ByteBuffer.allocate(FRAME_OVERHEAD + body.length);
+        frame.putInt(RECORD_MAGIC).putInt(body.length).put(body).putLong(crc.getValue());
+        frame.flip();
+
+        Record record;
+        long endPosition;
+        synchronized (writeLock) {
+            // checked under the lock so close() cannot seal the segment or stop the executor underneath us
+            if (closed) throw new IllegalStateException("uploader is closed");
+            if (currentSegment.size > 0 && currentSegment.size + frame.remaining() > segmentSize) {
+                currentSegment.seal();
+                currentSegment = new Segment(nextSegmentId++);
+            }
+            record = currentSegment.append(frame);
+            record.bucket = bucket;
+            record.key = key;
+            endPosition = currentSegment.size;
+
+            // registering the upload here makes close() wait for it (the upload may start before the fsync below
+            // finishes, which is harmless: a crash in between just means the object is uploaded again on restart)
+            submit(record);
+        }
+
+        if (fsyncPolicy == FsyncPolicy.ALWAYS) record.segment.syncTo(endPosition);
+
+        return record.future;
+    }
+
+    /**
+     * Blocks until every enqueued object has been uploaded (or has failed).
+     */
+    public void flush() throws InterruptedException {
+        synchronized (keysInFlight) {
+            while (pendingUploads > 0) keysInFlight.wait();
+        }
+    }
+
+    /**
+     * Stops accepting objects, waits for pending uploads and releases the spool.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (writeLock) {
+            if (closed) return;
+            closed = true;
+        }
+        try {
+            flush();
+        } catch (InterruptedException e) {
+            log.warn("interrupted while waiting for uploads; remaining objects will be recovered on restart");
+        }
+        executor.shutdownNow();
+        synchronized (writeLock) {
+            currentSegment.seal();
+        }
+        // release segments that still hold failed uploads
+        synchronized (openSegments) {
+            for (Segment segment : new ArrayList<Segment>(openSegments)) {
+                segment.release();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of objects that are enqueued but not yet uploaded
+     */
+    public int getPendingCount() {
+        synchronized (keysInFlight) {
+            return pendingUploads;
+        }
+    }
+
+    void sync() throws IOException {
+        Segment segment;
+        long position;
+        synchronized (writeLock) {
+            segment = currentSegment;
+            position = segment.size;
+        }
+        segment.syncTo(position);
+    }
+
+    private void submit(Record record) {
+        String keyPath = record.bucket + "/" + record.key;
+        synchronized (keysInFlight) {
+            pendingUploads++;
+            LinkedList<Record> waiting = keysInFlight.get(keyPath);
+            if (waiting != null) {
+                waiting.add(record); // will be uploaded after the one in flight
+                return;
+            }
+            keysInFlight.put(keyPath, new LinkedList<Record>());
+        }
+        schedule(new UploadTask(record), 0);
+    }
+
+    private void schedule(UploadTask task, long delayMs) {
+        try {
+            executor.schedule(task, delayMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            log.debug("uploader is shut down; {}/{} will be recovered on restart", task.record.bucket, task.record.key);
+        }
+    }
+
+    private void complete(Record record, Throwable error) {
+        if (error == null) {
+            record.segment.markDone(record.index);
+            record.future.set(null);
+        } else {
+            record.future.setException(error);
+        }
+
+        String keyPath = record.bucket + "/" + record.key;
+        Record next;
+        synchronized (keysInFlight) {
+            pendingUploads--;
+            LinkedList<Record> waiting = keysInFlight.get(keyPath);
+            next = waiting.poll();
+            if (next == null) keysInFlight.remove(keyPath);
+            keysInFlight.notifyAll();
+        }
+        if (next != null) schedule(new UploadTask(next), 0);
+    }
+
+    private void recover() throws IOException {
+        File[] files = spoolDir.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX);
+            }
+        });
+        if (files == null) return;
+        Arrays.sort(files);
+
+        // scan every segment first, so that superseded records can be found across segments
+        List<Record> records = new ArrayList<Record>();
+        Map<String, Record> latest = new HashMap<String, Record>();
+        for (File file : files) {
+            long id = Long.parseLong(file.getName().substring(SEGMENT_PREFIX.length(),
+                    file.getName().length() - SEGMENT_SUFFIX.length()));
+            nextSegmentId = Math.max(nextSegmentId, id + 1);
+
+            Segment segment = new Segment(id);
+            for (Record record : segment.scan()) {
+                records.add(record);
+                latest.put(record.bucket + "/" + record.key, record);
+            }
+            segment.seal();
+        }
+
+        int recovered = 0, superseded = 0;
+        for (Record record : records) {
+            if (record.segment.done.get(record.index)) continue;
+            if (latest.get(record.bucket + "/" + record.key) != record) {
+                // a later record of the key replaces this one (i.e. an upload that failed before the key was written
+                // again); uploading it now would overwrite newer content
+                record.segment.markDone(record.index);
+                superseded++;
+            } else {
+                submit(record);
+                recovered++;
+            }
+        }
+        if (superseded > 0) log.info("dropped {} superseded spooled objects from {}", superseded, spoolDir);
+        if (recovered > 0) log.info("recovered {} spooled objects from {}", recovered, spoolDir);
+    }
+
+    private static byte[] encodeBody(String bucket, String key, String contentType, byte[] data) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(data.length + 256);
+        DataOutputStream out = new DataOutputStream(baos);
+        out.writeUTF(bucket);
+        out.writeUTF(key);
+        out.writeUTF(contentType == null ? "" : contentType);
+        out.writeInt(data.length);
+        out.write(data);
+        out.close();
+        return baos.toByteArray();
+    }
+
+    public File getSpoolDir() {
+        return spoolDir;
+    }
+
+    public FsyncPolicy getFsyncPolicy() {
+        return fsyncPolicy;
+    }
+
+    public long getSegmentSize() {
+        return segmentSize;
+    }
+
+    /**
+     * Segments roll over when they reach this size. Default is 64MB
+     */
+    public void setSegmentSize(long segmentSize) {
+        this.segmentSize = segmentSize;
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * The number of times a failed upload is retried before its future fails. Default is 5
+     */
+    public void setMaxRetries(int maxRetries) {
+        this.maxRetries = maxRetries;
+    }
+
+    public int getRetryDelayMs() {
+        return retryDelayMs;
+    }
+
+    /**
+     * The initial delay between upload retries (doubled for each attempt). Default is 500ms
+     */
+    public void setRetryDelayMs(int retryDelayMs) {
+        this.retryDelayMs = retryDelayMs;
+    }
+
+    public WriteBehindUploader withSegmentSize(long segmentSize) {
+        setSegmentSize(segmentSize);
+        return this;
+    }
+
+    public WriteBehindUploader withMaxRetries(int maxRetries) {
+        setMaxRetries(maxRetries);
+        return this;
+    }
+
+    public WriteBehindUploader withRetryDelayMs(int retryDelayMs) {
+        setRetryDelayMs(retryDelayMs);
+        return this;
+    }
+
+    private class UploadTask implements Runnable {
+        private Record record;
+        private int attempt;
+
+        UploadTask(Record record) {
+            this.record = record;
+        }
+
+        @Override
+        public void run() {
+            try {
+                byte[] body = record.segment.read(record);
+                DataInputStream in = new DataInputStream(new ByteArrayInputStream(body));
+                String bucket = in.readUTF(), key = in.readUTF(), contentType = in.readUTF();
+                byte[] data = new byte[in.readInt()];
+                in.readFully(data);
+
+                PutObjectRequest request = new PutObjectRequest(bucket, key, data);
+                if (contentType.length() > 0)
+                    request.withObjectMetadata(new S3ObjectMetadata().withContentType(contentType));
+                s3Client.putObject(request);
+                complete(record, null);
+            } catch (Throwable t) {
+                if (attempt++ < maxRetries && !closed) {
+                    long delay = (long) retryDelayMs << (attempt - 1);
+                    log.info("upload of {}/{} failed ({}); retrying in {}ms",
+                            new Object[]{record.bucket, record.key, t, delay});
+                    schedule(this, delay);
+                } else {
+                    log.error("upload of " + record.bucket + "/" + record.key + " failed; it will remain spooled", t);
+                    complete(record, t);
+                }
+            }
+        }
+    }
+
+    private static class Record {
+        Segment segment;
+        int index;
+        long position;
+        int length;
+        String bucket;
+        String key;
+        SettableFuture<Void> future = new SettableFuture<Void>();
+    }
+
+    /**
+     * One append-only spool file and its done-list.
+     */
+    private class Segment {
+        final File file;
+        final File doneFile;
+        final RandomAccessFile raf;
+        final FileChannel channel;
+        final BitSet done = new BitSet();
+        DataOutputStream doneOut;
+        long size;
+        long syncedSize;
+        int recordCount;
+        int doneCount;
+        boolean sealed;
+
+        Segment(long id) throws IOException {
+            String name = String.format("%s%08d", SEGMENT_PREFIX, id);
+            file = new File(spoolDir, name + SEGMENT_SUFFIX);
+            doneFile = new File(spoolDir, name + DONE_SUFFIX);
+            raf = new RandomAccessFile(file, "rw");
+            channel = raf.getChannel();
+            size = channel.size();
+            openSegments.add(this);
+        }
+
+        Record append(ByteBuffer frame) throws IOException {
+            Record record = new Record();
+            record.segment = this;
+            record.index = recordCount++;
+            record.position = size;
+            record.length = frame.remaining();
+            while (frame.hasRemaining()) size += channel.write(frame, size);
+            return record;
+        }
+
+        /**
+         * Group commit: one caller syncs on behalf of everyone who appended before it started.
+         */
+        void syncTo(long position) throws IOException {
+            synchronized (syncLock) {
+                if (syncedSize >= position || !channel.isOpen()) return;
+                long target;
+                synchronized (writeLock) {
+                    target = size;
+                }
+                channel.force(false);
+                syncedSize = target;
+            }
+        }
+
+        byte[] read(Record record) throws IOException {
+            ByteBuffer buffer = ByteBuffer.allocate(record.length);
+            long position = record.position;
+            while (buffer.hasRemaining()) {
+                int count = channel.read(buffer, position);
+                if (count < 0) throw new EOFException("spool segment " + file + " is truncated");
+                position += count;
+            }
+            buffer.flip();
+            buffer.position(8); // magic, length
+            byte[] body = new byte[record.length - FRAME_OVERHEAD];
+            buffer.get(body);
+            return body;
+        }
+
+        /**
+         * Reads all intact records (truncating a torn tail) and the done-list.
+         */
+        List<Record> scan() throws IOException {
+            List<Record> records = new ArrayList<Record>();
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            long position = 0;
+            try {
+                while (position < size) {
+                    if (size - position < FRAME_OVERHEAD || in.readInt() != RECORD_MAGIC) break;
+                    int length = in.readInt();
+                    if (length < 0 || position + FRAME_OVERHEAD + length > size) break;
+                    byte[] body = new byte[length];
+                    in.readFully(body);
+                    CRC32 crc = new CRC32();
+                    crc.update(body);
+                    if (in.readLong() != crc.getValue()) break;
+
+                    DataInputStream bodyIn = new DataInputStream(new ByteArrayInputStream(body));
+                    Record record = new Record();
+                    record.segment = this;
+                    record.index = recordCount++;
+                    record.position = position;
+                    record.length = FRAME_OVERHEAD + length;
+                    record.bucket = bodyIn.readUTF();
+                    record.key = bodyIn.readUTF();
+                    records.add(record);
+                    position += record.length;
+                }
+            } finally {
+                in.close();
+            }
+            if (position < size) {
+                log.warn("truncating torn record at offset {} of {}", position, file);
+                channel.truncate(position);
+                size = position;
+            }
+            syncedSize = size;
+
+            if (doneFile.exists()) {
+                DataInputStream doneIn = new DataInputStream(new BufferedInputStream(new FileInputStream(doneFile)));
+                try {
+                    while (true) done.set(doneIn.readInt());
+                } catch (EOFException e) {
+                    // end of list (a torn int at the end is just ignored)
+                } finally {
+                    doneIn.close();
+                }
+            }
+            doneCount = done.cardinality();
+            return records;
+        }
+
+        synchronized void markDone(int index) {
+            if (done.get(index)) return;
+            done.set(index);
+            doneCount++;
+            try {
+                if (doneOut == null) doneOut = new DataOutputStream(new FileOutputStream(doneFile, true));
+                doneOut.writeInt(index);
+                doneOut.flush();
+            } catch (IOException e) {
+                log.warn("could not record upload in " + doneFile + "; object may be uploaded again", e);
+            }
+            deleteIfComplete();
+        }
+
+        synchronized void seal() throws IOException {
+            sealed = true;
+            if (fsyncPolicy != FsyncPolicy.NEVER && channel.isOpen()) channel.force(false);
+            deleteIfComplete();
+        }
+
+        private void deleteIfComplete() {
+            if (!sealed || doneCount < recordCount) return;
+            release();
+            if (!file.delete() || (doneFile.exists() && !doneFile.delete()))
+                log.warn("could not delete completed spool segment {}", file);
+        }
+
+        synchronized void release() {
+            try {
+                if (doneOut != null) doneOut.close();
+                raf.close();
+            } catch (IOException e) {
+                log.warn("error closing spool segment " + file, e);
+            }
+            openSegments.remove(this);
+        }
+    }
+}
@@ -29,6 +29,7 @@ package com.emc.object.s3.jersey;
 import com.emc.object.s3.S3Config;
 import com.emc.object.s3.S3Constants;
 import com.emc.object.s3.S3SignerV2;
+import com.emc.object.util.ClientTracer;
 import com.emc.object.util.RestUtil;
 import com.sun.jersey.api.client.ClientHandlerException;
 import com.sun.jersey.api.client.ClientRequest;
@@ -70,10 +71,18 @@ public class AuthorizationFilter extends ClientFilter {
                 if (namespace != null) resource = "/" + namespace + resource;
             }
 
+            ClientTracer tracer = s3Config.getClientTracer();
+            Object traceContext = null;
+            if (tracer != null) traceContext = tracer.phaseStarted(ClientTracer.PHASE_SIGN,
+                    (String) request.getProperties().get(S3Constants.PROPERTY_BUCKET_NAME),
+                    (String) request.getProperties().get(S3Constants.PROPERTY_OBJECT_KEY));
+
             signer.sign(request.getMethod(),
                     resource,
                     parameters,
                     request.getHeaders());
+
+            if (tracer != null) tracer.phaseCompleted(traceContext);
         }
 
         return getNext().handle(request);
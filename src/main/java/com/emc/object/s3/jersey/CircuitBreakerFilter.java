@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.s3.jersey;
+
+import com.emc.object.util.CircuitBreaker;
+import com.emc.rest.smart.Host;
+import com.emc.rest.smart.HostVetoRule;
+import com.emc.rest.smart.LoadBalancer;
+import com.emc.rest.smart.SmartFilter;
+import com.sun.jersey.api.client.ClientHandlerException;
+import com.sun.jersey.api.client.ClientRequest;
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.api.client.filter.ClientFilter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Records the outcome of each request in the circuit breaker of the host it was sent to. A failure is an exception
+ * (i.e. connection error or timeout) or a 50x response (except 501).
+ * <p>
+ * Before the request is sent, if the veto rules (including the {@link CircuitBreakerRule}) would leave no host to send
+ * it to, the circuit breakers are bypassed for this request. Afterwards, any half-open trial permits the request took
+ * for hosts it was not sent to are returned.
+ * <p>
+ * Note: this filter must run immediately before the smart filter (it must be added to the client first; only a
+ * {@link HostLatencyFilter}, which does not change the request, may be added before it). After the smart filter has run,
+ * the request URI contains the host it selected.
+ */
+public class CircuitBreakerFilter extends ClientFilter {
+
+    private static final Logger log = LoggerFactory.getLogger(CircuitBreakerFilter.class);
+
+    private CircuitBreakerRule rule;
+    private LoadBalancer loadBalancer;
+
+    public CircuitBreakerFilter(CircuitBreakerRule rule, LoadBalancer loadBalancer) {
+        this.rule = rule;
+        this.loadBalancer = loadBalancer;
+    }
+
+    @Override
+    public ClientResponse handle(ClientRequest request) throws ClientHandlerException {
+        Map<String, Object> properties = request.getProperties();
+        properties.remove(CircuitBreakerRule.PROP_BYPASS);
+        if (!Boolean.TRUE.equals(properties.get(SmartFilter.BYPASS_LOAD_BALANCER)) && !isAnyHostAvailable(properties)) {
+            log.debug("all hosts are vetoed; bypassing circuit breakers");
+            properties.put(CircuitBreakerRule.PROP_BYPASS, Boolean.TRUE);
+        }
+
+        ClientResponse response;
+        try {
+            response = getNext().handle(request);
+        } catch (RuntimeException e) {
+            record(request, false);
+            throw e;
+        } finally {
+            rule.releaseTrials(properties, request.getURI().getHost());
+        }
+        record(request, response.getStatus() < 500 || response.getStatus() == 501);
+        return response;
+    }
+
+    protected boolean isAnyHostAvailable(Map<String, Object> properties) {
+        List<HostVetoRule> vetoRules = loadBalancer.getVetoRules();
+        for (Host host : loadBalancer.getAllHosts()) {
+            if (!CircuitBreakerRule.isVetoed(host, vetoRules, properties)) return true;
+        }
+        return false;
+    }
+
+    protected void record(ClientRequest request, boolean success) {
+        String host = request.getURI().getHost();
+        CircuitBreaker breaker = rule.getCircuitBreaker(host);
+        if (success) {
+            breaker.recordSuccess();
+        } else {
+            CircuitBreaker.State before = breaker.getState();
+            breaker.recordFailure();
+            if (before != CircuitBreaker.State.OPEN && breaker.getState() == CircuitBreaker.State.OPEN)
+                log.warn("circuit breaker opened for host {}", host);
+        }
+    }
+
+    public CircuitBreakerRule getRule() {
+        return rule;
+    }
+}
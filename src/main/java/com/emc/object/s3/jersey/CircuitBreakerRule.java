@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.s3.jersey;
+
+import com.emc.object.s3.S3Config;
+import com.emc.object.util.CircuitBreaker;
+import com.emc.rest.smart.Host;
+import com.emc.rest.smart.HostVetoRule;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Keeps a per-host {@link CircuitBreaker} and vetoes hosts whose breaker is open. A half-open host is offered to the
+ * first request that asks for it, which takes the breaker's trial permit (recorded in {@link #PROP_TRIAL_HOSTS}); it is
+ * vetoed for all other requests until the trial's outcome is known. Also vetoes hosts that a retry should avoid (hosts
+ * that already failed the request, see {@link #PROP_AVOID_HOSTS}).
+ * <p>
+ * Outcomes are recorded by the {@link CircuitBreakerFilter}, which also returns trial permits for hosts a request was
+ * not sent to, and bypasses this rule for a request if it would leave no host to send it to.
+ */
+public class CircuitBreakerRule implements HostVetoRule {
+    /**
+     * Set&lt;String&gt; of host names the request should avoid if possible
+     */
+    public static final String PROP_AVOID_HOSTS = "com.emc.object.avoidHosts";
+    public static final String PROP_BYPASS = "com.emc.object.bypassCircuitBreakers";
+    /**
+     * Set&lt;String&gt; of half-open host names for which the request holds the trial permit
+     */
+    public static final String PROP_TRIAL_HOSTS = "com.emc.object.circuitBreakerTrialHosts";
+
+    /**
+     * Returns true if any of <code>vetoRules</code> vetoes <code>host</code>, without taking a trial permit from a
+     * circuit breaker (for checks that don't send the request)
+     */
+    public static boolean isVetoed(Host host, List<HostVetoRule> vetoRules, Map<String, Object> requestProperties) {
+        if (vetoRules == null) return false;
+        for (HostVetoRule rule : vetoRules) {
+            boolean vetoed = rule instanceof CircuitBreakerRule
+                    ? ((CircuitBreakerRule) rule).isVetoed(host, requestProperties)
+                    : rule.shouldVeto(host, requestProperties);
+            if (vetoed) return true;
+        }
+        return false;
+    }
+
+    private S3Config s3Config;
+    private final ConcurrentMap<String, CircuitBreaker> breakers = new ConcurrentHashMap<String, CircuitBreaker>();
+
+    public CircuitBreakerRule(S3Config s3Config) {
+        this.s3Config = s3Config;
+    }
+
+    /**
+     * Called by the load balancer while choosing a host; takes the trial permit of a half-open host
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public boolean shouldVeto(Host host, Map<String, Object> requestProperties) {
+        if (Boolean.TRUE.equals(requestProperties.get(PROP_BYPASS))) return false;
+        if (isAvoided(host, requestProperties)) return true;
+
+        CircuitBreaker breaker = breakers.get(host.getName());
+        if (breaker == null) return false;
+        synchronized (breaker) {
+            if (breaker.getState() != CircuitBreaker.State.HALF_OPEN) return !breaker.isCallAllowed();
+            if (!breaker.tryAcquire()) return true;
+        }
+        Set<String> trialHosts = (Set<String>) requestProperties.get(PROP_TRIAL_HOSTS);
+        if (trialHosts == null) {
+            trialHosts = new HashSet<String>();
+            requestProperties.put(PROP_TRIAL_HOSTS, trialHosts);
+        }
+        trialHosts.add(host.getName());
+        return false;
+    }
+
+    /**
+     * Same as {@link #shouldVeto(Host, Map)}, but does not take a trial permit
+     */
+    public boolean isVetoed(Host host, Map<String, Object> requestProperties) {
+        if (Boolean.TRUE.equals(requestProperties.get(PROP_BYPASS))) return false;
+        if (isAvoided(host, requestProperties)) return true;
+
+        CircuitBreaker breaker = breakers.get(host.getName());
+        return breaker != null && !breaker.isCallAllowed();
+    }
+
+    /**
+     * Returns the trial permits the request took for hosts other than <code>usedHost</code> (the one it was sent to)
+     */
+    @SuppressWarnings("unchecked")
+    public void releaseTrials(Map<String, Object> requestProperties, String usedHost) {
+        Set<String> trialHosts = (Set<String>) requestProperties.remove(PROP_TRIAL_HOSTS);
+        if (trialHosts == null) return;
+        for (String hostName : trialHosts) {
+            if (!hostName.equals(usedHost)) getCircuitBreaker(hostName).release();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private boolean isAvoided(Host host, Map<String, Object> requestProperties) {
+        Set<String> avoidHosts = (Set<String>) requestProperties.get(PROP_AVOID_HOSTS);
+        return avoidHosts != null && avoidHosts.contains(host.getName());
+    }
+
+    public CircuitBreaker getCircuitBreaker(String hostName) {
+        CircuitBreaker breaker = breakers.get(hostName);
+        if (breaker == null) {
+            breakers.putIfAbsent(hostName, new CircuitBreaker()
+                    .withFailureRate(s3Config.getCircuitBreakerFailureRate())
+                    .withOpenTime(s3Config.getCircuitBreakerOpenTime()));
+            breaker = breakers.get(hostName);
+        }
+        return breaker;
+    }
+
+    /**
+     * Returns the circuit breakers by host name (only hosts that have been used have a breaker)
+     */
+    public Map<String, CircuitBreaker> getCircuitBreakers() {
+        return Collections.unmodifiableMap(breakers);
+    }
+}
@@ -27,7 +27,9 @@
 package com.emc.object.s3.jersey;
 
 import com.emc.codec.CodecChain;
+import com.emc.object.s3.S3Constants;
 import com.emc.object.s3.S3ObjectMetadata;
+import com.emc.object.util.ClientTracer;
 import com.emc.object.util.RestUtil;
 import com.emc.rest.smart.SizeOverrideWriter;
 import com.sun.jersey.api.client.*;
@@ -51,6 +53,7 @@ public class CodecFilter extends ClientFilter {
 
     private CodecChain encodeChain;
     private Map<String, Object> codecProperties;
+    private ClientTracer clientTracer;
 
     public CodecFilter(CodecChain encodeChain) {
         this.encodeChain = encodeChain;
@@ -79,7 +82,9 @@ public class CodecFilter extends ClientFilter {
             // a "dangling" output stream and connect it in the adapter
             // NOTE: we can't alter the headers in the adapt() method because they've already been a) signed and b) sent
             DanglingOutputStream danglingStream = new DanglingOutputStream();
+            Object traceContext = tracePhaseStarted(ClientTracer.PHASE_ENCODE, request);
             OutputStream encodeStream = encodeChain.getEncodeStream(danglingStream, userMeta);
+            if (clientTracer != null) clientTracer.phaseCompleted(traceContext);
 
             // add pre-stream encode metadata
             request.getHeaders().putAll(S3ObjectMetadata.getUmdHeaders(userMeta));
@@ -109,7 +114,9 @@ public class CodecFilter extends ClientFilter {
             if (decode != null && decode) {
 
                 // wrap input stream with decryptor (this will remove any encode metadata from storedMeta)
+                Object traceContext = tracePhaseStarted(ClientTracer.PHASE_DECODE, request);
                 response.setEntityInputStream(decodeChain.getDecodeStream(response.getEntityInputStream(), storedMeta));
+                if (clientTracer != null) clientTracer.phaseCompleted(traceContext);
             } else {
 
                 // need to remove any encode metadata so we can update the headers
@@ -131,6 +138,13 @@ public class CodecFilter extends ClientFilter {
         return response;
     }
 
+    private Object tracePhaseStarted(String phase, ClientRequest request) {
+        if (clientTracer == null) return null;
+        return clientTracer.phaseStarted(phase,
+                (String) request.getProperties().get(S3Constants.PROPERTY_BUCKET_NAME),
+                (String) request.getProperties().get(S3Constants.PROPERTY_OBJECT_KEY));
+    }
+
     // only way to set the output stream
     private class EncryptAdapter extends AbstractClientRequestAdapter {
         DanglingOutputStream danglingStream;
@@ -162,6 +176,22 @@ public class CodecFilter extends ClientFilter {
         return this;
     }
 
+    public ClientTracer getClientTracer() {
+        return clientTracer;
+    }
+
+    /**
+     * Sets a tracer to be notified of the encode and decode setup phases (which include any key wrapping/unwrapping)
+     */
+    public void setClientTracer(ClientTracer clientTracer) {
+        this.clientTracer = clientTracer;
+    }
+
+    public CodecFilter withClientTracer(ClientTracer clientTracer) {
+        setClientTracer(clientTracer);
+        return this;
+    }
+
     private static class DanglingOutputStream extends FilterOutputStream {
         private static final OutputStream BOGUS_STREAM = new OutputStream() {
             @Override
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.s3.jersey;
+
+import com.emc.object.util.RequestTimings;
+import com.emc.object.util.RestUtil;
+import com.sun.jersey.api.client.AbstractClientRequestAdapter;
+import com.sun.jersey.api.client.ClientHandlerException;
+import com.sun.jersey.api.client.ClientRequest;
+import com.sun.jersey.api.client.ClientRequestAdapter;
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.api.client.filter.ClientFilter;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Marks the phases of each attempt of a request in its {@link RequestTimings} (handler start, entity sent and response
+ * headers received) and makes the timings available to the {@link TimingConnectionManager} on this thread.
+ * <p>
+ * Note: this filter must run after the RetryFilter (it must be added to the client first), so each attempt is marked
+ */
+public class ConnectionTimingFilter extends ClientFilter {
+    @Override
+    public ClientResponse handle(ClientRequest request) throws ClientHandlerException {
+        RequestTimings timings = (RequestTimings) request.getProperties().get(RestUtil.PROPERTY_REQUEST_TIMINGS);
+        if (timings == null) return getNext().handle(request);
+
+        ClientRequestAdapter adapter = request.getAdapter();
+        if (request.getEntity() != null) request.setAdapter(new SendAdapter(adapter, timings));
+
+        timings.markHandlerStart();
+        RequestTimings.setCurrent(timings);
+        try {
+            ClientResponse response = getNext().handle(request);
+            timings.markFirstByte();
+            return response;
+        } finally {
+            RequestTimings.setCurrent(null);
+            request.setAdapter(adapter); // don't stack adapters on retry
+        }
+    }
+
+    private static class SendAdapter extends AbstractClientRequestAdapter {
+        private RequestTimings timings;
+
+        SendAdapter(ClientRequestAdapter parent, RequestTimings timings) {
+            super(parent);
+            this.timings = timings;
+        }
+
+        @Override
+        public OutputStream adapt(ClientRequest request, OutputStream out) throws IOException {
+            return getAdapter().adapt(request, new FilterOutputStream(out) {
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    out.write(b, off, len);
+                }
+
+                @Override
+                public void close() throws IOException {
+                    super.close();
+                    timings.markSendComplete();
+                }
+            });
+        }
+    }
+}
@@ -66,19 +66,39 @@ public class ErrorFilter extends ClientFilter {
                     }
                 }
             }
+            S3Exception exception;
             if(response.hasEntity()) {
-                throw parseErrorResponse(new InputStreamReader(response.getEntityInputStream()), response.getStatus());
+                exception = parseErrorResponse(new InputStreamReader(response.getEntityInputStream()), response.getStatus());
             } else {
                 // No response entity.  Don't try to parse it.
                 Response.StatusType st = response.getStatusInfo();
-                throw new S3Exception(st.getReasonPhrase(), st.getStatusCode(), guessStatus(st.getStatusCode()),
+                exception = new S3Exception(st.getReasonPhrase(), st.getStatusCode(), guessStatus(st.getStatusCode()),
                         response.getHeaders().getFirst("x-amz-request-id"));
             }
+            exception.setRetryAfter(parseRetryAfter(response.getHeaders().getFirst(RestUtil.HEADER_RETRY_AFTER)));
+            throw exception;
         }
 
         return response;
     }
 
+    /**
+     * Parses a Retry-After header (either delta-seconds or an HTTP date) into milliseconds, or -1 if there is none
+     */
+    public static long parseRetryAfter(String retryAfter) {
+        if (retryAfter == null || retryAfter.trim().length() == 0) return -1;
+        try {
+            return Math.max(0, Long.parseLong(retryAfter.trim()) * 1000);
+        } catch (NumberFormatException e) {
+            try {
+                return Math.max(0, RestUtil.headerParse(retryAfter.trim()).getTime() - System.currentTimeMillis());
+            } catch (RuntimeException e2) {
+                log.debug("could not parse Retry-After header: {}", retryAfter);
+                return -1;
+            }
+        }
+    }
+
     private String guessStatus(int statusCode) {
         switch (statusCode) {
             case 400:
@@ -0,0 +1,351 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.s3.jersey;
+
+import com.emc.object.Method;
+import com.emc.object.s3.S3Config;
+import com.emc.object.util.DaemonThreadFactory;
+import com.emc.object.util.RestUtil;
+import com.emc.rest.smart.Host;
+import com.emc.rest.smart.HostVetoRule;
+import com.emc.rest.smart.LoadBalancer;
+import com.sun.jersey.api.client.ClientHandlerException;
+import com.sun.jersey.api.client.ClientRequest;
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.api.client.filter.ClientFilter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hedges idempotent reads (HEAD, and GET requests for a byte range no larger than
+ * {@link S3Config#getHedgeMaxReadSize()}). If no response has been received within the hedge delay, a duplicate of the
+ * request is sent and whichever response arrives first is returned; the other response is closed in the background as
+ * soon as it arrives. Closing a response reads its body to the end (so the connection can be reused), which is why
+ * unbounded GETs are never hedged. When a load balancer is provided, the duplicate is sent to a different host (this
+ * requires a {@link HedgeRule} in the load balancer's veto rules).
+ * <p>
+ * The number of hedged requests is limited by the hedge budget, which is the maximum ratio of hedged requests to reads.
+ * The hedge delay is either fixed or tracks a percentile of recent response times (see
+ * {@link S3Config#setHedgePercentile(float)}), but no less than {@link S3Config#getHedgeMinDelay()}. Hedged copies
+ * carry the {@link #PROP_HEDGE} request property.
+ * <p>
+ * Note: this filter must be applied *after* the retry filter, so that each retry is hedged independently.
+ */
+public class HedgingFilter extends ClientFilter {
+
+    private static final Logger log = LoggerFactory.getLogger(HedgingFilter.class);
+
+    public static final int LATENCY_WINDOW = 1000;
+    public static final int MIN_LATENCY_SAMPLES = 100;
+    public static final int MAX_HEDGE_TOKENS = 10;
+
+    /**
+     * Request property set on hedged copies of a request
+     */
+    public static final String PROP_HEDGE = "com.emc.object.hedge";
+
+    private static final String RANGE_PREFIX = "bytes=";
+
+    private S3Config s3Config;
+    private LoadBalancer loadBalancer;
+    private ExecutorService executor;
+
+    private final long[] latencies = new long[LATENCY_WINDOW];
+    private int latencyCount;
+    private long percentileDelay = -1;
+    private double hedgeTokens = MAX_HEDGE_TOKENS;
+    private final AtomicLong readCount = new AtomicLong(), hedgeCount = new AtomicLong(), hedgeWinCount = new AtomicLong();
+
+    /**
+     * @param loadBalancer the load balancer used by the smart client, or null if the smart client is disabled (in
+     *                     which case hedged requests go to the same endpoint)
+     */
+    public HedgingFilter(S3Config s3Config, LoadBalancer loadBalancer) {
+        this.s3Config = s3Config;
+        this.loadBalancer = loadBalancer;
+        this.executor = Executors.newCachedThreadPool(new DaemonThreadFactory("hedged-read"));
+    }
+
+    @Override
+    public ClientResponse handle(ClientRequest request) throws ClientHandlerException {
+        if (!isHedgeable(request)) return getNext().handle(request);
+
+        readCount.incrementAndGet();
+        addHedgeTokens(s3Config.getHedgeBudget());
+
+        Race race = new Race();
+        ClientRequest primaryRequest = copy(request);
+        race.start(primaryRequest);
+
+        try {
+            Attempt attempt = race.poll(getHedgeDelay());
+
+            if (attempt == null) {
+                ClientRequest hedgeRequest = hedgeCopy(request, primaryRequest);
+                if (hedgeRequest != null && takeHedgeToken()) {
+                    log.debug("no response after {}ms; sending hedged request", getHedgeDelay());
+                    hedgeCount.incrementAndGet();
+                    race.start(hedgeRequest);
+                }
+                attempt = race.take();
+            }
+
+            // wait for the first success; only fail if all attempts fail
+            RuntimeException firstError = null;
+            while (true) {
+                if (attempt.response != null) {
+                    if (attempt.request != primaryRequest) hedgeWinCount.incrementAndGet();
+                    return attempt.response;
+                }
+                if (firstError == null) firstError = attempt.error;
+                if (race.pending() == 0) throw firstError;
+                attempt = race.take();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ClientHandlerException("interrupted while waiting for read response", e);
+        } finally {
+            race.finish();
+        }
+    }
+
+    /**
+     * Returns true for HEAD requests and for GET requests whose range is no larger than the configured maximum
+     */
+    protected boolean isHedgeable(ClientRequest request) {
+        if (Method.HEAD.name().equalsIgnoreCase(request.getMethod())) return true;
+        if (!Method.GET.name().equalsIgnoreCase(request.getMethod())) return false;
+        Object range = request.getHeaders().getFirst(RestUtil.HEADER_RANGE);
+        if (range == null) return false;
+        long size = getRangeSize(range.toString());
+        return size >= 0 && size <= s3Config.getHedgeMaxReadSize();
+    }
+
+    /**
+     * Returns the total number of bytes requested by a Range header (i.e. "bytes=0-99,-50" is 150), or -1 if it
+     * includes an open-ended range or cannot be parsed
+     */
+    static long getRangeSize(String rangeHeader) {
+        if (!rangeHeader.startsWith(RANGE_PREFIX)) return -1;
+        long size = 0;
+        try {
+            for (String range : rangeHeader.substring(RANGE_PREFIX.length()).split(",")) {
+                range = range.trim();
+                int dash = range.indexOf('-');
+                if (dash < 0 || dash == range.length() - 1) return -1; // open-ended
+                long last = Long.parseLong(range.substring(dash + 1));
+                if (dash == 0) size += last; // suffix range (the last n bytes)
+                else size += last - Long.parseLong(range.substring(0, dash)) + 1;
+            }
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+        return size;
+    }
+
+    protected ClientRequest copy(ClientRequest request) {
+        ClientRequest copy = request.clone();
+        copy.getProperties().putAll(request.getProperties());
+        return copy;
+    }
+
+    /**
+     * Returns a copy of the request to send as a hedge, or null if there is no other host to send it to
+     */
+    protected ClientRequest hedgeCopy(ClientRequest request, ClientRequest primaryRequest) {
+        ClientRequest hedgeRequest = copy(request);
+        hedgeRequest.getProperties().put(PROP_HEDGE, Boolean.TRUE);
+        if (loadBalancer == null) return hedgeRequest;
+
+        // the smart filter has rewritten the primary request's URI with the host it chose
+        String primaryHost = primaryRequest.getURI().getHost();
+        hedgeRequest.getProperties().put(HedgeRule.PROP_EXCLUDED_HOST, primaryHost);
+
+        List<HostVetoRule> vetoRules = loadBalancer.getVetoRules();
+        for (Host host : loadBalancer.getAllHosts()) {
+            // only checking here; a circuit breaker's trial permit is taken when the hedge is sent
+            if (!CircuitBreakerRule.isVetoed(host, vetoRules, hedgeRequest.getProperties()) && host.isHealthy())
+                return hedgeRequest;
+        }
+
+        log.debug("no alternate host available to hedge request (primary host {})", primaryHost);
+        return null;
+    }
+
+    public synchronized long getHedgeDelay() {
+        if (s3Config.getHedgePercentile() > 0 && percentileDelay >= 0) return percentileDelay;
+        return s3Config.getHedgeDelay();
+    }
+
+    protected synchronized void recordLatency(long latencyMs) {
+        latencies[latencyCount++ % LATENCY_WINDOW] = latencyMs;
+
+        // recalculate the percentile periodically
+        if (s3Config.getHedgePercentile() > 0 && latencyCount >= MIN_LATENCY_SAMPLES
+                && latencyCount % MIN_LATENCY_SAMPLES == 0) {
+            long[] sorted = Arrays.copyOf(latencies, Math.min(latencyCount, LATENCY_WINDOW));
+            Arrays.sort(sorted);
+            int index = (int) Math.ceil(s3Config.getHedgePercentile() / 100.0 * sorted.length) - 1;
+            long delay = sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+            percentileDelay = Math.max(s3Config.getHedgeMinDelay(), delay);
+        }
+    }
+
+    protected synchronized void addHedgeTokens(double tokens) {
+        hedgeTokens = Math.min(MAX_HEDGE_TOKENS, hedgeTokens + tokens);
+    }
+
+    protected synchronized boolean takeHedgeToken() {
+        if (hedgeTokens < 1) return false;
+        hedgeTokens--;
+        return true;
+    }
+
+    public long getReadCount() {
+        return readCount.get();
+    }
+
+    /**
+     * Returns the number of hedged requests that have been sent
+     */
+    public long getHedgeCount() {
+        return hedgeCount.get();
+    }
+
+    /**
+     * Returns the number of times a hedged request responded before the original
+     */
+    public long getHedgeWinCount() {
+        return hedgeWinCount.get();
+    }
+
+    /**
+     * Stops the hedging threads; called when the client is destroyed
+     */
+    public void destroy() {
+        executor.shutdownNow();
+    }
+
+    private static class Attempt {
+        ClientRequest request;
+        ClientResponse response;
+        RuntimeException error;
+
+        Attempt(ClientRequest request) {
+            this.request = request;
+        }
+    }
+
+    /**
+     * Tracks the attempts for one read. Once finished, the responses of the losing attempts are closed on the hedging
+     * threads (never on the caller's thread), including any that complete later.
+     */
+    private class Race {
+        private final BlockingQueue<Attempt> completed = new LinkedBlockingQueue<Attempt>();
+        private int started, taken;
+        private boolean finished;
+
+        void start(final ClientRequest request) {
+            started++;
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    Attempt attempt = new Attempt(request);
+                    long start = System.currentTimeMillis();
+                    try {
+                        attempt.response = getNext().handle(request);
+                        recordLatency(System.currentTimeMillis() - start);
+                    } catch (RuntimeException e) {
+                        attempt.error = e;
+                    }
+                    complete(attempt);
+                }
+            });
+        }
+
+        private void complete(Attempt attempt) {
+            synchronized (this) {
+                if (!finished) {
+                    completed.add(attempt);
+                    return;
+                }
+            }
+            close(attempt);
+        }
+
+        Attempt poll(long timeoutMs) throws InterruptedException {
+            Attempt attempt = completed.poll(timeoutMs, TimeUnit.MILLISECONDS);
+            if (attempt != null) taken++;
+            return attempt;
+        }
+
+        Attempt take() throws InterruptedException {
+            Attempt attempt = completed.take();
+            taken++;
+            return attempt;
+        }
+
+        int pending() {
+            return started - taken;
+        }
+
+        void finish() {
+            final List<Attempt> losers = new ArrayList<Attempt>();
+            synchronized (this) {
+                finished = true;
+                completed.drainTo(losers);
+            }
+            if (losers.isEmpty()) return;
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        for (Attempt attempt : losers) close(attempt);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                for (Attempt attempt : losers) close(attempt); // the client is being destroyed
+            }
+        }
+
+        private void close(Attempt attempt) {
+            if (attempt.response != null) {
+                try {
+                    attempt.response.close();
+                } catch (RuntimeException e) {
+                    log.debug("error closing hedged response", e);
+                }
+            }
+        }
+    }
+}
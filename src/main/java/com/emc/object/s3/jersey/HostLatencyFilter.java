@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.s3.jersey;
+
+import com.emc.object.util.LatencyAwareLoadBalancer;
+import com.sun.jersey.api.client.ClientHandlerException;
+import com.sun.jersey.api.client.ClientRequest;
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.api.client.filter.ClientFilter;
+
+/**
+ * Reports the response time of each request without an entity (time until the response headers are received) to a
+ * {@link LatencyAwareLoadBalancer}. Requests with an entity (i.e. PUT and POST) are not reported, because their
+ * response time includes sending the entity and says more about its size than about the host. Failed requests are not
+ * reported either; the smart client marks those hosts unhealthy.
+ * <p>
+ * Note: this filter must run immediately before the smart filter (it must be added to the client first). After the
+ * smart filter has run, the request URI contains the host it selected.
+ */
+public class HostLatencyFilter extends ClientFilter {
+    private LatencyAwareLoadBalancer loadBalancer;
+
+    public HostLatencyFilter(LatencyAwareLoadBalancer loadBalancer) {
+        this.loadBalancer = loadBalancer;
+    }
+
+    @Override
+    public ClientResponse handle(ClientRequest request) throws ClientHandlerException {
+        if (request.getEntity() != null) return getNext().handle(request);
+
+        long start = System.currentTimeMillis();
+        ClientResponse response = getNext().handle(request);
+        loadBalancer.recordLatency(request.getURI().getHost(), System.currentTimeMillis() - start);
+        return response;
+    }
+
+    public LatencyAwareLoadBalancer getLoadBalancer() {
+        return loadBalancer;
+    }
+}
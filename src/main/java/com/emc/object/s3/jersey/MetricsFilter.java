@@ -0,0 +1,119 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.s3.jersey;
+
+import com.emc.object.ObjectConfig;
+import com.emc.object.s3.S3Constants;
+import com.emc.object.s3.S3Exception;
+import com.emc.object.s3.metrics.MetricsRegistry;
+import com.emc.object.s3.metrics.RequestMetric;
+import com.emc.object.util.CountingRequestAdapter;
+import com.emc.rest.smart.Host;
+import com.emc.rest.smart.ecs.Vdc;
+import com.sun.jersey.api.client.ClientHandlerException;
+import com.sun.jersey.api.client.ClientRequest;
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.api.client.filter.ClientFilter;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Records metrics for each request in a {@link MetricsRegistry}. The operation is derived from the method, the type of
+ * resource (service, bucket or object) and the subresource (i.e. GET_OBJECT, PUT_BUCKET?acl or PUT_OBJECT?uploadId).
+ * <p>
+ * Note: this filter must run before the RetryFilter (it must be added to the client after it) so that the latency
+ * includes retries
+ */
+public class MetricsFilter extends ClientFilter {
+    private MetricsRegistry registry;
+    private Map<String, String> hostVdcs = new HashMap<String, String>();
+
+    public MetricsFilter(MetricsRegistry registry, ObjectConfig<?> objectConfig) {
+        this.registry = registry;
+        for (Vdc vdc : objectConfig.getVdcs()) {
+            for (Host host : vdc.getHosts()) {
+                hostVdcs.put(host.getName(), vdc.getName());
+            }
+        }
+    }
+
+    public static String getOperation(ClientRequest request) {
+        StringBuilder operation = new StringBuilder(request.getMethod());
+        if (request.getProperties().get(S3Constants.PROPERTY_OBJECT_KEY) != null) operation.append("_OBJECT");
+        else if (request.getProperties().get(S3Constants.PROPERTY_BUCKET_NAME) != null) operation.append("_BUCKET");
+        else operation.append("_SERVICE");
+
+        // the subresource is the first parameter and has no value (see ObjectRequest); a multipart upload ID also
+        // identifies the operation (upload part, complete and abort)
+        String query = request.getURI().getRawQuery();
+        if (query != null) {
+            int end = query.indexOf('&');
+            String first = end < 0 ? query : query.substring(0, end);
+            if (first.indexOf('=') < 0) operation.append('?').append(first);
+            else if (query.startsWith("uploadId=") || query.contains("&uploadId=")) operation.append("?uploadId");
+        }
+        return operation.toString();
+    }
+
+    public MetricsRegistry getRegistry() {
+        return registry;
+    }
+
+    @Override
+    public ClientResponse handle(ClientRequest request) throws ClientHandlerException {
+        String operation = getOperation(request);
+        registry.requestStarted(operation);
+
+        CountingRequestAdapter bytesSent = null;
+        if (request.getEntity() != null) {
+            bytesSent = new CountingRequestAdapter(request.getAdapter());
+            request.setAdapter(bytesSent);
+        }
+
+        int statusCode = -1;
+        long bytesReceived = -1;
+        boolean failed = true;
+        long start = System.nanoTime();
+        try {
+            ClientResponse response = getNext().handle(request);
+            statusCode = response.getStatus();
+            bytesReceived = response.getLength();
+            failed = statusCode >= 400;
+            return response;
+        } catch (S3Exception e) {
+            statusCode = e.getHttpCode() > 0 ? e.getHttpCode() : -1;
+            throw e;
+        } finally {
+            long duration = System.nanoTime() - start;
+            String host = request.getURI().getHost();
+            Integer retryCount = (Integer) request.getProperties().get(RetryFilter.PROP_RETRY_COUNT);
+            registry.requestCompleted(new RequestMetric(operation, host, hostVdcs.get(host), statusCode, duration,
+                    bytesSent == null ? 0 : bytesSent.getCount(), bytesReceived, retryCount == null ? 0 : retryCount, failed));
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.s3.jersey;
+
+import com.emc.object.util.ReplayableEntity;
+import com.sun.jersey.api.client.ClientHandlerException;
+import com.sun.jersey.api.client.ClientRequest;
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.api.client.filter.ClientFilter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Opens a new stream from a {@link ReplayableEntity} for each attempt of a request. The original entity is restored
+ * afterward, so a retry will open the entity again instead of relying on mark/reset of a single stream.
+ * <p>
+ * Note: this filter must run *after* the RetryFilter (it must be added to the client first)
+ */
+public class ReplayableEntityFilter extends ClientFilter {
+
+    private static final Logger log = LoggerFactory.getLogger(ReplayableEntityFilter.class);
+
+    @Override
+    public ClientResponse handle(ClientRequest request) throws ClientHandlerException {
+        if (!(request.getEntity() instanceof ReplayableEntity)) return getNext().handle(request);
+
+        ReplayableEntity entity = (ReplayableEntity) request.getEntity();
+        InputStream entityStream;
+        try {
+            entityStream = entity.openStream();
+        } catch (IOException e) {
+            throw new ClientHandlerException("could not open request entity", e);
+        }
+
+        request.setEntity(entityStream);
+        try {
+            return getNext().handle(request);
+        } finally {
+            request.setEntity(entity);
+            try {
+                entityStream.close();
+            } catch (IOException e) {
+                log.warn("could not close entity stream: " + e);
+            }
+        }
+    }
+}
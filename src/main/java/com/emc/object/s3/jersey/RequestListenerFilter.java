@@ -0,0 +1,293 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.s3.jersey;
+
+import com.emc.object.s3.RequestEvent;
+import com.emc.object.s3.RequestListener;
+import com.emc.object.s3.S3Config;
+import com.emc.object.s3.S3Constants;
+import com.emc.object.s3.S3Exception;
+import com.emc.object.util.CountingRequestAdapter;
+import com.emc.object.util.DaemonThreadFactory;
+import com.emc.object.util.RequestTimings;
+import com.emc.object.util.RestUtil;
+import com.sun.jersey.api.client.ClientHandlerException;
+import com.sun.jersey.api.client.ClientRequest;
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.api.client.filter.ClientFilter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends request lifecycle events to {@link RequestListener}s. This filter reports the start, end and failure of each
+ * request; its {@link #getAttemptFilter() attempt filter} reports the retries, hosts and responses of each attempt.
+ * When there are no listeners, requests pass through untouched.
+ * <p>
+ * Note: this filter should run first (it must be added to the client last, after the RequestTimingFilter, so that the
+ * timings are complete when bodyCompleted is sent), and the attempt filter must run between the RetryFilter and the
+ * ErrorFilter (so that it sees each attempt and error responses are thrown as S3Exceptions)
+ */
+public class RequestListenerFilter extends ClientFilter {
+
+    private static final Logger log = LoggerFactory.getLogger(RequestListenerFilter.class);
+
+    public static final String PROP_REQUEST_EVENT = "com.emc.object.requestEvent";
+    public static final int DEFAULT_ASYNC_QUEUE_SIZE = 10000;
+
+    private enum EventType {
+        STARTED, RETRIED, HOST_SELECTED, RESPONSE_RECEIVED, BODY_COMPLETED, FAILED
+    }
+
+    private List<RequestListener> listeners = new CopyOnWriteArrayList<RequestListener>();
+    private ThreadPoolExecutor executor;
+    private AtomicLong droppedEventCount = new AtomicLong();
+    private ClientFilter attemptFilter = new AttemptFilter();
+
+    public RequestListenerFilter(S3Config s3Config) {
+        listeners.addAll(s3Config.getRequestListeners());
+        if (s3Config.isAsyncRequestListeners()) {
+            executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<Runnable>(DEFAULT_ASYNC_QUEUE_SIZE), new DaemonThreadFactory("request-listener"),
+                    new RejectedExecutionHandler() {
+                        @Override
+                        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                            droppedEventCount.incrementAndGet();
+                        }
+                    });
+        }
+    }
+
+    public void addListener(RequestListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(RequestListener listener) {
+        listeners.remove(listener);
+    }
+
+    public List<RequestListener> getListeners() {
+        return listeners;
+    }
+
+    /**
+     * Returns the filter that reports the events of each attempt
+     */
+    public ClientFilter getAttemptFilter() {
+        return attemptFilter;
+    }
+
+    /**
+     * Returns the number of events that were dropped because the async queue was full
+     */
+    public long getDroppedEventCount() {
+        return droppedEventCount.get();
+    }
+
+    public void destroy() {
+        if (executor != null) executor.shutdown();
+    }
+
+    @Override
+    public ClientResponse handle(ClientRequest request) throws ClientHandlerException {
+        if (listeners.isEmpty()) return getNext().handle(request);
+
+        final RequestEvent event = new RequestEvent(MetricsFilter.getOperation(request), request.getMethod(),
+                (String) request.getProperties().get(S3Constants.PROPERTY_BUCKET_NAME),
+                (String) request.getProperties().get(S3Constants.PROPERTY_OBJECT_KEY));
+        request.getProperties().put(PROP_REQUEST_EVENT, event);
+        if (request.getEntity() != null) {
+            request.setAdapter(new CountingRequestAdapter(request.getAdapter()) {
+                @Override
+                protected void bytesWritten(long count) {
+                    event.setBytesSent(count);
+                }
+            });
+        }
+        fire(EventType.STARTED, event);
+
+        ClientResponse response;
+        try {
+            response = getNext().handle(request);
+        } catch (RuntimeException e) {
+            event.setTimings((RequestTimings) request.getProperties().get(RestUtil.PROPERTY_REQUEST_TIMINGS));
+            event.setError(e instanceof ClientHandlerException && e.getCause() != null ? e.getCause() : e);
+            if (e instanceof S3Exception) event.setStatusCode(((S3Exception) e).getHttpCode());
+            event.end();
+            fire(EventType.FAILED, event);
+            throw e;
+        }
+
+        event.setTimings((RequestTimings) request.getProperties().get(RestUtil.PROPERTY_REQUEST_TIMINGS));
+        event.setError(null);
+        if ("HEAD".equals(request.getMethod()) || response.getStatus() == 204 || response.getStatus() == 304
+                || response.getLength() == 0 || response.getEntityInputStream() == null) {
+            event.end();
+            fire(EventType.BODY_COMPLETED, event);
+        } else {
+            response.setEntityInputStream(new CountingInputStream(response.getEntityInputStream(), event));
+        }
+        return response;
+    }
+
+    private void fire(EventType type, RequestEvent event) {
+        if (executor != null) {
+            final EventType asyncType = type;
+            final RequestEvent asyncEvent = event.copy();
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    deliver(asyncType, asyncEvent);
+                }
+            });
+        } else {
+            deliver(type, event);
+        }
+    }
+
+    private void deliver(EventType type, RequestEvent event) {
+        for (RequestListener listener : listeners) {
+            try {
+                switch (type) {
+                    case STARTED:
+                        listener.requestStarted(event);
+                        break;
+                    case RETRIED:
+                        listener.requestRetried(event);
+                        break;
+                    case HOST_SELECTED:
+                        listener.hostSelected(event);
+                        break;
+                    case RESPONSE_RECEIVED:
+                        listener.responseReceived(event);
+                        break;
+                    case BODY_COMPLETED:
+                        listener.bodyCompleted(event);
+                        break;
+                    case FAILED:
+                        listener.requestFailed(event);
+                        break;
+                }
+            } catch (RuntimeException e) {
+                log.warn("request listener " + listener + " failed on " + type + " event", e);
+            }
+        }
+    }
+
+    private class AttemptFilter extends ClientFilter {
+        @Override
+        public ClientResponse handle(ClientRequest request) throws ClientHandlerException {
+            RequestEvent event = (RequestEvent) request.getProperties().get(PROP_REQUEST_EVENT);
+            if (event == null) return getNext().handle(request);
+
+            Integer retryCount = (Integer) request.getProperties().get(RetryFilter.PROP_RETRY_COUNT);
+            if (retryCount != null && retryCount > event.getRetryCount()) {
+                event.setRetryCount(retryCount);
+                fire(EventType.RETRIED, event);
+            }
+
+            try {
+                ClientResponse response = getNext().handle(request);
+                event.setHost(request.getURI().getHost());
+                event.setStatusCode(response.getStatus());
+                fire(EventType.HOST_SELECTED, event);
+                fire(EventType.RESPONSE_RECEIVED, event);
+                return response;
+            } catch (RuntimeException e) {
+                event.setHost(request.getURI().getHost());
+                event.setError(e instanceof ClientHandlerException && e.getCause() != null ? e.getCause() : e);
+                fire(EventType.HOST_SELECTED, event);
+
+                // error responses are thrown by the ErrorFilter
+                if (e instanceof S3Exception && ((S3Exception) e).getHttpCode() > 0) {
+                    event.setStatusCode(((S3Exception) e).getHttpCode());
+                    fire(EventType.RESPONSE_RECEIVED, event);
+                }
+                throw e;
+            }
+        }
+    }
+
+    private class CountingInputStream extends FilterInputStream {
+        private RequestEvent event;
+        private AtomicBoolean completed = new AtomicBoolean();
+
+        CountingInputStream(InputStream in, RequestEvent event) {
+            super(in);
+            this.event = event;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = super.read();
+            if (value < 0) complete();
+            else event.setBytesReceived(event.getBytesReceived() + 1);
+            return value;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int count = super.read(b, off, len);
+            if (count < 0) complete();
+            else event.setBytesReceived(event.getBytesReceived() + count);
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long count = super.skip(n);
+            event.setBytesReceived(event.getBytesReceived() + count);
+            return count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                complete();
+            }
+        }
+
+        private void complete() {
+            if (!completed.compareAndSet(false, true)) return;
+            event.end();
+            fire(EventType.BODY_COMPLETED, event);
+        }
+    }
+}
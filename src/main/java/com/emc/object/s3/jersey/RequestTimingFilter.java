@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.s3.jersey;
+
+import com.emc.object.s3.S3Config;
+import com.emc.object.s3.S3Exception;
+import com.emc.object.util.RequestTimings;
+import com.emc.object.util.RestUtil;
+import com.sun.jersey.api.client.ClientHandlerException;
+import com.sun.jersey.api.client.ClientRequest;
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.api.client.filter.ClientFilter;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Starts the {@link RequestTimings} of each request and completes them when the response body has been consumed or
+ * closed. The timings are available in the response properties (and on ObjectResponse) and are passed to the
+ * configured {@link com.emc.object.util.RequestTimingListener}.
+ * <p>
+ * Note: this filter must run before the RetryFilter (it must be added to the client after it) so that the timings span
+ * all attempts. The attempt phases are marked by the {@link ConnectionTimingFilter}
+ */
+public class RequestTimingFilter extends ClientFilter {
+    private S3Config s3Config;
+
+    public RequestTimingFilter(S3Config s3Config) {
+        this.s3Config = s3Config;
+    }
+
+    @Override
+    public ClientResponse handle(ClientRequest request) throws ClientHandlerException {
+        RequestTimings timings = new RequestTimings(request.getMethod(), s3Config.getRequestTimingListener());
+        request.getProperties().put(RestUtil.PROPERTY_REQUEST_TIMINGS, timings);
+
+        ClientResponse response;
+        try {
+            response = getNext().handle(request);
+        } catch (RuntimeException e) {
+            int statusCode = e instanceof S3Exception ? ((S3Exception) e).getHttpCode() : -1;
+            timings.setResponse(request.getURI(), statusCode);
+            timings.complete();
+            throw e;
+        }
+
+        timings.setResponse(request.getURI(), response.getStatus());
+        response.getProperties().put(RestUtil.PROPERTY_REQUEST_TIMINGS, timings);
+        if ("HEAD".equals(request.getMethod()) || response.getStatus() == 204 || response.getStatus() == 304
+                || response.getLength() == 0 || response.getEntityInputStream() == null) {
+            timings.complete();
+        } else {
+            response.setEntityInputStream(new TimedInputStream(response.getEntityInputStream(), timings));
+        }
+        return response;
+    }
+
+    private static class TimedInputStream extends FilterInputStream {
+        private RequestTimings timings;
+
+        TimedInputStream(InputStream in, RequestTimings timings) {
+            super(in);
+            this.timings = timings;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int value = super.read();
+            if (value < 0) timings.complete();
+            return value;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int count = super.read(b, off, len);
+            if (count < 0) timings.complete();
+            return count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                timings.complete();
+            }
+        }
+    }
+}
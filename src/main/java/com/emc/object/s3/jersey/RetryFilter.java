@@ -26,6 +26,8 @@
  */
 package com.emc.object.s3.jersey;
 
+import com.emc.object.s3.DefaultRetryPolicy;
+import com.emc.object.s3.RetryPolicy;
 import com.emc.object.s3.S3Config;
 import com.emc.object.s3.S3Exception;
 import com.sun.jersey.api.client.ClientHandlerException;
@@ -35,6 +37,8 @@ import com.sun.jersey.api.client.filter.ClientFilter;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.LinkedHashSet;
+import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -46,14 +50,25 @@ public class RetryFilter extends ClientFilter {
     public static final String PROP_RETRY_COUNT = "com.emc.object.retryCount";
 
     private S3Config s3Config;
+    private RetryPolicy defaultRetryPolicy = new DefaultRetryPolicy();
 
     public RetryFilter(S3Config s3Config) {
         this.s3Config = s3Config;
     }
 
+    /**
+     * Returns the retry policy set in the config, or this filter's default policy
+     */
+    public RetryPolicy getRetryPolicy() {
+        return s3Config.getRetryPolicy() != null ? s3Config.getRetryPolicy() : defaultRetryPolicy;
+    }
+
     @Override
+    @SuppressWarnings("unchecked")
     public ClientResponse handle(ClientRequest clientRequest) throws ClientHandlerException {
+        RetryPolicy retryPolicy = getRetryPolicy();
         int retryCount = 0;
+        long lastDelay = 0;
         InputStream entityStream = null;
         if (clientRequest.getEntity() instanceof InputStream) entityStream = (InputStream) clientRequest.getEntity();
         while (true) {
@@ -62,28 +77,24 @@ public class RetryFilter extends ClientFilter {
                 if (entityStream != null && entityStream.markSupported())
                     entityStream.mark(s3Config.getRetryBufferSize());
 
-                return getNext().handle(clientRequest);
+                ClientResponse response = getNext().handle(clientRequest);
+                retryPolicy.onSuccess();
+                return response;
             } catch (RuntimeException orig) {
                 Throwable t = orig;
 
                 // in this case, the exception was wrapped by Jersey
-                if (t instanceof ClientHandlerException) t = t.getCause();
-
-                if (t instanceof S3Exception) {
-                    S3Exception se = (S3Exception) t;
-
-                    // retry all 50x errors except 501 (not implemented)
-                    if (se.getHttpCode() < 500 || se.getHttpCode() == 501) throw orig;
+                if (t instanceof ClientHandlerException && t.getCause() != null) t = t.getCause();
 
-                    // retry all IO exceptions
-                } else if (!(t instanceof IOException)) throw orig;
-
-                // only retry retryLimit times
-                if (++retryCount > s3Config.getRetryLimit()) throw orig;
+                // the retry policy decides if and when to retry (see DefaultRetryPolicy)
+                long retryDelay = retryPolicy.getRetryDelay(s3Config, clientRequest.getMethod(), t, retryCount, lastDelay);
+                if (retryDelay == RetryPolicy.NO_RETRY) throw orig;
+                retryCount++;
 
                 // attempt to reset InputStream
                 if (entityStream != null) {
                     try {
+                        // (wrap the stream in a SpooledEntity to retry without this limitation)
                         if (!entityStream.markSupported()) throw new IOException("stream does not support mark/reset");
                         entityStream.reset();
                     } catch (IOException e) {
@@ -92,9 +103,23 @@ public class RetryFilter extends ClientFilter {
                     }
                 }
 
-                // wait for retry delay
-                if (s3Config.getInitialRetryDelay() > 0) {
-                    int retryDelay = s3Config.getInitialRetryDelay() * (int) Math.pow(2, retryCount - 1);
+                // with circuit breakers, the retry will avoid hosts that have already failed (the smart filter has set
+                // the request URI to the host that was used)
+                boolean newHost = false;
+                if (s3Config.isCircuitBreakerEnabled() && s3Config.isSmartClient()) {
+                    Set<String> avoidHosts = (Set<String>) clientRequest.getProperties().get(CircuitBreakerRule.PROP_AVOID_HOSTS);
+                    if (avoidHosts == null) {
+                        avoidHosts = new LinkedHashSet<String>();
+                        clientRequest.getProperties().put(CircuitBreakerRule.PROP_AVOID_HOSTS, avoidHosts);
+                    }
+                    newHost = avoidHosts.add(clientRequest.getURI().getHost());
+                }
+
+                // wait for retry delay (not needed the first time a host fails, since the retry goes to another host,
+                // unless the server asked us to wait)
+                boolean retryAfter = t instanceof S3Exception && ((S3Exception) t).getRetryAfter() >= 0;
+                if (newHost && !retryAfter) retryDelay = 0;
+                if (retryDelay > 0) {
                     try {
                         log.debug("waiting {}ms before retry", retryDelay);
                         Thread.sleep(retryDelay);
@@ -102,6 +127,7 @@ public class RetryFilter extends ClientFilter {
                         log.warn("interrupted while waiting to retry: " + e.getMessage());
                     }
                 }
+                lastDelay = retryDelay;
 
                 log.info("error received in response [{}], retrying ({} of {})...", new Object[] { t, retryCount, s3Config.getRetryLimit() });
                 clientRequest.getProperties().put(PROP_RETRY_COUNT, retryCount);
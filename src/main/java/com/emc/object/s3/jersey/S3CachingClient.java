@@ -0,0 +1,520 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.s3.jersey;
+
+import com.emc.object.CacheConfig;
+import com.emc.object.s3.S3Config;
+import com.emc.object.s3.S3Constants;
+import com.emc.object.s3.S3Exception;
+import com.emc.object.s3.S3ObjectMetadata;
+import com.emc.object.s3.bean.*;
+import com.emc.object.s3.request.*;
+import com.emc.object.util.BloomFilter;
+import com.emc.object.util.MetadataCache;
+import com.emc.object.util.RestUtil;
+import com.emc.object.util.TieredObjectCache;
+import com.sun.jersey.api.client.ClientHandler;
+import com.sun.jersey.api.client.ClientResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An {@link S3JerseyClient} that caches small objects read through {@link #getObject(GetObjectRequest, Class)}
+ * (and therefore all of the <code>readObject</code> methods). The cache is configured by a {@link CacheConfig} and
+ * has an off-heap memory tier and an optional local-disk tier (see {@link TieredObjectCache}).
+ * <p>
+ * Only whole-object reads of the current version without conditions are cached, and only when the requested type is
+ * <code>byte[]</code>, <code>String</code> or <code>InputStream</code>. Cached entries are served directly until
+ * their TTL expires; after that they are revalidated with <code>If-None-Match</code>, and a 304 response serves the
+ * cached content without transferring it again.
+ * <p>
+ * Object metadata is cached as well (unless disabled with {@link CacheConfig#setMetadataCacheSize(int)}): entries are
+ * populated from HEAD and whole-object GET responses, as well as from PUT and copy responses when the resulting
+ * metadata is fully known, and are keyed by bucket, key and version. {@link #getObjectMetadata(GetObjectMetadataRequest)}
+ * is then served from the cache until the metadata TTL expires (this includes the HEAD issued by
+ * {@link com.emc.object.s3.LargeFileDownloader}).
+ * <p>
+ * Recent 404s are remembered in a negative cache (see {@link CacheConfig#setNegativeCacheSize(int)}), and
+ * {@link #seedExistenceFilter(String, long, double)} can build a Bloom filter of a bucket's keys; reads of keys known
+ * to be missing fail with a 404 {@link S3Exception} without a request. Filter false positives simply fall through to a
+ * real request.
+ * <p>
+ * Writes, copies, deletes, metadata and ACL changes made through this client invalidate (or update) the affected
+ * entries. Changes made by other clients are only seen after the TTL expires.
+ * <p>
+ * <pre>
+ * S3Client s3Client = new S3CachingClient(s3Config, new CacheConfig().withDiskCacheDir(new File("/var/cache/s3")));
+ * </pre>
+ */
+public class S3CachingClient extends S3JerseyClient {
+
+    private static final Logger log = LoggerFactory.getLogger(S3CachingClient.class);
+
+    private static final String DEFAULT_CHARSET = "UTF-8";
+
+    private CacheConfig cacheConfig;
+    private TieredObjectCache cache;
+    private MetadataCache metadataCache;
+    private MetadataCache negativeCache;
+    private final Map<String, BloomFilter> existenceFilters = new ConcurrentHashMap<String, BloomFilter>();
+    private final Map<String, BloomFilter> pendingFilters = new ConcurrentHashMap<String, BloomFilter>();
+    private final AtomicLong shortCircuitCount = new AtomicLong();
+
+    public S3CachingClient(S3Config s3Config, CacheConfig cacheConfig) {
+        this(s3Config, null, cacheConfig);
+    }
+
+    public S3CachingClient(S3Config s3Config, ClientHandler clientHandler, CacheConfig cacheConfig) {
+        super(s3Config, clientHandler);
+        this.cacheConfig = cacheConfig;
+        this.cache = new TieredObjectCache(cacheConfig);
+        if (cacheConfig.getMetadataCacheSize() > 0)
+            this.metadataCache = new MetadataCache(cacheConfig.getMetadataCacheSize(), cacheConfig.getMetadataTtlSeconds());
+        if (cacheConfig.getNegativeCacheSize() > 0)
+            this.negativeCache = new MetadataCache(cacheConfig.getNegativeCacheSize(), cacheConfig.getNegativeTtlSeconds());
+    }
+
+    @Override
+    public <T> GetObjectResult<T> getObject(GetObjectRequest request, Class<T> objectType) {
+        if (request.getVersionId() == null) checkExists(request.getBucketName(), request.getKey());
+        try {
+            return getObjectCached(request, objectType);
+        } catch (S3Exception e) {
+            if (e.getHttpCode() == RestUtil.STATUS_NOT_FOUND && request.getVersionId() == null)
+                markMissing(request.getBucketName(), request.getKey());
+            throw e;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> GetObjectResult<T> getObjectCached(GetObjectRequest request, Class<T> objectType) {
+        if (!isCacheable(request, objectType)) return super.getObject(request, objectType);
+
+        String cacheKey = request.getBucketName() + "/" + request.getKey();
+        TieredObjectCache.Entry entry = cache.get(cacheKey);
+        if (entry != null) {
+            byte[] data = null;
+            if (cache.isFresh(entry)) {
+                data = entry.getData();
+            } else {
+                // revalidate (with a copy, so the caller's request is never modified)
+                GetObjectRequest conditionalRequest = new GetObjectRequest(request);
+                conditionalRequest.setIfNoneMatch(entry.getETag());
+                GetObjectResult<InputStream> result = super.getObject(conditionalRequest, InputStream.class);
+                if (result != null) return (GetObjectResult<T>) store(cacheKey, result, objectType);
+                cache.recordRevalidation(entry);
+                data = entry.getData();
+            }
+            if (data != null) {
+                cache.recordHit(entry);
+                return (GetObjectResult<T>) toResult(data, entry.getHeaders(), objectType);
+            }
+        }
+
+        cache.recordMiss();
+        return (GetObjectResult<T>) store(cacheKey, super.getObject(request, InputStream.class), objectType);
+    }
+
+    @Override
+    public S3ObjectMetadata getObjectMetadata(GetObjectMetadataRequest request) {
+        if (request.getVersionId() == null) checkExists(request.getBucketName(), request.getKey());
+        try {
+            return getObjectMetadataCached(request);
+        } catch (S3Exception e) {
+            if (e.getHttpCode() == RestUtil.STATUS_NOT_FOUND && request.getVersionId() == null)
+                markMissing(request.getBucketName(), request.getKey());
+            throw e;
+        }
+    }
+
+    private S3ObjectMetadata getObjectMetadataCached(GetObjectMetadataRequest request) {
+        if (metadataCache == null || !isCacheable(request, null)) return super.getObjectMetadata(request);
+
+        String cacheKey = MetadataCache.cacheKey(request.getBucketName(), request.getKey(), request.getVersionId());
+        Map<String, List<String>> headers = metadataCache.get(cacheKey);
+        if (headers == null) {
+            // concurrent misses for the same object share one HEAD (if coalescing is enabled)
+            ClientResponse response = executeCoalesced(request);
+            response.close();
+            headers = response.getHeaders();
+            metadataCache.put(cacheKey, headers);
+        }
+        return S3ObjectMetadata.fromHeaders(headers);
+    }
+
+    @Override
+    public PutObjectResult putObject(PutObjectRequest request) {
+        PutObjectResult result = null;
+        willExist(request.getBucketName(), request.getKey());
+        try {
+            result = super.putObject(request);
+            return result;
+        } finally {
+            invalidate(request.getBucketName(), request.getKey());
+            if (result != null && metadataCache != null) {
+                Map<String, List<Object>> headers = getPutMetadataHeaders(request, result);
+                if (headers != null)
+                    metadataCache.put(MetadataCache.cacheKey(request.getBucketName(), request.getKey(), null), headers);
+            }
+        }
+    }
+
+    @Override
+    public CopyObjectResult copyObject(CopyObjectRequest request) {
+        // capture the source metadata before the copy (source and target may be the same object)
+        Map<String, List<String>> sourceHeaders = null;
+        if (metadataCache != null) {
+            sourceHeaders = metadataCache.get(MetadataCache.cacheKey(request.getSourceBucketName(),
+                    request.getSourceKey(), request.getSourceVersionId()));
+        }
+        CopyObjectResult result = null;
+        willExist(request.getBucketName(), request.getKey());
+        try {
+            result = super.copyObject(request);
+            return result;
+        } finally {
+            invalidate(request.getBucketName(), request.getKey());
+            if (result != null && sourceHeaders != null) {
+                metadataCache.put(MetadataCache.cacheKey(request.getBucketName(), request.getKey(), null),
+                        getCopyMetadataHeaders(request, result, sourceHeaders));
+            }
+        }
+    }
+
+    @Override
+    public void setObjectAcl(SetObjectAclRequest request) {
+        try {
+            super.setObjectAcl(request);
+        } finally {
+            invalidate(request.getBucketName(), request.getKey());
+        }
+    }
+
+    @Override
+    public void deleteObject(String bucketName, String key) {
+        try {
+            super.deleteObject(bucketName, key);
+        } finally {
+            invalidate(bucketName, key);
+        }
+        markMissing(bucketName, key);
+    }
+
+    @Override
+    public void deleteVersion(String bucketName, String key, String versionId) {
+        try {
+            super.deleteVersion(bucketName, key, versionId);
+        } finally {
+            invalidate(bucketName, key);
+            if (metadataCache != null) metadataCache.invalidate(MetadataCache.cacheKey(bucketName, key, versionId));
+        }
+    }
+
+    @Override
+    public DeleteObjectsResult deleteObjects(DeleteObjectsRequest request) {
+        try {
+            DeleteObjectsResult result = super.deleteObjects(request);
+            if (result.getResults() != null) {
+                for (AbstractDeleteResult deleted : result.getResults()) {
+                    if (deleted instanceof DeleteSuccess && deleted.getVersionId() == null)
+                        markMissing(request.getBucketName(), deleted.getKey());
+                }
+            }
+            return result;
+        } finally {
+            if (request.getDeleteObjects() != null && request.getDeleteObjects().getKeys() != null) {
+                for (ObjectKey objectKey : request.getDeleteObjects().getKeys()) {
+                    invalidate(request.getBucketName(), objectKey.getKey());
+                }
+            }
+        }
+    }
+
+    @Override
+    public CompleteMultipartUploadResult completeMultipartUpload(CompleteMultipartUploadRequest request) {
+        willExist(request.getBucketName(), request.getKey());
+        try {
+            return super.completeMultipartUpload(request);
+        } finally {
+            invalidate(request.getBucketName(), request.getKey());
+        }
+    }
+
+    protected void invalidate(String bucketName, String key) {
+        cache.invalidate(bucketName + "/" + key);
+        if (metadataCache != null) metadataCache.invalidate(MetadataCache.cacheKey(bucketName, key, null));
+        if (negativeCache != null) negativeCache.invalidate(MetadataCache.cacheKey(bucketName, key, null));
+    }
+
+    /**
+     * Builds an existence filter for <code>bucketName</code> from a full listing of the bucket. Once the listing is
+     * complete, reads of keys that are definitely not in the filter fail with a 404 without a request. Keys written
+     * through this client are added to the filter; keys written by anyone else are <em>not</em>, so only use this for
+     * buckets this client writes exclusively, or re-seed periodically.
+     *
+     * @param expectedKeys      the number of keys the filter should be sized for (including future additions)
+     * @param falsePositiveRate the fraction of absent keys that will still fall through to a request
+     * @return the number of keys found in the listing
+     */
+    public long seedExistenceFilter(String bucketName, long expectedKeys, double falsePositiveRate) {
+        BloomFilter filter = new BloomFilter(expectedKeys, falsePositiveRate);
+        // writes during the listing must be captured too
+        pendingFilters.put(bucketName, filter);
+        long count = 0;
+        try {
+            ListObjectsResult result = listObjects(bucketName);
+            while (true) {
+                for (S3Object object : result.getObjects()) {
+                    filter.put(object.getKey());
+                    count++;
+                }
+                if (!result.isTruncated()) break;
+                result = listMoreObjects(result);
+            }
+            existenceFilters.put(bucketName, filter);
+        } finally {
+            pendingFilters.remove(bucketName);
+        }
+        log.info("seeded existence filter for {} with {} keys", bucketName, count);
+        return count;
+    }
+
+    /**
+     * Stops using the existence filter for <code>bucketName</code>
+     */
+    public void clearExistenceFilter(String bucketName) {
+        existenceFilters.remove(bucketName);
+    }
+
+    /**
+     * Throws a 404 without making a request if <code>key</code> is known to be missing
+     */
+    protected void checkExists(String bucketName, String key) {
+        boolean missing = false;
+        if (negativeCache != null && negativeCache.get(MetadataCache.cacheKey(bucketName, key, null)) != null) {
+            missing = true;
+        } else {
+            BloomFilter filter = existenceFilters.get(bucketName);
+            if (filter != null && !filter.mightContain(key)) missing = true;
+        }
+        if (missing) {
+            shortCircuitCount.incrementAndGet();
+            throw new S3Exception("Not Found", RestUtil.STATUS_NOT_FOUND, S3Constants.ERROR_NO_SUCH_KEY, null);
+        }
+    }
+
+    private void markMissing(String bucketName, String key) {
+        if (negativeCache != null)
+            negativeCache.put(MetadataCache.cacheKey(bucketName, key, null), Collections.<String, List<String>>emptyMap());
+    }
+
+    private void willExist(String bucketName, String key) {
+        if (negativeCache != null) negativeCache.invalidate(MetadataCache.cacheKey(bucketName, key, null));
+        BloomFilter filter = existenceFilters.get(bucketName);
+        if (filter != null) filter.put(key);
+        filter = pendingFilters.get(bucketName);
+        if (filter != null) filter.put(key);
+    }
+
+    protected boolean isCacheable(GetObjectRequest<?> request, Class<?> objectType) {
+        if (request.getRange() != null || request.getIfMatch() != null || request.getIfNoneMatch() != null
+                || request.getIfModifiedSince() != null || request.getIfUnmodifiedSince() != null
+                || !request.getHeaderOverrides().isEmpty()) return false;
+        // metadata can be cached for any version, but content only for the current one
+        return objectType == null || (request.getVersionId() == null
+                && (objectType == byte[].class || objectType == String.class || objectType == InputStream.class));
+    }
+
+    /**
+     * Returns the metadata headers of a new object if they can be fully determined from the PUT request and response
+     * (whole-object write with known length and content type), otherwise null.
+     */
+    private Map<String, List<Object>> getPutMetadataHeaders(PutObjectRequest request, PutObjectResult result) {
+        S3ObjectMetadata metadata = request.getObjectMetadata();
+        if (request.getRange() != null || metadata == null || metadata.getContentType() == null) return null;
+        Long length = metadata.getContentLength();
+        if (length == null && request.getObject() instanceof byte[]) length = (long) ((byte[]) request.getObject()).length;
+        if (length == null && request.getObject() instanceof File) length = ((File) request.getObject()).length();
+        if (length == null) return null;
+
+        Map<String, List<Object>> headers = metadata.toHeaders();
+        RestUtil.putSingle(headers, RestUtil.HEADER_CONTENT_LENGTH, length);
+        copyResponseHeaders(result.getHeaders(), headers);
+        return headers;
+    }
+
+    /**
+     * Derives the metadata headers of a copied object from the (cached) source metadata
+     */
+    private Map<String, List<Object>> getCopyMetadataHeaders(CopyObjectRequest request, CopyObjectResult result,
+                                                             Map<String, List<String>> sourceHeaders) {
+        Map<String, List<Object>> headers;
+        if (request.getObjectMetadata() != null) {
+            // metadata is replaced
+            headers = request.getObjectMetadata().toHeaders();
+            RestUtil.putSingle(headers, RestUtil.HEADER_CONTENT_LENGTH,
+                    RestUtil.getFirstAsString(sourceHeaders, RestUtil.HEADER_CONTENT_LENGTH));
+        } else {
+            headers = new HashMap<String, List<Object>>();
+            for (Map.Entry<String, List<String>> header : sourceHeaders.entrySet()) {
+                headers.put(header.getKey(), new ArrayList<Object>(header.getValue()));
+            }
+        }
+        // these will differ on the copy
+        for (String name : new String[]{RestUtil.HEADER_ETAG, RestUtil.HEADER_LAST_MODIFIED, RestUtil.EMC_MTIME,
+                S3Constants.AMZ_VERSION_ID, S3Constants.AMZ_EXPIRATION}) {
+            removeHeader(headers, name);
+        }
+        copyResponseHeaders(result.getHeaders(), headers);
+        if (result.getRawETag() != null) RestUtil.putSingle(headers, RestUtil.HEADER_ETAG, result.getRawETag());
+        if (result.getLastModified() != null)
+            RestUtil.putSingle(headers, RestUtil.HEADER_LAST_MODIFIED, RestUtil.headerFormat(result.getLastModified()));
+        return headers;
+    }
+
+    private void copyResponseHeaders(Map<String, List<String>> response, Map<String, List<Object>> headers) {
+        if (response == null) return;
+        for (String name : new String[]{RestUtil.HEADER_ETAG, S3Constants.AMZ_VERSION_ID, S3Constants.AMZ_EXPIRATION}) {
+            String value = RestUtil.getFirstAsString(response, name);
+            if (value != null) RestUtil.putSingle(headers, name, value);
+        }
+        // the write time is the best approximation of the last-modified time
+        String date = RestUtil.getFirstAsString(response, RestUtil.HEADER_DATE);
+        if (date != null) RestUtil.putSingle(headers, RestUtil.HEADER_LAST_MODIFIED, date);
+    }
+
+    private static void removeHeader(Map<String, List<Object>> headers, String name) {
+        for (Iterator<String> i = headers.keySet().iterator(); i.hasNext(); ) {
+            if (i.next().equalsIgnoreCase(name)) i.remove();
+        }
+    }
+
+    /**
+     * Reads the response into the cache if it is small enough; otherwise passes the stream through.
+     */
+    private Object store(String cacheKey, GetObjectResult<InputStream> result, Class<?> objectType) {
+        if (result == null) return null;
+        Long size = result.getObjectMetadata().getContentLength();
+        try {
+            if (size != null && size <= cacheConfig.getMaxObjectSize()) {
+                byte[] data = readFully(result.getObject(), size.intValue());
+                cache.put(cacheKey, data, result.getObjectMetadata().getETag(), result.getHeaders());
+                if (metadataCache != null) metadataCache.put(cacheKey, result.getHeaders());
+                return toResult(data, result.getHeaders(), objectType);
+            }
+            if (objectType == InputStream.class) return result;
+            byte[] data = readFully(result.getObject(), -1);
+            return toResult(data, result.getHeaders(), objectType);
+        } catch (IOException e) {
+            throw new RuntimeException("error reading object content", e);
+        }
+    }
+
+    private Object toResult(byte[] data, Map<String, List<String>> headers, Class<?> objectType) {
+        Object object;
+        if (objectType == byte[].class) {
+            object = data;
+        } else if (objectType == InputStream.class) {
+            object = new ByteArrayInputStream(data);
+        } else {
+            object = new String(data, getCharset(firstHeader(headers, RestUtil.HEADER_CONTENT_TYPE)));
+        }
+        GetObjectResult<Object> result = new GetObjectResult<Object>();
+        result.setHeaders(headers);
+        result.setObject(object);
+        return result;
+    }
+
+    private static Charset getCharset(String contentType) {
+        if (contentType != null) {
+            for (String param : contentType.split(";")) {
+                param = param.trim();
+                if (param.toLowerCase().startsWith("charset=")) {
+                    String charset = param.substring("charset=".length()).replace("\"", "");
+                    try {
+                        return Charset.forName(charset);
+                    } catch (IllegalArgumentException e) {
+                        log.warn("unsupported charset {}; using {}", charset, DEFAULT_CHARSET);
+                    }
+                }
+            }
+        }
+        return Charset.forName(DEFAULT_CHARSET);
+    }
+
+    private static String firstHeader(Map<String, List<String>> headers, String name) {
+        if (headers == null || headers.get(name) == null || headers.get(name).isEmpty()) return null;
+        return headers.get(name).get(0);
+    }
+
+    private static byte[] readFully(InputStream in, int size) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(size >= 0 ? size : 32 * 1024);
+            byte[] buffer = new byte[32 * 1024];
+            int c;
+            while ((c = in.read(buffer)) != -1) out.write(buffer, 0, c);
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    public CacheConfig getCacheConfig() {
+        return cacheConfig;
+    }
+
+    /**
+     * Returns the cache, i.e. to read hit/miss/byte counters or to clear it
+     */
+    public TieredObjectCache getCache() {
+        return cache;
+    }
+
+    /**
+     * Returns the number of reads that failed with a 404 without a request (negative cache or existence filter)
+     */
+    public long getShortCircuitCount() {
+        return shortCircuitCount.get();
+    }
+
+    /**
+     * Returns the metadata cache (null if disabled)
+     */
+    public MetadataCache getMetadataCache() {
+        return metadataCache;
+    }
+}
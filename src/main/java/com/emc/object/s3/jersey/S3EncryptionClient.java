@@ -133,7 +133,8 @@ public class S3EncryptionClient extends S3JerseyClient {
             ClientFilter filter = (ClientFilter) handler;
             if (filter instanceof AuthorizationFilter) {
                 // insert codec filter before checksum filter
-                filters.add(new CodecFilter(encodeChain).withCodecProperties(encryptionConfig.getCodecProperties()));
+                filters.add(new CodecFilter(encodeChain).withCodecProperties(encryptionConfig.getCodecProperties())
+                        .withClientTracer(s3Config.getClientTracer()));
             }
             filters.add(filter);
             handler = filter.getNext();
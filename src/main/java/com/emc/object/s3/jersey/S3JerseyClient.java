@@ -29,8 +29,15 @@ package com.emc.object.s3.jersey;
 import com.emc.object.*;
 import com.emc.object.s3.*;
 import com.emc.object.s3.bean.*;
+import com.emc.object.s3.metrics.DefaultMetricsRegistry;
+import com.emc.object.s3.metrics.MetricsRegistry;
 import com.emc.object.s3.request.*;
+import com.emc.object.util.DaemonThreadFactory;
+import com.emc.object.util.LatencyAwareLoadBalancer;
 import com.emc.object.util.RestUtil;
+import com.emc.object.util.SingleFlight;
+import com.emc.rest.smart.Host;
+import com.emc.rest.smart.HostVetoRule;
 import com.emc.rest.smart.LoadBalancer;
 import com.emc.rest.smart.SmartClientFactory;
 import com.emc.rest.smart.SmartConfig;
@@ -38,13 +45,24 @@ import com.emc.rest.smart.SmartFilter;
 import com.emc.rest.smart.ecs.EcsHostListProvider;
 import com.sun.jersey.api.client.*;
 import com.sun.jersey.api.client.config.ClientConfig;
+import com.sun.jersey.client.apache4.config.ApacheHttpClient4Config;
+import com.sun.jersey.core.header.InBoundHeaders;
+import com.sun.jersey.spi.MessageBodyWorkers;
 
+import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 import java.io.StringReader;
 import java.net.URL;
-import java.util.Date;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.conn.ClientConnectionManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Reference implementation of S3Client.
@@ -122,6 +140,10 @@ import java.util.Map;
  * </pre>
  */
 public class S3JerseyClient extends AbstractJerseyClient implements S3Client {
+
+    private static final Logger log = LoggerFactory.getLogger(S3JerseyClient.class);
+
+    private static final AtomicInteger metricsClientCount = new AtomicInteger();
     public static final int DEFAULT_CONNECT_TIMEOUT = 15000; // 15 seconds
     public static final int DEFAULT_READ_TIMEOUT = 60000; // 60 seconds
 
@@ -129,6 +151,12 @@ public class S3JerseyClient extends AbstractJerseyClient implements S3Client {
     protected Client client;
     protected LoadBalancer loadBalancer;
     protected S3SignerV2 signer;
+    protected HedgingFilter hedgingFilter;
+    protected CircuitBreakerRule circuitBreakerRule;
+    protected MetricsRegistry metricsRegistry;
+    protected RequestListenerFilter requestListenerFilter;
+    protected ScheduledExecutorService hostProbeExecutor;
+    protected SingleFlight<String, SharedResponse> readFlight = new SingleFlight<String, SharedResponse>();
 
     public S3JerseyClient(S3Config s3Config) {
         this(s3Config, null);
@@ -154,6 +182,10 @@ public class S3JerseyClient extends AbstractJerseyClient implements S3Client {
         if (smartConfig.getProperty(ClientConfig.PROPERTY_READ_TIMEOUT) == null)
             smartConfig.setProperty(ClientConfig.PROPERTY_READ_TIMEOUT, DEFAULT_READ_TIMEOUT);
 
+        // record connection lease times
+        if (s3Config.isRequestTimingEnabled() && clientHandler == null && !s3Config.isSmartClient())
+            wrapConnectionManager(smartConfig);
+
         // creates a standard (non-load-balancing) jersey client
         if (clientHandler == null) {
             client = SmartClientFactory.createStandardClient(smartConfig);
@@ -189,8 +221,15 @@ public class S3JerseyClient extends AbstractJerseyClient implements S3Client {
             // S.C. - VDC CONFIGURATION
             hostListProvider.setVdcs(s3Config.getVdcs());
 
-            // S.C. - GEO-PINNING
-            if (s3Config.isGeoPinningEnabled()) loadBalancer.withVetoRules(new GeoPinningRule());
+            // S.C. - HOST VETO RULES
+            List<HostVetoRule> vetoRules = new ArrayList<HostVetoRule>();
+            if (s3Config.isGeoPinningEnabled()) vetoRules.add(new GeoPinningRule());
+            if (s3Config.isHedgeReads()) vetoRules.add(new HedgeRule());
+            if (s3Config.isCircuitBreakerEnabled()) {
+                circuitBreakerRule = new CircuitBreakerRule(s3Config);
+                vetoRules.add(circuitBreakerRule);
+            }
+            if (!vetoRules.isEmpty()) loadBalancer.setVetoRules(vetoRules);
 
             // S.C. - RETRY CONFIG
             if (s3Config.isRetryEnabled())
@@ -201,6 +240,7 @@ public class S3JerseyClient extends AbstractJerseyClient implements S3Client {
 
             // S.C. - CLIENT CREATION
             // create a load-balancing jersey client
+            if (s3Config.isRequestTimingEnabled() && clientHandler == null) wrapConnectionManager(smartConfig);
             if (clientHandler == null) {
                 client = SmartClientFactory.createSmartClient(smartConfig);
             } else {
@@ -209,15 +249,53 @@ public class S3JerseyClient extends AbstractJerseyClient implements S3Client {
         }
 
         // jersey filters
+        if (s3Config.isSmartClient() && loadBalancer instanceof LatencyAwareLoadBalancer)
+            client.addFilter(new HostLatencyFilter((LatencyAwareLoadBalancer) loadBalancer)); // must be added first
+        if (circuitBreakerRule != null)
+            client.addFilter(new CircuitBreakerFilter(circuitBreakerRule, loadBalancer)); // must be added next
+        if (s3Config.isRequestTimingEnabled())
+            client.addFilter(new ConnectionTimingFilter()); // must run after retry filter
+        client.addFilter(new ReplayableEntityFilter()); // must run after retry filter
         client.addFilter(new ErrorFilter());
+        requestListenerFilter = new RequestListenerFilter(s3Config);
+        client.addFilter(requestListenerFilter.getAttemptFilter()); // must run between retry and error filters
         if (s3Config.getFaultInjectionRate() > 0.0f)
             client.addFilter(new FaultInjectionFilter(s3Config.getFaultInjectionRate()));
+        if (s3Config.isHedgeReads()) {
+            hedgingFilter = new HedgingFilter(s3Config, s3Config.isSmartClient() ? loadBalancer : null);
+            client.addFilter(hedgingFilter);
+        }
         if (s3Config.isGeoPinningEnabled()) client.addFilter(new GeoPinningFilter(s3Config));
         if (s3Config.isRetryEnabled()) client.addFilter(new RetryFilter(s3Config)); // replaces the apache retry handler
         if (s3Config.isChecksumEnabled()) client.addFilter(new ChecksumFilter());
         client.addFilter(new AuthorizationFilter(s3Config));
         client.addFilter(new BucketFilter(s3Config));
         client.addFilter(new NamespaceFilter(s3Config));
+
+        // the measuring filters below must run before the retry filter (be added after it) so that they span all
+        // attempts. of those, the request listener filter must run first (be added last) so that the request timings
+        // are complete when it sends bodyCompleted
+        if (s3Config.isMetricsEnabled()) {
+            metricsRegistry = s3Config.getMetricsRegistry();
+            if (metricsRegistry == null) {
+                DefaultMetricsRegistry defaultRegistry = new DefaultMetricsRegistry();
+                defaultRegistry.registerMBeans("s3-client-" + metricsClientCount.incrementAndGet());
+                metricsRegistry = defaultRegistry;
+            }
+            client.addFilter(new MetricsFilter(metricsRegistry, s3Config));
+        }
+        if (s3Config.getTraceWriter() != null) client.addFilter(new TraceFilter(s3Config.getTraceWriter()));
+        if (s3Config.isRequestTimingEnabled()) client.addFilter(new RequestTimingFilter(s3Config));
+        client.addFilter(requestListenerFilter);
+
+        // S.C. - HOST PROBES (keep response times current for idle hosts)
+        if (s3Config.isSmartClient() && loadBalancer instanceof LatencyAwareLoadBalancer
+                && s3Config.getHostProbeInterval() > 0) {
+            hostProbeExecutor = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("host-probe"));
+            hostProbeExecutor.scheduleWithFixedDelay(new HostProbeTask(client, s3Config,
+                            (LatencyAwareLoadBalancer) loadBalancer), s3Config.getHostProbeInterval(),
+                    s3Config.getHostProbeInterval(), TimeUnit.SECONDS);
+        }
     }
 
     @Override
@@ -249,6 +327,11 @@ public class S3JerseyClient extends AbstractJerseyClient implements S3Client {
      */
     @Override
     public void destroy() {
+        if (hedgingFilter != null) hedgingFilter.destroy();
+        if (hostProbeExecutor != null) hostProbeExecutor.shutdownNow();
+        requestListenerFilter.destroy();
+        if (metricsRegistry != s3Config.getMetricsRegistry() && metricsRegistry instanceof DefaultMetricsRegistry)
+            ((DefaultMetricsRegistry) metricsRegistry).unregisterMBeans();
         SmartClientFactory.destroy(client);
     }
 
@@ -256,6 +339,46 @@ public class S3JerseyClient extends AbstractJerseyClient implements S3Client {
         return loadBalancer;
     }
 
+    /**
+     * Returns the circuit breaker rule (which holds the per-host circuit breakers), or null if circuit breakers are
+     * disabled
+     */
+    public CircuitBreakerRule getCircuitBreakerRule() {
+        return circuitBreakerRule;
+    }
+
+    /**
+     * Adds a listener to receive lifecycle events for each request made by this client
+     */
+    public void addRequestListener(RequestListener listener) {
+        requestListenerFilter.addListener(listener);
+    }
+
+    public void removeRequestListener(RequestListener listener) {
+        requestListenerFilter.removeListener(listener);
+    }
+
+    /**
+     * Returns the filter that sends events to request listeners (which tracks the number of dropped async events)
+     */
+    public RequestListenerFilter getRequestListenerFilter() {
+        return requestListenerFilter;
+    }
+
+    /**
+     * Returns the registry that receives request metrics, or null if metrics are disabled
+     */
+    public MetricsRegistry getMetricsRegistry() {
+        return metricsRegistry;
+    }
+
+    /**
+     * Returns the hedging filter (which tracks hedged request counts), or null if hedged reads are disabled
+     */
+    public HedgingFilter getHedgingFilter() {
+        return hedgingFilter;
+    }
+
     @Override
     public ListDataNode listDataNodes() {
         return executeRequest(client, new ObjectRequest(Method.GET, "", "endpoint"), ListDataNode.class);
@@ -580,7 +703,7 @@ public class S3JerseyClient extends AbstractJerseyClient implements S3Client {
             }
 
             GetObjectResult<T> result = new GetObjectResult<T>();
-            ClientResponse response = executeRequest(client, request);
+            ClientResponse response = executeCoalesced(request);
             fillResponseEntity(result, response);
             result.setObject(response.getEntity(objectType));
             return result;
@@ -630,7 +753,9 @@ public class S3JerseyClient extends AbstractJerseyClient implements S3Client {
     @Override
     public S3ObjectMetadata getObjectMetadata(GetObjectMetadataRequest request) {
         try {
-            return S3ObjectMetadata.fromHeaders(executeAndClose(client, request).getHeaders());
+            ClientResponse response = executeCoalesced(request);
+            response.close();
+            return S3ObjectMetadata.fromHeaders(response.getHeaders());
         } catch (S3Exception e) {
             // a 304 or 412 means If-* headers were used and a condition failed
             if (e.getHttpCode() == 304 || e.getHttpCode() == 412) return null;
@@ -739,4 +864,135 @@ public class S3JerseyClient extends AbstractJerseyClient implements S3Client {
     public S3Config getS3Config() {
         return s3Config;
     }
+
+    /**
+     * Wraps the configured connection manager (if one was set in the config properties) or a new pool matching the
+     * smart client's in a {@link TimingConnectionManager}
+     */
+    protected void wrapConnectionManager(SmartConfig smartConfig) {
+        Object manager = smartConfig.getProperty(ApacheHttpClient4Config.PROPERTY_CONNECTION_MANAGER);
+        if (manager instanceof TimingConnectionManager) return;
+        TimingConnectionManager timingManager = manager instanceof ClientConnectionManager
+                ? new TimingConnectionManager((ClientConnectionManager) manager) : new TimingConnectionManager();
+        smartConfig.setProperty(ApacheHttpClient4Config.PROPERTY_CONNECTION_MANAGER, timingManager);
+    }
+
+    /**
+     * Executes a GET or HEAD request. If read coalescing is enabled, identical requests that are already in flight are
+     * not sent again; instead the in-flight response is shared (only if its body fits within the coalesce buffer size).
+     */
+    protected ClientResponse executeCoalesced(final S3ObjectRequest request) {
+        if (!s3Config.isCoalesceReads()) return executeRequest(client, request);
+
+        SingleFlight.Result<SharedResponse> result;
+        try {
+            result = readFlight.execute(coalesceKey(request), new Callable<SharedResponse>() {
+                @Override
+                public SharedResponse call() {
+                    return SharedResponse.from(executeRequest(client, request), request.getMethod(),
+                            s3Config.getCoalesceBufferSize());
+                }
+            });
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ClientHandlerException(e);
+        }
+
+        SharedResponse shared = result.getValue();
+        if (shared.isBuffered()) return shared.newResponse(client.getMessageBodyWorkers());
+        if (result.isLeader()) return shared.getResponse();
+
+        // the response was too large to share; send our own request
+        return executeRequest(client, request);
+    }
+
+    /**
+     * Identical reads have the same method, namespace, bucket, key, query (i.e. versionId) and headers (i.e. range and
+     * conditions)
+     */
+    protected String coalesceKey(S3ObjectRequest request) {
+        StringBuilder key = new StringBuilder();
+        key.append(request.getMethod()).append(' ').append(request.getNamespace());
+        key.append(' ').append(request.getBucketName()).append('/').append(request.getKey());
+        key.append('?').append(request.getRawQueryString());
+        key.append(' ').append(new TreeMap<String, List<Object>>(request.getHeaders()));
+        return key.toString();
+    }
+
+    /**
+     * Pings each host that has been idle for the probe interval, so that its response time (recorded by the
+     * {@link HostLatencyFilter}) stays current. Does not reference the S3 client, so an abandoned client can still be
+     * finalized.
+     */
+    protected static class HostProbeTask implements Runnable {
+        private Client client;
+        private S3Config s3Config;
+        private LatencyAwareLoadBalancer loadBalancer;
+
+        HostProbeTask(Client client, S3Config s3Config, LatencyAwareLoadBalancer loadBalancer) {
+            this.client = client;
+            this.s3Config = s3Config;
+            this.loadBalancer = loadBalancer;
+        }
+
+        @Override
+        public void run() {
+            for (Host host : loadBalancer.getIdleHosts(s3Config.getHostProbeInterval() * 1000L)) {
+                try {
+                    String portStr = (s3Config.getPort() > 0) ? ":" + s3Config.getPort() : "";
+                    WebResource resource = client.resource(String.format("%s://%s%s/?ping",
+                            s3Config.getProtocol().name().toLowerCase(), host.getName(), portStr));
+                    resource.setProperty(SmartFilter.BYPASS_LOAD_BALANCER, true);
+                    resource.get(PingResponse.class);
+                } catch (RuntimeException e) {
+                    log.debug("probe of host {} failed: {}", host.getName(), e.toString());
+                }
+            }
+        }
+    }
+
+    /**
+     * A response that can be handed to more than one caller. If the body was small enough, it is buffered and each
+     * caller gets its own copy (with the leader's request timings); otherwise only the original (leader's) response is
+     * available.
+     */
+    protected static class SharedResponse {
+        static SharedResponse from(ClientResponse response, Method method, int bufferSize) {
+            if (method == Method.HEAD) {
+                response.close();
+                return new SharedResponse(response, new byte[0]);
+            }
+            if (response.getLength() >= 0 && response.getLength() <= bufferSize)
+                return new SharedResponse(response, response.getEntity(byte[].class));
+            return new SharedResponse(response, null);
+        }
+
+        private ClientResponse response;
+        private byte[] body;
+
+        private SharedResponse(ClientResponse response, byte[] body) {
+            this.response = response;
+            this.body = body;
+        }
+
+        boolean isBuffered() {
+            return body != null;
+        }
+
+        ClientResponse getResponse() {
+            return response;
+        }
+
+        ClientResponse newResponse(MessageBodyWorkers workers) {
+            InBoundHeaders headers = new InBoundHeaders();
+            for (Map.Entry<String, List<String>> entry : response.getHeaders().entrySet()) {
+                headers.put(entry.getKey(), new ArrayList<String>(entry.getValue()));
+            }
+            ClientResponse copy = new ClientResponse(response.getStatus(), headers, new ByteArrayInputStream(body), workers);
+            Object timings = response.getProperties().get(RestUtil.PROPERTY_REQUEST_TIMINGS);
+            if (timings != null) copy.getProperties().put(RestUtil.PROPERTY_REQUEST_TIMINGS, timings);
+            return copy;
+        }
+    }
 }
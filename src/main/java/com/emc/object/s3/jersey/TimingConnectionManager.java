@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.s3.jersey;
+
+import com.emc.object.util.RequestTimings;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.ClientConnectionRequest;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ManagedClientConnection;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Wraps a connection manager to record how long each request waits to lease a connection from the pool (see
+ * {@link RequestTimings}). The default pool matches the one created by the smart client (200 connections total and
+ * per host).
+ */
+public class TimingConnectionManager implements ClientConnectionManager {
+    public static final int DEFAULT_MAX_CONNECTIONS = 200;
+
+    private static PoolingClientConnectionManager defaultPool() {
+        PoolingClientConnectionManager pool = new PoolingClientConnectionManager();
+        pool.setDefaultMaxPerRoute(DEFAULT_MAX_CONNECTIONS);
+        pool.setMaxTotal(DEFAULT_MAX_CONNECTIONS);
+        return pool;
+    }
+
+    private ClientConnectionManager delegate;
+
+    public TimingConnectionManager() {
+        this(defaultPool());
+    }
+
+    public TimingConnectionManager(ClientConnectionManager delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public ClientConnectionRequest requestConnection(HttpRoute route, Object state) {
+        final ClientConnectionRequest request = delegate.requestConnection(route, state);
+        final RequestTimings timings = RequestTimings.getCurrent();
+        if (timings == null) return request;
+
+        return new ClientConnectionRequest() {
+            @Override
+            public ManagedClientConnection getConnection(long timeout, TimeUnit tunit)
+                    throws InterruptedException, ConnectionPoolTimeoutException {
+                timings.markLeaseStart();
+                ManagedClientConnection connection = request.getConnection(timeout, tunit);
+                timings.markLeaseEnd(!connection.isOpen());
+                return connection;
+            }
+
+            @Override
+            public void abortRequest() {
+                request.abortRequest();
+            }
+        };
+    }
+
+    @Override
+    public SchemeRegistry getSchemeRegistry() {
+        return delegate.getSchemeRegistry();
+    }
+
+    @Override
+    public void releaseConnection(ManagedClientConnection conn, long validDuration, TimeUnit timeUnit) {
+        delegate.releaseConnection(conn, validDuration, timeUnit);
+    }
+
+    @Override
+    public void closeIdleConnections(long idletime, TimeUnit tunit) {
+        delegate.closeIdleConnections(idletime, tunit);
+    }
+
+    @Override
+    public void closeExpiredConnections() {
+        delegate.closeExpiredConnections();
+    }
+
+    @Override
+    public void shutdown() {
+        delegate.shutdown();
+    }
+
+    public ClientConnectionManager getDelegate() {
+        return delegate;
+    }
+}
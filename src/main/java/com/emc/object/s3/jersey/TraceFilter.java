@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.s3.jersey;
+
+import com.emc.object.s3.S3Constants;
+import com.emc.object.s3.S3Exception;
+import com.emc.object.s3.trace.TraceRecord;
+import com.emc.object.s3.trace.TraceWriter;
+import com.emc.object.util.CountingRequestAdapter;
+import com.emc.object.util.RestUtil;
+import com.sun.jersey.api.client.ClientHandlerException;
+import com.sun.jersey.api.client.ClientRequest;
+import com.sun.jersey.api.client.ClientResponse;
+import com.sun.jersey.api.client.filter.ClientFilter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Records a {@link TraceRecord} of each request to a {@link TraceWriter}, so production traffic can later be replayed
+ * with {@link com.emc.object.s3.trace.TraceReplayer}. Tracing never fails a request; if the trace can't be written,
+ * a warning is logged once and further records are dropped.
+ * <p>
+ * Note: this filter must run before the RetryFilter (it must be added to the client after it) so that the duration
+ * includes retries
+ */
+public class TraceFilter extends ClientFilter {
+
+    private static final Logger log = LoggerFactory.getLogger(TraceFilter.class);
+
+    private TraceWriter writer;
+    private AtomicBoolean writeFailed = new AtomicBoolean();
+
+    public TraceFilter(TraceWriter writer) {
+        this.writer = writer;
+    }
+
+    @Override
+    public ClientResponse handle(ClientRequest request) throws ClientHandlerException {
+        if (writeFailed.get()) return getNext().handle(request);
+
+        String operation = MetricsFilter.getOperation(request);
+        String bucketName = (String) request.getProperties().get(S3Constants.PROPERTY_BUCKET_NAME);
+        String key = (String) request.getProperties().get(S3Constants.PROPERTY_OBJECT_KEY);
+
+        CountingRequestAdapter bytesSent = null;
+        if (request.getEntity() != null) {
+            bytesSent = new CountingRequestAdapter(request.getAdapter());
+            request.setAdapter(bytesSent);
+        }
+
+        int statusCode = -1;
+        long bytesReceived = -1;
+        boolean failed = true;
+        long start = System.nanoTime();
+        try {
+            ClientResponse response = getNext().handle(request);
+            statusCode = response.getStatus();
+            bytesReceived = response.getLength();
+            failed = statusCode >= 400;
+            return response;
+        } catch (S3Exception e) {
+            statusCode = e.getHttpCode() > 0 ? e.getHttpCode() : -1;
+            throw e;
+        } finally {
+            Long[] range = parseRange(request.getHeaders().getFirst(RestUtil.HEADER_RANGE));
+            TraceRecord record = new TraceRecord(operation, writer.toTraceTime(start),
+                    bucketName == null ? null : TraceRecord.hash(bucketName),
+                    key == null ? null : TraceRecord.hash(key), bytesSent == null ? 0 : bytesSent.getCount(), bytesReceived,
+                    range == null ? null : range[0], range == null ? null : range[1], statusCode,
+                    (System.nanoTime() - start) / 1000, failed);
+            try {
+                writer.write(record);
+            } catch (IOException e) {
+                if (writeFailed.compareAndSet(false, true))
+                    log.warn("could not write trace record; tracing is disabled for this client", e);
+            }
+        }
+    }
+
+    /**
+     * Parses a single byte range header (bytes=first-[last]); an ECS append (bytes=-1-) has a first byte of -1.
+     * Returns null if there is no range or it can't be parsed (i.e. a suffix or multiple ranges)
+     */
+    static Long[] parseRange(Object header) {
+        if (header == null) return null;
+        String range = header.toString();
+        if (!range.startsWith("bytes=") || range.indexOf(',') >= 0) return null;
+        String spec = range.substring(6);
+        try {
+            if (spec.startsWith("-1-")) return new Long[]{-1L, null};
+            int dash = spec.indexOf('-');
+            if (dash <= 0) return null;
+            Long last = dash == spec.length() - 1 ? null : Long.parseLong(spec.substring(dash + 1));
+            return new Long[]{Long.parseLong(spec.substring(0, dash)), last};
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
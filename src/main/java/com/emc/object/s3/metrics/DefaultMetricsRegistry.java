@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.s3.metrics;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps per-operation latency histograms, byte counts and retry counts, as well as client-wide counts per host, VDC
+ * and status code. Recording is lock-free (a new operation, host or status is added with putIfAbsent).
+ * <p>
+ * Call {@link #registerMBeans(String)} to export the metrics through JMX under the domain <code>com.emc.object</code>
+ * (S3JerseyClient does this for its default registry).
+ */
+public class DefaultMetricsRegistry implements MetricsRegistry, ClientMetricsMXBean {
+
+    private static final Logger log = LoggerFactory.getLogger(DefaultMetricsRegistry.class);
+
+    public static final String JMX_DOMAIN = "com.emc.object";
+
+    private ConcurrentMap<String, OperationMetrics> operations = new ConcurrentHashMap<String, OperationMetrics>();
+    private ConcurrentMap<String, AtomicLong> hostCounts = new ConcurrentHashMap<String, AtomicLong>();
+    private ConcurrentMap<String, AtomicLong> vdcCounts = new ConcurrentHashMap<String, AtomicLong>();
+    private ConcurrentMap<Integer, AtomicLong> statusCounts = new ConcurrentHashMap<Integer, AtomicLong>();
+    private AtomicLong requestCount = new AtomicLong();
+    private AtomicLong inFlight = new AtomicLong();
+    private volatile String jmxName;
+
+    @Override
+    public void requestStarted(String operation) {
+        inFlight.incrementAndGet();
+        getOperationMetrics(operation).started();
+    }
+
+    @Override
+    public void requestCompleted(RequestMetric metric) {
+        inFlight.decrementAndGet();
+        requestCount.incrementAndGet();
+        getOperationMetrics(metric.getOperation()).completed(metric);
+        if (metric.getHost() != null) increment(hostCounts, metric.getHost());
+        if (metric.getVdc() != null) increment(vdcCounts, metric.getVdc());
+        increment(statusCounts, metric.getStatusCode());
+    }
+
+    /**
+     * Returns the metrics for the specified operation (creating them if necessary)
+     */
+    public OperationMetrics getOperationMetrics(String operation) {
+        OperationMetrics metrics = operations.get(operation);
+        if (metrics == null) {
+            OperationMetrics newMetrics = new OperationMetrics(operation);
+            metrics = operations.putIfAbsent(operation, newMetrics);
+            if (metrics == null) {
+                metrics = newMetrics;
+                if (jmxName != null) registerMBean(metrics, operationObjectName(jmxName, operation));
+            }
+        }
+        return metrics;
+    }
+
+    /**
+     * Returns the metrics of all operations seen so far, sorted by operation name
+     */
+    public Map<String, OperationMetrics> getOperations() {
+        return new TreeMap<String, OperationMetrics>(operations);
+    }
+
+    @Override
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    @Override
+    public long getInFlight() {
+        return inFlight.get();
+    }
+
+    @Override
+    public Map<String, Long> getHostCounts() {
+        return snapshot(hostCounts);
+    }
+
+    @Override
+    public Map<String, Long> getVdcCounts() {
+        return snapshot(vdcCounts);
+    }
+
+    @Override
+    public Map<Integer, Long> getStatusCounts() {
+        return snapshot(statusCounts);
+    }
+
+    /**
+     * Clears all counts and histograms (in-flight gauges are not affected)
+     */
+    @Override
+    public void reset() {
+        for (OperationMetrics metrics : operations.values()) {
+            metrics.reset();
+        }
+        hostCounts.clear();
+        vdcCounts.clear();
+        statusCounts.clear();
+        requestCount.set(0);
+    }
+
+    /**
+     * Registers this registry and its operations with the platform MBean server as
+     * <code>com.emc.object:type=S3Client,name=[name]</code> (operations also have an <code>operation</code> key).
+     * Operations seen later are registered as they appear
+     */
+    public synchronized void registerMBeans(String name) {
+        if (jmxName != null) throw new IllegalStateException("already registered as " + jmxName);
+        jmxName = name;
+        registerMBean(this, clientObjectName(name));
+        for (OperationMetrics metrics : operations.values()) {
+            registerMBean(metrics, operationObjectName(name, metrics.getOperation()));
+        }
+    }
+
+    public synchronized void unregisterMBeans() {
+        if (jmxName == null) return;
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            for (ObjectName objectName : server.queryNames(new ObjectName(clientObjectName(jmxName) + ",*"), null)) {
+                server.unregisterMBean(objectName);
+            }
+            ObjectName clientName = new ObjectName(clientObjectName(jmxName));
+            if (server.isRegistered(clientName)) server.unregisterMBean(clientName);
+        } catch (Exception e) {
+            log.warn("could not unregister metrics MBeans", e);
+        }
+        jmxName = null;
+    }
+
+    private String clientObjectName(String name) {
+        return JMX_DOMAIN + ":type=S3Client,name=" + ObjectName.quote(name);
+    }
+
+    private String operationObjectName(String name, String operation) {
+        return clientObjectName(name) + ",operation=" + ObjectName.quote(operation);
+    }
+
+    private void registerMBean(Object mBean, String objectName) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(mBean, new ObjectName(objectName));
+        } catch (Exception e) {
+            log.warn("could not register metrics MBean " + objectName, e);
+        }
+    }
+
+    private <K> void increment(ConcurrentMap<K, AtomicLong> counts, K key) {
+        AtomicLong count = counts.get(key);
+        if (count == null) {
+            AtomicLong newCount = new AtomicLong();
+            count = counts.putIfAbsent(key, newCount);
+            if (count == null) count = newCount;
+        }
+        count.incrementAndGet();
+    }
+
+    private <K extends Comparable<K>> Map<K, Long> snapshot(Map<K, AtomicLong> counts) {
+        Map<K, Long> snapshot = new TreeMap<K, Long>();
+        for (Map.Entry<K, AtomicLong> entry : counts.entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().get());
+        }
+        return snapshot;
+    }
+}
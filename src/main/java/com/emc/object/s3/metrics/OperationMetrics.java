@@ -0,0 +1,154 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.s3.metrics;
+
+import com.emc.object.util.LatencyHistogram;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Metrics for one operation. All recording is lock-free
+ */
+public class OperationMetrics implements OperationMetricsMXBean {
+    private String operation;
+    private LatencyHistogram latency = new LatencyHistogram(); // microseconds
+    private AtomicLong errorCount = new AtomicLong();
+    private AtomicLong inFlight = new AtomicLong();
+    private AtomicLong retryCount = new AtomicLong();
+    private AtomicLong bytesSent = new AtomicLong();
+    private AtomicLong bytesReceived = new AtomicLong();
+
+    public OperationMetrics(String operation) {
+        this.operation = operation;
+    }
+
+    public void started() {
+        inFlight.incrementAndGet();
+    }
+
+    public void completed(RequestMetric metric) {
+        inFlight.decrementAndGet();
+        latency.record(metric.getDuration() / 1000);
+        if (metric.isFailed()) errorCount.incrementAndGet();
+        if (metric.getRetryCount() > 0) retryCount.addAndGet(metric.getRetryCount());
+        if (metric.getBytesSent() > 0) bytesSent.addAndGet(metric.getBytesSent());
+        if (metric.getBytesReceived() > 0) bytesReceived.addAndGet(metric.getBytesReceived());
+    }
+
+    /**
+     * Returns the latency histogram (in microseconds)
+     */
+    public LatencyHistogram getLatencyHistogram() {
+        return latency;
+    }
+
+    public void reset() {
+        latency.reset();
+        errorCount.set(0);
+        retryCount.set(0);
+        bytesSent.set(0);
+        bytesReceived.set(0);
+    }
+
+    @Override
+    public String getOperation() {
+        return operation;
+    }
+
+    @Override
+    public long getRequestCount() {
+        return latency.getCount();
+    }
+
+    @Override
+    public long getErrorCount() {
+        return errorCount.get();
+    }
+
+    @Override
+    public long getInFlight() {
+        return inFlight.get();
+    }
+
+    @Override
+    public long getRetryCount() {
+        return retryCount.get();
+    }
+
+    @Override
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    @Override
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    @Override
+    public double getMeanLatency() {
+        return latency.getMean() / 1000;
+    }
+
+    @Override
+    public double getP50Latency() {
+        return latency.getPercentile(50) / 1000.0;
+    }
+
+    @Override
+    public double getP90Latency() {
+        return latency.getPercentile(90) / 1000.0;
+    }
+
+    @Override
+    public double getP99Latency() {
+        return latency.getPercentile(99) / 1000.0;
+    }
+
+    @Override
+    public double getP999Latency() {
+        return latency.getPercentile(99.9) / 1000.0;
+    }
+
+    @Override
+    public double getMaxLatency() {
+        return latency.getMax() / 1000.0;
+    }
+
+    @Override
+    public String toString() {
+        return "OperationMetrics{" +
+                "operation='" + operation + '\'' +
+                ", requestCount=" + getRequestCount() +
+                ", errorCount=" + getErrorCount() +
+                ", inFlight=" + getInFlight() +
+                ", retryCount=" + getRetryCount() +
+                ", meanLatency=" + getMeanLatency() +
+                ", p99Latency=" + getP99Latency() +
+                '}';
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.s3.metrics;
+
+/**
+ * The measurements of a single completed request
+ */
+public class RequestMetric {
+    private String operation;
+    private String host;
+    private String vdc;
+    private int statusCode;
+    private long duration;
+    private long bytesSent;
+    private long bytesReceived;
+    private int retryCount;
+    private boolean failed;
+
+    public RequestMetric(String operation, String host, String vdc, int statusCode, long duration, long bytesSent,
+                         long bytesReceived, int retryCount, boolean failed) {
+        this.operation = operation;
+        this.host = host;
+        this.vdc = vdc;
+        this.statusCode = statusCode;
+        this.duration = duration;
+        this.bytesSent = bytesSent;
+        this.bytesReceived = bytesReceived;
+        this.retryCount = retryCount;
+        this.failed = failed;
+    }
+
+    public String getOperation() {
+        return operation;
+    }
+
+    /**
+     * The host that served the request (the last host tried, if it was retried)
+     */
+    public String getHost() {
+        return host;
+    }
+
+    /**
+     * The name of the VDC the host belongs to, or null if unknown
+     */
+    public String getVdc() {
+        return vdc;
+    }
+
+    /**
+     * The HTTP status of the response, or -1 if no response was received
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * The time to receive the response headers in nanoseconds, including retries
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+    /**
+     * The number of entity bytes written to the request, including retries
+     */
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    /**
+     * The content-length of the response, or -1 if unknown
+     */
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    public int getRetryCount() {
+        return retryCount;
+    }
+
+    /**
+     * True if the request resulted in an error (an exception or error response)
+     */
+    public boolean isFailed() {
+        return failed;
+    }
+
+    @Override
+    public String toString() {
+        return "RequestMetric{" +
+                "operation='" + operation + '\'' +
+                ", host='" + host + '\'' +
+                ", vdc='" + vdc + '\'' +
+                ", statusCode=" + statusCode +
+                ", duration=" + duration +
+                ", bytesSent=" + bytesSent +
+                ", bytesReceived=" + bytesReceived +
+                ", retryCount=" + retryCount +
+                ", failed=" + failed +
+                '}';
+    }
+}
@@ -52,6 +52,17 @@ public class GetObjectRequest<T extends GetObjectRequest<T>> extends S3ObjectReq
         super(method, bucketName, key, null);
     }
 
+    public GetObjectRequest(GetObjectRequest<?> other) {
+        super(other);
+        this.versionId = other.versionId;
+        this.range = other.range;
+        this.ifModifiedSince = other.ifModifiedSince;
+        this.ifUnmodifiedSince = other.ifUnmodifiedSince;
+        this.ifMatch = other.ifMatch;
+        this.ifNoneMatch = other.ifNoneMatch;
+        this.headerOverrides.putAll(other.headerOverrides);
+    }
+
     @Override
     public Map<String, String> getQueryParams() {
         Map<String, String> queryParams = super.getQueryParams();
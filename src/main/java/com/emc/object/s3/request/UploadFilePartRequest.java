@@ -26,11 +26,9 @@
  */
 package com.emc.object.s3.request;
 
-import com.emc.object.util.InputStreamSegment;
+import com.emc.object.util.FileSegmentEntity;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.IOException;
 
 public class UploadFilePartRequest extends UploadPartRequest {
     private File file;
@@ -43,11 +41,7 @@ public class UploadFilePartRequest extends UploadPartRequest {
 
     @Override
     public Object getEntity() {
-        try {
-            return new InputStreamSegment(new FileInputStream(file), offset, length);
-        } catch (IOException e) {
-            throw new IllegalArgumentException("bad file parameters", e);
-        }
+        return new FileSegmentEntity(file, Math.max(offset, 0), length);
     }
 
     @Override
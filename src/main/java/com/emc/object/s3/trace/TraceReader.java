@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.s3.trace;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads a trace written by {@link TraceWriter}.
+ */
+public class TraceReader implements Closeable {
+    private DataInputStream in;
+    private long traceStartTime;
+    private List<String> operations = new ArrayList<String>();
+    private long lastStartTime;
+
+    public TraceReader(File file) throws IOException {
+        this(new FileInputStream(file));
+    }
+
+    public TraceReader(InputStream in) throws IOException {
+        this.in = new DataInputStream(new BufferedInputStream(in, 64 * 1024));
+        byte[] magic = new byte[TraceWriter.MAGIC.length];
+        this.in.readFully(magic);
+        if (!Arrays.equals(magic, TraceWriter.MAGIC)) throw new IOException("not a trace file");
+        int version = this.in.readUnsignedByte();
+        if (version != TraceWriter.VERSION) throw new IOException("unsupported trace version: " + version);
+        traceStartTime = readVarLong(this.in);
+    }
+
+    /**
+     * Returns the next record, or null at the end of the trace
+     */
+    public TraceRecord read() throws IOException {
+        int first = in.read();
+        if (first < 0) return null;
+
+        int operationIndex = (int) readVarLong(in, first);
+        if (operationIndex == operations.size()) operations.add(in.readUTF());
+        else if (operationIndex > operations.size()) throw new IOException("corrupt trace (bad operation index)");
+        String operation = operations.get(operationIndex);
+
+        long startTime = lastStartTime + unzigzag(readVarLong(in));
+        lastStartTime = startTime;
+
+        int flags = in.readUnsignedByte();
+        Long bucketHash = (flags & TraceWriter.FLAG_BUCKET) != 0 ? in.readLong() : null;
+        Long keyHash = (flags & TraceWriter.FLAG_KEY) != 0 ? in.readLong() : null;
+        long bytesSent = readVarLong(in);
+        long bytesReceived = unzigzag(readVarLong(in));
+        Long rangeFirst = null, rangeLast = null;
+        if ((flags & TraceWriter.FLAG_RANGE) != 0) {
+            rangeFirst = unzigzag(readVarLong(in));
+            rangeLast = unzigzag(readVarLong(in));
+            if (rangeLast < 0) rangeLast = null;
+        }
+        int statusCode = (int) unzigzag(readVarLong(in));
+        long duration = readVarLong(in);
+
+        return new TraceRecord(operation, startTime, bucketHash, keyHash, bytesSent, bytesReceived, rangeFirst,
+                rangeLast, statusCode, duration, (flags & TraceWriter.FLAG_FAILED) != 0);
+    }
+
+    /**
+     * The wall-clock time the trace started (ms since the epoch)
+     */
+    public long getTraceStartTime() {
+        return traceStartTime;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static long readVarLong(DataInput in) throws IOException {
+        return readVarLong(in, in.readUnsignedByte());
+    }
+
+    private static long readVarLong(DataInput in, int first) throws IOException {
+        long value = first & 0x7F;
+        int shift = 7;
+        int b = first;
+        while ((b & 0x80) != 0) {
+            if (shift > 63) throw new IOException("corrupt trace (varint too long)");
+            b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        }
+        return value;
+    }
+}
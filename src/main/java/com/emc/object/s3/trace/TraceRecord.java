@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.s3.trace;
+
+/**
+ * A single traced request. Bucket names and keys are recorded only as 64-bit hashes (see {@link #hash(String)}), so a
+ * trace reproduces the shape of the traffic without revealing names.
+ */
+public class TraceRecord {
+    /**
+     * FNV-1a 64-bit hash of the string's UTF-16 characters
+     */
+    public static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    private String operation;
+    private long startTime;
+    private Long bucketHash;
+    private Long keyHash;
+    private long bytesSent;
+    private long bytesReceived;
+    private Long rangeFirst;
+    private Long rangeLast;
+    private int statusCode;
+    private long duration;
+    private boolean failed;
+
+    public TraceRecord(String operation, long startTime, Long bucketHash, Long keyHash, long bytesSent,
+                       long bytesReceived, Long rangeFirst, Long rangeLast, int statusCode, long duration,
+                       boolean failed) {
+        this.operation = operation;
+        this.startTime = startTime;
+        this.bucketHash = bucketHash;
+        this.keyHash = keyHash;
+        this.bytesSent = bytesSent;
+        this.bytesReceived = bytesReceived;
+        this.rangeFirst = rangeFirst;
+        this.rangeLast = rangeLast;
+        this.statusCode = statusCode;
+        this.duration = duration;
+        this.failed = failed;
+    }
+
+    /**
+     * The operation name (i.e. GET_OBJECT or PUT_OBJECT?uploadId)
+     */
+    public String getOperation() {
+        return operation;
+    }
+
+    /**
+     * The start of the request in microseconds since the start of the trace
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    /**
+     * The hash of the bucket name, or null for service requests
+     */
+    public Long getBucketHash() {
+        return bucketHash;
+    }
+
+    /**
+     * The hash of the object key, or null for bucket and service requests
+     */
+    public Long getKeyHash() {
+        return keyHash;
+    }
+
+    /**
+     * The number of entity bytes written by the last attempt
+     */
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    /**
+     * The content-length of the response, or -1 if unknown
+     */
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    /**
+     * The first byte of the requested range (-1 for an append), or null if the request had no range
+     */
+    public Long getRangeFirst() {
+        return rangeFirst;
+    }
+
+    /**
+     * The last byte of the requested range, or null if the range is open-ended (or there is no range)
+     */
+    public Long getRangeLast() {
+        return rangeLast;
+    }
+
+    /**
+     * The HTTP status of the response, or -1 if no response was received
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * The time to receive the response headers in microseconds, including retries
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+    /**
+     * True if the request resulted in an error (an exception or error response)
+     */
+    public boolean isFailed() {
+        return failed;
+    }
+
+    @Override
+    public String toString() {
+        return "TraceRecord{" +
+                "operation='" + operation + '\'' +
+                ", startTime=" + startTime +
+                ", bucketHash=" + bucketHash +
+                ", keyHash=" + keyHash +
+                ", bytesSent=" + bytesSent +
+                ", bytesReceived=" + bytesReceived +
+                ", rangeFirst=" + rangeFirst +
+                ", rangeLast=" + rangeLast +
+                ", statusCode=" + statusCode +
+                ", duration=" + duration +
+                ", failed=" + failed +
+                '}';
+    }
+}
@@ -0,0 +1,464 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.s3.trace;
+
+import com.emc.object.Range;
+import com.emc.object.s3.S3Client;
+import com.emc.object.s3.S3Exception;
+import com.emc.object.s3.S3ObjectMetadata;
+import com.emc.object.s3.request.ListObjectsRequest;
+import com.emc.object.s3.request.PutObjectRequest;
+import com.emc.object.util.DaemonThreadFactory;
+import com.emc.object.util.LatencyHistogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Re-issues a trace recorded by {@link com.emc.object.s3.jersey.TraceFilter} against any endpoint, preserving the
+ * trace's arrival times (scaled by {@link #setTimeScale(double) timeScale}), operation mix, object sizes and byte
+ * ranges. Since names are hashed in the trace, all objects are replayed in one bucket as
+ * <code>prefix + bucketHash/keyHash</code>, and listing a bucket lists its prefix.
+ * <p>
+ * Requests are scheduled open-loop: each is started at its scheduled time on one of the replay threads, and its latency
+ * is measured from that time, so any delay caused by a saturated endpoint (or too few threads) is included. Object
+ * reads, writes (including partial updates and appends), deletes and bucket listings are replayed; other operations
+ * (i.e. multipart uploads and bucket configuration) are skipped.
+ */
+public class TraceReplayer implements Runnable {
+
+    private static final Logger log = LoggerFactory.getLogger(TraceReplayer.class);
+
+    public static final String DEFAULT_PREFIX = "replay/";
+    public static final int DEFAULT_THREADS = 32;
+
+    public static final String OP_GET_OBJECT = "GET_OBJECT";
+    public static final String OP_HEAD_OBJECT = "HEAD_OBJECT";
+    public static final String OP_PUT_OBJECT = "PUT_OBJECT";
+    public static final String OP_DELETE_OBJECT = "DELETE_OBJECT";
+    public static final String OP_LIST_OBJECTS = "GET_BUCKET";
+
+    private static final Set<String> REPLAYED_OPERATIONS = new HashSet<String>(Arrays.asList(
+            OP_GET_OBJECT, OP_HEAD_OBJECT, OP_PUT_OBJECT, OP_DELETE_OBJECT, OP_LIST_OBJECTS));
+    private static final int BUFFER_SIZE = 128 * 1024;
+    private static final int QUEUE_SIZE = 10000;
+
+    private S3Client s3Client;
+    private String bucket;
+    private File traceFile;
+    private String prefix = DEFAULT_PREFIX;
+    private int threads = DEFAULT_THREADS;
+    private double timeScale = 1.0;
+    private boolean prepopulate;
+
+    private ConcurrentHashMap<String, OperationResult> results = new ConcurrentHashMap<String, OperationResult>();
+    private AtomicLong skippedCount = new AtomicLong();
+    private volatile long duration;
+    private byte[] pattern;
+
+    public TraceReplayer(S3Client s3Client, String bucket, File traceFile) {
+        this.s3Client = s3Client;
+        this.bucket = bucket;
+        this.traceFile = traceFile;
+    }
+
+    @Override
+    public void run() {
+        try {
+            doReplay();
+        } catch (IOException e) {
+            throw new RuntimeException("could not read trace " + traceFile, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("interrupted during replay", e);
+        }
+    }
+
+    public void doReplay() throws IOException, InterruptedException {
+        pattern = new byte[BUFFER_SIZE + 1];
+        new Random().nextBytes(pattern);
+
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<Runnable>(QUEUE_SIZE), new DaemonThreadFactory("trace-replay"),
+                new RejectedExecutionHandler() {
+                    @Override
+                    public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                        // the queue is full; wait for room (the delay counts toward each request's latency)
+                        try {
+                            executor.getQueue().put(r);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new RejectedExecutionException(e);
+                        }
+                    }
+                });
+        try {
+            if (prepopulate) prepopulate(executor);
+
+            long replayStart = System.nanoTime();
+            TraceReader reader = new TraceReader(traceFile);
+            try {
+                Long traceStart = null;
+                TraceRecord record;
+                while ((record = reader.read()) != null) {
+                    if (!REPLAYED_OPERATIONS.contains(record.getOperation()) || record.getBucketHash() == null) {
+                        skippedCount.incrementAndGet();
+                        continue;
+                    }
+                    if (traceStart == null) traceStart = record.getStartTime();
+
+                    // records are in completion order, so a request may be scheduled slightly in the past
+                    long scheduled = replayStart + (long) ((record.getStartTime() - traceStart) * 1000 * timeScale);
+                    long wait = scheduled - System.nanoTime();
+                    if (wait > 0) TimeUnit.NANOSECONDS.sleep(wait);
+                    executor.execute(new ReplayTask(record, Math.min(scheduled, System.nanoTime())));
+                }
+            } finally {
+                reader.close();
+            }
+
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            duration = System.nanoTime() - replayStart;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Creates every object that the trace reads before writing it, sized to satisfy all of those reads
+     */
+    protected void prepopulate(ExecutorService executor) throws IOException, InterruptedException {
+        Map<String, Long> sizes = new HashMap<String, Long>();
+        Set<String> written = new HashSet<String>();
+        TraceReader reader = new TraceReader(traceFile);
+        try {
+            TraceRecord record;
+            while ((record = reader.read()) != null) {
+                if (record.getKeyHash() == null || record.getBucketHash() == null) continue;
+                String key = getKey(record);
+                String operation = record.getOperation();
+                if (OP_PUT_OBJECT.equals(operation) || OP_DELETE_OBJECT.equals(operation)) {
+                    written.add(key);
+                } else if ((OP_GET_OBJECT.equals(operation) || OP_HEAD_OBJECT.equals(operation))
+                        && !written.contains(key) && !record.isFailed()) {
+                    long size = Math.max(record.getBytesReceived(), 0);
+                    if (record.getRangeFirst() != null && record.getRangeLast() != null)
+                        size = Math.max(size, record.getRangeLast() + 1);
+                    Long currentSize = sizes.get(key);
+                    if (currentSize == null || currentSize < size) sizes.put(key, size);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+
+        log.info("prepopulating {} objects", sizes.size());
+        List<Future<?>> futures = new ArrayList<Future<?>>();
+        for (final Map.Entry<String, Long> entry : sizes.entrySet()) {
+            futures.add(executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    putObject(entry.getKey(), entry.getValue(), null);
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                throw new RuntimeException("could not prepopulate objects", e.getCause());
+            }
+        }
+    }
+
+    /**
+     * Returns the replay key of a traced object (or the listing prefix of a traced bucket if key is null)
+     */
+    protected String getKey(TraceRecord record) {
+        String bucketPrefix = prefix + Long.toHexString(record.getBucketHash()) + "/";
+        return record.getKeyHash() == null ? bucketPrefix : bucketPrefix + Long.toHexString(record.getKeyHash());
+    }
+
+    protected void replay(TraceRecord record) throws IOException {
+        String key = getKey(record);
+        String operation = record.getOperation();
+        Range range = null;
+        if (record.getRangeFirst() != null) range = new Range(record.getRangeFirst(), record.getRangeLast());
+
+        if (OP_GET_OBJECT.equals(operation)) {
+            InputStream in = s3Client.readObjectStream(bucket, key, range);
+            try {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                while (in.read(buffer) != -1) {
+                    // discard
+                }
+            } finally {
+                in.close();
+            }
+        } else if (OP_HEAD_OBJECT.equals(operation)) {
+            s3Client.getObjectMetadata(bucket, key);
+        } else if (OP_PUT_OBJECT.equals(operation)) {
+            if (range != null && range.getFirst() >= 0)
+                range = new Range(range.getFirst(), range.getFirst() + record.getBytesSent() - 1);
+            putObject(key, record.getBytesSent(), range);
+        } else if (OP_DELETE_OBJECT.equals(operation)) {
+            s3Client.deleteObject(bucket, key);
+        } else if (OP_LIST_OBJECTS.equals(operation)) {
+            s3Client.listObjects(new ListObjectsRequest(bucket).withPrefix(key));
+        }
+    }
+
+    private void putObject(String key, long size, Range range) {
+        s3Client.putObject(new PutObjectRequest(bucket, key, new PatternInputStream(pattern, size))
+                .withObjectMetadata(new S3ObjectMetadata().withContentLength(size)).withRange(range));
+    }
+
+    private OperationResult getResult(String operation) {
+        OperationResult result = results.get(operation);
+        if (result == null) {
+            result = new OperationResult(operation);
+            OperationResult existing = results.putIfAbsent(operation, result);
+            if (existing != null) result = existing;
+        }
+        return result;
+    }
+
+    /**
+     * Returns the results of each replayed operation, sorted by operation name
+     */
+    public List<OperationResult> getResults() {
+        List<OperationResult> sorted = new ArrayList<OperationResult>(results.values());
+        Collections.sort(sorted, new Comparator<OperationResult>() {
+            @Override
+            public int compare(OperationResult o1, OperationResult o2) {
+                return o1.getOperation().compareTo(o2.getOperation());
+            }
+        });
+        return sorted;
+    }
+
+    /**
+     * Returns the number of traced requests that were not replayed
+     */
+    public long getSkippedCount() {
+        return skippedCount.get();
+    }
+
+    /**
+     * Returns the duration of the replay in nanoseconds
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+    public S3Client getS3Client() {
+        return s3Client;
+    }
+
+    public String getBucket() {
+        return bucket;
+    }
+
+    public File getTraceFile() {
+        return traceFile;
+    }
+
+    public String getPrefix() {
+        return prefix;
+    }
+
+    /**
+     * Sets the key prefix of all replayed objects. Default is {@value #DEFAULT_PREFIX}
+     */
+    public void setPrefix(String prefix) {
+        this.prefix = prefix;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Sets the number of replay threads (the maximum number of concurrent requests). Default is
+     * {@value #DEFAULT_THREADS}
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public double getTimeScale() {
+        return timeScale;
+    }
+
+    /**
+     * Scales the time between traced requests; i.e. 0.5 replays the trace twice as fast, and 0 replays it as fast as
+     * the threads allow. Default is 1.0
+     */
+    public void setTimeScale(double timeScale) {
+        this.timeScale = timeScale;
+    }
+
+    public boolean isPrepopulate() {
+        return prepopulate;
+    }
+
+    /**
+     * If true, objects that the trace reads before writing are created before the replay starts. Disabled by default
+     */
+    public void setPrepopulate(boolean prepopulate) {
+        this.prepopulate = prepopulate;
+    }
+
+    public TraceReplayer withPrefix(String prefix) {
+        setPrefix(prefix);
+        return this;
+    }
+
+    public TraceReplayer withThreads(int threads) {
+        setThreads(threads);
+        return this;
+    }
+
+    public TraceReplayer withTimeScale(double timeScale) {
+        setTimeScale(timeScale);
+        return this;
+    }
+
+    public TraceReplayer withPrepopulate(boolean prepopulate) {
+        setPrepopulate(prepopulate);
+        return this;
+    }
+
+    private class ReplayTask implements Runnable {
+        private TraceRecord record;
+        private long scheduled;
+
+        ReplayTask(TraceRecord record, long scheduled) {
+            this.record = record;
+            this.scheduled = scheduled;
+        }
+
+        @Override
+        public void run() {
+            OperationResult result = getResult(record.getOperation());
+            result.originalLatency.record(record.getDuration());
+            if (record.isFailed()) result.originalErrorCount.incrementAndGet();
+            try {
+                replay(record);
+            } catch (S3Exception e) {
+                result.errorCount.incrementAndGet();
+            } catch (Exception e) {
+                log.debug("error replaying " + record, e);
+                result.errorCount.incrementAndGet();
+            }
+            result.latency.record((System.nanoTime() - scheduled) / 1000);
+        }
+    }
+
+    /**
+     * The original and replayed latencies (in microseconds) and errors of one operation
+     */
+    public static class OperationResult {
+        private String operation;
+        private LatencyHistogram originalLatency = new LatencyHistogram();
+        private LatencyHistogram latency = new LatencyHistogram();
+        private AtomicLong originalErrorCount = new AtomicLong();
+        private AtomicLong errorCount = new AtomicLong();
+
+        OperationResult(String operation) {
+            this.operation = operation;
+        }
+
+        public String getOperation() {
+            return operation;
+        }
+
+        /**
+         * Latencies recorded in the trace
+         */
+        public LatencyHistogram getOriginalLatency() {
+            return originalLatency;
+        }
+
+        /**
+         * Latencies of the replay, measured from each request's scheduled start
+         */
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        public long getOriginalErrorCount() {
+            return originalErrorCount.get();
+        }
+
+        public long getErrorCount() {
+            return errorCount.get();
+        }
+    }
+
+    /**
+     * Streams <code>length</code> bytes by repeating a random pattern
+     */
+    private static class PatternInputStream extends InputStream {
+        private final byte[] pattern;
+        private final long length;
+        private long position;
+
+        PatternInputStream(byte[] pattern, long length) {
+            this.pattern = pattern;
+            this.length = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (position >= length) return -1;
+            return pattern[(int) (position++ % pattern.length)] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (position >= length) return -1;
+            int offset = (int) (position % pattern.length);
+            len = (int) Math.min(Math.min(len, length - position), pattern.length - offset);
+            System.arraycopy(pattern, offset, b, off, len);
+            position += len;
+            return len;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int) Math.min(length - position, Integer.MAX_VALUE);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.s3.trace;
+
+import java.io.*;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Writes {@link TraceRecord}s in a compact binary format (typically 25-35 bytes per request). The format is:
+ * <pre>
+ * header: "S3TR" version(byte) traceStartTime(varlong, ms since the epoch)
+ * record: operation(varint) [operationName(UTF) if the operation index is new]
+ *         startTimeDelta(zigzag varlong, us since the previous record) flags(byte)
+ *         [bucketHash(long)] [keyHash(long)] bytesSent(varlong) bytesReceived(zigzag varlong)
+ *         [rangeFirst(zigzag varlong) rangeLast(zigzag varlong, -1 if open)]
+ *         statusCode(zigzag varint) duration(varlong, us)
+ * </pre>
+ * Records are written when each response is received, so start times are not strictly increasing. This class is
+ * thread-safe; records are buffered until {@link #flush()} or {@link #close()}.
+ *
+ * @see TraceReader
+ * @see com.emc.object.s3.S3Config#setTraceWriter(TraceWriter)
+ */
+public class TraceWriter implements Closeable, Flushable {
+    static final byte[] MAGIC = {'S', '3', 'T', 'R'};
+    static final int VERSION = 1;
+
+    static final int FLAG_BUCKET = 1;
+    static final int FLAG_KEY = 2;
+    static final int FLAG_RANGE = 4;
+    static final int FLAG_FAILED = 8;
+
+    private DataOutputStream out;
+    private long startNanos = System.nanoTime();
+    private Map<String, Integer> operations = new HashMap<String, Integer>();
+    private long lastStartTime;
+    private long recordCount;
+
+    public TraceWriter(File file) throws IOException {
+        this(new FileOutputStream(file));
+    }
+
+    public TraceWriter(OutputStream out) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(out, 64 * 1024));
+        this.out.write(MAGIC);
+        this.out.writeByte(VERSION);
+        writeVarLong(this.out, System.currentTimeMillis());
+    }
+
+    /**
+     * Converts a {@link System#nanoTime()} value to a record start time (microseconds since the start of the trace)
+     */
+    public long toTraceTime(long nanoTime) {
+        return (nanoTime - startNanos) / 1000;
+    }
+
+    public synchronized void write(TraceRecord record) throws IOException {
+        Integer operation = operations.get(record.getOperation());
+        if (operation == null) {
+            operation = operations.size();
+            operations.put(record.getOperation(), operation);
+            writeVarLong(out, operation);
+            out.writeUTF(record.getOperation());
+        } else {
+            writeVarLong(out, operation);
+        }
+
+        writeVarLong(out, zigzag(record.getStartTime() - lastStartTime));
+        lastStartTime = record.getStartTime();
+
+        int flags = 0;
+        if (record.getBucketHash() != null) flags |= FLAG_BUCKET;
+        if (record.getKeyHash() != null) flags |= FLAG_KEY;
+        if (record.getRangeFirst() != null) flags |= FLAG_RANGE;
+        if (record.isFailed()) flags |= FLAG_FAILED;
+        out.writeByte(flags);
+
+        if (record.getBucketHash() != null) out.writeLong(record.getBucketHash());
+        if (record.getKeyHash() != null) out.writeLong(record.getKeyHash());
+        writeVarLong(out, record.getBytesSent());
+        writeVarLong(out, zigzag(record.getBytesReceived()));
+        if (record.getRangeFirst() != null) {
+            writeVarLong(out, zigzag(record.getRangeFirst()));
+            writeVarLong(out, zigzag(record.getRangeLast() == null ? -1 : record.getRangeLast()));
+        }
+        writeVarLong(out, zigzag(record.getStatusCode()));
+        writeVarLong(out, record.getDuration());
+        recordCount++;
+    }
+
+    public synchronized long getRecordCount() {
+        return recordCount;
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+
+    static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static void writeVarLong(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+}
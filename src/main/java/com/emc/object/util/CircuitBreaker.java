@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.util;
+
+/**
+ * A circuit breaker driven by the failure rate of recent calls. While CLOSED, the outcome of each call is kept in a
+ * sliding window; once the window has at least the minimum number of calls and the failure rate reaches the threshold,
+ * the breaker OPENs and calls should not be made. After the open time has passed, the breaker is HALF_OPEN and allows
+ * a single trial call (see {@link #tryAcquire()}): its success closes the breaker and its failure opens it again. Other
+ * calls are refused until the trial reports its outcome (or until the open time passes again, in case the trial call
+ * was never made).
+ */
+public class CircuitBreaker {
+    public static final int DEFAULT_WINDOW_SIZE = 20;
+    public static final int DEFAULT_MINIMUM_CALLS = 10;
+    public static final float DEFAULT_FAILURE_RATE = 0.5f;
+    public static final int DEFAULT_OPEN_TIME = 30000; // ms
+
+    public enum State {
+        CLOSED, OPEN, HALF_OPEN
+    }
+
+    private final boolean[] window;
+    private int minimumCalls = DEFAULT_MINIMUM_CALLS;
+    private float failureRate = DEFAULT_FAILURE_RATE;
+    private int openTime = DEFAULT_OPEN_TIME;
+
+    private State state = State.CLOSED;
+    private int callCount, failureCount, nextIndex;
+    private long openedTime;
+    private long trialTime; // when the trial permit was handed out (0 if it is available)
+    private long openCount;
+
+    public CircuitBreaker() {
+        this(DEFAULT_WINDOW_SIZE);
+    }
+
+    public CircuitBreaker(int windowSize) {
+        this.window = new boolean[windowSize];
+    }
+
+    public synchronized State getState() {
+        if (state == State.OPEN && System.currentTimeMillis() - openedTime >= openTime) {
+            state = State.HALF_OPEN;
+            trialTime = 0;
+        }
+        return state;
+    }
+
+    /**
+     * Returns true if a call would be allowed now: the breaker is CLOSED, or it is HALF_OPEN and the trial permit is
+     * available. Does not take the permit; use {@link #tryAcquire()} before making a call.
+     */
+    public synchronized boolean isCallAllowed() {
+        switch (getState()) {
+            case CLOSED:
+                return true;
+            case HALF_OPEN:
+                return trialTime == 0 || System.currentTimeMillis() - trialTime >= openTime;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Returns true if a call may be made. While HALF_OPEN, this hands out the single trial permit; if the call is not
+     * made after all, return the permit with {@link #release()}.
+     */
+    public synchronized boolean tryAcquire() {
+        if (!isCallAllowed()) return false;
+        if (state == State.HALF_OPEN) trialTime = System.currentTimeMillis();
+        return true;
+    }
+
+    /**
+     * Returns the trial permit taken by {@link #tryAcquire()} when the trial call was not made
+     */
+    public synchronized void release() {
+        if (getState() == State.HALF_OPEN) trialTime = 0;
+    }
+
+    public synchronized void recordSuccess() {
+        switch (getState()) {
+            case HALF_OPEN:
+                close();
+                break;
+            case CLOSED:
+                addCall(false);
+                break;
+            default: // results of calls made before the breaker opened are ignored
+        }
+    }
+
+    public synchronized void recordFailure() {
+        switch (getState()) {
+            case HALF_OPEN:
+                open();
+                break;
+            case CLOSED:
+                addCall(true);
+                if (callCount >= minimumCalls && failureCount >= failureRate * callCount) open();
+                break;
+            default:
+        }
+    }
+
+    private void addCall(boolean failed) {
+        if (callCount == window.length) {
+            if (window[nextIndex]) failureCount--;
+        } else {
+            callCount++;
+        }
+        window[nextIndex] = failed;
+        if (failed) failureCount++;
+        nextIndex = (nextIndex + 1) % window.length;
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedTime = System.currentTimeMillis();
+        openCount++;
+    }
+
+    private void close() {
+        state = State.CLOSED;
+        callCount = failureCount = nextIndex = 0;
+    }
+
+    /**
+     * Returns the number of times this breaker has opened
+     */
+    public synchronized long getOpenCount() {
+        return openCount;
+    }
+
+    public int getMinimumCalls() {
+        return minimumCalls;
+    }
+
+    /**
+     * The minimum number of calls in the window before the failure rate is considered. Default is 10
+     */
+    public synchronized void setMinimumCalls(int minimumCalls) {
+        this.minimumCalls = minimumCalls;
+    }
+
+    public float getFailureRate() {
+        return failureRate;
+    }
+
+    /**
+     * The ratio of failed calls (between 0 and 1) at which the breaker opens. Default is 0.5
+     */
+    public synchronized void setFailureRate(float failureRate) {
+        this.failureRate = failureRate;
+    }
+
+    public int getOpenTime() {
+        return openTime;
+    }
+
+    /**
+     * Milliseconds the breaker stays open before allowing a trial call (also the time after which an unresolved trial
+     * permit expires). Default is 30 seconds
+     */
+    public synchronized void setOpenTime(int openTime) {
+        this.openTime = openTime;
+    }
+
+    public CircuitBreaker withMinimumCalls(int minimumCalls) {
+        setMinimumCalls(minimumCalls);
+        return this;
+    }
+
+    public CircuitBreaker withFailureRate(float failureRate) {
+        setFailureRate(failureRate);
+        return this;
+    }
+
+    public CircuitBreaker withOpenTime(int openTime) {
+        setOpenTime(openTime);
+        return this;
+    }
+}
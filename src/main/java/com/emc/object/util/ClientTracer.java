@@ -0,0 +1,57 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.util;
+
+/**
+ * Receives begin/end notifications for phases of client work that happen inside or across HTTP requests (request
+ * signing, codec setup and the parts of a large file transfer), i.e. to emit profiling events. Each begin method returns
+ * a context object (or null) that is passed back to the matching end method, so implementations do not need to keep
+ * their own state. Implementations are called on the thread doing the work and must be thread-safe and fast.
+ */
+public interface ClientTracer {
+    String PHASE_SIGN = "SIGN";
+    String PHASE_ENCODE = "ENCODE";
+    String PHASE_DECODE = "DECODE";
+
+    /**
+     * Called when a phase (one of the PHASE_ constants) starts for the request on <code>bucketName/key</code> (either
+     * of which may be null)
+     */
+    Object phaseStarted(String phase, String bucketName, String key);
+
+    void phaseCompleted(Object context);
+
+    /**
+     * Called when a part of a large upload or download starts. <code>length</code> is the size of the part in bytes
+     */
+    Object partStarted(boolean upload, String bucketName, String key, int partNumber, long offset, long length);
+
+    /**
+     * Called when a part completes. <code>error</code> is null if the part was successful
+     */
+    void partCompleted(Object context, Throwable error);
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.util;
+
+import com.emc.rest.smart.Host;
+import com.emc.rest.smart.LoadBalancer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A load balancer that accounts for how fast each host currently is. An exponentially weighted moving average (EWMA)
+ * of response time is kept for each host, and each request goes to the better of two randomly chosen hosts ("power of
+ * two choices"), where a host's cost is its average response time multiplied by its open connections (plus one).
+ * Sampling two hosts instead of always picking the best avoids herding every client onto the same host.
+ * <p>
+ * As a host's average ages, it decays toward the average of all hosts, and the next sample for that host is weighted
+ * more heavily, so a host that was slow gets traffic again and can prove it has recovered. Response times must be
+ * reported via {@link #recordLatency(String, long)}.
+ */
+public class LatencyAwareLoadBalancer extends LoadBalancer {
+    public static final double DEFAULT_EWMA_WEIGHT = 0.2;
+    public static final long DEFAULT_DECAY_TIME = 30000; // ms
+
+    private final ConcurrentMap<String, HostScore> scores = new ConcurrentHashMap<String, HostScore>();
+    private final Random random = new Random();
+    private double ewmaWeight = DEFAULT_EWMA_WEIGHT;
+    private long decayTime = DEFAULT_DECAY_TIME;
+
+    public LatencyAwareLoadBalancer(List<Host> initialHosts) {
+        super(initialHosts);
+    }
+
+    @Override
+    public Host getTopHost(Map<String, Object> requestProperties) {
+        List<Host> candidates = new ArrayList<Host>();
+        for (Host host : getAllHosts()) {
+            if (host.isHealthy() && !shouldVeto(host, requestProperties)) candidates.add(host);
+        }
+
+        // if there are no healthy hosts, use the default selection
+        if (candidates.isEmpty()) return super.getTopHost(requestProperties);
+        if (candidates.size() == 1) return candidates.get(0);
+
+        int i1, i2;
+        synchronized (random) {
+            i1 = random.nextInt(candidates.size());
+            i2 = random.nextInt(candidates.size() - 1);
+        }
+        if (i2 >= i1) i2++;
+        Host host1 = candidates.get(i1), host2 = candidates.get(i2);
+
+        double meanLatency = getMeanLatency();
+        return getCost(host1, meanLatency) <= getCost(host2, meanLatency) ? host1 : host2;
+    }
+
+    /**
+     * Reports the response time of a request to the named host
+     */
+    public void recordLatency(String hostName, long latencyMs) {
+        HostScore score = scores.get(hostName);
+        if (score == null) {
+            scores.putIfAbsent(hostName, new HostScore());
+            score = scores.get(hostName);
+        }
+        score.update(latencyMs, ewmaWeight, decayTime);
+    }
+
+    /**
+     * Returns the current (decayed) average response time of the named host, or -1 if there is none
+     */
+    public double getLatency(String hostName) {
+        HostScore score = scores.get(hostName);
+        if (score == null || !score.isSampled()) return -1;
+        return score.getLatency(getMeanLatency(), decayTime);
+    }
+
+    /**
+     * Returns the hosts that have not reported a response time in the last <code>idleMs</code> milliseconds
+     */
+    public List<Host> getIdleHosts(long idleMs) {
+        List<Host> idleHosts = new ArrayList<Host>();
+        long now = System.currentTimeMillis();
+        for (Host host : getAllHosts()) {
+            HostScore score = scores.get(host.getName());
+            if (score == null || now - score.getLastUpdate() >= idleMs) idleHosts.add(host);
+        }
+        return idleHosts;
+    }
+
+    protected double getCost(Host host, double meanLatency) {
+        HostScore score = scores.get(host.getName());
+
+        // hosts with no samples are assumed to be average
+        double latency = (score == null || !score.isSampled()) ? meanLatency : score.getLatency(meanLatency, decayTime);
+        // add 1ms so that open connections still count when response times are near zero
+        return (latency + 1) * (host.getOpenConnections() + 1);
+    }
+
+    protected double getMeanLatency() {
+        double total = 0;
+        int count = 0;
+        for (HostScore score : scores.values()) {
+            if (score.isSampled()) {
+                total += score.getEwma();
+                count++;
+            }
+        }
+        return count == 0 ? 0 : total / count;
+    }
+
+    public double getEwmaWeight() {
+        return ewmaWeight;
+    }
+
+    /**
+     * The weight given to each new response time in a host's moving average (between 0 and 1). Higher values react
+     * faster to changes. Default is 0.2
+     */
+    public void setEwmaWeight(double ewmaWeight) {
+        this.ewmaWeight = ewmaWeight;
+    }
+
+    public long getDecayTime() {
+        return decayTime;
+    }
+
+    /**
+     * Time constant (in milliseconds) for a host's average response time to decay toward the average of all hosts
+     * when it is not being updated. Default is 30 seconds
+     */
+    public void setDecayTime(long decayTime) {
+        this.decayTime = decayTime;
+    }
+
+    public LatencyAwareLoadBalancer withEwmaWeight(double ewmaWeight) {
+        setEwmaWeight(ewmaWeight);
+        return this;
+    }
+
+    public LatencyAwareLoadBalancer withDecayTime(long decayTime) {
+        setDecayTime(decayTime);
+        return this;
+    }
+
+    private static class HostScore {
+        private double ewma = -1;
+        private long lastUpdate;
+
+        synchronized void update(long latencyMs, double weight, long decayTime) {
+            long now = System.currentTimeMillis();
+            if (ewma < 0) {
+                ewma = latencyMs;
+            } else {
+                // the older the average, the more weight a new sample gets (lets a probe quickly clear a stale score)
+                if (decayTime > 0) weight = Math.max(weight, 1 - Math.exp(-(double) (now - lastUpdate) / decayTime));
+                ewma = weight * latencyMs + (1 - weight) * ewma;
+            }
+            lastUpdate = now;
+        }
+
+        synchronized boolean isSampled() {
+            return ewma >= 0;
+        }
+
+        synchronized double getEwma() {
+            return ewma;
+        }
+
+        synchronized long getLastUpdate() {
+            return lastUpdate;
+        }
+
+        synchronized double getLatency(double meanLatency, long decayTime) {
+            if (decayTime <= 0) return ewma;
+            double weight = Math.exp(-(double) (System.currentTimeMillis() - lastUpdate) / decayTime);
+            return weight * ewma + (1 - weight) * meanLatency;
+        }
+    }
+}
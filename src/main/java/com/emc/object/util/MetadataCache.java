@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.util;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded, concurrent LRU cache of object metadata headers with a TTL. The cache is split into independently locked
+ * segments (by key hash), so lookups of different keys rarely contend. Headers are stored in a case-insensitive copy,
+ * so callers can rebuild fresh metadata objects from them on every hit.
+ */
+public class MetadataCache {
+    private static final int SEGMENTS = 16;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final long ttlMillis;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * @param maxEntries the maximum number of entries (spread across segments)
+     * @param ttlSeconds how long an entry is valid after it is stored
+     */
+    public MetadataCache(int maxEntries, int ttlSeconds) {
+        int perSegment = Math.max(1, (maxEntries + SEGMENTS - 1) / SEGMENTS);
+        for (int i = 0; i < SEGMENTS; i++) {
+            segments[i] = new Segment(perSegment);
+        }
+        this.ttlMillis = ttlSeconds * 1000L;
+    }
+
+    /**
+     * Builds a cache key for an object (or a specific version of it)
+     */
+    public static String cacheKey(String bucketName, String key, String versionId) {
+        return versionId == null ? bucketName + "/" + key : bucketName + "/" + key + "?versionId=" + versionId;
+    }
+
+    /**
+     * Returns the cached headers for <code>key</code>, or null if they are not cached or have expired
+     */
+    public Map<String, List<String>> get(String key) {
+        Segment segment = segmentFor(key);
+        Entry entry;
+        synchronized (segment) {
+            entry = segment.get(key);
+            if (entry != null && System.currentTimeMillis() > entry.expires) {
+                segment.remove(key);
+                entry = null;
+            }
+        }
+        if (entry == null) misses.incrementAndGet();
+        else hits.incrementAndGet();
+        return entry == null ? null : entry.headers;
+    }
+
+    public <T> void put(String key, Map<String, List<T>> headers) {
+        Map<String, List<String>> copy = new TreeMap<String, List<String>>(String.CASE_INSENSITIVE_ORDER);
+        for (Map.Entry<String, List<T>> header : headers.entrySet()) {
+            if (header.getKey() == null) continue;
+            List<String> values = new ArrayList<String>(header.getValue().size());
+            for (T value : header.getValue()) values.add(value == null ? null : value.toString());
+            copy.put(header.getKey(), Collections.unmodifiableList(values));
+        }
+        Entry entry = new Entry(Collections.unmodifiableMap(copy), System.currentTimeMillis() + ttlMillis);
+        Segment segment = segmentFor(key);
+        synchronized (segment) {
+            segment.put(key, entry);
+        }
+    }
+
+    public void invalidate(String key) {
+        Segment segment = segmentFor(key);
+        synchronized (segment) {
+            segment.remove(key);
+        }
+    }
+
+    public void clear() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    private Segment segmentFor(String key) {
+        int hash = key.hashCode();
+        hash ^= (hash >>> 16);
+        return segments[(hash & 0x7fffffff) % SEGMENTS];
+    }
+
+    private static class Entry {
+        final Map<String, List<String>> headers;
+        final long expires;
+
+        Entry(Map<String, List<String>> headers, long expires) {
+            this.headers = headers;
+            this.expires = expires;
+        }
+    }
+
+    private static class Segment extends LinkedHashMap<String, Entry> {
+        private static final long serialVersionUID = 1L;
+
+        private final int maxEntries;
+
+        Segment(int maxEntries) {
+            super(16, 0.75f, true);
+            this.maxEntries = maxEntries;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > maxEntries;
+        }
+    }
+}
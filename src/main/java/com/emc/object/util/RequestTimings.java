@@ -0,0 +1,221 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.util;
+
+import java.net.URI;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Phase timestamps for a single request, to show where the time went when a request is slow. The phases are:
+ * <ol>
+ * <li>filter: from the start of the request until the last attempt was handed to the HTTP client (signing, etc., as
+ * well as earlier attempts and retry delays)</li>
+ * <li>lease: waiting for a pooled connection (only measured with the default Apache client handler)</li>
+ * <li>send: until the request entity was sent; for a new connection, this includes the TCP connect and TLS
+ * handshake</li>
+ * <li>first byte: waiting for the response headers (server time and network latency)</li>
+ * <li>body: until the response body was fully consumed or closed</li>
+ * </ol>
+ * Durations are in nanoseconds and are -1 if the phase was not reached or not measured. Timestamps are recorded from
+ * multiple threads (the response body may be read by another thread), so a response's timings may still be changing
+ * until the listener is notified.
+ */
+public class RequestTimings {
+    private static final ThreadLocal<RequestTimings> current = new ThreadLocal<RequestTimings>();
+
+    /**
+     * For internal use: sets the timings of the request being sent by the current thread (so the connection manager
+     * can record the lease)
+     */
+    public static void setCurrent(RequestTimings timings) {
+        if (timings == null) current.remove();
+        else current.set(timings);
+    }
+
+    public static RequestTimings getCurrent() {
+        return current.get();
+    }
+
+    private final String method;
+    private final long startTime = System.currentTimeMillis();
+    private final long start = System.nanoTime();
+    private final RequestTimingListener listener;
+    private final AtomicBoolean completed = new AtomicBoolean();
+
+    private volatile URI uri;
+    private volatile int statusCode = -1;
+    private volatile int attempts;
+    private volatile boolean newConnection;
+    private volatile long handlerStart, leaseStart, leaseEnd, sendComplete, firstByte, end;
+
+    public RequestTimings(String method, RequestTimingListener listener) {
+        this.method = method;
+        this.listener = listener;
+    }
+
+    /**
+     * Marks the start of an attempt (clears the marks of any previous attempt)
+     */
+    public void markHandlerStart() {
+        leaseStart = leaseEnd = sendComplete = firstByte = 0;
+        newConnection = false;
+        attempts++;
+        handlerStart = System.nanoTime();
+    }
+
+    public void markLeaseStart() {
+        leaseStart = System.nanoTime();
+    }
+
+    /**
+     * @param newConnection true if the leased connection is not yet open (it will be connected before sending)
+     */
+    public void markLeaseEnd(boolean newConnection) {
+        leaseEnd = System.nanoTime();
+        this.newConnection = newConnection;
+    }
+
+    public void markSendComplete() {
+        if (sendComplete == 0) sendComplete = System.nanoTime();
+    }
+
+    public void markFirstByte() {
+        firstByte = System.nanoTime();
+    }
+
+    public void setResponse(URI uri, int statusCode) {
+        this.uri = uri;
+        this.statusCode = statusCode;
+    }
+
+    /**
+     * Marks the end of the request (the response body has been consumed or closed, or the request failed) and notifies
+     * the listener. Only the first call has any effect
+     */
+    public void complete() {
+        if (!completed.compareAndSet(false, true)) return;
+        end = System.nanoTime();
+        if (listener != null) listener.requestCompleted(this);
+    }
+
+    public boolean isCompleted() {
+        return completed.get();
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    /**
+     * The URI of the last attempt (including the host chosen by the load balancer)
+     */
+    public URI getUri() {
+        return uri;
+    }
+
+    /**
+     * The HTTP status of the response, or -1 if none was received
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * Wall-clock time the request started (ms since the epoch)
+     */
+    public long getStartTime() {
+        return startTime;
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    /**
+     * True if the last attempt had to open a new connection (the send time includes connect and TLS handshake)
+     */
+    public boolean isNewConnection() {
+        return newConnection;
+    }
+
+    public long getFilterTime() {
+        return elapsed(start, handlerStart);
+    }
+
+    public long getLeaseTime() {
+        return elapsed(leaseStart, leaseEnd);
+    }
+
+    public long getSendTime() {
+        return elapsed(latest(handlerStart, leaseEnd), sendComplete);
+    }
+
+    public long getFirstByteTime() {
+        return elapsed(latest(latest(handlerStart, leaseEnd), sendComplete), firstByte);
+    }
+
+    public long getBodyTime() {
+        return elapsed(firstByte, end);
+    }
+
+    /**
+     * Total time of the request so far (or until it completed)
+     */
+    public long getTotalTime() {
+        return (end != 0 ? end : System.nanoTime()) - start;
+    }
+
+    private long latest(long mark1, long mark2) {
+        return mark2 != 0 ? mark2 : mark1;
+    }
+
+    private long elapsed(long from, long to) {
+        if (from == 0 || to == 0) return -1;
+        return to - from;
+    }
+
+    @Override
+    public String toString() {
+        return "RequestTimings{" +
+                "method=" + method +
+                ", uri=" + uri +
+                ", statusCode=" + statusCode +
+                ", attempts=" + attempts +
+                ", newConnection=" + newConnection +
+                ", filter=" + millis(getFilterTime()) +
+                ", lease=" + millis(getLeaseTime()) +
+                ", send=" + millis(getSendTime()) +
+                ", firstByte=" + millis(getFirstByteTime()) +
+                ", body=" + millis(getBodyTime()) +
+                ", total=" + millis(getTotalTime()) +
+                '}';
+    }
+
+    private String millis(long nanos) {
+        return nanos < 0 ? "n/a" : String.format("%.3fms", nanos / 1000000.0);
+    }
+}
@@ -57,6 +57,7 @@ public final class RestUtil {
     public static final String HEADER_IF_UNMODIFIED_SINE = "If-Unmodified-Since";
     public static final String HEADER_LAST_MODIFIED = "Last-Modified";
     public static final String HEADER_RANGE = "Range";
+    public static final String HEADER_RETRY_AFTER = "Retry-After";
     public static final String HEADER_USER_AGENT = "User-Agent";
 
     public static final String EMC_PREFIX = "x-emc-";
@@ -82,6 +83,7 @@ public final class RestUtil {
     public static final String PROPERTY_KEEP_ENCODE_HEADERS = "com.emc.object.codec.keepEncodeHeaders";
     public static final String PROPERTY_VERIFY_READ_CHECKSUM = "com.emc.object.verifyReadChecksum";
     public static final String PROPERTY_VERIFY_WRITE_CHECKSUM = "com.emc.object.verifyWriteChecksum";
+    public static final String PROPERTY_REQUEST_TIMINGS = "com.emc.object.requestTimings";
 
 
     public static final int STATUS_REDIRECT = 301;
@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.util;
+
+import java.util.concurrent.*;
+
+/**
+ * A simple {@link Future} that is completed explicitly by calling {@link #set(Object)} or
+ * {@link #setException(Throwable)}. Only the first completion takes effect.
+ */
+public class SettableFuture<T> implements Future<T> {
+    private final CountDownLatch done = new CountDownLatch(1);
+    private volatile T value;
+    private volatile Throwable exception;
+    private volatile boolean cancelled;
+
+    /**
+     * @return true if this call completed the future
+     */
+    public boolean set(T value) {
+        synchronized (done) {
+            if (isDone()) return false;
+            this.value = value;
+            done.countDown();
+            return true;
+        }
+    }
+
+    /**
+     * @return true if this call completed the future
+     */
+    public boolean setException(Throwable exception) {
+        synchronized (done) {
+            if (isDone()) return false;
+            this.exception = exception;
+            done.countDown();
+            return true;
+        }
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        synchronized (done) {
+            if (isDone()) return false;
+            this.cancelled = true;
+            done.countDown();
+            return true;
+        }
+    }
+
+    @Override
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    @Override
+    public boolean isDone() {
+        return done.getCount() == 0;
+    }
+
+    @Override
+    public T get() throws InterruptedException, ExecutionException {
+        done.await();
+        return getValue();
+    }
+
+    @Override
+    public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+        if (!done.await(timeout, unit)) throw new TimeoutException();
+        return getValue();
+    }
+
+    private T getValue() throws ExecutionException {
+        if (cancelled) throw new CancellationException();
+        if (exception != null) throw new ExecutionException(exception);
+        return value;
+    }
+}
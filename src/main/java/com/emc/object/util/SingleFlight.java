@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.util;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Deduplicates concurrent calls with the same key: the first caller (the leader) runs the call, and any caller that
+ * arrives with the same key while it is in flight waits for and shares the leader's result (or exception). Once the
+ * call completes, the next caller with that key starts a new call.
+ */
+public class SingleFlight<K, V> {
+    private final ConcurrentMap<K, FutureTask<V>> inFlight = new ConcurrentHashMap<K, FutureTask<V>>();
+    private final AtomicLong coalescedCount = new AtomicLong();
+
+    public Result<V> execute(K key, Callable<V> callable) throws Exception {
+        FutureTask<V> task = new FutureTask<V>(callable);
+        FutureTask<V> existing = inFlight.putIfAbsent(key, task);
+        boolean leader = existing == null;
+        if (leader) {
+            try {
+                task.run();
+            } finally {
+                inFlight.remove(key, task);
+            }
+        } else {
+            coalescedCount.incrementAndGet();
+            task = existing;
+        }
+
+        try {
+            return new Result<V>(task.get(), leader);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) throw (Exception) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the number of calls that were served by another caller's in-flight call
+     */
+    public long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+
+    public static class Result<V> {
+        private final V value;
+        private final boolean leader;
+
+        Result(V value, boolean leader) {
+            this.value = value;
+            this.leader = leader;
+        }
+
+        public V getValue() {
+            return value;
+        }
+
+        /**
+         * Returns true if this caller ran the call itself
+         */
+        public boolean isLeader() {
+            return leader;
+        }
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Makes an arbitrary (one-pass) stream replayable by spooling the bytes as they are read. The first
+ * {@link #getMemoryLimit() memoryLimit} bytes are kept in off-heap (direct) buffers; anything beyond that is spooled to
+ * a temporary file. A replay reads back what has been spooled and then continues from the source stream, so the source
+ * is only ever read once and the full entity is not buffered until it has actually been sent.
+ * <p>
+ * Unlike mark/reset buffering, the amount that can be replayed is not limited by
+ * {@link com.emc.object.s3.S3Config#getRetryBufferSize() retryBufferSize}. Be sure to {@link #close()} the entity
+ * after the request completes to release the buffers and delete the spool file.
+ */
+public class SpooledEntity implements ReplayableEntity, Closeable {
+    public static final int DEFAULT_MEMORY_LIMIT = 8 * 1024 * 1024; // 8MB
+    public static final int CHUNK_SIZE = 256 * 1024; // 256k
+
+    private InputStream source;
+    private long length;
+    private int memoryLimit;
+    private File spoolDir;
+
+    private List<ByteBuffer> chunks = new ArrayList<ByteBuffer>();
+    private File spoolFile;
+    private FileChannel spoolChannel;
+    private long spooled;
+    private boolean sourceDone;
+    private boolean closed;
+
+    /**
+     * Spools a stream of unknown length using the default memory limit and the default temp directory
+     */
+    public SpooledEntity(InputStream source) {
+        this(source, -1, DEFAULT_MEMORY_LIMIT, null);
+    }
+
+    /**
+     * @param source      the stream to spool
+     * @param length      the length of the stream, or -1 if unknown (chunked encoding will be used)
+     * @param memoryLimit the number of bytes to keep in off-heap memory before spooling to disk
+     * @param spoolDir    the directory for the spool file, or null to use the default temp directory
+     */
+    public SpooledEntity(InputStream source, long length, int memoryLimit, File spoolDir) {
+        this.source = source;
+        this.length = length;
+        this.memoryLimit = memoryLimit;
+        this.spoolDir = spoolDir;
+    }
+
+    @Override
+    public synchronized InputStream openStream() throws IOException {
+        if (closed) throw new IOException("entity is closed");
+        return new ReplayStream();
+    }
+
+    @Override
+    public long getLength() {
+        return length;
+    }
+
+    public int getMemoryLimit() {
+        return memoryLimit;
+    }
+
+    /**
+     * Returns the number of bytes that have been read from the source so far
+     */
+    public synchronized long getSpooledSize() {
+        return spooled;
+    }
+
+    /**
+     * Returns the spool file, or null if the entity has not spilled to disk
+     */
+    public synchronized File getSpoolFile() {
+        return spoolFile;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        chunks.clear();
+        try {
+            source.close();
+        } finally {
+            if (spoolChannel != null) {
+                spoolChannel.close();
+                if (!spoolFile.delete()) spoolFile.deleteOnExit();
+            }
+        }
+    }
+
+    /**
+     * Reads up to len bytes at position (from the spool, or else from the source, spooling what is read)
+     */
+    private synchronized int read(long position, byte[] b, int off, int len) throws IOException {
+        if (closed) throw new IOException("entity is closed");
+        if (len == 0) return 0;
+        if (position < spooled) return readSpool(position, b, off, (int) Math.min(len, spooled - position));
+        if (sourceDone) return -1;
+
+        int count = source.read(b, off, len);
+        if (count < 0) {
+            sourceDone = true;
+            return -1;
+        }
+        spool(b, off, count);
+        return count;
+    }
+
+    private int readSpool(long position, byte[] b, int off, int len) throws IOException {
+        if (position < memoryLimit) {
+            ByteBuffer chunk = chunks.get((int) (position / CHUNK_SIZE)).duplicate();
+            int chunkOffset = (int) (position % CHUNK_SIZE);
+            len = Math.min(len, chunk.position() - chunkOffset);
+            chunk.position(chunkOffset);
+            chunk.get(b, off, len);
+            return len;
+        }
+        return spoolChannel.read(ByteBuffer.wrap(b, off, len), position - memoryLimit);
+    }
+
+    private void spool(byte[] b, int off, int len) throws IOException {
+        while (len > 0 && spooled < memoryLimit) {
+            ByteBuffer chunk = chunks.isEmpty() ? null : chunks.get(chunks.size() - 1);
+            if (chunk == null || !chunk.hasRemaining()) {
+                chunk = ByteBuffer.allocateDirect((int) Math.min(CHUNK_SIZE, memoryLimit - spooled));
+                chunks.add(chunk);
+            }
+            int count = Math.min(len, chunk.remaining());
+            chunk.put(b, off, count);
+            spooled += count;
+            off += count;
+            len -= count;
+        }
+        if (len > 0) {
+            if (spoolChannel == null) {
+                spoolFile = File.createTempFile("ecs-spool", ".tmp", spoolDir);
+                spoolChannel = new RandomAccessFile(spoolFile, "rw").getChannel();
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+            long position = spooled - memoryLimit;
+            while (buffer.hasRemaining()) {
+                position += spoolChannel.write(buffer, position);
+            }
+            spooled += len;
+        }
+    }
+
+    private class ReplayStream extends InputStream {
+        private long position;
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int count;
+            do {
+                count = read(b, 0, 1);
+            } while (count == 0);
+            return count < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int count = SpooledEntity.this.read(position, b, off, len);
+            if (count > 0) position += count;
+            return count;
+        }
+    }
+}
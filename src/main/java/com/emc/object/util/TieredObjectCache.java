@@ -0,0 +1,599 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.util;
+
+import com.emc.object.CacheConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Two-tier LRU cache of object content. The memory tier keeps content off-heap in fixed-size blocks from a pool of
+ * direct buffers, which is allocated up to the memory budget and then reused; when the tier exceeds its budget,
+ * least-recently used entries are demoted to the disk tier (if configured), which in turn drops its least-recently
+ * used entries. Disk hits are promoted back to memory. Headers and ETags are kept on-heap for both tiers.
+ * <p>
+ * The cache index is guarded by a single monitor, but cache files are written, read and deleted outside of it, so
+ * memory hits never wait for disk I/O. A demoted entry keeps a heap copy of its content until its file is written.
+ * Blocks that are being read when their entry leaves the memory tier return to the pool once the read completes.
+ */
+public class TieredObjectCache {
+
+    private static final Logger log = LoggerFactory.getLogger(TieredObjectCache.class);
+
+    private static final String FILE_PREFIX = "entry-";
+
+    static final int BLOCK_SIZE = 4 * 1024; // 4KB
+    static final int CHUNK_SIZE = 1024 * 1024; // direct buffers are allocated 1MB at a time and sliced into blocks
+
+    private CacheConfig config;
+    private final BlockPool pool;
+    private final LinkedHashMap<String, Entry> memory = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private final LinkedHashMap<String, Entry> disk = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private long memoryBytes;
+    private long diskBytes;
+    private long nextFileId;
+
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong revalidations = new AtomicLong();
+    private final AtomicLong bytesServed = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public TieredObjectCache(CacheConfig config) {
+        this.config = new CacheConfig(config);
+        this.pool = new BlockPool((int) Math.min(Integer.MAX_VALUE, config.getMemoryCacheSize() / BLOCK_SIZE));
+        File dir = config.getDiskCacheDir();
+        if (dir != null) {
+            if (!dir.isDirectory() && !dir.mkdirs())
+                throw new IllegalArgumentException("cannot create cache directory " + dir);
+            File[] stale = dir.listFiles();
+            if (stale != null) {
+                for (File file : stale) {
+                    if (!file.getName().startsWith(FILE_PREFIX)) continue;
+                    if (!file.delete()) log.warn("could not delete stale cache file {}", file);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the entry for <code>key</code>, or null if it isn't cached (or has exceeded the maximum age). Does not
+     * count as a hit or miss; use {@link #recordHit(Entry)} and {@link #recordMiss()}.
+     */
+    public Entry get(String key) {
+        DiskWork work = new DiskWork();
+        Entry entry;
+        byte[] data;
+        File file;
+        synchronized (this) {
+            entry = memory.get(key);
+            if (entry != null && !isExpired(entry)) return entry;
+            if (entry == null) entry = disk.get(key);
+            if (entry == null) return null;
+            if (isExpired(entry)) {
+                invalidate(key, work);
+                entry = null;
+            }
+            data = entry == null ? null : entry.pendingData; // still set if the entry's file is being written
+            file = entry == null ? null : entry.file;
+        }
+        if (entry == null) {
+            work.run();
+            return null;
+        }
+
+        // promote to memory
+        if (data == null) {
+            try {
+                data = readFile(file, entry.size);
+            } catch (IOException e) {
+                // the entry was evicted in the meantime (or its file was lost)
+                synchronized (this) {
+                    if (disk.get(key) == entry && entry.file == file) {
+                        log.warn("error reading cache file for " + key, e);
+                        removeFromDisk(key, work);
+                    }
+                }
+                work.run();
+                return null;
+            }
+        }
+        synchronized (this) {
+            if (disk.get(key) == entry) {
+                disk.remove(key);
+                diskBytes -= entry.size;
+                work.delete(entry.file);
+                if (!addToMemory(key, entry, data, work)) {
+                    // no free blocks (they are all held by reads of evicted entries); serve this read and drop it
+                    entry.pendingData = data;
+                    evictions.incrementAndGet();
+                } else {
+                    entry.pendingData = null;
+                }
+                entry.file = null;
+            }
+        }
+        work.run();
+        return entry;
+    }
+
+    /**
+     * Caches a copy of <code>data</code> (if it is no larger than the configured maximum object size).
+     */
+    public void put(String key, byte[] data, String eTag, Map<String, List<String>> headers) {
+        DiskWork work = new DiskWork();
+        synchronized (this) {
+            invalidate(key, work);
+            if (data.length <= config.getMaxObjectSize() && blocksFor(data.length) <= pool.maxBlocks) {
+                addToMemory(key, new Entry(eTag, headers, data.length), data, work);
+            }
+        }
+        work.run();
+    }
+
+    public void invalidate(String key) {
+        DiskWork work = new DiskWork();
+        synchronized (this) {
+            invalidate(key, work);
+        }
+        work.run();
+    }
+
+    public void clear() {
+        DiskWork work = new DiskWork();
+        synchronized (this) {
+            for (String key : new ArrayList<String>(disk.keySet())) removeFromDisk(key, work);
+            for (Entry entry : memory.values()) releaseBlocks(entry);
+            memory.clear();
+            memoryBytes = 0;
+        }
+        work.run();
+    }
+
+    /**
+     * Returns true if the entry can be served without revalidation
+     */
+    public boolean isFresh(Entry entry) {
+        return System.currentTimeMillis() - entry.validatedTime < config.getTtlSeconds() * 1000L;
+    }
+
+    public void recordHit(Entry entry) {
+        if (entry.fromDisk) diskHits.incrementAndGet();
+        else memoryHits.incrementAndGet();
+        entry.fromDisk = false;
+        bytesServed.addAndGet(entry.size);
+    }
+
+    public void recordMiss() {
+        misses.incrementAndGet();
+    }
+
+    /**
+     * Marks an entry as confirmed current by the server (i.e. after a 304)
+     */
+    public void recordRevalidation(Entry entry) {
+        entry.validatedTime = System.currentTimeMillis();
+        revalidations.incrementAndGet();
+    }
+
+    private boolean isExpired(Entry entry) {
+        return System.currentTimeMillis() - entry.storedTime > config.getMaxAgeSeconds() * 1000L;
+    }
+
+    // the following methods must be called while holding the monitor; file I/O is queued in work
+
+    private void invalidate(String key, DiskWork work) {
+        Entry entry = memory.remove(key);
+        if (entry != null) {
+            memoryBytes -= blockBytes(entry.size);
+            releaseBlocks(entry);
+        }
+        removeFromDisk(key, work);
+    }
+
+    /**
+     * Makes room for the entry (demoting least-recently used entries) and copies <code>data</code> into blocks from the
+     * pool. Returns false if the pool has no free blocks left.
+     */
+    private boolean addToMemory(String key, Entry entry, byte[] data, DiskWork work) {
+        long bytes = blockBytes(entry.size);
+        Iterator<Map.Entry<String, Entry>> iterator = memory.entrySet().iterator();
+        while (memoryBytes + bytes > config.getMemoryCacheSize() && iterator.hasNext()) {
+            Map.Entry<String, Entry> eldest = iterator.next();
+            iterator.remove();
+            memoryBytes -= blockBytes(eldest.getValue().size);
+            demote(eldest.getKey(), eldest.getValue(), work);
+        }
+
+        ByteBuffer[] blocks = pool.acquire(blocksFor(entry.size));
+        if (blocks == null) return false;
+        entry.blocks = new Blocks(pool, blocks, data); // set before dropping the file so readers always find the data
+        memory.put(key, entry);
+        memoryBytes += bytes;
+        return true;
+    }
+
+    /**
+     * Moves the entry to the disk tier right away; its content is copied to the heap until the file is written (see
+     * {@link #fileWritten(String, Entry, File)}) so its blocks can be reused immediately. If the entry leaves the disk
+     * tier before that, its file may be deleted before it is written, so the writer cleans up after itself.
+     */
+    private void demote(String key, Entry entry, DiskWork work) {
+        if (config.getDiskCacheDir() == null || entry.size > config.getDiskCacheSize()) {
+            releaseBlocks(entry);
+            evictions.incrementAndGet();
+            return;
+        }
+        entry.pendingData = entry.blocks.copy(entry.size); // set before releasing the blocks so readers find the data
+        releaseBlocks(entry);
+        entry.file = new File(config.getDiskCacheDir(), FILE_PREFIX + (nextFileId++) + ".bin");
+        entry.fromDisk = true;
+        disk.put(key, entry);
+        diskBytes += entry.size;
+        work.write(key, entry, entry.file);
+
+        Iterator<Map.Entry<String, Entry>> iterator = disk.entrySet().iterator();
+        while (diskBytes > config.getDiskCacheSize() && iterator.hasNext()) {
+            Entry eldest = iterator.next().getValue();
+            iterator.remove();
+            diskBytes -= eldest.size;
+            work.delete(eldest.file);
+            evictions.incrementAndGet();
+        }
+    }
+
+    private void removeFromDisk(String key, DiskWork work) {
+        Entry entry = disk.remove(key);
+        if (entry != null) {
+            diskBytes -= entry.size;
+            work.delete(entry.file);
+        }
+    }
+
+    /**
+     * Called once a demoted entry's file is complete. Returns false if the entry has left the disk tier (or was
+     * promoted and demoted again) in the meantime, in which case the file is no longer needed.
+     */
+    private synchronized boolean fileWritten(String key, Entry entry, File file) {
+        if (disk.get(key) != entry || entry.file != file) return false;
+        entry.pendingData = null;
+        return true;
+    }
+
+    private synchronized void fileFailed(String key, Entry entry, File file) {
+        if (disk.get(key) != entry || entry.file != file) return;
+        disk.remove(key);
+        diskBytes -= entry.size;
+        evictions.incrementAndGet();
+    }
+
+    private static byte[] readFile(File file, int size) throws IOException {
+        byte[] data = new byte[size];
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            raf.readFully(data);
+        } finally {
+            raf.close();
+        }
+        return data;
+    }
+
+    private static void deleteFile(File file) {
+        if (file != null && !file.delete() && file.exists()) log.warn("could not delete cache file {}", file);
+    }
+
+    private static void releaseBlocks(Entry entry) {
+        Blocks blocks = entry.blocks;
+        entry.blocks = null;
+        if (blocks != null) blocks.release();
+    }
+
+    private static int blocksFor(int size) {
+        return (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+    }
+
+    /**
+     * Returns the memory budget used by an entry of <code>size</code> bytes (whole blocks)
+     */
+    private static long blockBytes(int size) {
+        return (long) blocksFor(size) * BLOCK_SIZE;
+    }
+
+    /**
+     * File writes and deletes collected under the monitor, to be run after releasing it.
+     */
+    private class DiskWork {
+        private List<PendingWrite> writes;
+        private List<File> deletes;
+
+        void write(String key, Entry entry, File file) {
+            if (writes == null) writes = new ArrayList<PendingWrite>();
+            writes.add(new PendingWrite(key, entry, file, entry.pendingData));
+        }
+
+        void delete(File file) {
+            if (file == null) return;
+            if (deletes == null) deletes = new ArrayList<File>();
+            deletes.add(file);
+        }
+
+        void run() {
+            if (writes != null) {
+                for (PendingWrite write : writes) {
+                    try {
+                        writeFile(write.file, write.data);
+                        if (!fileWritten(write.key, write.entry, write.file)) deleteFile(write.file);
+                    } catch (IOException e) {
+                        log.warn("could not write cache file for " + write.key, e);
+                        fileFailed(write.key, write.entry, write.file);
+                        deleteFile(write.file);
+                    }
+                }
+            }
+            if (deletes != null) {
+                for (File file : deletes) deleteFile(file);
+            }
+        }
+
+        private void writeFile(File file, byte[] data) throws IOException {
+            FileOutputStream out = new FileOutputStream(file);
+            try {
+                out.write(data);
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    private static class PendingWrite {
+        final String key;
+        final Entry entry;
+        final File file;
+        final byte[] data;
+
+        PendingWrite(String key, Entry entry, File file, byte[] data) {
+            this.key = key;
+            this.entry = entry;
+            this.file = file;
+            this.data = data;
+        }
+    }
+
+    /**
+     * Fixed-size blocks sliced from direct buffers. Buffers are allocated on demand until <code>maxBlocks</code> blocks
+     * exist; released blocks are reused, so off-heap memory never exceeds the memory budget.
+     */
+    static class BlockPool {
+        final int maxBlocks;
+        private final Deque<ByteBuffer> free = new ArrayDeque<ByteBuffer>();
+        private int allocatedBlocks;
+        private ByteBuffer chunk;
+
+        BlockPool(int maxBlocks) {
+            this.maxBlocks = maxBlocks;
+        }
+
+        /**
+         * Returns <code>count</code> blocks, or null if that many are not available
+         */
+        synchronized ByteBuffer[] acquire(int count) {
+            if (free.size() + maxBlocks - allocatedBlocks < count) return null;
+            ByteBuffer[] blocks = new ByteBuffer[count];
+            for (int i = 0; i < count; i++) {
+                blocks[i] = free.isEmpty() ? allocate() : free.pop();
+            }
+            return blocks;
+        }
+
+        synchronized void release(ByteBuffer[] blocks) {
+            for (ByteBuffer block : blocks) free.push(block);
+        }
+
+        synchronized int getAllocatedBlocks() {
+            return allocatedBlocks;
+        }
+
+        synchronized int getFreeBlocks() {
+            return free.size();
+        }
+
+        private ByteBuffer allocate() {
+            if (chunk == null || !chunk.hasRemaining()) {
+                int chunkBlocks = Math.min(CHUNK_SIZE / BLOCK_SIZE, maxBlocks - allocatedBlocks);
+                chunk = ByteBuffer.allocateDirect(chunkBlocks * BLOCK_SIZE);
+            }
+            chunk.limit(chunk.position() + BLOCK_SIZE);
+            ByteBuffer block = chunk.slice();
+            chunk.position(chunk.limit());
+            chunk.limit(chunk.capacity());
+            allocatedBlocks++;
+            return block;
+        }
+    }
+
+    /**
+     * The blocks holding one entry's content. They go back to the pool when released, or after the last read if they
+     * are being read at that time.
+     */
+    static class Blocks {
+        private final BlockPool pool;
+        private final ByteBuffer[] buffers;
+        private int readers;
+        private boolean released;
+
+        Blocks(BlockPool pool, ByteBuffer[] buffers, byte[] data) {
+            this.pool = pool;
+            this.buffers = buffers;
+            for (int i = 0; i < buffers.length; i++) {
+                int offset = i * BLOCK_SIZE;
+                ByteBuffer block = buffers[i].duplicate();
+                block.clear();
+                block.put(data, offset, Math.min(BLOCK_SIZE, data.length - offset));
+            }
+        }
+
+        /**
+         * Returns a copy of the content, or null if the blocks were released in the meantime
+         */
+        byte[] read(int size) {
+            synchronized (this) {
+                if (released) return null;
+                readers++;
+            }
+            try {
+                return copy(size);
+            } finally {
+                synchronized (this) {
+                    if (--readers == 0 && released) pool.release(buffers);
+                }
+            }
+        }
+
+        /**
+         * Copies the content without pinning the blocks (the caller must hold the cache monitor)
+         */
+        byte[] copy(int size) {
+            byte[] data = new byte[size];
+            for (int i = 0; i < buffers.length; i++) {
+                int offset = i * BLOCK_SIZE;
+                ByteBuffer block = buffers[i].duplicate();
+                block.clear();
+                block.get(data, offset, Math.min(BLOCK_SIZE, size - offset));
+            }
+            return data;
+        }
+
+        synchronized void release() {
+            if (released) return;
+            released = true;
+            if (readers == 0) pool.release(buffers);
+        }
+    }
+
+    BlockPool getPool() {
+        return pool;
+    }
+
+    public long getMemoryHits() {
+        return memoryHits.get();
+    }
+
+    public long getDiskHits() {
+        return diskHits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of stale entries confirmed current by a 304 response
+     */
+    public long getRevalidations() {
+        return revalidations.get();
+    }
+
+    /**
+     * Returns the number of content bytes served from the cache
+     */
+    public long getBytesServed() {
+        return bytesServed.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public synchronized long getMemoryBytes() {
+        return memoryBytes;
+    }
+
+    public synchronized long getDiskBytes() {
+        return diskBytes;
+    }
+
+    public synchronized int getEntryCount() {
+        return memory.size() + disk.size();
+    }
+
+    public static class Entry {
+        private final String eTag;
+        private final Map<String, List<String>> headers;
+        private final int size;
+        private final long storedTime;
+        private volatile long validatedTime;
+        private volatile File file;
+        private volatile byte[] pendingData; // content of a demoted entry until its file is written
+        private volatile boolean fromDisk;
+        private volatile Blocks blocks; // content while in the memory tier
+
+        Entry(String eTag, Map<String, List<String>> headers, int size) {
+            this.eTag = eTag;
+            this.headers = headers;
+            this.size = size;
+            this.storedTime = this.validatedTime = System.currentTimeMillis();
+        }
+
+        public String getETag() {
+            return eTag;
+        }
+
+        public Map<String, List<String>> getHeaders() {
+            return headers;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        /**
+         * Returns a copy of the cached content, or null if the entry was evicted in the meantime
+         */
+        public byte[] getData() {
+            Blocks blocks = this.blocks;
+            byte[] data = blocks == null ? null : blocks.read(size);
+            if (data != null) return data;
+            data = this.pendingData;
+            if (data != null) return data.clone();
+            File file = this.file;
+            try {
+                return file == null ? null : readFile(file, size);
+            } catch (IOException e) {
+                return null; // demoted and then evicted from disk
+            }
+        }
+    }
+}
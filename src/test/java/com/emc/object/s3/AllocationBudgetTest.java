@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.s3;
+
+import com.emc.object.s3.bean.ListObjectsResult;
+import com.emc.object.s3.jersey.S3JerseyClient;
+import com.emc.object.util.Iso8601DateTimeAdapter;
+import com.emc.object.util.RestUtil;
+import com.sun.jersey.api.client.*;
+import com.sun.jersey.core.header.InBoundHeaders;
+import com.sun.jersey.spi.MessageBodyWorkers;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.util.Date;
+import java.util.Random;
+
+/**
+ * Guards the garbage produced per request on the hot path. Each operation runs against an in-memory handler (no I/O),
+ * and the bytes allocated by the calling thread are measured with the JVM's per-thread allocation counter. The
+ * budgets include the mock responses, and have headroom for JVM differences; if a change legitimately needs more,
+ * raise the budget deliberately. Skipped on JVMs that don't support allocation counting.
+ */
+public class AllocationBudgetTest {
+    private static final int WARMUP_ITERATIONS = 5000;
+    private static final int ITERATIONS = 2000;
+
+    // bytes allocated per call (measured on JDK 8: put ~34K, get ~45K, head ~40K, list of 10 keys ~108K)
+    private static final long PUT_OBJECT_BUDGET = 48 * 1024;
+    private static final long GET_OBJECT_BUDGET = 64 * 1024;
+    private static final long GET_OBJECT_METADATA_BUDGET = 56 * 1024;
+    private static final long LIST_OBJECTS_BUDGET = 160 * 1024;
+
+    private static final String BUCKET = "budget-bucket";
+    private static final String KEY = "budget/object";
+    private static final String BUCKET_PATH = "/" + BUCKET;
+    private static final int LIST_SIZE = 10;
+
+    private static com.sun.management.ThreadMXBean threadBean;
+
+    private S3Client client;
+    private byte[] data;
+
+    @BeforeClass
+    public static void checkSupport() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        threadBean = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threadBean.isThreadAllocatedMemorySupported());
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+    }
+
+    @Before
+    public void setup() throws Exception {
+        data = new byte[1024];
+        new Random().nextBytes(data);
+        S3Config s3Config = new S3Config(new URI("http://stub.local:9020")).withIdentity("user").withSecretKey("secret");
+        client = new S3JerseyClient(s3Config, new StubClientHandler(data));
+    }
+
+    @After
+    public void teardown() {
+        if (client != null) client.destroy();
+    }
+
+    @Test
+    public void testPutObject() {
+        assertBudget("putObject", PUT_OBJECT_BUDGET, new Runnable() {
+            @Override
+            public void run() {
+                client.putObject(BUCKET, KEY, data, null);
+            }
+        });
+    }
+
+    @Test
+    public void testGetObject() {
+        assertBudget("getObject", GET_OBJECT_BUDGET, new Runnable() {
+            @Override
+            public void run() {
+                client.readObject(BUCKET, KEY, byte[].class);
+            }
+        });
+    }
+
+    @Test
+    public void testGetObjectMetadata() {
+        assertBudget("getObjectMetadata", GET_OBJECT_METADATA_BUDGET, new Runnable() {
+            @Override
+            public void run() {
+                client.getObjectMetadata(BUCKET, KEY);
+            }
+        });
+    }
+
+    @Test
+    public void testListObjects() {
+        assertBudget("listObjects", LIST_OBJECTS_BUDGET, new Runnable() {
+            @Override
+            public void run() {
+                ListObjectsResult result = client.listObjects(BUCKET);
+                Assert.assertEquals(LIST_SIZE, result.getObjects().size());
+            }
+        });
+    }
+
+    private void assertBudget(String operation, long budget, Runnable call) {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            call.run();
+        }
+        long threadId = Thread.currentThread().getId();
+        long start = threadBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < ITERATIONS; i++) {
+            call.run();
+        }
+        long perCall = (threadBean.getThreadAllocatedBytes(threadId) - start) / ITERATIONS;
+        Assert.assertTrue(String.format("%s allocated %,d bytes per call (budget is %,d)", operation, perCall, budget),
+                perCall <= budget);
+    }
+
+    /**
+     * Answers object PUT/GET/HEAD and bucket listing requests with canned responses
+     */
+    static class StubClientHandler implements ClientHandler {
+        private static final MessageBodyWorkers WORKERS = Client.create().getMessageBodyWorkers();
+
+        private byte[] data;
+        private String eTag;
+        private String lastModified = RestUtil.headerFormat(new Date());
+        private byte[] listing;
+        private String dataLength, listingLength;
+
+        StubClientHandler(byte[] data) throws IOException {
+            this.data = data;
+            this.eTag = "\"" + DigestUtils.md5Hex(data) + "\"";
+
+            StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+            xml.append("<ListBucketResult xmlns=\"http://s3.amazonaws.com/doc/2006-03-01/\">");
+            xml.append("<Name>").append(BUCKET).append("</Name><MaxKeys>1000</MaxKeys><IsTruncated>false</IsTruncated>");
+            for (int i = 0; i < LIST_SIZE; i++) {
+                xml.append("<Contents><Key>budget/object-").append(i).append("</Key>");
+                xml.append("<LastModified>").append(Iso8601DateTimeAdapter.getFormat().format(new Date()))
+                        .append("</LastModified>");
+                xml.append("<ETag>").append(eTag).append("</ETag><Size>").append(data.length).append("</Size>");
+                xml.append("<StorageClass>STANDARD</StorageClass></Contents>");
+            }
+            xml.append("</ListBucketResult>");
+            listing = xml.toString().getBytes("UTF-8");
+            dataLength = String.valueOf(data.length);
+            listingLength = String.valueOf(listing.length);
+        }
+
+        @Override
+        public ClientResponse handle(ClientRequest request) throws ClientHandlerException {
+            // write the entity through the adapters (i.e. so that checksums are computed)
+            try {
+                if (request.getEntity() != null) {
+                    OutputStream out = request.getAdapter().adapt(request, new NullOutputStream());
+                    out.write((byte[]) request.getEntity());
+                    out.close();
+                }
+            } catch (IOException e) {
+                throw new ClientHandlerException(e);
+            }
+
+            InBoundHeaders headers = new InBoundHeaders();
+            String method = request.getMethod();
+
+            String path = request.getURI().getPath();
+            if (path.startsWith(BUCKET_PATH) && path.length() <= BUCKET_PATH.length() + 1) { // bucket listing
+                headers.putSingle(RestUtil.HEADER_CONTENT_TYPE, "application/xml");
+                headers.putSingle(RestUtil.HEADER_CONTENT_LENGTH, listingLength);
+                return new ClientResponse(200, headers, new ByteArrayInputStream(listing), WORKERS);
+            }
+
+            headers.putSingle(RestUtil.HEADER_ETAG, eTag);
+            if ("PUT".equals(method)) {
+                return new ClientResponse(200, headers, new ByteArrayInputStream(new byte[0]), WORKERS);
+            }
+            headers.putSingle(RestUtil.HEADER_CONTENT_TYPE, "application/octet-stream");
+            headers.putSingle(RestUtil.HEADER_CONTENT_LENGTH, dataLength);
+            headers.putSingle(RestUtil.HEADER_LAST_MODIFIED, lastModified);
+            if ("HEAD".equals(method))
+                return new ClientResponse(200, headers, new ByteArrayInputStream(new byte[0]), WORKERS);
+            return new ClientResponse(200, headers, new ByteArrayInputStream(data), WORKERS);
+        }
+    }
+
+    static class NullOutputStream extends OutputStream {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    }
+}
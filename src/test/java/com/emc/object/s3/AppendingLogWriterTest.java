@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.s3;
+
+import com.emc.object.s3.jersey.S3JerseyClient;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+public class AppendingLogWriterTest extends AbstractS3ClientTest {
+    @Override
+    protected String getTestBucketPrefix() {
+        return "s3-append-writer-test";
+    }
+
+    @Override
+    protected S3Client createS3Client() throws Exception {
+        return new S3JerseyClient(createS3Config());
+    }
+
+    @Test
+    public void testGroupCommit() throws Exception {
+        String key = "audit.log";
+        client.putObject(getTestBucket(), key, "", null);
+
+        final AppendingLogWriter writer = new AppendingLogWriter(client, getTestBucket(), key);
+        final Map<String, Future<Long>> offsets = new HashMap<String, Future<Long>>();
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        for (int t = 0; t < 8; t++) {
+            final int thread = t;
+            executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 200; i++) {
+                        String record = String.format("thread-%d-record-%d\n", thread, i);
+                        Future<Long> offset = writer.append(record.getBytes());
+                        synchronized (offsets) {
+                            offsets.put(record, offset);
+                        }
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        Assert.assertTrue(executor.awaitTermination(2, TimeUnit.MINUTES));
+        writer.close();
+
+        String content = client.readObject(getTestBucket(), key, String.class);
+        Assert.assertEquals(8 * 200, content.split("\n").length);
+        for (Map.Entry<String, Future<Long>> entry : offsets.entrySet()) {
+            Assert.assertTrue(content.startsWith(entry.getKey(), entry.getValue().get().intValue()));
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.s3;
+
+import com.emc.object.s3.jersey.CircuitBreakerRule;
+import com.emc.object.util.CircuitBreaker;
+import com.emc.rest.smart.Host;
+import com.emc.rest.smart.HostVetoRule;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class CircuitBreakerRuleTest {
+    @Test
+    public void testHalfOpenHostTakenByOneRequest() throws Exception {
+        CircuitBreakerRule rule = new CircuitBreakerRule(new S3Config(new URI("http://mock.local:9020"))
+                .withCircuitBreakerOpenTime(200));
+        Host host1 = new Host("host1"), host2 = new Host("host2");
+        CircuitBreaker breaker = rule.getCircuitBreaker("host1").withMinimumCalls(1);
+        breaker.recordFailure();
+        Thread.sleep(250);
+        Assert.assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+
+        // the first request to consider the half-open host gets the trial
+        Map<String, Object> request1 = new HashMap<String, Object>(), request2 = new HashMap<String, Object>();
+        Assert.assertFalse(rule.shouldVeto(host1, request1));
+        Assert.assertFalse(rule.shouldVeto(host2, request1));
+
+        // every other request is vetoed until the trial reports back
+        Assert.assertTrue(rule.shouldVeto(host1, request2));
+        Assert.assertFalse(rule.shouldVeto(host2, request2));
+        Assert.assertTrue(rule.isVetoed(host1, new HashMap<String, Object>()));
+
+        // non-acquiring checks don't take the permit
+        List<HostVetoRule> rules = Collections.<HostVetoRule>singletonList(rule);
+        breaker.release();
+        Assert.assertFalse(CircuitBreakerRule.isVetoed(host1, rules, new HashMap<String, Object>()));
+        Assert.assertFalse(CircuitBreakerRule.isVetoed(host1, rules, new HashMap<String, Object>()));
+        Assert.assertTrue(breaker.tryAcquire());
+
+        // a request sent elsewhere returns the permit
+        breaker.release();
+        request1.clear();
+        Assert.assertFalse(rule.shouldVeto(host1, request1));
+        Assert.assertTrue(rule.shouldVeto(host1, request2));
+        rule.releaseTrials(request1, "host2");
+        Assert.assertFalse(rule.shouldVeto(host1, request2));
+
+        // the request that sent the trial keeps the permit until the outcome is recorded
+        rule.releaseTrials(request2, "host1");
+        Assert.assertTrue(rule.shouldVeto(host1, new HashMap<String, Object>()));
+        breaker.recordSuccess();
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        Assert.assertFalse(rule.shouldVeto(host1, new HashMap<String, Object>()));
+    }
+}
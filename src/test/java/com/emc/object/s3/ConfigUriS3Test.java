@@ -108,6 +108,54 @@ public class ConfigUriS3Test {
         s3Config.setSignMetadataSearch(!s3Config.isSignMetadataSearch());
         runTests(s3Config);
 
+        s3Config.setCoalesceReads(true);
+        runTests(s3Config);
+
+        s3Config.setCoalesceBufferSize(4096);
+        runTests(s3Config);
+
+        s3Config.setHedgeReads(true);
+        runTests(s3Config);
+
+        s3Config.setHedgeDelay(250);
+        runTests(s3Config);
+
+        s3Config.setHedgePercentile(95.0f);
+        runTests(s3Config);
+
+        s3Config.setHedgeMinDelay(5);
+        runTests(s3Config);
+
+        s3Config.setHedgeBudget(0.1f);
+        runTests(s3Config);
+
+        s3Config.setHedgeMaxReadSize(64 * 1024);
+        runTests(s3Config);
+
+        s3Config.setLatencyAwareLoadBalancing(true);
+        runTests(s3Config);
+
+        s3Config.setHostProbeInterval(30);
+        runTests(s3Config);
+
+        s3Config.setCircuitBreakerEnabled(true);
+        runTests(s3Config);
+
+        s3Config.setCircuitBreakerFailureRate(0.25f);
+        runTests(s3Config);
+
+        s3Config.setCircuitBreakerOpenTime(5000);
+        runTests(s3Config);
+
+        s3Config.setMetricsEnabled(true);
+        runTests(s3Config);
+
+        s3Config.setRequestTimingEnabled(true);
+        runTests(s3Config);
+
+        s3Config.setAsyncRequestListeners(true);
+        runTests(s3Config);
+
         s3Config.setProperty("prop1", "value");
         s3Config.setProperty("prop2", "strung");
         runTests(s3Config);
@@ -159,6 +207,22 @@ public class ConfigUriS3Test {
         assertEquals(s3Config.isSmartClient(), s3Config2.isSmartClient());
         assertEquals(s3Config.isUseVHost(), s3Config2.isUseVHost());
         assertEquals(s3Config.isSignMetadataSearch(), s3Config2.isSignMetadataSearch());
+        assertEquals(s3Config.isCoalesceReads(), s3Config2.isCoalesceReads());
+        assertEquals(s3Config.getCoalesceBufferSize(), s3Config2.getCoalesceBufferSize());
+        assertEquals(s3Config.isHedgeReads(), s3Config2.isHedgeReads());
+        assertEquals(s3Config.getHedgeDelay(), s3Config2.getHedgeDelay());
+        assertEquals(s3Config.getHedgePercentile(), s3Config2.getHedgePercentile(), 0.0001);
+        assertEquals(s3Config.getHedgeMinDelay(), s3Config2.getHedgeMinDelay());
+        assertEquals(s3Config.getHedgeBudget(), s3Config2.getHedgeBudget(), 0.0001);
+        assertEquals(s3Config.getHedgeMaxReadSize(), s3Config2.getHedgeMaxReadSize());
+        assertEquals(s3Config.isLatencyAwareLoadBalancing(), s3Config2.isLatencyAwareLoadBalancing());
+        assertEquals(s3Config.getHostProbeInterval(), s3Config2.getHostProbeInterval());
+        assertEquals(s3Config.isCircuitBreakerEnabled(), s3Config2.isCircuitBreakerEnabled());
+        assertEquals(s3Config.getCircuitBreakerFailureRate(), s3Config2.getCircuitBreakerFailureRate(), 0.0001);
+        assertEquals(s3Config.getCircuitBreakerOpenTime(), s3Config2.getCircuitBreakerOpenTime());
+        assertEquals(s3Config.isMetricsEnabled(), s3Config2.isMetricsEnabled());
+        assertEquals(s3Config.isRequestTimingEnabled(), s3Config2.isRequestTimingEnabled());
+        assertEquals(s3Config.isAsyncRequestListeners(), s3Config2.isAsyncRequestListeners());
         for (Entry<String, Object> entry : s3Config.getProperties().entrySet()) {
             if (entry.getValue() instanceof String) {
                 assertEquals(entry.getValue(), s3Config2.getProperty(entry.getKey()));
@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.s3;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.URI;
+
+public class DefaultRetryPolicyTest {
+    private S3Config s3Config = new S3Config(URI.create("http://localhost:9020")).withInitialRetryDelay(100).withRetryLimit(5);
+
+    @Test
+    public void testBackoff() {
+        DefaultRetryPolicy policy = new DefaultRetryPolicy().withMaxRetryDelay(1000);
+        S3Exception error = new S3Exception("internal error", 500);
+        Assert.assertEquals(100, policy.getRetryDelay(s3Config, "GET", error, 0, 0));
+        Assert.assertEquals(200, policy.getRetryDelay(s3Config, "GET", error, 1, 100));
+        Assert.assertEquals(400, policy.getRetryDelay(s3Config, "GET", error, 2, 200));
+        Assert.assertEquals(800, policy.getRetryDelay(s3Config, "GET", error, 3, 400));
+        Assert.assertEquals(1000, policy.getRetryDelay(s3Config, "GET", error, 4, 800)); // capped
+        Assert.assertEquals(RetryPolicy.NO_RETRY, policy.getRetryDelay(s3Config, "GET", error, 5, 1000)); // limit
+    }
+
+    @Test
+    public void testJitter() {
+        DefaultRetryPolicy policy = new DefaultRetryPolicy().withJitter(DefaultRetryPolicy.Jitter.FULL);
+        S3Exception error = new S3Exception("internal error", 500);
+        boolean varied = false;
+        long last = -1;
+        for (int i = 0; i < 100; i++) {
+            long delay = policy.getRetryDelay(s3Config, "GET", error, 2, 0);
+            Assert.assertTrue(delay >= 0 && delay <= 400);
+            if (last >= 0 && delay != last) varied = true;
+            last = delay;
+        }
+        Assert.assertTrue(varied);
+
+        policy.setJitter(DefaultRetryPolicy.Jitter.DECORRELATED);
+        for (int i = 0; i < 100; i++) {
+            long delay = policy.getRetryDelay(s3Config, "GET", error, 2, 300);
+            Assert.assertTrue(delay >= 100 && delay <= 900);
+        }
+    }
+
+    @Test
+    public void testClassification() {
+        DefaultRetryPolicy policy = new DefaultRetryPolicy();
+        Assert.assertEquals(RetryPolicy.NO_RETRY, policy.getRetryDelay(s3Config, "GET", new S3Exception("bad", 400), 0, 0));
+        Assert.assertEquals(RetryPolicy.NO_RETRY, policy.getRetryDelay(s3Config, "GET", new S3Exception("not impl", 501), 0, 0));
+        Assert.assertEquals(RetryPolicy.NO_RETRY, policy.getRetryDelay(s3Config, "GET", new RuntimeException("foo"), 0, 0));
+        Assert.assertNotEquals(RetryPolicy.NO_RETRY, policy.getRetryDelay(s3Config, "GET", new IOException("foo"), 0, 0));
+
+        // the S3 POST requests are safe to repeat, so they are retried like any other request by default
+        Assert.assertNotEquals(RetryPolicy.NO_RETRY, policy.getRetryDelay(s3Config, "POST", new S3Exception("error", 500), 0, 0));
+        Assert.assertNotEquals(RetryPolicy.NO_RETRY, policy.getRetryDelay(s3Config, "POST", new IOException("reset"), 0, 0));
+
+        // otherwise, only retry POST if the request wasn't processed
+        policy.setRetryPost(false);
+        Assert.assertNotEquals(RetryPolicy.NO_RETRY, policy.getRetryDelay(s3Config, "PUT", new S3Exception("error", 500), 0, 0));
+        Assert.assertEquals(RetryPolicy.NO_RETRY, policy.getRetryDelay(s3Config, "POST", new S3Exception("error", 500), 0, 0));
+        Assert.assertEquals(RetryPolicy.NO_RETRY, policy.getRetryDelay(s3Config, "POST", new IOException("reset"), 0, 0));
+        Assert.assertNotEquals(RetryPolicy.NO_RETRY, policy.getRetryDelay(s3Config, "POST", new S3Exception("busy", 503), 0, 0));
+        Assert.assertNotEquals(RetryPolicy.NO_RETRY, policy.getRetryDelay(s3Config, "POST", new ConnectException("refused"), 0, 0));
+        Assert.assertNotEquals(RetryPolicy.NO_RETRY, policy.getRetryDelay(s3Config, "POST",
+                new S3Exception("slow down", 500, S3Constants.ERROR_SLOW_DOWN, null), 0, 0));
+    }
+
+    @Test
+    public void testRetryAfter() {
+        DefaultRetryPolicy policy = new DefaultRetryPolicy().withMaxRetryDelay(5000);
+        S3Exception error = new S3Exception("slow down", 503, S3Constants.ERROR_SLOW_DOWN, null);
+        error.setRetryAfter(2000);
+        Assert.assertEquals(2000, policy.getRetryDelay(s3Config, "GET", error, 0, 0));
+
+        // too long to wait
+        error.setRetryAfter(10000);
+        Assert.assertEquals(RetryPolicy.NO_RETRY, policy.getRetryDelay(s3Config, "GET", error, 0, 0));
+    }
+
+    @Test
+    public void testRetryBudget() {
+        DefaultRetryPolicy policy = new DefaultRetryPolicy().withRetryBudget(10).withBudgetRefill(0.5f);
+        S3Exception error = new S3Exception("internal error", 500);
+
+        // retries are allowed while more than half the tokens remain
+        for (int i = 0; i < 5; i++) {
+            Assert.assertNotEquals(RetryPolicy.NO_RETRY, policy.getRetryDelay(s3Config, "GET", error, 0, 0));
+        }
+        Assert.assertEquals(RetryPolicy.NO_RETRY, policy.getRetryDelay(s3Config, "GET", error, 0, 0));
+
+        // successes refill the budget
+        for (int i = 0; i < 10; i++) {
+            policy.onSuccess();
+        }
+        Assert.assertNotEquals(RetryPolicy.NO_RETRY, policy.getRetryDelay(s3Config, "GET", error, 0, 0));
+    }
+}
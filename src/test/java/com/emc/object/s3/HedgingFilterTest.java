@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.s3;
+
+import com.emc.object.Range;
+import com.emc.object.s3.jersey.HedgingFilter;
+import com.emc.object.s3.jersey.S3JerseyClient;
+import com.emc.object.s3.request.GetObjectRequest;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HedgingFilterTest extends AbstractS3ClientTest {
+    @Override
+    protected String getTestBucketPrefix() {
+        return "s3-hedging-test";
+    }
+
+    @Override
+    protected S3Client createS3Client() throws Exception {
+        // hedge every read
+        return new S3JerseyClient(createS3Config().withHedgeReads(true).withHedgeDelay(0).withHedgeBudget(1.0f));
+    }
+
+    @Test
+    public void testHedgedReads() throws Exception {
+        String key = "hedged-object";
+        String content = "Hello Hedged Reads!";
+        client.putObject(getTestBucket(), key, content, "text/plain");
+
+        // only ranged reads are hedged
+        GetObjectRequest request = new GetObjectRequest(getTestBucket(), key)
+                .withRange(Range.fromOffsetLength(0, content.length()));
+        for (int i = 0; i < 20; i++) {
+            Assert.assertEquals(content, client.getObject(request, String.class).getObject());
+            Assert.assertEquals(content.length(), client.getObjectMetadata(getTestBucket(), key).getContentLength().longValue());
+        }
+
+        HedgingFilter filter = ((S3JerseyClient) client).getHedgingFilter();
+        Assert.assertTrue(filter.getReadCount() >= 40);
+        Assert.assertTrue(filter.getHedgeCount() > 0);
+        Assert.assertTrue(filter.getHedgeCount() <= filter.getReadCount());
+    }
+
+    @Test
+    public void testHedgedError() throws Exception {
+        try {
+            client.getObjectMetadata(getTestBucket(), "does-not-exist");
+            Assert.fail("read of missing object should fail");
+        } catch (S3Exception e) {
+            Assert.assertEquals(404, e.getHttpCode());
+        }
+    }
+
+    @Test
+    public void testHedgeBudget() throws Exception {
+        S3JerseyClient s3Client = new S3JerseyClient(createS3Config().withHedgeReads(true).withHedgeDelay(0)
+                .withHedgeBudget(0.0f));
+        try {
+            String key = "budget-object";
+            s3Client.putObject(getTestBucket(), key, "budget", "text/plain");
+            for (int i = 0; i < 50; i++) {
+                s3Client.getObjectMetadata(getTestBucket(), key);
+            }
+
+            // with no budget, only the initial burst may be hedged
+            Assert.assertTrue(s3Client.getHedgingFilter().getHedgeCount() <= HedgingFilter.MAX_HEDGE_TOKENS);
+        } finally {
+            s3Client.destroy();
+        }
+    }
+}
@@ -0,0 +1,224 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.s3;
+
+import com.emc.object.Range;
+import com.emc.object.s3.jersey.HedgingFilter;
+import com.emc.object.s3.jersey.S3JerseyClient;
+import com.emc.object.s3.request.GetObjectRequest;
+import com.emc.object.s3.stub.MockClientHandler;
+import com.emc.object.util.RestUtil;
+import com.sun.jersey.api.client.ClientRequest;
+import com.sun.jersey.api.client.ClientResponse;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Exercises {@link HedgingFilter} against an in-memory handler (see {@link HedgingFilterTest} for the tests against a
+ * real endpoint)
+ */
+public class HedgingFilterUnitTest {
+    private static final byte[] DATA = "hedged".getBytes();
+
+    private S3JerseyClient client;
+
+    @After
+    public void teardown() {
+        if (client != null) client.destroy();
+    }
+
+    @Test
+    public void testPercentileDelay() throws Exception {
+        // fast responses; once enough samples are in, the hedge delay follows them instead of the (huge) fixed delay
+        MockClientHandler handler = new MockClientHandler(new MockClientHandler.Responder() {
+            @Override
+            public ClientResponse respond(ClientRequest request, byte[] entity) {
+                return headResponse();
+            }
+        });
+        client = createClient(handler, new S3Config(new URI("http://mock.local:9020")).withHedgeDelay(60000)
+                .withHedgePercentile(50.0f));
+        HedgingFilter filter = client.getHedgingFilter();
+
+        for (int i = 0; i < HedgingFilter.MIN_LATENCY_SAMPLES - 1; i++) {
+            client.getObjectMetadata("bucket", "key");
+        }
+        Assert.assertEquals(60000, filter.getHedgeDelay());
+        client.getObjectMetadata("bucket", "key");
+        Assert.assertTrue("hedge delay is " + filter.getHedgeDelay(), filter.getHedgeDelay() < 50);
+        Assert.assertEquals(0, filter.getHedgeCount());
+
+        // now the primary stalls; the hedge goes out after the (short) percentile delay and wins
+        handler.setResponder(new MockClientHandler.Responder() {
+            @Override
+            public ClientResponse respond(ClientRequest request, byte[] entity) throws Exception {
+                if (!request.getProperties().containsKey(HedgingFilter.PROP_HEDGE)) Thread.sleep(2000);
+                return headResponse();
+            }
+        });
+        long start = System.currentTimeMillis();
+        client.getObjectMetadata("bucket", "key");
+        Assert.assertTrue(System.currentTimeMillis() - start < 1000);
+        Assert.assertEquals(1, filter.getHedgeCount());
+        Assert.assertEquals(1, filter.getHedgeWinCount());
+    }
+
+    @Test
+    public void testMinDelay() throws Exception {
+        // responses that take no measurable time must not drive the hedge delay to zero
+        MockClientHandler handler = new MockClientHandler(new MockClientHandler.Responder() {
+            @Override
+            public ClientResponse respond(ClientRequest request, byte[] entity) {
+                return headResponse();
+            }
+        });
+        client = createClient(handler, new S3Config(new URI("http://mock.local:9020")).withHedgePercentile(50.0f)
+                .withHedgeMinDelay(20).withHedgeBudget(1.0f));
+        HedgingFilter filter = client.getHedgingFilter();
+
+        for (int i = 0; i < 2 * HedgingFilter.MIN_LATENCY_SAMPLES; i++) {
+            client.getObjectMetadata("bucket", "key");
+        }
+        Assert.assertEquals(20, filter.getHedgeDelay());
+        Assert.assertEquals(0, filter.getHedgeCount());
+    }
+
+    @Test
+    public void testBudget() throws Exception {
+        // every read is slow enough to be hedged immediately, so only the budget limits hedging
+        MockClientHandler handler = new MockClientHandler(new MockClientHandler.Responder() {
+            @Override
+            public ClientResponse respond(ClientRequest request, byte[] entity) throws Exception {
+                Thread.sleep(20);
+                return headResponse();
+            }
+        });
+        client = createClient(handler, new S3Config(new URI("http://mock.local:9020")).withHedgeDelay(0)
+                .withHedgeBudget(0.0f));
+        for (int i = 0; i < 30; i++) {
+            client.getObjectMetadata("bucket", "key");
+        }
+        // with no budget, only the initial burst is hedged
+        Assert.assertEquals(30, client.getHedgingFilter().getReadCount());
+        Assert.assertEquals(HedgingFilter.MAX_HEDGE_TOKENS, client.getHedgingFilter().getHedgeCount());
+        client.destroy();
+
+        client = createClient(handler, new S3Config(new URI("http://mock.local:9020")).withHedgeDelay(0)
+                .withHedgeBudget(0.25f));
+        for (int i = 0; i < 100; i++) {
+            client.getObjectMetadata("bucket", "key");
+        }
+        long hedges = client.getHedgingFilter().getHedgeCount();
+        Assert.assertTrue("sent " + hedges + " hedges", hedges >= 25 && hedges <= HedgingFilter.MAX_HEDGE_TOKENS + 25);
+    }
+
+    @Test
+    public void testOnlySmallRangesHedged() throws Exception {
+        MockClientHandler handler = new MockClientHandler(new MockClientHandler.Responder() {
+            @Override
+            public ClientResponse respond(ClientRequest request, byte[] entity) throws Exception {
+                Thread.sleep(20);
+                return MockClientHandler.response(206, DATA, RestUtil.HEADER_CONTENT_TYPE, "text/plain");
+            }
+        });
+        client = createClient(handler, new S3Config(new URI("http://mock.local:9020")).withHedgeDelay(0)
+                .withHedgeBudget(1.0f).withHedgeMaxReadSize(1000));
+        HedgingFilter filter = client.getHedgingFilter();
+
+        client.getObject(new GetObjectRequest("bucket", "key").withRange(new Range(0L, 999L)), byte[].class);
+        Assert.assertEquals(1, filter.getReadCount());
+        Assert.assertEquals(1, filter.getHedgeCount());
+
+        // too large, open-ended and whole-object reads go through unhedged
+        client.getObject(new GetObjectRequest("bucket", "key").withRange(new Range(0L, 1000L)), byte[].class);
+        client.getObject(new GetObjectRequest("bucket", "key").withRange(new Range(10L, null)), byte[].class);
+        client.readObject("bucket", "key", byte[].class);
+        Assert.assertEquals(1, filter.getReadCount());
+        Assert.assertEquals(1, filter.getHedgeCount());
+        Assert.assertEquals(5, handler.getRequests().size());
+    }
+
+    @Test
+    public void testLoserClosedInBackground() throws Exception {
+        // both attempts respond at the same moment, so the loser is usually already queued when the caller finishes;
+        // closing an unread body blocks (like draining a large response would)
+        final CyclicBarrier bothSent = new CyclicBarrier(2);
+        final CountDownLatch loserClosed = new CountDownLatch(1);
+        final AtomicReference<Thread> closingThread = new AtomicReference<Thread>();
+        MockClientHandler handler = new MockClientHandler(new MockClientHandler.Responder() {
+            @Override
+            public ClientResponse respond(ClientRequest request, byte[] entity) throws Exception {
+                bothSent.await(10, TimeUnit.SECONDS);
+                return MockClientHandler.response(206, new ByteArrayInputStream(DATA) {
+                    @Override
+                    public void close() throws IOException {
+                        if (available() == 0) return; // the winner (fully read)
+                        closingThread.set(Thread.currentThread());
+                        try {
+                            Thread.sleep(2000);
+                        } catch (InterruptedException e) {
+                            throw new IOException(e);
+                        }
+                        loserClosed.countDown();
+                    }
+                }, DATA.length, RestUtil.HEADER_CONTENT_TYPE, "text/plain");
+            }
+        });
+        client = createClient(handler, new S3Config(new URI("http://mock.local:9020")).withHedgeDelay(50)
+                .withHedgeBudget(1.0f));
+
+        for (int i = 0; i < 3; i++) {
+            long start = System.currentTimeMillis();
+            byte[] data = client.getObject(new GetObjectRequest("bucket", "key")
+                    .withRange(Range.fromOffsetLength(0, DATA.length)), byte[].class).getObject();
+            Assert.assertArrayEquals(DATA, data);
+            Assert.assertTrue("caller waited for the loser", System.currentTimeMillis() - start < 1500);
+        }
+        Assert.assertEquals(3, client.getHedgingFilter().getHedgeCount());
+        Assert.assertTrue("loser was never closed", loserClosed.await(10, TimeUnit.SECONDS));
+        Assert.assertNotSame(Thread.currentThread(), closingThread.get());
+    }
+
+    private S3JerseyClient createClient(MockClientHandler handler, S3Config s3Config) {
+        return new S3JerseyClient(s3Config.withIdentity("user").withSecretKey("secret").withHedgeReads(true)
+                .withRetryEnabled(false), handler);
+    }
+
+    private static ClientResponse headResponse() {
+        return MockClientHandler.response(200, new byte[0], RestUtil.HEADER_CONTENT_TYPE, "text/plain",
+                RestUtil.HEADER_CONTENT_LENGTH, String.valueOf(DATA.length));
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.s3;
+
+import com.emc.object.Range;
+import com.emc.object.s3.jersey.S3JerseyClient;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class MultiRangeReaderTest extends AbstractS3ClientTest {
+    @Override
+    protected String getTestBucketPrefix() {
+        return "s3-multi-range-test";
+    }
+
+    @Override
+    protected S3Client createS3Client() throws Exception {
+        return new S3JerseyClient(createS3Config());
+    }
+
+    @Test
+    public void testReadRanges() throws Exception {
+        String key = "ranges";
+        byte[] data = new byte[512 * 1024];
+        new Random().nextBytes(data);
+        client.putObject(getTestBucket(), key, data, null);
+
+        List<Range> ranges = new ArrayList<Range>();
+        ranges.add(Range.fromOffsetLength(400000, 1000));
+        ranges.add(Range.fromOffsetLength(0, 100));
+        ranges.add(Range.fromOffsetLength(150, 100)); // merged with previous
+        ranges.add(Range.fromOffsetLength(50, 10)); // overlapping
+        ranges.add(Range.fromOffsetLength(data.length - 1, 1));
+
+        MultiRangeReader reader = new MultiRangeReader(client).withMaxGap(1024);
+        try {
+            List<ByteBuffer> buffers = reader.readRanges(getTestBucket(), key, ranges);
+            Assert.assertEquals(ranges.size(), buffers.size());
+            for (int i = 0; i < ranges.size(); i++) {
+                Range range = ranges.get(i);
+                byte[] expected = Arrays.copyOfRange(data, range.getFirst().intValue(), range.getLast().intValue() + 1);
+                byte[] actual = new byte[buffers.get(i).remaining()];
+                buffers.get(i).get(actual);
+                Assert.assertArrayEquals(expected, actual);
+            }
+        } finally {
+            reader.shutdown();
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.s3;
+
+import com.emc.object.s3.jersey.S3JerseyClient;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class ObjectPackTest extends AbstractS3ClientTest {
+    @Override
+    protected String getTestBucketPrefix() {
+        return "s3-pack-test";
+    }
+
+    @Override
+    protected S3Client createS3Client() throws Exception {
+        return new S3JerseyClient(createS3Config());
+    }
+
+    @Test
+    public void testPackRoundTrip() throws Exception {
+        String packKey = "records.pack";
+        Random random = new Random();
+        Map<String, byte[]> records = new HashMap<String, byte[]>();
+
+        ObjectPackWriter writer = new ObjectPackWriter(client, getTestBucket(), packKey);
+        for (int i = 0; i < 2000; i++) {
+            byte[] data = new byte[random.nextInt(10 * 1024)];
+            random.nextBytes(data);
+            records.put("record-" + i, data);
+            writer.add("record-" + i, data);
+        }
+        writer.close();
+        Assert.assertEquals(2000, writer.getRecordCount());
+        Assert.assertNotNull(writer.getETag());
+
+        // small tail read size forces a second GET for the index
+        ObjectPackReader reader = new ObjectPackReader(client, getTestBucket()).withTailReadSize(1024);
+        Assert.assertEquals(2000, reader.getIndex(packKey).size());
+        for (Map.Entry<String, byte[]> entry : records.entrySet()) {
+            Assert.assertArrayEquals(entry.getValue(), reader.readRecord(packKey, entry.getKey()));
+        }
+        Assert.assertNull(reader.readRecord(packKey, "no-such-record"));
+
+        // replacing the pack should invalidate the cached index
+        writer = new ObjectPackWriter(client, getTestBucket(), packKey);
+        writer.add("record-0", "Hello Pack!".getBytes("UTF-8"));
+        writer.close();
+        Assert.assertEquals("Hello Pack!", new String(reader.readRecord(packKey, "record-0"), "UTF-8"));
+        Assert.assertNull(reader.readRecord(packKey, "record-1"));
+    }
+}
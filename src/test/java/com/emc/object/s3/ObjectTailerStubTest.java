@@ -0,0 +1,122 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.s3;
+
+import com.emc.object.s3.jersey.S3JerseyClient;
+import com.emc.object.s3.stub.StubS3Server;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+/**
+ * Exercises {@link ObjectTailer} streams against the in-process stub server
+ */
+public class ObjectTailerStubTest {
+    private static final String BUCKET = "tailer-test";
+
+    private StubS3Server server;
+    private S3Client client;
+    private ObjectTailer tailer;
+
+    @Before
+    public void setup() throws Exception {
+        server = new StubS3Server().start();
+        client = new S3JerseyClient(server.createS3Config().withRetryLimit(0));
+        client.createBucket(BUCKET);
+        tailer = new ObjectTailer(client).withMinPollDelayMs(10).withMaxPollDelayMs(50);
+    }
+
+    @After
+    public void teardown() {
+        if (tailer != null) tailer.shutdown();
+        if (client != null) client.destroy();
+        if (server != null) server.stop();
+    }
+
+    @Test
+    public void testStreamBackpressure() throws Exception {
+        int readSize = 16 * 1024, bufferSize = 64 * 1024;
+        byte[] data = new byte[1024 * 1024];
+        new Random().nextBytes(data);
+        client.putObject(BUCKET, "big", data, null);
+
+        tailer.withMaxReadSize(readSize).withStreamBufferSize(bufferSize);
+        long requestsBefore = server.getRequestCount();
+        InputStream stream = tailer.openStream(BUCKET, "big", 0);
+        try {
+            Thread.sleep(1000); // nobody reads; polling must pause once the buffer is full
+
+            long requests = server.getRequestCount() - requestsBefore;
+            Assert.assertTrue("too many reads: " + requests, requests <= bufferSize / readSize + 1);
+
+            byte[] read = new byte[data.length];
+            int total = 0;
+            while (total < read.length) {
+                total += stream.read(read, total, read.length - total);
+            }
+            Assert.assertArrayEquals(data, read);
+        } finally {
+            stream.close();
+        }
+    }
+
+    @Test
+    public void testErrorWakesBlockedReader() throws Exception {
+        client.putObject(BUCKET, "denied", "", null);
+        final InputStream stream = tailer.openStream(BUCKET, "denied", 0);
+        try {
+            server.setErrorStatus(403, "AccessDenied");
+            server.setErrorRate(1.0);
+
+            final Throwable[] failure = new Throwable[1];
+            Thread reader = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        stream.read();
+                    } catch (Throwable t) {
+                        failure[0] = t;
+                    }
+                }
+            };
+            reader.start();
+            reader.join(10000);
+            Assert.assertFalse("reader is still blocked", reader.isAlive());
+            Assert.assertTrue(failure[0] instanceof IOException);
+            Assert.assertTrue(failure[0].getCause() instanceof S3Exception);
+            Assert.assertEquals(403, ((S3Exception) failure[0].getCause()).getHttpCode());
+        } finally {
+            server.setErrorRate(0);
+            stream.close();
+        }
+    }
+}
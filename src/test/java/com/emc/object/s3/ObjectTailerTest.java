@@ -0,0 +1,98 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.s3;
+
+import com.emc.object.s3.jersey.S3JerseyClient;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+
+public class ObjectTailerTest extends AbstractS3ClientTest {
+    @Override
+    protected String getTestBucketPrefix() {
+        return "s3-object-tailer-test";
+    }
+
+    @Override
+    protected S3Client createS3Client() throws Exception {
+        return new S3JerseyClient(createS3Config());
+    }
+
+    @Test
+    public void testTailStream() throws Exception {
+        String key = "tailed.log";
+        client.putObject(getTestBucket(), key, "", null);
+
+        ObjectTailer tailer = new ObjectTailer(client).withMinPollDelayMs(10).withMaxPollDelayMs(500);
+        InputStream stream = tailer.openStream(getTestBucket(), key, 0);
+        try {
+            for (int i = 0; i < 10; i++) {
+                client.appendObject(getTestBucket(), key, "line-" + i + "\n");
+            }
+
+            BufferedReader reader = new BufferedReader(new InputStreamReader(stream));
+            for (int i = 0; i < 10; i++) {
+                Assert.assertEquals("line-" + i, reader.readLine());
+            }
+        } finally {
+            stream.close();
+            tailer.shutdown();
+        }
+    }
+
+    @Test
+    public void testFollowFromOffset() throws Exception {
+        String key = "offset.log";
+        client.putObject(getTestBucket(), key, "skip-me\n", null);
+
+        final StringBuffer received = new StringBuffer();
+        ObjectTailer tailer = new ObjectTailer(client).withMinPollDelayMs(10).withMaxPollDelayMs(500);
+        ObjectTailer.TailHandle handle = tailer.follow(getTestBucket(), key, 8, new TailListener() {
+            @Override
+            public void onData(String bucket, String key, long offset, byte[] data) {
+                received.append(new String(data));
+            }
+
+            @Override
+            public void onError(String bucket, String key, Throwable error) {
+            }
+        });
+        try {
+            client.appendObject(getTestBucket(), key, "hello");
+            long start = System.currentTimeMillis();
+            while (handle.getOffset() < 13 && System.currentTimeMillis() - start < 30000) Thread.sleep(50);
+            Assert.assertEquals("hello", received.toString());
+            Assert.assertEquals(13, handle.getOffset());
+        } finally {
+            handle.stop();
+            tailer.shutdown();
+        }
+    }
+}
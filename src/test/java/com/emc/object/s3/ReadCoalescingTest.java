@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.s3;
+
+import com.emc.object.CacheConfig;
+import com.emc.object.s3.bean.GetObjectResult;
+import com.emc.object.s3.jersey.S3CachingClient;
+import com.emc.object.s3.jersey.S3JerseyClient;
+import com.emc.object.s3.request.GetObjectRequest;
+import com.emc.object.s3.stub.MockClientHandler;
+import com.emc.object.util.RestUtil;
+import com.sun.jersey.api.client.ClientRequest;
+import com.sun.jersey.api.client.ClientResponse;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Checks that identical concurrent reads share one request (see {@link S3Config#setCoalesceReads(boolean)})
+ */
+public class ReadCoalescingTest {
+    private static final int THREADS = 8;
+    private static final byte[] DATA = "coalesced content".getBytes();
+    private static final String ETAG = DigestUtils.md5Hex(DATA);
+
+    private MockClientHandler handler;
+    private S3Config s3Config;
+    private S3Client client;
+    private ExecutorService executor;
+
+    @Before
+    public void setup() throws Exception {
+        // slow responses, so that all concurrent callers arrive while the first request is in flight
+        handler = new MockClientHandler(new MockClientHandler.Responder() {
+            @Override
+            public ClientResponse respond(ClientRequest request, byte[] entity) throws Exception {
+                Thread.sleep(300);
+                return MockClientHandler.response(200, DATA, RestUtil.HEADER_ETAG, "\"" + ETAG + "\"",
+                        RestUtil.HEADER_CONTENT_TYPE, "text/plain");
+            }
+        });
+        s3Config = new S3Config(new URI("http://mock.local:9020")).withIdentity("user").withSecretKey("secret")
+                .withCoalesceReads(true);
+        executor = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @After
+    public void teardown() {
+        if (client != null) client.destroy();
+        if (executor != null) executor.shutdownNow();
+    }
+
+    @Test
+    public void testCoalescedGet() throws Exception {
+        client = new S3JerseyClient(s3Config, handler);
+        for (Future<Object> result : runConcurrently(new Callable<Object>() {
+            @Override
+            public Object call() {
+                return client.readObject("bucket", "key", byte[].class);
+            }
+        })) {
+            Assert.assertArrayEquals(DATA, (byte[]) result.get());
+        }
+        Assert.assertEquals(1, handler.getRequestCount("GET"));
+    }
+
+    @Test
+    public void testCoalescedGetTimings() throws Exception {
+        client = new S3JerseyClient(s3Config.withRequestTimingEnabled(true), handler);
+        for (Future<Object> result : runConcurrently(new Callable<Object>() {
+            @Override
+            public Object call() {
+                return client.getObject(new GetObjectRequest("bucket", "key"), byte[].class);
+            }
+        })) {
+            GetObjectResult<?> getResult = (GetObjectResult<?>) result.get();
+            Assert.assertArrayEquals(DATA, (byte[]) getResult.getObject());
+            Assert.assertNotNull(getResult.getTimings());
+        }
+        Assert.assertEquals(1, handler.getRequestCount("GET"));
+    }
+
+    @Test
+    public void testCachingClientMetadataMiss() throws Exception {
+        client = new S3CachingClient(s3Config, handler, new CacheConfig());
+        for (Future<Object> result : runConcurrently(new Callable<Object>() {
+            @Override
+            public Object call() {
+                return client.getObjectMetadata("bucket", "key");
+            }
+        })) {
+            Assert.assertEquals(ETAG, ((S3ObjectMetadata) result.get()).getETag());
+        }
+        Assert.assertEquals(1, handler.getRequestCount("HEAD"));
+    }
+
+    private List<Future<Object>> runConcurrently(final Callable<Object> call) throws Exception {
+        final CyclicBarrier barrier = new CyclicBarrier(THREADS);
+        List<Future<Object>> futures = new ArrayList<Future<Object>>();
+        for (int i = 0; i < THREADS; i++) {
+            futures.add(executor.submit(new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    barrier.await();
+                    return call.call();
+                }
+            }));
+        }
+        for (Future<Object> future : futures) future.get(10, TimeUnit.SECONDS);
+        return futures;
+    }
+}
@@ -0,0 +1,330 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.s3;
+
+import com.emc.object.s3.jersey.RequestListenerFilter;
+import com.emc.object.s3.jersey.S3JerseyClient;
+import com.emc.object.s3.stub.MockClientHandler;
+import com.emc.object.util.RestUtil;
+import com.sun.jersey.api.client.ClientRequest;
+import com.sun.jersey.api.client.ClientResponse;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks the events sent by {@link RequestListenerFilter} (see {@link RequestListener} for the expected order)
+ */
+public class RequestListenerFilterTest {
+    private static final byte[] DATA = "listener content".getBytes();
+    private static final String ETAG = DigestUtils.md5Hex(DATA);
+
+    private S3JerseyClient client;
+
+    @After
+    public void teardown() {
+        if (client != null) client.destroy();
+    }
+
+    @Test
+    public void testEventOrder() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        client = new S3JerseyClient(config().withRequestListeners(listener), handler(new MockClientHandler.Responder() {
+            @Override
+            public ClientResponse respond(ClientRequest request, byte[] entity) {
+                return MockClientHandler.response(200, DATA);
+            }
+        }));
+
+        Assert.assertArrayEquals(DATA, client.readObject("bucket", "key", byte[].class));
+        Assert.assertEquals(Arrays.asList("started", "host mock.local", "response 200", "body"), listener.events);
+
+        RequestEvent event = listener.lastEvent;
+        Assert.assertEquals("GET", event.getMethod());
+        Assert.assertEquals("bucket", event.getBucketName());
+        Assert.assertEquals("key", event.getKey());
+        Assert.assertEquals(0, event.getRetryCount());
+        Assert.assertEquals(0, event.getBytesSent());
+        Assert.assertEquals(DATA.length, event.getBytesReceived());
+        Assert.assertNull(event.getError());
+    }
+
+    @Test
+    public void testRetryEvents() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        final AtomicInteger count = new AtomicInteger();
+        client = new S3JerseyClient(config().withRequestListeners(listener), handler(new MockClientHandler.Responder() {
+            @Override
+            public ClientResponse respond(ClientRequest request, byte[] entity) {
+                if (count.getAndIncrement() == 0) return MockClientHandler.errorResponse(500, "InternalError");
+                return MockClientHandler.response(200, DATA);
+            }
+        }));
+
+        Assert.assertArrayEquals(DATA, client.readObject("bucket", "key", byte[].class));
+        Assert.assertEquals(Arrays.asList("started", "host mock.local", "response 500", "retried 1 InternalError",
+                "host mock.local", "response 200", "body"), listener.events);
+        Assert.assertEquals(1, listener.lastEvent.getRetryCount());
+        Assert.assertEquals(200, listener.lastEvent.getStatusCode());
+        Assert.assertNull(listener.lastEvent.getError());
+    }
+
+    @Test
+    public void testFailureEvents() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        client = new S3JerseyClient(config().withRetryLimit(1).withRequestListeners(listener),
+                handler(new MockClientHandler.Responder() {
+                    @Override
+                    public ClientResponse respond(ClientRequest request, byte[] entity) {
+                        return MockClientHandler.errorResponse(500, "InternalError");
+                    }
+                }));
+
+        try {
+            client.readObject("bucket", "key", byte[].class);
+            Assert.fail("request should fail");
+        } catch (S3Exception e) {
+            Assert.assertEquals(500, e.getHttpCode());
+        }
+        Assert.assertEquals(Arrays.asList("started", "host mock.local", "response 500", "retried 1 InternalError",
+                "host mock.local", "response 500", "failed 500 InternalError"), listener.events);
+
+        // an attempt that gets no response has no response event
+        listener.events.clear();
+        client.destroy();
+        client = new S3JerseyClient(config().withRetryEnabled(false).withRequestListeners(listener),
+                handler(new MockClientHandler.Responder() {
+                    @Override
+                    public ClientResponse respond(ClientRequest request, byte[] entity) throws Exception {
+                        throw new IOException("connection reset");
+                    }
+                }));
+        try {
+            client.readObject("bucket", "key", byte[].class);
+            Assert.fail("request should fail");
+        } catch (RuntimeException e) {
+            // expected
+        }
+        Assert.assertEquals(Arrays.asList("started", "host mock.local", "failed -1 connection reset"), listener.events);
+        Assert.assertTrue(listener.lastEvent.getError() instanceof IOException);
+    }
+
+    @Test
+    public void testBodyCompletedOnClose() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        client = new S3JerseyClient(config().withRequestListeners(listener), handler(new MockClientHandler.Responder() {
+            @Override
+            public ClientResponse respond(ClientRequest request, byte[] entity) {
+                return MockClientHandler.response(200, DATA);
+            }
+        }));
+
+        // closed before the end of the body
+        InputStream in = client.readObject("bucket", "key", InputStream.class);
+        Assert.assertEquals(DATA[0], in.read());
+        Assert.assertEquals(3, in.read(new byte[3]));
+        Assert.assertFalse(listener.events.contains("body"));
+        in.close();
+        in.close();
+        Assert.assertEquals(1, Collections.frequency(listener.events, "body"));
+        Assert.assertEquals(4, listener.lastEvent.getBytesReceived());
+
+        // read to EOF (completes before close)
+        listener.events.clear();
+        in = client.readObject("bucket", "key", InputStream.class);
+        byte[] buffer = new byte[DATA.length * 2];
+        int total = 0, count;
+        while ((count = in.read(buffer, total, buffer.length - total)) >= 0) total += count;
+        Assert.assertEquals(DATA.length, total);
+        Assert.assertEquals("body", listener.events.get(listener.events.size() - 1));
+        in.close();
+        Assert.assertEquals(1, Collections.frequency(listener.events, "body"));
+        Assert.assertEquals(DATA.length, listener.lastEvent.getBytesReceived());
+    }
+
+    @Test
+    public void testBytesSent() throws Exception {
+        RecordingListener listener = new RecordingListener();
+        final List<byte[]> entities = Collections.synchronizedList(new ArrayList<byte[]>());
+        client = new S3JerseyClient(config().withRequestListeners(listener), handler(new MockClientHandler.Responder() {
+            @Override
+            public ClientResponse respond(ClientRequest request, byte[] entity) {
+                entities.add(entity);
+                return MockClientHandler.response(200, new byte[0], RestUtil.HEADER_ETAG, "\"" + ETAG + "\"");
+            }
+        }));
+
+        client.putObject("bucket", "key", DATA, null);
+        Assert.assertArrayEquals(DATA, entities.get(0));
+        Assert.assertEquals(Arrays.asList("started", "host mock.local", "response 200", "body"), listener.events);
+        Assert.assertEquals("PUT", listener.lastEvent.getMethod());
+        Assert.assertEquals(DATA.length, listener.lastEvent.getBytesSent());
+        Assert.assertEquals(0, listener.lastEvent.getBytesReceived());
+
+        // the count is for the last attempt
+        listener.events.clear();
+        final AtomicInteger count = new AtomicInteger();
+        client.destroy();
+        client = new S3JerseyClient(config().withRequestListeners(listener), handler(new MockClientHandler.Responder() {
+            @Override
+            public ClientResponse respond(ClientRequest request, byte[] entity) {
+                if (count.getAndIncrement() == 0) return MockClientHandler.errorResponse(500, "InternalError");
+                return MockClientHandler.response(200, new byte[0], RestUtil.HEADER_ETAG, "\"" + ETAG + "\"");
+            }
+        }));
+        client.putObject("bucket", "key", DATA, null);
+        Assert.assertEquals("retried 1 InternalError", listener.events.get(3));
+        Assert.assertEquals(DATA.length, listener.lastEvent.getBytesSent());
+    }
+
+    @Test
+    public void testAsyncDroppedEvents() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger delivered = new AtomicInteger();
+        RequestListener listener = new RequestListenerAdapter() {
+            @Override
+            public void requestStarted(RequestEvent event) {
+                // hold up the listener thread so the queue fills
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                delivered.incrementAndGet();
+            }
+
+            @Override
+            public void hostSelected(RequestEvent event) {
+                delivered.incrementAndGet();
+            }
+
+            @Override
+            public void responseReceived(RequestEvent event) {
+                delivered.incrementAndGet();
+            }
+
+            @Override
+            public void bodyCompleted(RequestEvent event) {
+                delivered.incrementAndGet();
+            }
+        };
+        client = new S3JerseyClient(config().withAsyncRequestListeners(true).withRequestListeners(listener),
+                handler(new MockClientHandler.Responder() {
+                    @Override
+                    public ClientResponse respond(ClientRequest request, byte[] entity) {
+                        return MockClientHandler.response(200, new byte[0]);
+                    }
+                }));
+        RequestListenerFilter filter = client.getRequestListenerFilter();
+
+        // each HEAD is 4 events (started, host, response, body); the first is taken by the listener thread, the next
+        // DEFAULT_ASYNC_QUEUE_SIZE are queued and the rest are dropped (without blocking the requests)
+        int requests = RequestListenerFilter.DEFAULT_ASYNC_QUEUE_SIZE / 4 + 500, events = requests * 4;
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < requests; i++) {
+            client.getObjectMetadata("bucket", "key");
+        }
+        Assert.assertTrue(System.currentTimeMillis() - start < 30000);
+        long dropped = events - 1 - RequestListenerFilter.DEFAULT_ASYNC_QUEUE_SIZE;
+        Assert.assertEquals(dropped, filter.getDroppedEventCount());
+
+        release.countDown();
+        long deadline = System.currentTimeMillis() + 10000;
+        while (delivered.get() < events - dropped && System.currentTimeMillis() < deadline) Thread.sleep(10);
+        Assert.assertEquals(events - dropped, delivered.get());
+    }
+
+    private S3Config config() throws Exception {
+        return new S3Config(new URI("http://mock.local:9020")).withIdentity("user").withSecretKey("secret")
+                .withInitialRetryDelay(0);
+    }
+
+    private MockClientHandler handler(MockClientHandler.Responder responder) {
+        return new MockClientHandler(responder);
+    }
+
+    /**
+     * Records each event as a string (with the details that matter for that event)
+     */
+    private static class RecordingListener implements RequestListener {
+        final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+        volatile RequestEvent lastEvent;
+
+        @Override
+        public void requestStarted(RequestEvent event) {
+            record("started", event);
+        }
+
+        @Override
+        public void requestRetried(RequestEvent event) {
+            record("retried " + event.getRetryCount() + " " + errorCode(event), event);
+        }
+
+        @Override
+        public void hostSelected(RequestEvent event) {
+            record("host " + event.getHost(), event);
+        }
+
+        @Override
+        public void responseReceived(RequestEvent event) {
+            record("response " + event.getStatusCode(), event);
+        }
+
+        @Override
+        public void bodyCompleted(RequestEvent event) {
+            record("body", event);
+        }
+
+        @Override
+        public void requestFailed(RequestEvent event) {
+            record("failed " + event.getStatusCode() + " " + errorCode(event), event);
+        }
+
+        private void record(String description, RequestEvent event) {
+            events.add(description);
+            lastEvent = event;
+        }
+
+        private String errorCode(RequestEvent event) {
+            Throwable error = event.getError();
+            if (error instanceof S3Exception) return ((S3Exception) error).getErrorCode();
+            return error == null ? null : error.getMessage();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.s3;
+
+import com.emc.object.s3.jersey.S3JerseyClient;
+import com.sun.jersey.client.apache4.config.ApacheHttpClient4Config;
+import org.apache.http.conn.ClientConnectionRequest;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.ServerSocket;
+import java.net.URI;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class RequestTimingTest {
+    @Test
+    public void testConfiguredConnectionManager() throws Exception {
+        // a port nothing is listening on
+        ServerSocket socket = new ServerSocket(0);
+        int port = socket.getLocalPort();
+        socket.close();
+
+        final AtomicInteger leases = new AtomicInteger();
+        PoolingClientConnectionManager manager = new PoolingClientConnectionManager() {
+            @Override
+            public ClientConnectionRequest requestConnection(HttpRoute route, Object state) {
+                leases.incrementAndGet();
+                return super.requestConnection(route, state);
+            }
+        };
+        S3Config s3Config = new S3Config(new URI("http://127.0.0.1:" + port)).withIdentity("user")
+                .withSecretKey("secret").withRetryEnabled(false).withRequestTimingEnabled(true)
+                .withProperty(ApacheHttpClient4Config.PROPERTY_CONNECTION_MANAGER, manager);
+        S3Client client = new S3JerseyClient(s3Config);
+        try {
+            client.getObjectMetadata("bucket", "key");
+            Assert.fail("connection should be refused");
+        } catch (RuntimeException e) {
+            // expected
+        } finally {
+            client.destroy();
+        }
+
+        // the timing connection manager must wrap the configured one instead of replacing it
+        Assert.assertEquals(1, leases.get());
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.s3;
+
+import com.emc.object.CacheConfig;
+import com.emc.object.s3.jersey.S3CachingClient;
+import com.emc.object.s3.request.PutObjectRequest;
+import com.emc.object.util.MetadataCache;
+import com.emc.object.util.TieredObjectCache;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+
+public class S3CachingClientTest extends AbstractS3ClientTest {
+    private File cacheDir;
+
+    @Override
+    protected String getTestBucketPrefix() {
+        return "s3-caching-client-test";
+    }
+
+    @Override
+    protected S3Client createS3Client() throws Exception {
+        cacheDir = File.createTempFile("s3-cache", null);
+        Assert.assertTrue(cacheDir.delete());
+        cacheDir.deleteOnExit();
+        return new S3CachingClient(createS3Config(), new CacheConfig().withMemoryCacheSize(4096)
+                .withDiskCacheDir(cacheDir).withTtlSeconds(1));
+    }
+
+    @Test
+    public void testCacheHits() throws Exception {
+        TieredObjectCache cache = ((S3CachingClient) client).getCache();
+        client.putObject(getTestBucket(), "cached", "Hello Cache!", "text/plain");
+
+        Assert.assertEquals("Hello Cache!", client.readObject(getTestBucket(), "cached", String.class));
+        Assert.assertEquals(1, cache.getMisses());
+        Assert.assertEquals("Hello Cache!", client.readObject(getTestBucket(), "cached", String.class));
+        Assert.assertEquals(1, cache.getMemoryHits());
+
+        // stale entries are revalidated
+        Thread.sleep(1100);
+        Assert.assertEquals("Hello Cache!", client.readObject(getTestBucket(), "cached", String.class));
+        Assert.assertEquals(1, cache.getRevalidations());
+        Assert.assertEquals(2, cache.getMemoryHits());
+    }
+
+    @Test
+    public void testInvalidation() throws Exception {
+        client.putObject(getTestBucket(), "changing", "before", "text/plain");
+        Assert.assertEquals("before", client.readObject(getTestBucket(), "changing", String.class));
+
+        client.putObject(getTestBucket(), "changing", "after", "text/plain");
+        Assert.assertEquals("after", client.readObject(getTestBucket(), "changing", String.class));
+
+        client.putObject(getTestBucket(), "cached-source", "copied", "text/plain");
+        client.copyObject(getTestBucket(), "cached-source", getTestBucket(), "changing");
+        Assert.assertEquals("copied", client.readObject(getTestBucket(), "changing", String.class));
+
+        client.deleteObject(getTestBucket(), "changing");
+        try {
+            client.readObject(getTestBucket(), "changing", String.class);
+            Assert.fail("deleted object should not be served from cache");
+        } catch (S3Exception e) {
+            Assert.assertEquals(404, e.getHttpCode());
+        }
+    }
+
+    @Test
+    public void testDiskTier() throws Exception {
+        TieredObjectCache cache = ((S3CachingClient) client).getCache();
+        byte[] data = new byte[3000];
+        for (int i = 0; i < 3; i++) {
+            client.putObject(getTestBucket(), "object-" + i, data, null);
+            client.readObject(getTestBucket(), "object-" + i, byte[].class);
+        }
+        // only one object fits in memory; the others were demoted
+        Assert.assertTrue(cache.getDiskBytes() > 0);
+        Assert.assertArrayEquals(data, client.readObject(getTestBucket(), "object-0", byte[].class));
+        Assert.assertEquals(1, cache.getDiskHits());
+    }
+
+    @Test
+    public void testMetadataCache() throws Exception {
+        MetadataCache metadataCache = ((S3CachingClient) client).getMetadataCache();
+        byte[] data = "metadata".getBytes();
+        client.putObject(new PutObjectRequest(getTestBucket(), "meta", data).withObjectMetadata(
+                new S3ObjectMetadata().withContentType("text/plain").addUserMetadata("color", "blue")));
+
+        // populated by the PUT
+        S3ObjectMetadata metadata = client.getObjectMetadata(getTestBucket(), "meta");
+        Assert.assertEquals(1, metadataCache.getHits());
+        Assert.assertEquals(Long.valueOf(data.length), metadata.getContentLength());
+        Assert.assertEquals("blue", metadata.getUserMetadata("color"));
+
+        // updated by setObjectMetadata (a self-copy)
+        client.setObjectMetadata(getTestBucket(), "meta",
+                new S3ObjectMetadata().withContentType("text/plain").addUserMetadata("color", "red"));
+        Assert.assertEquals("red", client.getObjectMetadata(getTestBucket(), "meta").getUserMetadata("color"));
+
+        client.deleteObject(getTestBucket(), "meta");
+        try {
+            client.getObjectMetadata(getTestBucket(), "meta");
+            Assert.fail("deleted object should not be served from cache");
+        } catch (S3Exception e) {
+            Assert.assertEquals(404, e.getHttpCode());
+        }
+    }
+
+    @Test
+    public void testNegativeLookups() throws Exception {
+        S3CachingClient cachingClient = (S3CachingClient) client;
+        for (int i = 0; i < 10; i++) {
+            client.putObject(getTestBucket(), "existing-" + i, "exists", "text/plain");
+        }
+        Assert.assertEquals(10, cachingClient.seedExistenceFilter(getTestBucket(), 1000, 0.01));
+
+        // absent keys short-circuit
+        for (int i = 0; i < 10; i++) {
+            try {
+                client.getObjectMetadata(getTestBucket(), "absent-" + i);
+                Assert.fail("absent key should not exist");
+            } catch (S3Exception e) {
+                Assert.assertEquals(404, e.getHttpCode());
+            }
+        }
+        Assert.assertTrue(cachingClient.getShortCircuitCount() >= 9); // allow one false positive
+
+        // new keys are added to the filter
+        client.putObject(getTestBucket(), "absent-0", "now it exists", "text/plain");
+        Assert.assertEquals("now it exists", client.readObject(getTestBucket(), "absent-0", String.class));
+
+        // deleted keys are remembered
+        client.deleteObject(getTestBucket(), "existing-0");
+        long shortCircuits = cachingClient.getShortCircuitCount();
+        try {
+            client.readObject(getTestBucket(), "existing-0", String.class);
+            Assert.fail("deleted key should not exist");
+        } catch (S3Exception e) {
+            Assert.assertEquals(404, e.getHttpCode());
+        }
+        Assert.assertEquals(shortCircuits + 1, cachingClient.getShortCircuitCount());
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.s3;
+
+import com.emc.object.CacheConfig;
+import com.emc.object.s3.jersey.S3CachingClient;
+import com.emc.object.s3.request.GetObjectRequest;
+import com.emc.object.s3.stub.MockClientHandler;
+import com.emc.object.util.RestUtil;
+import com.sun.jersey.api.client.ClientRequest;
+import com.sun.jersey.api.client.ClientResponse;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Exercises {@link S3CachingClient} against an in-memory handler (see {@link S3CachingClientTest} for the tests against
+ * a real endpoint)
+ */
+public class S3CachingClientUnitTest {
+    private static final byte[] DATA = "cached content".getBytes();
+    private static final String ETAG = DigestUtils.md5Hex(DATA);
+
+    private S3CachingClient client;
+
+    @After
+    public void teardown() {
+        if (client != null) client.destroy();
+    }
+
+    @Test
+    public void testRevalidationLeavesRequestUnchanged() throws Exception {
+        final GetObjectRequest request = new GetObjectRequest("bucket", "key");
+        final List<String> callerConditions = new ArrayList<String>();
+        MockClientHandler handler = new MockClientHandler(new MockClientHandler.Responder() {
+            @Override
+            public ClientResponse respond(ClientRequest clientRequest, byte[] entity) {
+                if (clientRequest.getHeaders().getFirst(RestUtil.HEADER_IF_NONE_MATCH) != null) {
+                    // the conditional GET is in flight; the caller's request must not carry the condition
+                    callerConditions.add(request.getIfNoneMatch());
+                    return MockClientHandler.response(304, new byte[0], RestUtil.HEADER_ETAG, "\"" + ETAG + "\"");
+                }
+                return MockClientHandler.response(200, DATA, RestUtil.HEADER_ETAG, "\"" + ETAG + "\"",
+                        RestUtil.HEADER_CONTENT_TYPE, "text/plain");
+            }
+        });
+        // a TTL of 0 means every cache hit is revalidated
+        client = new S3CachingClient(new S3Config(new URI("http://mock.local:9020")).withIdentity("user")
+                .withSecretKey("secret"), handler, new CacheConfig().withTtlSeconds(0));
+
+        Assert.assertArrayEquals(DATA, client.getObject(request, byte[].class).getObject());
+        Assert.assertArrayEquals(DATA, client.getObject(request, byte[].class).getObject());
+        Assert.assertEquals(1, client.getCache().getRevalidations());
+        Assert.assertEquals(1, client.getCache().getMemoryHits());
+
+        Assert.assertEquals(1, callerConditions.size());
+        Assert.assertNull(callerConditions.get(0));
+        Assert.assertNull(request.getIfNoneMatch());
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.s3;
+
+import com.emc.object.s3.jersey.S3JerseyClient;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class S3RandomAccessObjectTest extends AbstractS3ClientTest {
+    @Override
+    protected String getTestBucketPrefix() {
+        return "s3-random-access-test";
+    }
+
+    @Override
+    protected S3Client createS3Client() throws Exception {
+        return new S3JerseyClient(createS3Config());
+    }
+
+    @Test
+    public void testRewriteRegions() throws Exception {
+        String key = "pages";
+        byte[] data = new byte[256 * 1024];
+        new Random().nextBytes(data);
+        client.putObject(getTestBucket(), key, data, null);
+
+        byte[] expected = Arrays.copyOf(data, data.length + 100);
+        S3RandomAccessObject object = new S3RandomAccessObject(client, getTestBucket(), key, 4096, 1024 * 1024);
+
+        // adjacent small writes should coalesce into one range update
+        for (int i = 0; i < 10; i++) {
+            byte[] chunk = new byte[1000];
+            Arrays.fill(chunk, (byte) i);
+            object.seek(10000 + i * 1000);
+            object.write(chunk);
+            System.arraycopy(chunk, 0, expected, 10000 + i * 1000, chunk.length);
+        }
+
+        // reads see unflushed writes
+        byte[] read = new byte[100];
+        object.seek(10950);
+        Assert.assertEquals(100, object.read(read, 0, 100));
+        Assert.assertArrayEquals(Arrays.copyOfRange(expected, 10950, 11050), read);
+
+        // extend the object
+        byte[] tail = new byte[100];
+        Arrays.fill(tail, (byte) 'x');
+        object.seek(data.length);
+        object.write(tail);
+        System.arraycopy(tail, 0, expected, data.length, tail.length);
+        Assert.assertEquals(expected.length, object.length());
+
+        object.close();
+        Assert.assertEquals(2, object.getPutCount());
+        Assert.assertArrayEquals(expected, client.readObject(getTestBucket(), key, byte[].class));
+    }
+
+    @Test
+    public void testCreateObject() throws Exception {
+        String key = "new-object";
+        S3RandomAccessObject object = new S3RandomAccessObject(client, getTestBucket(), key);
+        object.seek(5);
+        object.write("hello".getBytes());
+        object.close();
+
+        byte[] expected = new byte[10];
+        System.arraycopy("hello".getBytes(), 0, expected, 5, 5);
+        Assert.assertArrayEquals(expected, client.readObject(getTestBucket(), key, byte[].class));
+    }
+}
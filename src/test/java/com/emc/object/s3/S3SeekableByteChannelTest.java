@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.s3;
+
+import com.emc.object.s3.jersey.S3JerseyClient;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+public class S3SeekableByteChannelTest extends AbstractS3ClientTest {
+    @Override
+    protected String getTestBucketPrefix() {
+        return "s3-seekable-channel-test";
+    }
+
+    @Override
+    protected S3Client createS3Client() throws Exception {
+        return new S3JerseyClient(createS3Config());
+    }
+
+    @Test
+    public void testSequentialRead() throws Exception {
+        String key = "sequential";
+        byte[] data = new byte[1000003];
+        new Random().nextBytes(data);
+        client.putObject(getTestBucket(), key, data, null);
+
+        S3SeekableByteChannel channel = new S3SeekableByteChannel(client, getTestBucket(), key, 16 * 1024, 1024 * 1024);
+        Assert.assertEquals(data.length, channel.size());
+
+        ByteBuffer buffer = ByteBuffer.allocate(data.length);
+        while (channel.read(buffer) > 0) ;
+        Assert.assertArrayEquals(data, buffer.array());
+        Assert.assertEquals(-1, channel.read(ByteBuffer.allocate(1)));
+
+        // read-ahead should have collapsed most of the 62 blocks into fewer requests
+        Assert.assertTrue(channel.getRequestCount() < 62 / 2);
+        channel.close();
+    }
+
+    @Test
+    public void testRandomRead() throws Exception {
+        String key = "random";
+        byte[] data = new byte[256 * 1024];
+        new Random().nextBytes(data);
+        client.putObject(getTestBucket(), key, data, null);
+
+        S3SeekableByteChannel channel = new S3SeekableByteChannel(client, getTestBucket(), key, 4096, 1024 * 1024);
+        Random random = new Random();
+        for (int i = 0; i < 200; i++) {
+            int position = random.nextInt(data.length - 100);
+            ByteBuffer buffer = ByteBuffer.allocate(100);
+            channel.position(position).read(buffer);
+            Assert.assertArrayEquals(Arrays.copyOfRange(data, position, position + 100), buffer.array());
+        }
+
+        // each block should be fetched at most once
+        Assert.assertTrue(channel.getRequestCount() <= data.length / 4096);
+        channel.close();
+    }
+}
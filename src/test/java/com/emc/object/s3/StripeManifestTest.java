@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.s3;
+
+import com.emc.object.Range;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StripeManifestTest {
+    @Test
+    public void testLayout() {
+        // 10 units of 100 bytes, the last one short (950 bytes total) across 4 stripes
+        StripeManifest manifest = new StripeManifest("foo", "u1", 4, 100, 950);
+
+        Assert.assertEquals(10, manifest.getUnitCount());
+        Assert.assertEquals(300, manifest.getStripeLength(0)); // units 0, 4, 8
+        Assert.assertEquals(250, manifest.getStripeLength(1)); // units 1, 5, 9 (short)
+        Assert.assertEquals(200, manifest.getStripeLength(2)); // units 2, 6
+        Assert.assertEquals(200, manifest.getStripeLength(3)); // units 3, 7
+
+        long total = 0;
+        for (int i = 0; i < manifest.getStripeWidth(); i++) {
+            total += manifest.getStripeLength(i);
+        }
+        Assert.assertEquals(manifest.getSize(), total);
+
+        Assert.assertEquals(1, manifest.getStripeIndex(9));
+        Assert.assertEquals(50, manifest.getUnitLength(9));
+        Assert.assertEquals(Range.fromOffsetLength(200, 50), manifest.getStripeRange(9));
+        Assert.assertEquals(Range.fromOffsetLength(100, 100), manifest.getStripeRange(6));
+        Assert.assertEquals("foo.stripe-u1-0003", manifest.getStripeKey(3));
+    }
+
+    @Test
+    public void testMoreStripesThanUnits() {
+        StripeManifest manifest = new StripeManifest("foo", "u1", 8, 100, 150);
+
+        Assert.assertEquals(2, manifest.getUnitCount());
+        Assert.assertEquals(100, manifest.getStripeLength(0));
+        Assert.assertEquals(50, manifest.getStripeLength(1));
+        Assert.assertEquals(0, manifest.getStripeLength(2));
+        Assert.assertEquals(0, manifest.getStripeLength(7));
+    }
+
+    @Test
+    public void testMetadataRoundTrip() {
+        StripeManifest manifest = new StripeManifest("foo", StripeManifest.newUploadId(), 6, 65536, 123456789L);
+        S3ObjectMetadata metadata = manifest.toMetadata(new S3ObjectMetadata().addUserMetadata("bar", "baz"));
+
+        Assert.assertTrue(StripeManifest.isStriped(metadata));
+        Assert.assertFalse(StripeManifest.isStriped(new S3ObjectMetadata()));
+
+        StripeManifest manifest2 = StripeManifest.fromMetadata("foo", metadata);
+        Assert.assertEquals(manifest.getStripeWidth(), manifest2.getStripeWidth());
+        Assert.assertEquals(manifest.getStripeUnit(), manifest2.getStripeUnit());
+        Assert.assertEquals(manifest.getSize(), manifest2.getSize());
+        Assert.assertEquals(manifest.getUploadId(), manifest2.getUploadId());
+        Assert.assertEquals(manifest.getStripeKey(5), manifest2.getStripeKey(5));
+
+        StripeManifest.stripLayout(metadata.getUserMetadata());
+        Assert.assertEquals(1, metadata.getUserMetadata().size());
+    }
+
+    @Test
+    public void testUploadIdsAreUnique() {
+        StripeManifest manifest1 = new StripeManifest("foo", StripeManifest.newUploadId(), 4, 100, 950);
+        StripeManifest manifest2 = new StripeManifest("foo", StripeManifest.newUploadId(), 4, 100, 950);
+        Assert.assertNotEquals(manifest1.getStripeKey(0), manifest2.getStripeKey(0));
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.s3;
+
+import com.emc.object.s3.bean.S3Object;
+import com.emc.object.s3.jersey.S3JerseyClient;
+import com.emc.object.s3.stub.StubS3Server;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Exercises overwrites of striped objects against the in-process stub server
+ */
+public class StripedObjectStubTest {
+    private static final String BUCKET = "striped-test";
+    private static final String KEY = "striped";
+    private static final int UNIT = (int) StripedObjectUploader.MIN_STRIPE_UNIT;
+
+    private StubS3Server server;
+    private S3Client client;
+
+    @Before
+    public void setup() throws Exception {
+        server = new StubS3Server().start();
+        client = new S3JerseyClient(server.createS3Config().withRetryLimit(0));
+        client.createBucket(BUCKET);
+    }
+
+    @After
+    public void teardown() {
+        if (client != null) client.destroy();
+        if (server != null) server.stop();
+    }
+
+    @Test
+    public void testNarrowerOverwriteDeletesOldStripes() throws Exception {
+        upload(randomData(4 * UNIT), 4);
+        StripeManifest oldManifest = readManifest();
+
+        byte[] data = randomData(2 * UNIT + 100);
+        upload(data, 2);
+        StripeManifest newManifest = readManifest();
+
+        Assert.assertNotEquals(oldManifest.getUploadId(), newManifest.getUploadId());
+        Assert.assertArrayEquals(data, readAll(new StripedObjectInputStream(client, BUCKET, KEY)));
+
+        // only the manifest and the new stripes remain
+        Set<String> expected = new TreeSet<String>();
+        expected.add(KEY);
+        for (int i = 0; i < newManifest.getStripeWidth(); i++) {
+            expected.add(newManifest.getStripeKey(i));
+        }
+        Assert.assertEquals(expected, listKeys());
+    }
+
+    @Test
+    public void testFailedOverwriteKeepsOldVersion() throws Exception {
+        byte[] data = randomData(3 * UNIT + 100);
+        upload(data, 3);
+        Set<String> keys = listKeys();
+
+        // fail the first stripe write of the overwrite
+        StripedObjectUploader uploader = new StripedObjectUploader(client, BUCKET, KEY,
+                new ByteArrayInputStream(randomData(3 * UNIT)), 3 * UNIT) {
+            @Override
+            protected StripeManifest loadPreviousManifest() {
+                StripeManifest previousManifest = super.loadPreviousManifest();
+                server.failNextRequests(1);
+                return previousManifest;
+            }
+        }.withStripeWidth(3).withStripeUnit(UNIT);
+        try {
+            uploader.run();
+            Assert.fail("upload should have failed");
+        } catch (S3Exception e) {
+            // expected
+        }
+
+        Assert.assertEquals(keys, listKeys());
+        Assert.assertArrayEquals(data, readAll(new StripedObjectInputStream(client, BUCKET, KEY)));
+    }
+
+    private void upload(byte[] data, int stripeWidth) {
+        new StripedObjectUploader(client, BUCKET, KEY, new ByteArrayInputStream(data), data.length)
+                .withStripeWidth(stripeWidth).withStripeUnit(UNIT).run();
+    }
+
+    private StripeManifest readManifest() {
+        return StripeManifest.fromMetadata(KEY, client.getObjectMetadata(BUCKET, KEY));
+    }
+
+    private Set<String> listKeys() {
+        Set<String> keys = new TreeSet<String>();
+        for (S3Object object : client.listObjects(BUCKET).getObjects()) {
+            keys.add(object.getKey());
+        }
+        return keys;
+    }
+
+    private byte[] randomData(int size) {
+        byte[] data = new byte[size];
+        new Random().nextBytes(data);
+        return data;
+    }
+
+    private byte[] readAll(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int c;
+            while ((c = in.read(buffer)) != -1) {
+                out.write(buffer, 0, c);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
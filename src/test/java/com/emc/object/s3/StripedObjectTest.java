@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.s3;
+
+import com.emc.object.s3.jersey.S3JerseyClient;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+public class StripedObjectTest extends AbstractS3ClientTest {
+    @Override
+    protected String getTestBucketPrefix() {
+        return "s3-striped-test";
+    }
+
+    @Override
+    protected S3Client createS3Client() throws Exception {
+        return new S3JerseyClient(createS3Config());
+    }
+
+    @Test
+    public void testStripedFile() throws Exception {
+        String key = "striped-file.bin";
+        int size = 5 * 1024 * 1024 + 123; // > 5MB
+        byte[] data = new byte[size];
+        new Random().nextBytes(data);
+        File file = File.createTempFile("striped-object-test", null);
+        file.deleteOnExit();
+        OutputStream out = new FileOutputStream(file);
+        out.write(data);
+        out.close();
+
+        StripedObjectUploader uploader = new StripedObjectUploader(client, getTestBucket(), key, file)
+                .withStripeWidth(4).withStripeUnit(StripedObjectUploader.MIN_STRIPE_UNIT)
+                .withObjectMetadata(new S3ObjectMetadata().addUserMetadata("foo", "bar"));
+        uploader.run();
+
+        Assert.assertEquals(size, uploader.getBytesTransferred());
+        S3ObjectMetadata manifestMetadata = client.getObjectMetadata(getTestBucket(), key);
+        Assert.assertTrue(StripeManifest.isStriped(manifestMetadata));
+        Assert.assertEquals("bar", manifestMetadata.getUserMetadata("foo"));
+
+        Assert.assertArrayEquals(data, readAll(new StripedObjectInputStream(client, getTestBucket(), key)));
+
+        // seek into the middle of a unit
+        StripedObjectInputStream in = new StripedObjectInputStream(client, getTestBucket(), key);
+        int offset = 3 * 1024 * 1024 + 17;
+        in.seek(offset);
+        Assert.assertArrayEquals(Arrays.copyOfRange(data, offset, size), readAll(in));
+
+        StripeManifest.delete(client, getTestBucket(), key);
+        Assert.assertTrue(client.listObjects(getTestBucket()).getObjects().isEmpty());
+    }
+
+    @Test
+    public void testStripedStream() throws Exception {
+        String key = "striped-stream.bin";
+        int size = 2 * 1024 * 1024 + 5;
+        byte[] data = new byte[size];
+        new Random().nextBytes(data);
+
+        StripedObjectUploader uploader = new StripedObjectUploader(client, getTestBucket(), key,
+                new ByteArrayInputStream(data), size).withStripeWidth(3);
+        uploader.setStripeUnit(100 * 1024);
+        uploader.run();
+
+        Assert.assertArrayEquals(data, readAll(new StripedObjectInputStream(client, getTestBucket(), key)));
+    }
+
+    private byte[] readAll(StripedObjectInputStream in) throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        byte[] buffer = new byte[50 * 1024];
+        int c;
+        while ((c = in.read(buffer)) != -1) {
+            baos.write(buffer, 0, c);
+        }
+        in.close();
+        return baos.toByteArray();
+    }
+}
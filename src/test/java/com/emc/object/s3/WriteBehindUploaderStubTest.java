@@ -0,0 +1,107 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.s3;
+
+import com.emc.object.s3.jersey.S3JerseyClient;
+import com.emc.object.s3.stub.StubS3Server;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Exercises {@link WriteBehindUploader} recovery against the in-process stub server
+ */
+public class WriteBehindUploaderStubTest {
+    private static final String BUCKET = "write-behind-test";
+
+    private StubS3Server server;
+    private S3Client client;
+    private File spoolDir;
+
+    @Before
+    public void setup() throws Exception {
+        server = new StubS3Server().start();
+        client = new S3JerseyClient(server.createS3Config().withRetryLimit(0));
+        client.createBucket(BUCKET);
+        spoolDir = File.createTempFile("spool", null);
+        Assert.assertTrue(spoolDir.delete());
+    }
+
+    @After
+    public void teardown() {
+        if (client != null) client.destroy();
+        if (server != null) server.stop();
+        File[] files = spoolDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        spoolDir.delete();
+    }
+
+    @Test
+    public void testRecoverySkipsSupersededRecords() throws Exception {
+        WriteBehindUploader uploader = new WriteBehindUploader(client, spoolDir).withMaxRetries(0);
+
+        // "replaced": the first upload fails, then a newer version is uploaded
+        server.failNextRequests(1);
+        assertFails(uploader.enqueue(BUCKET, "replaced", "old".getBytes(), null));
+        uploader.enqueue(BUCKET, "replaced", "new".getBytes(), null).get();
+
+        // "latest-failed": the newest version is the one that failed, so it must still be recovered
+        uploader.enqueue(BUCKET, "latest-failed", "first".getBytes(), null).get();
+        server.failNextRequests(1);
+        assertFails(uploader.enqueue(BUCKET, "latest-failed", "second".getBytes(), null));
+        uploader.close();
+        Assert.assertEquals("new", client.readObject(BUCKET, "replaced", String.class));
+        Assert.assertEquals("first", client.readObject(BUCKET, "latest-failed", String.class));
+
+        // restart: only the newest record of each key may be uploaded again
+        uploader = new WriteBehindUploader(client, spoolDir);
+        Assert.assertEquals(1, uploader.getPendingCount());
+        uploader.close();
+
+        Assert.assertEquals("new", client.readObject(BUCKET, "replaced", String.class));
+        Assert.assertEquals("second", client.readObject(BUCKET, "latest-failed", String.class));
+        Assert.assertEquals(0, spoolDir.list().length);
+    }
+
+    private void assertFails(Future<Void> upload) throws InterruptedException {
+        try {
+            upload.get();
+            Assert.fail("upload should fail");
+        } catch (ExecutionException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.s3;
+
+import com.emc.object.s3.jersey.S3JerseyClient;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.concurrent.Future;
+
+public class WriteBehindUploaderTest extends AbstractS3ClientTest {
+    @Override
+    protected String getTestBucketPrefix() {
+        return "s3-write-behind-test";
+    }
+
+    @Override
+    protected S3Client createS3Client() throws Exception {
+        return new S3JerseyClient(createS3Config());
+    }
+
+    private File createSpoolDir() throws Exception {
+        File dir = File.createTempFile("spool", null);
+        Assert.assertTrue(dir.delete());
+        dir.deleteOnExit();
+        return dir;
+    }
+
+    @Test
+    public void testWriteBehind() throws Exception {
+        File spoolDir = createSpoolDir();
+        WriteBehindUploader uploader = new WriteBehindUploader(client, spoolDir).withSegmentSize(1024);
+
+        Future<Void> last = null;
+        for (int i = 0; i < 20; i++) {
+            last = uploader.enqueue(getTestBucket(), "object-" + (i % 5), ("content-" + i).getBytes(), "text/plain");
+        }
+        last.get();
+        uploader.close();
+
+        // later uploads of the same key win
+        for (int i = 0; i < 5; i++) {
+            Assert.assertEquals("content-" + (15 + i), client.readObject(getTestBucket(), "object-" + i, String.class));
+        }
+        Assert.assertEquals(0, spoolDir.list().length);
+    }
+
+    @Test
+    public void testRecovery() throws Exception {
+        File spoolDir = createSpoolDir();
+
+        // spool two objects without uploading them (the bucket doesn't exist)
+        WriteBehindUploader uploader = new WriteBehindUploader(client, spoolDir).withMaxRetries(0);
+        uploader.enqueue(getTestBucket() + "-missing", "intact", "hello".getBytes(), null);
+        uploader.enqueue(getTestBucket() + "-missing", "torn", "world".getBytes(), null);
+        uploader.close();
+
+        // simulate a crash in the middle of the second record
+        File segment = spoolDir.listFiles()[0];
+        RandomAccessFile raf = new RandomAccessFile(segment, "rw");
+        raf.setLength(raf.length() - 4);
+        raf.close();
+
+        client.createBucket(getTestBucket() + "-missing");
+        try {
+            uploader = new WriteBehindUploader(client, spoolDir);
+            Assert.assertEquals(1, uploader.getPendingCount());
+            uploader.close();
+
+            Assert.assertEquals("hello", client.readObject(getTestBucket() + "-missing", "intact", String.class));
+            Assert.assertEquals(0, spoolDir.list().length);
+        } finally {
+            client.deleteObject(getTestBucket() + "-missing", "intact");
+            client.deleteBucket(getTestBucket() + "-missing");
+        }
+    }
+}
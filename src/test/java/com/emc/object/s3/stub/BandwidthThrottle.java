@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.s3.stub;
+
+/**
+ * Paces a stream of bytes (shared by all threads) to a fixed rate. Callers reserve bytes before transferring them
+ * and are put to sleep until the reservation is due. Unused capacity does not accumulate, so there are no bursts.
+ */
+public class BandwidthThrottle {
+    private final long bytesPerSecond;
+    private long nextFree;
+
+    public BandwidthThrottle(long bytesPerSecond) {
+        if (bytesPerSecond <= 0) throw new IllegalArgumentException("bytesPerSecond must be positive");
+        this.bytesPerSecond = bytesPerSecond;
+        this.nextFree = System.nanoTime();
+    }
+
+    /**
+     * Blocks until <code>bytes</code> may be transferred
+     */
+    public void acquire(int bytes) throws InterruptedException {
+        long waitNanos = reserve(bytes);
+        if (waitNanos > 0) Thread.sleep(waitNanos / 1000000, (int) (waitNanos % 1000000));
+    }
+
+    private synchronized long reserve(int bytes) {
+        long now = System.nanoTime();
+        if (nextFree - now < 0) nextFree = now;
+        long wait = nextFree - now;
+        nextFree += bytes * 1000000000L / bytesPerSecond;
+        return wait;
+    }
+
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.s3.stub;
+
+import com.emc.object.util.RestUtil;
+import com.sun.jersey.api.client.*;
+import com.sun.jersey.core.header.InBoundHeaders;
+import com.sun.jersey.spi.MessageBodyWorkers;
+
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.ext.MessageBodyWriter;
+import java.io.*;
+import java.lang.annotation.Annotation;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * An in-memory Jersey {@link ClientHandler} for unit tests that need to drive the client's filter chain without a
+ * server. Each request is answered by a {@link Responder}. Request entities are written through the request's adapters
+ * first (so filters that wrap the entity stream see every byte), and all requests are recorded.
+ * <p>
+ * Usage:
+ * <pre>
+ * MockClientHandler handler = new MockClientHandler(new MockClientHandler.Responder() {
+ *     public ClientResponse respond(ClientRequest request, byte[] entity) {
+ *         return MockClientHandler.response(200, "hello".getBytes());
+ *     }
+ * });
+ * S3Client client = new S3JerseyClient(new S3Config(new URI("http://mock:9020")), handler);
+ * </pre>
+ */
+public class MockClientHandler implements ClientHandler {
+    private static final MessageBodyWorkers WORKERS = Client.create().getMessageBodyWorkers();
+    private static final Annotation[] NO_ANNOTATIONS = new Annotation[0];
+
+    public interface Responder {
+        /**
+         * Returns the response for <code>request</code>. <code>entity</code> holds the request body (as written
+         * through the adapters) or null if there is none. Exceptions are thrown to the client as
+         * {@link ClientHandlerException}s.
+         */
+        ClientResponse respond(ClientRequest request, byte[] entity) throws Exception;
+    }
+
+    private volatile Responder responder;
+    private final List<ClientRequest> requests = new CopyOnWriteArrayList<ClientRequest>();
+
+    public MockClientHandler(Responder responder) {
+        this.responder = responder;
+    }
+
+    @Override
+    public ClientResponse handle(ClientRequest request) throws ClientHandlerException {
+        requests.add(request);
+        try {
+            return responder.respond(request, writeEntity(request));
+        } catch (ClientHandlerException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ClientHandlerException(e);
+        }
+    }
+
+    /**
+     * Returns the requests received so far
+     */
+    public List<ClientRequest> getRequests() {
+        return requests;
+    }
+
+    /**
+     * Returns the number of requests received so far with the given method
+     */
+    public int getRequestCount(String method) {
+        int count = 0;
+        for (ClientRequest request : requests) {
+            if (request.getMethod().equals(method)) count++;
+        }
+        return count;
+    }
+
+    public Responder getResponder() {
+        return responder;
+    }
+
+    public void setResponder(Responder responder) {
+        this.responder = responder;
+    }
+
+    /**
+     * Returns a response with the given body. <code>headers</code> are name/value pairs; Content-Length is set
+     * unless given.
+     */
+    public static ClientResponse response(int status, byte[] body, String... headers) {
+        return response(status, new ByteArrayInputStream(body), body.length, headers);
+    }
+
+    /**
+     * Returns a response that streams <code>body</code> (of <code>length</code> bytes, or -1 if unknown).
+     */
+    public static ClientResponse response(int status, InputStream body, long length, String... headers) {
+        InBoundHeaders inBoundHeaders = new InBoundHeaders();
+        for (int i = 0; i < headers.length; i += 2) {
+            inBoundHeaders.add(headers[i], headers[i + 1]);
+        }
+        if (length >= 0 && !inBoundHeaders.containsKey(RestUtil.HEADER_CONTENT_LENGTH))
+            inBoundHeaders.putSingle(RestUtil.HEADER_CONTENT_LENGTH, String.valueOf(length));
+        return new ClientResponse(status, inBoundHeaders, body, WORKERS);
+    }
+
+    /**
+     * Returns an S3 error response
+     */
+    public static ClientResponse errorResponse(int status, String code, String... headers) {
+        String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?><Error><Code>" + code + "</Code><Message>"
+                + code + "</Message><RequestId>0</RequestId></Error>";
+        String[] allHeaders = new String[headers.length + 2];
+        allHeaders[0] = RestUtil.HEADER_CONTENT_TYPE;
+        allHeaders[1] = "application/xml";
+        System.arraycopy(headers, 0, allHeaders, 2, headers.length);
+        try {
+            return response(status, xml.getBytes("UTF-8"), allHeaders);
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static byte[] writeEntity(ClientRequest request) throws IOException {
+        Object entity = request.getEntity();
+        if (entity == null) return null;
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        OutputStream out = request.getAdapter().adapt(request, buffer);
+        if (entity instanceof byte[]) {
+            out.write((byte[]) entity);
+        } else if (entity instanceof InputStream) {
+            InputStream in = (InputStream) entity;
+            byte[] chunk = new byte[8192];
+            int count;
+            while ((count = in.read(chunk)) >= 0) out.write(chunk, 0, count);
+        } else {
+            Object contentType = request.getHeaders().getFirst(RestUtil.HEADER_CONTENT_TYPE);
+            MediaType mediaType = contentType == null ? MediaType.APPLICATION_OCTET_STREAM_TYPE
+                    : MediaType.valueOf(contentType.toString());
+            Class<Object> type = (Class<Object>) entity.getClass();
+            MessageBodyWriter<Object> writer = WORKERS.getMessageBodyWriter(type, type, NO_ANNOTATIONS, mediaType);
+            if (writer == null) throw new IOException("no writer for " + type + " as " + mediaType);
+            writer.writeTo(entity, type, type, NO_ANNOTATIONS, mediaType, request.getHeaders(), out);
+        }
+        out.close();
+        return buffer.toByteArray();
+    }
+}
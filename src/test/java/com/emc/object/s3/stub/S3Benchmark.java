@@ -0,0 +1,229 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.s3.stub;
+
+import com.emc.object.s3.LargeFileDownloader;
+import com.emc.object.s3.LargeFileUploader;
+import com.emc.object.s3.S3Client;
+import com.emc.object.s3.bean.ListObjectsResult;
+import com.emc.object.s3.jersey.S3JerseyClient;
+import com.emc.object.s3.request.ListObjectsRequest;
+import com.emc.object.util.LatencyHistogram;
+import com.emc.util.RandomInputStream;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * End-to-end throughput benchmarks of the client against an in-process {@link StubS3Server}. Reports ops/s, MB/s and
+ * latency percentiles for each test, so the effect of client changes can be measured without an ECS cluster. Run with
+ * <code>gradle benchmark</code>, or as a java main class with the test classpath. Options are system properties:
+ * <ul>
+ * <li>bench.tests - comma-separated tests to run (put,get,head,list,mpu,byterange,download). Default is all</li>
+ * <li>bench.threads - concurrent client threads. Default is 8</li>
+ * <li>bench.ops - operations per small-object test. Default is 5000</li>
+ * <li>bench.size - small object size in bytes. Default is 4096</li>
+ * <li>bench.largeSize - large object size in bytes. Default is 64MB</li>
+ * <li>bench.largeOps - operations per large-object test. Default is 5</li>
+ * <li>bench.latency - server latency (ms) per request. Default is 0</li>
+ * <li>bench.bandwidth - server bandwidth cap (bytes/s) in each direction. Default is 0 (no cap)</li>
+ * <li>bench.errorRate - fraction of requests that fail with 503 (and are retried). Default is 0</li>
+ * </ul>
+ */
+public class S3Benchmark {
+    private static final String BUCKET = "benchmark";
+    private static final List<String> ALL_TESTS = Arrays.asList("put", "get", "head", "list", "mpu", "byterange",
+            "download");
+
+    public static void main(String[] args) throws Exception {
+        List<String> tests = Arrays.asList(System.getProperty("bench.tests", join(ALL_TESTS)).split(","));
+        S3Benchmark benchmark = new S3Benchmark();
+        benchmark.threads = Integer.getInteger("bench.threads", benchmark.threads);
+        benchmark.ops = Integer.getInteger("bench.ops", benchmark.ops);
+        benchmark.size = Integer.getInteger("bench.size", benchmark.size);
+        benchmark.largeSize = Long.getLong("bench.largeSize", benchmark.largeSize);
+        benchmark.largeOps = Integer.getInteger("bench.largeOps", benchmark.largeOps);
+
+        StubS3Server server = new StubS3Server()
+                .withLatency(Long.getLong("bench.latency", 0))
+                .withUploadBandwidth(Long.getLong("bench.bandwidth", 0))
+                .withDownloadBandwidth(Long.getLong("bench.bandwidth", 0))
+                .withErrorRate(Double.parseDouble(System.getProperty("bench.errorRate", "0")))
+                .start();
+        try {
+            benchmark.run(server, tests);
+        } finally {
+            server.stop();
+        }
+        System.exit(0);
+    }
+
+    private static String join(List<String> values) {
+        StringBuilder joined = new StringBuilder();
+        for (String value : values) {
+            if (joined.length() > 0) joined.append(',');
+            joined.append(value);
+        }
+        return joined.toString();
+    }
+
+    private int threads = 8;
+    private int ops = 5000;
+    private int size = 4096;
+    private long largeSize = 64 * 1024 * 1024;
+    private int largeOps = 5;
+
+    private S3Client client;
+    private byte[] smallObject;
+
+    public void run(StubS3Server server, List<String> tests) throws Exception {
+        client = new S3JerseyClient(server.createS3Config().withRetryLimit(5).withInitialRetryDelay(10));
+        try {
+            client.createBucket(BUCKET);
+            smallObject = new byte[size];
+            new Random().nextBytes(smallObject);
+
+            System.out.println(String.format("threads: %d, small objects: %d x %,d bytes, large objects: %d x %,d bytes",
+                    threads, ops, size, largeOps, largeSize));
+            System.out.println(String.format("server latency: %dms, bandwidth: %,d B/s, error rate: %.3f",
+                    server.getLatency(), server.getDownloadBandwidth(), server.getErrorRate()));
+            System.out.println(String.format("%-10s %8s %10s %10s %9s %9s %9s %9s",
+                    "test", "ops", "ops/s", "MB/s", "p50(ms)", "p90(ms)", "p99(ms)", "max(ms)"));
+
+            // the small-object tests read what the put test writes
+            if (!tests.contains("put") && (tests.contains("get") || tests.contains("head") || tests.contains("list")))
+                runSmall("put", false);
+            for (String test : tests) {
+                test = test.trim();
+                if (!ALL_TESTS.contains(test)) throw new IllegalArgumentException("unknown test: " + test);
+                if ("mpu".equals(test) || "byterange".equals(test) || "download".equals(test)) runLarge(test);
+                else runSmall(test, true);
+            }
+
+            System.out.println(String.format("server: %,d requests, %,d injected errors, %,d bytes in, %,d bytes out",
+                    server.getRequestCount(), server.getInjectedErrorCount(), server.getBytesReceived(),
+                    server.getBytesSent()));
+        } finally {
+            client.destroy();
+        }
+    }
+
+    private void runSmall(final String test, boolean report) throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final AtomicInteger counter = new AtomicInteger();
+        final int listPageSize = 1000;
+        final int count = "list".equals(test) ? Math.max(1, ops / listPageSize) : ops;
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Long>> futures = new ArrayList<Future<Long>>();
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            futures.add(executor.submit(new Callable<Long>() {
+                @Override
+                public Long call() throws Exception {
+                    long bytes = 0;
+                    int i;
+                    while ((i = counter.getAndIncrement()) < count) {
+                        String key = "small/" + i;
+                        long opStart = System.nanoTime();
+                        if ("put".equals(test)) {
+                            client.putObject(BUCKET, key, smallObject, null);
+                            bytes += smallObject.length;
+                        } else if ("get".equals(test)) {
+                            bytes += client.readObject(BUCKET, key, byte[].class).length;
+                        } else if ("head".equals(test)) {
+                            client.getObjectMetadata(BUCKET, key);
+                        } else { // list
+                            ListObjectsResult result = client.listObjects(new ListObjectsRequest(BUCKET)
+                                    .withPrefix("small/").withMaxKeys(listPageSize));
+                            bytes += result.getObjects().size();
+                        }
+                        histogram.record((System.nanoTime() - opStart) / 1000);
+                    }
+                    return bytes;
+                }
+            }));
+        }
+        long bytes = 0;
+        for (Future<Long> future : futures) {
+            bytes += future.get();
+        }
+        long duration = System.nanoTime() - start;
+        executor.shutdown();
+
+        if (report) report(test, histogram, "list".equals(test) ? 0 : bytes, duration);
+    }
+
+    private void runLarge(String test) throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        File file = null;
+        long bytes = 0, start = System.nanoTime();
+        try {
+            for (int i = 0; i < largeOps; i++) {
+                long opStart = System.nanoTime();
+                if ("download".equals(test)) {
+                    if (i == 0) uploadLarge("large/download", false);
+                    if (file == null) file = File.createTempFile("benchmark", null);
+                    LargeFileDownloader downloader = new LargeFileDownloader(client, BUCKET, "large/download", file);
+                    downloader.setThreads(threads);
+                    if (i == 0) opStart = System.nanoTime(); // don't count the upload
+                    downloader.run();
+                } else {
+                    uploadLarge("large/" + test + "/" + i, "byterange".equals(test));
+                }
+                bytes += largeSize;
+                histogram.record((System.nanoTime() - opStart) / 1000);
+            }
+        } finally {
+            if (file != null) file.delete();
+        }
+        report(test, histogram, bytes, System.nanoTime() - start);
+    }
+
+    private void uploadLarge(String key, boolean byteRange) {
+        LargeFileUploader uploader = new LargeFileUploader(client, BUCKET, key, new RandomInputStream(largeSize),
+                largeSize).withThreads(threads);
+        if (byteRange) uploader.doByteRangeUpload();
+        else uploader.doMultipartUpload();
+    }
+
+    private void report(String test, LatencyHistogram histogram, long bytes, long durationNanos) {
+        double seconds = durationNanos / 1000000000D;
+        System.out.println(String.format("%-10s %8d %10.1f %10.2f %9.2f %9.2f %9.2f %9.2f", test,
+                histogram.getCount(), histogram.getCount() / seconds, bytes / seconds / (1024 * 1024),
+                histogram.getPercentile(50) / 1000D, histogram.getPercentile(90) / 1000D,
+                histogram.getPercentile(99) / 1000D, histogram.getMax() / 1000D));
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.s3.stub;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.*;
+
+/**
+ * An HTTP/1.1 request read from a connection to {@link StubS3Server}. The body (fixed-length or chunked) is read by
+ * {@link #readBody()}, and whatever is left unread is drained by the server before the next request.
+ */
+public class StubRequest {
+    private String method;
+    private String path;
+    private String rawQuery;
+    private Map<String, String> params = new LinkedHashMap<String, String>();
+    // keys are lower-case
+    private Map<String, String> headers = new LinkedHashMap<String, String>();
+    private InputStream body;
+    private BandwidthThrottle throttle;
+    private long bytesRead;
+
+    /**
+     * Reads the request line and headers from <code>in</code>. Returns null if the connection was closed before a
+     * request was started
+     */
+    public static StubRequest read(InputStream in) throws IOException {
+        String requestLine = readLine(in);
+        while (requestLine != null && requestLine.length() == 0) requestLine = readLine(in); // tolerate extra CRLFs
+        if (requestLine == null) return null;
+
+        String[] parts = requestLine.split(" ");
+        if (parts.length != 3) throw new IOException("invalid request line: " + requestLine);
+        StubRequest request = new StubRequest();
+        request.method = parts[0];
+        String target = parts[1];
+        int queryIndex = target.indexOf('?');
+        request.path = decode(queryIndex < 0 ? target : target.substring(0, queryIndex));
+        if (queryIndex >= 0) {
+            request.rawQuery = target.substring(queryIndex + 1);
+            for (String param : request.rawQuery.split("&")) {
+                if (param.length() == 0) continue;
+                int eq = param.indexOf('=');
+                if (eq < 0) request.params.put(decode(param), null);
+                else request.params.put(decode(param.substring(0, eq)), decode(param.substring(eq + 1)));
+            }
+        }
+
+        String line;
+        while ((line = readLine(in)) != null && line.length() > 0) {
+            int colon = line.indexOf(':');
+            if (colon < 0) throw new IOException("invalid header: " + line);
+            String name = line.substring(0, colon).trim().toLowerCase();
+            String value = line.substring(colon + 1).trim();
+            String existing = request.headers.get(name);
+            request.headers.put(name, existing == null ? value : existing + "," + value);
+        }
+        if (line == null) throw new EOFException("connection closed while reading headers");
+
+        if ("chunked".equalsIgnoreCase(request.getHeader("transfer-encoding"))) {
+            request.body = new ChunkedInputStream(in);
+        } else {
+            String contentLength = request.getHeader("content-length");
+            request.body = new FixedLengthInputStream(in, contentLength == null ? 0 : Long.parseLong(contentLength));
+        }
+        return request;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    /**
+     * The decoded request path
+     */
+    public String getPath() {
+        return path;
+    }
+
+    public String getRawQuery() {
+        return rawQuery;
+    }
+
+    /**
+     * The decoded query parameters (parameters without a value map to null)
+     */
+    public Map<String, String> getParams() {
+        return params;
+    }
+
+    public String getParam(String name) {
+        return params.get(name);
+    }
+
+    public boolean hasParam(String name) {
+        return params.containsKey(name);
+    }
+
+    public String getHeader(String name) {
+        return headers.get(name.toLowerCase());
+    }
+
+    /**
+     * All headers, keyed by lower-case name
+     */
+    public Map<String, String> getHeaders() {
+        return headers;
+    }
+
+    public boolean isKeepAlive() {
+        return !"close".equalsIgnoreCase(getHeader("connection"));
+    }
+
+    void setThrottle(BandwidthThrottle throttle) {
+        this.throttle = throttle;
+    }
+
+    /**
+     * Reads the entire request body
+     */
+    public byte[] readBody() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[StubS3Server.BUFFER_SIZE];
+        int read;
+        while ((read = readThrottled(buffer)) >= 0) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Discards any unread body so the connection can be reused
+     */
+    void drain() throws IOException {
+        byte[] buffer = new byte[StubS3Server.BUFFER_SIZE];
+        while (readThrottled(buffer) >= 0) ;
+    }
+
+    long getBytesRead() {
+        return bytesRead;
+    }
+
+    private int readThrottled(byte[] buffer) throws IOException {
+        int read = body.read(buffer, 0, buffer.length);
+        if (read > 0) {
+            bytesRead += read;
+            if (throttle != null) {
+                try {
+                    throttle.acquire(read);
+                } catch (InterruptedException e) {
+                    throw new IOException("interrupted", e);
+                }
+            }
+        }
+        return read;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder line = new StringBuilder();
+        int c;
+        while ((c = in.read()) >= 0) {
+            if (c == '\n') {
+                int length = line.length();
+                if (length > 0 && line.charAt(length - 1) == '\r') line.setLength(length - 1);
+                return line.toString();
+            }
+            line.append((char) c);
+        }
+        return line.length() == 0 ? null : line.toString();
+    }
+
+    /**
+     * Percent-decodes a URL component as UTF-8 ('+' is not treated as a space)
+     */
+    static String decode(String value) {
+        if (value.indexOf('%') < 0) return value;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '%' && i + 2 < value.length()) {
+                bytes.write(Integer.parseInt(value.substring(i + 1, i + 3), 16));
+                i += 2;
+            } else {
+                bytes.write(c);
+            }
+        }
+        try {
+            return bytes.toString("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException("UTF-8 encoding isn't supported on this system", e);
+        }
+    }
+
+    private static class FixedLengthInputStream extends InputStream {
+        private InputStream in;
+        private long remaining;
+
+        FixedLengthInputStream(InputStream in, long length) {
+            this.in = in;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0) return -1;
+            int read = in.read(b, off, (int) Math.min(len, remaining));
+            if (read < 0) throw new EOFException("connection closed with " + remaining + " bytes of the body remaining");
+            remaining -= read;
+            return read;
+        }
+    }
+
+    private static class ChunkedInputStream extends InputStream {
+        private InputStream in;
+        private long chunkRemaining;
+        private boolean done;
+
+        ChunkedInputStream(InputStream in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (done) return -1;
+            if (chunkRemaining == 0) {
+                String sizeLine = readLine(in);
+                if (sizeLine == null) throw new EOFException("connection closed while reading chunk size");
+                int extension = sizeLine.indexOf(';');
+                if (extension >= 0) sizeLine = sizeLine.substring(0, extension);
+                chunkRemaining = Long.parseLong(sizeLine.trim(), 16);
+                if (chunkRemaining == 0) {
+                    // skip trailers
+                    String line;
+                    while ((line = readLine(in)) != null && line.length() > 0) ;
+                    done = true;
+                    return -1;
+                }
+            }
+            int read = in.read(b, off, (int) Math.min(len, chunkRemaining));
+            if (read < 0) throw new EOFException("connection closed while reading chunk");
+            chunkRemaining -= read;
+            if (chunkRemaining == 0) readLine(in); // CRLF after chunk data
+            return read;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.s3.stub;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A response to be written by {@link StubS3Server}. Header names are written exactly as given.
+ */
+public class StubResponse {
+    private int status;
+    private Map<String, String> headers = new LinkedHashMap<String, String>();
+    private byte[] body;
+    private int offset;
+    private int length;
+
+    public StubResponse(int status) {
+        this.status = status;
+    }
+
+    public int getStatus() {
+        return status;
+    }
+
+    public StubResponse withHeader(String name, Object value) {
+        if (value != null) headers.put(name, value.toString());
+        return this;
+    }
+
+    public String getHeader(String name) {
+        return headers.get(name);
+    }
+
+    public StubResponse withBody(byte[] body) {
+        return withBody(body, 0, body.length);
+    }
+
+    public StubResponse withBody(byte[] body, int offset, int length) {
+        this.body = body;
+        this.offset = offset;
+        this.length = length;
+        return this;
+    }
+
+    public StubResponse withXml(String xml) {
+        try {
+            return withHeader("Content-Type", "application/xml").withBody(xml.getBytes("UTF-8"));
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException("UTF-8 encoding isn't supported on this system", e);
+        }
+    }
+
+    /**
+     * Sets Content-Length without a body (for HEAD responses)
+     */
+    public StubResponse withContentLength(long contentLength) {
+        return withHeader("Content-Length", contentLength);
+    }
+
+    /**
+     * Writes the response, pacing the body with <code>throttle</code> (if not null). Returns the number of body bytes
+     * written
+     */
+    long write(OutputStream out, boolean sendBody, BandwidthThrottle throttle) throws IOException {
+        StringBuilder head = new StringBuilder();
+        head.append("HTTP/1.1 ").append(status).append(' ').append(getReason(status)).append("\r\n");
+        if (body != null && !headers.containsKey("Content-Length")) headers.put("Content-Length", "" + length);
+        if (body == null && !headers.containsKey("Content-Length") && status != 204 && status != 304)
+            headers.put("Content-Length", "0");
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            head.append(header.getKey()).append(": ").append(header.getValue()).append("\r\n");
+        }
+        head.append("\r\n");
+        out.write(head.toString().getBytes("ISO-8859-1"));
+
+        long written = 0;
+        if (sendBody && body != null) {
+            for (int position = offset, end = offset + length; position < end; ) {
+                int count = Math.min(StubS3Server.BUFFER_SIZE, end - position);
+                if (throttle != null) {
+                    try {
+                        out.flush();
+                        throttle.acquire(count);
+                    } catch (InterruptedException e) {
+                        throw new IOException("interrupted", e);
+                    }
+                }
+                out.write(body, position, count);
+                position += count;
+                written += count;
+            }
+        }
+        out.flush();
+        return written;
+    }
+
+    private static String getReason(int status) {
+        switch (status) {
+            case 100:
+                return "Continue";
+            case 200:
+                return "OK";
+            case 204:
+                return "No Content";
+            case 206:
+                return "Partial Content";
+            case 304:
+                return "Not Modified";
+            case 400:
+                return "Bad Request";
+            case 403:
+                return "Forbidden";
+            case 404:
+                return "Not Found";
+            case 405:
+                return "Method Not Allowed";
+            case 409:
+                return "Conflict";
+            case 412:
+                return "Precondition Failed";
+            case 416:
+                return "Requested Range Not Satisfiable";
+            case 500:
+                return "Internal Server Error";
+            case 501:
+                return "Not Implemented";
+            case 503:
+                return "Service Unavailable";
+            default:
+                return "Unknown";
+        }
+    }
+}
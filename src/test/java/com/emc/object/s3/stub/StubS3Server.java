@@ -0,0 +1,911 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.s3.stub;
+
+import com.emc.object.Protocol;
+import com.emc.object.s3.S3Config;
+import com.emc.object.s3.S3Constants;
+import com.emc.object.s3.stub.StubStore.Bucket;
+import com.emc.object.s3.stub.StubStore.Listing;
+import com.emc.object.s3.stub.StubStore.StubObject;
+import com.emc.object.s3.stub.StubStore.Upload;
+import com.emc.object.util.DaemonThreadFactory;
+import com.emc.object.util.Iso8601DateTimeAdapter;
+import com.emc.object.util.RestUtil;
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An embeddable, in-memory S3 server for exercising and benchmarking the client without an ECS cluster or a network.
+ * It listens on the loopback interface and implements the subset of the S3/ECS API that this client uses:
+ * <ul>
+ * <li>buckets (create, exists, delete, list, versioning)</li>
+ * <li>objects (put, get with a single byte range, head, delete, copy, user metadata, conditional gets)</li>
+ * <li>ECS partial updates and appends (PUT with a Range header)</li>
+ * <li>listing objects and versions (prefix, delimiter, paging and URL encoding)</li>
+ * <li>multipart uploads (initiate, upload part, list parts, complete, abort, list uploads) and delete-multiple</li>
+ * <li>the ECS <code>?endpoint</code> and <code>?ping</code> calls used by the smart client</li>
+ * </ul>
+ * Requests are not authenticated, and anything else returns 501 NotImplemented. Latency, bandwidth caps and error
+ * injection can be changed at any time to model a remote cluster:
+ * <pre>
+ * StubS3Server server = new StubS3Server().withLatency(5).withDownloadBandwidth(100 * 1024 * 1024).start();
+ * S3Client client = new S3JerseyClient(server.createS3Config());
+ * ...
+ * server.stop();
+ * </pre>
+ */
+public class StubS3Server {
+    public static final String XML_NAMESPACE = "http://s3.amazonaws.com/doc/2006-03-01/";
+    public static final String HOST = "127.0.0.1";
+    public static final String OWNER = "stub";
+
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final int DEFAULT_MAX_KEYS = 1000;
+    private static final Set<String> UNSUPPORTED_SUBRESOURCES = new HashSet<String>(Arrays.asList(
+            "acl", "cors", "lifecycle", "location", "policy", "query", "searchmetadata", "isstaleallowed", "tagging",
+            "website"));
+
+    private final StubStore store = new StubStore();
+    private int port;
+    private ServerSocket serverSocket;
+    private ExecutorService executor;
+    private final Set<Socket> connections = Collections.newSetFromMap(new ConcurrentHashMap<Socket, Boolean>());
+    private volatile boolean running;
+
+    private volatile long latency;
+    private volatile BandwidthThrottle uploadThrottle;
+    private volatile BandwidthThrottle downloadThrottle;
+    private volatile double errorRate;
+    private volatile int errorStatus = 503;
+    private volatile String errorCode = "SlowDown";
+    private volatile double dropRate;
+    private final AtomicInteger failNext = new AtomicInteger();
+
+    private final AtomicLong requestCount = new AtomicLong();
+    private final AtomicLong injectedErrorCount = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+
+    /**
+     * Creates a server that will listen on an ephemeral port
+     */
+    public StubS3Server() {
+        this(0);
+    }
+
+    public StubS3Server(int port) {
+        this.port = port;
+    }
+
+    public synchronized StubS3Server start() throws IOException {
+        if (running) throw new IllegalStateException("server is already running");
+        serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(new InetSocketAddress(InetAddress.getByName(HOST), port), 1024);
+        port = serverSocket.getLocalPort();
+        executor = Executors.newCachedThreadPool(new DaemonThreadFactory("stub-s3-server"));
+        running = true;
+        executor.execute(new Acceptor());
+        return this;
+    }
+
+    /**
+     * Stops the server and closes all connections (stored data is kept)
+     */
+    public synchronized void stop() {
+        if (!running) return;
+        running = false;
+        closeQuietly(serverSocket);
+        for (Socket socket : connections) {
+            closeQuietly(socket);
+        }
+        executor.shutdownNow();
+    }
+
+    /**
+     * Returns a client configuration (using the smart client) that points at this server
+     */
+    public S3Config createS3Config() {
+        return new S3Config(Protocol.HTTP, HOST).withPort(port).withIdentity(OWNER).withSecretKey(OWNER);
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public StubStore getStore() {
+        return store;
+    }
+
+    /**
+     * Fails the next <code>count</code> requests with the configured error status
+     */
+    public void failNextRequests(int count) {
+        failNext.set(count);
+    }
+
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    public long getInjectedErrorCount() {
+        return injectedErrorCount.get();
+    }
+
+    /**
+     * Total request body bytes received
+     */
+    public long getBytesReceived() {
+        return bytesReceived.get();
+    }
+
+    /**
+     * Total response body bytes sent
+     */
+    public long getBytesSent() {
+        return bytesSent.get();
+    }
+
+    public long getLatency() {
+        return latency;
+    }
+
+    /**
+     * Sets a delay (in milliseconds) added to every request before the response is sent. Default is 0
+     */
+    public void setLatency(long latency) {
+        this.latency = latency;
+    }
+
+    public long getUploadBandwidth() {
+        BandwidthThrottle throttle = uploadThrottle;
+        return throttle == null ? 0 : throttle.getBytesPerSecond();
+    }
+
+    /**
+     * Caps the total rate (bytes/s, across all connections) at which request bodies are read. Default is 0 (no cap)
+     */
+    public void setUploadBandwidth(long bytesPerSecond) {
+        this.uploadThrottle = bytesPerSecond > 0 ? new BandwidthThrottle(bytesPerSecond) : null;
+    }
+
+    public long getDownloadBandwidth() {
+        BandwidthThrottle throttle = downloadThrottle;
+        return throttle == null ? 0 : throttle.getBytesPerSecond();
+    }
+
+    /**
+     * Caps the total rate (bytes/s, across all connections) at which response bodies are sent. Default is 0 (no cap)
+     */
+    public void setDownloadBandwidth(long bytesPerSecond) {
+        this.downloadThrottle = bytesPerSecond > 0 ? new BandwidthThrottle(bytesPerSecond) : null;
+    }
+
+    public double getErrorRate() {
+        return errorRate;
+    }
+
+    /**
+     * Sets the fraction (0.0 - 1.0) of requests that fail with the configured error status. Default is 0
+     */
+    public void setErrorRate(double errorRate) {
+        this.errorRate = errorRate;
+    }
+
+    public int getErrorStatus() {
+        return errorStatus;
+    }
+
+    public String getErrorCode() {
+        return errorCode;
+    }
+
+    /**
+     * Sets the HTTP status and S3 error code of injected errors. Default is 503 SlowDown
+     */
+    public void setErrorStatus(int errorStatus, String errorCode) {
+        this.errorStatus = errorStatus;
+        this.errorCode = errorCode;
+    }
+
+    public double getDropRate() {
+        return dropRate;
+    }
+
+    /**
+     * Sets the fraction (0.0 - 1.0) of requests for which the connection is closed without sending a response.
+     * Default is 0
+     */
+    public void setDropRate(double dropRate) {
+        this.dropRate = dropRate;
+    }
+
+    public StubS3Server withLatency(long latency) {
+        setLatency(latency);
+        return this;
+    }
+
+    public StubS3Server withUploadBandwidth(long bytesPerSecond) {
+        setUploadBandwidth(bytesPerSecond);
+        return this;
+    }
+
+    public StubS3Server withDownloadBandwidth(long bytesPerSecond) {
+        setDownloadBandwidth(bytesPerSecond);
+        return this;
+    }
+
+    public StubS3Server withErrorRate(double errorRate) {
+        setErrorRate(errorRate);
+        return this;
+    }
+
+    public StubS3Server withErrorStatus(int errorStatus, String errorCode) {
+        setErrorStatus(errorStatus, errorCode);
+        return this;
+    }
+
+    public StubS3Server withDropRate(double dropRate) {
+        setDropRate(dropRate);
+        return this;
+    }
+
+    /**
+     * Processes one request on a connection. Returns false if the connection should be closed
+     */
+    private boolean service(StubRequest request, OutputStream out) throws IOException {
+        long requestId = requestCount.incrementAndGet();
+        request.setThrottle(uploadThrottle);
+
+        if ("100-continue".equalsIgnoreCase(request.getHeader("Expect"))) {
+            out.write("HTTP/1.1 100 Continue\r\n\r\n".getBytes("ISO-8859-1"));
+            out.flush();
+        }
+
+        if (dropRate > 0 && Math.random() < dropRate) {
+            injectedErrorCount.incrementAndGet();
+            return false;
+        }
+
+        StubResponse response;
+        try {
+            if (latency > 0) Thread.sleep(latency);
+            if (takeFailure() || (errorRate > 0 && Math.random() < errorRate)) {
+                injectedErrorCount.incrementAndGet();
+                throw new StubException(errorStatus, errorCode, "Injected error");
+            }
+            response = handle(request);
+        } catch (StubException e) {
+            response = errorResponse(e, request);
+        } catch (InterruptedException e) {
+            return false;
+        } catch (RuntimeException e) {
+            response = errorResponse(new StubException(500, "InternalError", e.toString()), request);
+        }
+
+        request.drain();
+        bytesReceived.addAndGet(request.getBytesRead());
+
+        response.withHeader("x-amz-request-id", Long.toHexString(requestId));
+        response.withHeader(RestUtil.HEADER_DATE, RestUtil.headerFormat(new Date()));
+        boolean keepAlive = request.isKeepAlive();
+        if (!keepAlive) response.withHeader("Connection", "close");
+        bytesSent.addAndGet(response.write(out, !"HEAD".equals(request.getMethod()), downloadThrottle));
+        return keepAlive;
+    }
+
+    private boolean takeFailure() {
+        int remaining;
+        do {
+            remaining = failNext.get();
+        } while (remaining > 0 && !failNext.compareAndSet(remaining, remaining - 1));
+        return remaining > 0;
+    }
+
+    StubResponse handle(StubRequest request) throws IOException {
+        String path = request.getPath();
+        if (!path.startsWith("/")) throw new StubException(400, "InvalidURI", "Couldn't parse the specified URI");
+        for (String param : request.getParams().keySet()) {
+            if (UNSUPPORTED_SUBRESOURCES.contains(param)) throw notImplemented();
+        }
+
+        int slash = path.indexOf('/', 1);
+        String bucketName = slash < 0 ? path.substring(1) : path.substring(1, slash);
+        String key = slash < 0 ? "" : path.substring(slash + 1);
+
+        if (bucketName.length() == 0) return handleService(request);
+        if (key.length() == 0) return handleBucket(request, bucketName);
+        return handleObject(request, store.getBucket(bucketName), key);
+    }
+
+    private StubResponse handleService(StubRequest request) {
+        if (!"GET".equals(request.getMethod())) throw notImplemented();
+
+        if (request.hasParam(S3Constants.PARAM_ENDPOINT)) {
+            return ok().withXml(new XmlBuilder("ListDataNode")
+                    .element("DataNodes", HOST).element("VersionInfo", "stub").build());
+        }
+
+        if (request.hasParam("ping")) {
+            return ok().withXml(new XmlBuilder("PingList")
+                    .start("PingItem").element("Name", "LOAD_FACTOR").element("Value", 1).end("PingItem").build());
+        }
+
+        XmlBuilder xml = new XmlBuilder("ListAllMyBucketsResult");
+        xml.start("Owner").element("ID", OWNER).element("DisplayName", OWNER).end("Owner");
+        xml.start("Buckets");
+        for (Bucket bucket : store.getBuckets()) {
+            xml.start("Bucket").element("Name", bucket.getName())
+                    .element("CreationDate", isoDate(bucket.getCreationDate())).end("Bucket");
+        }
+        xml.end("Buckets");
+        return ok().withXml(xml.build());
+    }
+
+    private StubResponse handleBucket(StubRequest request, String bucketName) throws IOException {
+        String method = request.getMethod();
+        if ("PUT".equals(method)) {
+            if (request.hasParam("versioning")) {
+                String status = getText(parseXml(request.readBody()).getDocumentElement(), "Status");
+                if (!StubStore.VERSIONING_ENABLED.equals(status) && !StubStore.VERSIONING_SUSPENDED.equals(status))
+                    throw new StubException(400, "MalformedXML", "Invalid versioning status: " + status);
+                store.getBucket(bucketName).setVersioning(status);
+                return ok();
+            }
+            store.createBucket(bucketName);
+            return ok().withHeader("Location", "/" + bucketName);
+        } else if ("HEAD".equals(method)) {
+            store.getBucket(bucketName);
+            return ok();
+        } else if ("DELETE".equals(method)) {
+            store.deleteBucket(bucketName);
+            return new StubResponse(204);
+        } else if ("POST".equals(method) && request.hasParam("delete")) {
+            return deleteObjects(request, store.getBucket(bucketName));
+        } else if ("GET".equals(method)) {
+            Bucket bucket = store.getBucket(bucketName);
+            if (request.hasParam("versioning")) {
+                return ok().withXml(new XmlBuilder("VersioningConfiguration")
+                        .element("Status", bucket.getVersioning()).build());
+            }
+            if (request.hasParam("versions")) return listVersions(request, bucket);
+            if (request.hasParam("uploads")) return listUploads(request, bucket);
+            return listObjects(request, bucket);
+        }
+        throw notImplemented();
+    }
+
+    private StubResponse handleObject(StubRequest request, Bucket bucket, String key) throws IOException {
+        String method = request.getMethod();
+        String uploadId = request.getParam(S3Constants.PARAM_UPLOAD_ID);
+        if ("PUT".equals(method)) {
+            if (uploadId != null) return uploadPart(request, bucket, key, uploadId);
+            if (request.getHeader(S3Constants.AMZ_COPY_SOURCE) != null) return copyObject(request, bucket, key);
+            return putObject(request, bucket, key);
+        } else if ("GET".equals(method) || "HEAD".equals(method)) {
+            if (uploadId != null) return listParts(request, bucket, key, uploadId);
+            return getObject(request, bucket, key);
+        } else if ("DELETE".equals(method)) {
+            if (uploadId != null) {
+                bucket.abortUpload(key, uploadId);
+                return new StubResponse(204);
+            }
+            StubObject deleted = bucket.deleteObject(key, request.getParam(S3Constants.PARAM_VERSION_ID));
+            StubResponse response = new StubResponse(204);
+            if (deleted != null && deleted.isDeleteMarker()) response.withHeader("x-amz-delete-marker", "true");
+            if (deleted != null) versionHeader(response, bucket, deleted);
+            return response;
+        } else if ("POST".equals(method)) {
+            if (request.hasParam("uploads")) {
+                Upload upload = bucket.initiateUpload(key, request.getHeader(RestUtil.HEADER_CONTENT_TYPE),
+                        getUserMetadata(request));
+                return ok().withXml(new XmlBuilder("InitiateMultipartUploadResult").element("Bucket", bucket.getName())
+                        .element("Key", key).element("UploadId", upload.getUploadId()).build());
+            }
+            if (uploadId != null) return completeUpload(request, bucket, key, uploadId);
+        }
+        throw notImplemented();
+    }
+
+    private StubResponse putObject(StubRequest request, Bucket bucket, String key) throws IOException {
+        byte[] data = request.readBody();
+        verifyContentMd5(request, data);
+
+        String range = request.getHeader(RestUtil.HEADER_RANGE);
+        if (range != null) {
+            // ECS partial update (bytes=first-last) or append (bytes=-1-)
+            if (!range.startsWith("bytes=")) throw new StubException(416, "InvalidRange", "Invalid range: " + range);
+            String spec = range.substring(6);
+            long offset = spec.startsWith("-1-") ? -1 : Long.parseLong(spec.substring(0, spec.indexOf('-')));
+            long written = bucket.updateObject(key, offset, data);
+            StubResponse response = ok();
+            if (offset < 0) response.withHeader(RestUtil.EMC_APPEND_OFFSET, written);
+            return response;
+        }
+
+        StubObject object = bucket.putObject(key, data, request.getHeader(RestUtil.HEADER_CONTENT_TYPE),
+                getUserMetadata(request));
+        return versionHeader(ok().withHeader(RestUtil.HEADER_ETAG, quote(object.getETag())), bucket, object);
+    }
+
+    private StubResponse copyObject(StubRequest request, Bucket bucket, String key) {
+        String source = request.getHeader(S3Constants.AMZ_COPY_SOURCE);
+        String sourceVersionId = null;
+        int queryIndex = source.indexOf("?versionId=");
+        if (queryIndex >= 0) {
+            sourceVersionId = source.substring(queryIndex + 11);
+            source = source.substring(0, queryIndex);
+        }
+        if (source.startsWith("/")) source = source.substring(1);
+        int slash = source.indexOf('/');
+        if (slash < 0) throw new StubException(400, "InvalidArgument", "Invalid copy source: " + source);
+        StubObject sourceObject = store.getBucket(StubRequest.decode(source.substring(0, slash)))
+                .getObject(StubRequest.decode(source.substring(slash + 1)), sourceVersionId);
+
+        StubObject object;
+        if ("REPLACE".equals(request.getHeader(S3Constants.AMZ_METADATA_DIRECTIVE))) {
+            object = bucket.putObject(key, sourceObject.getData(), request.getHeader(RestUtil.HEADER_CONTENT_TYPE),
+                    getUserMetadata(request));
+        } else {
+            object = bucket.putObject(key, sourceObject.getData(), sourceObject.getContentType(),
+                    sourceObject.getUserMetadata());
+        }
+        return versionHeader(ok(), bucket, object).withXml(new XmlBuilder("CopyObjectResult")
+                .element("LastModified", isoDate(object.getLastModified()))
+                .element("ETag", quote(object.getETag())).build());
+    }
+
+    private StubResponse getObject(StubRequest request, Bucket bucket, String key) {
+        StubObject object = bucket.getObject(key, request.getParam(S3Constants.PARAM_VERSION_ID));
+        String eTag = quote(object.getETag());
+
+        String ifNoneMatch = request.getHeader(RestUtil.HEADER_IF_NONE_MATCH);
+        if (ifNoneMatch != null && eTagMatches(ifNoneMatch, object.getETag()))
+            return new StubResponse(304).withHeader(RestUtil.HEADER_ETAG, eTag);
+        String ifMatch = request.getHeader(RestUtil.HEADER_IF_MATCH);
+        if (ifMatch != null && !eTagMatches(ifMatch, object.getETag()))
+            throw new StubException(412, "PreconditionFailed", "At least one of the preconditions you specified did not hold");
+
+        byte[] data = object.getData();
+        StubResponse response;
+        String range = request.getHeader(RestUtil.HEADER_RANGE);
+        if (range != null) {
+            long[] bounds = parseRange(range, data.length);
+            int first = (int) bounds[0], last = (int) bounds[1];
+            response = new StubResponse(206).withBody(data, first, last - first + 1)
+                    .withHeader("Content-Range", "bytes " + first + "-" + last + "/" + data.length);
+        } else {
+            response = ok().withBody(data);
+        }
+
+        String contentType = object.getContentType();
+        response.withHeader(RestUtil.HEADER_CONTENT_TYPE, contentType == null ? "application/octet-stream" : contentType);
+        response.withHeader(RestUtil.HEADER_ETAG, eTag);
+        response.withHeader(RestUtil.HEADER_LAST_MODIFIED, RestUtil.headerFormat(object.getLastModified()));
+        response.withHeader("Accept-Ranges", "bytes");
+        if (object.getUserMetadata() != null) {
+            for (Map.Entry<String, String> entry : object.getUserMetadata().entrySet()) {
+                response.withHeader(S3Constants.AMZ_META_PREFIX + entry.getKey(), entry.getValue());
+            }
+        }
+        return versionHeader(response, bucket, object);
+    }
+
+    private StubResponse uploadPart(StubRequest request, Bucket bucket, String key, String uploadId)
+            throws IOException {
+        if (request.getHeader(S3Constants.AMZ_COPY_SOURCE) != null) throw notImplemented();
+        Upload upload = bucket.getUpload(key, uploadId);
+        byte[] data = request.readBody();
+        verifyContentMd5(request, data);
+        StubObject part = upload.putPart(Integer.parseInt(request.getParam(S3Constants.PARAM_PART_NUMBER)), data);
+        return ok().withHeader(RestUtil.HEADER_ETAG, quote(part.getETag()));
+    }
+
+    private StubResponse completeUpload(StubRequest request, Bucket bucket, String key, String uploadId)
+            throws IOException {
+        List<Integer> partNumbers = new ArrayList<Integer>();
+        List<String> eTags = new ArrayList<String>();
+        for (Element part : getElements(parseXml(request.readBody()).getDocumentElement(), "Part")) {
+            partNumbers.add(Integer.parseInt(getText(part, "PartNumber")));
+            eTags.add(getText(part, "ETag"));
+        }
+        if (partNumbers.isEmpty())
+            throw new StubException(400, "MalformedXML", "You must specify at least one part");
+
+        StubObject object = bucket.completeUpload(key, uploadId, partNumbers, eTags);
+        return versionHeader(ok(), bucket, object).withXml(new XmlBuilder("CompleteMultipartUploadResult")
+                .element("Location", "http://" + HOST + ":" + port + "/" + bucket.getName() + "/" + key)
+                .element("Bucket", bucket.getName()).element("Key", key)
+                .element("ETag", quote(object.getETag())).build());
+    }
+
+    private StubResponse listParts(StubRequest request, Bucket bucket, String key, String uploadId) {
+        Upload upload = bucket.getUpload(key, uploadId);
+        int maxParts = getMaxKeys(request, S3Constants.PARAM_MAX_PARTS);
+        String marker = request.getParam(S3Constants.PARAM_PART_NUMBER_MARKER);
+        SortedMap<Integer, StubObject> parts = marker == null
+                ? upload.getParts() : upload.getParts().tailMap(Integer.parseInt(marker), false);
+
+        XmlBuilder xml = new XmlBuilder("ListPartsResult").element("Bucket", bucket.getName()).element("Key", key)
+                .element("UploadId", uploadId).element("PartNumberMarker", marker).element("MaxParts", maxParts);
+        int count = 0;
+        Integer lastPartNumber = null;
+        boolean truncated = false;
+        for (Map.Entry<Integer, StubObject> entry : parts.entrySet()) {
+            if (count++ >= maxParts) {
+                truncated = true;
+                break;
+            }
+            StubObject part = entry.getValue();
+            xml.start("Part").element("PartNumber", entry.getKey())
+                    .element("LastModified", isoDate(part.getLastModified()))
+                    .element("ETag", quote(part.getETag())).element("Size", part.getData().length).end("Part");
+            lastPartNumber = entry.getKey();
+        }
+        xml.element("IsTruncated", truncated);
+        if (truncated) xml.element("NextPartNumberMarker", lastPartNumber);
+        return ok().withXml(xml.build());
+    }
+
+    private StubResponse listUploads(StubRequest request, Bucket bucket) {
+        String prefix = request.getParam(S3Constants.PARAM_PREFIX);
+        XmlBuilder xml = new XmlBuilder("ListMultipartUploadsResult").element("Bucket", bucket.getName())
+                .element("Prefix", prefix).element("IsTruncated", false);
+        for (Upload upload : bucket.getUploads()) {
+            if (prefix != null && !upload.getKey().startsWith(prefix)) continue;
+            xml.start("Upload").element("Key", upload.getKey()).element("UploadId", upload.getUploadId())
+                    .element("Initiated", isoDate(upload.getInitiated())).end("Upload");
+        }
+        return ok().withXml(xml.build());
+    }
+
+    private StubResponse listObjects(StubRequest request, Bucket bucket) {
+        String prefix = request.getParam(S3Constants.PARAM_PREFIX);
+        String delimiter = request.getParam(S3Constants.PARAM_DELIMITER);
+        String marker = request.getParam(S3Constants.PARAM_MARKER);
+        String encodingType = request.getParam(S3Constants.PARAM_ENCODING_TYPE);
+        boolean encode = "url".equals(encodingType);
+        int maxKeys = getMaxKeys(request, S3Constants.PARAM_MAX_KEYS);
+
+        Listing listing = bucket.listObjects(prefix, delimiter, marker, maxKeys);
+        XmlBuilder xml = new XmlBuilder("ListBucketResult").element("Name", bucket.getName())
+                .element("Prefix", encode(prefix, encode)).element("Marker", encode(marker, encode))
+                .element("NextMarker", encode(listing.getNextKeyMarker(), encode)).element("MaxKeys", maxKeys)
+                .element("Delimiter", encode(delimiter, encode)).element("IsTruncated", listing.isTruncated())
+                .element("EncodingType", encodingType);
+        for (StubObject object : listing.getEntries()) {
+            xml.start("Contents").element("Key", encode(object.getKey(), encode))
+                    .element("LastModified", isoDate(object.getLastModified()))
+                    .element("ETag", quote(object.getETag())).element("Size", object.getData().length)
+                    .element("StorageClass", "STANDARD").end("Contents");
+        }
+        for (String commonPrefix : listing.getCommonPrefixes()) {
+            xml.start("CommonPrefixes").element("Prefix", encode(commonPrefix, encode)).end("CommonPrefixes");
+        }
+        return ok().withXml(xml.build());
+    }
+
+    private StubResponse listVersions(StubRequest request, Bucket bucket) {
+        String prefix = request.getParam(S3Constants.PARAM_PREFIX);
+        String delimiter = request.getParam(S3Constants.PARAM_DELIMITER);
+        String keyMarker = request.getParam(S3Constants.PARAM_KEY_MARKER);
+        String versionIdMarker = request.getParam(S3Constants.PARAM_VERSION_ID_MARKER);
+        String encodingType = request.getParam(S3Constants.PARAM_ENCODING_TYPE);
+        boolean encode = "url".equals(encodingType);
+        int maxKeys = getMaxKeys(request, S3Constants.PARAM_MAX_KEYS);
+
+        Listing listing = bucket.listVersions(prefix, delimiter, keyMarker, versionIdMarker, maxKeys);
+        XmlBuilder xml = new XmlBuilder("ListVersionsResult").element("Name", bucket.getName())
+                .element("Prefix", encode(prefix, encode)).element("KeyMarker", encode(keyMarker, encode))
+                .element("VersionIdMarker", versionIdMarker)
+                .element("NextKeyMarker", encode(listing.getNextKeyMarker(), encode))
+                .element("NextVersionIdMarker", listing.getNextVersionIdMarker()).element("MaxKeys", maxKeys)
+                .element("Delimiter", encode(delimiter, encode)).element("IsTruncated", listing.isTruncated())
+                .element("EncodingType", encodingType);
+        for (StubObject version : listing.getEntries()) {
+            String element = version.isDeleteMarker() ? "DeleteMarker" : "Version";
+            xml.start(element).element("Key", encode(version.getKey(), encode))
+                    .element("VersionId", version.getVersionId()).element("IsLatest", listing.isLatest(version))
+                    .element("LastModified", isoDate(version.getLastModified()));
+            if (!version.isDeleteMarker()) {
+                xml.element("ETag", quote(version.getETag())).element("Size", version.getData().length)
+                        .element("StorageClass", "STANDARD");
+            }
+            xml.end(element);
+        }
+        for (String commonPrefix : listing.getCommonPrefixes()) {
+            xml.start("CommonPrefixes").element("Prefix", encode(commonPrefix, encode)).end("CommonPrefixes");
+        }
+        return ok().withXml(xml.build());
+    }
+
+    private StubResponse deleteObjects(StubRequest request, Bucket bucket) throws IOException {
+        Element delete = parseXml(request.readBody()).getDocumentElement();
+        boolean quiet = Boolean.parseBoolean(getText(delete, "Quiet"));
+
+        XmlBuilder xml = new XmlBuilder("DeleteResult");
+        for (Element object : getElements(delete, "Object")) {
+            String key = getText(object, "Key"), versionId = getText(object, "VersionId");
+            try {
+                StubObject deleted = bucket.deleteObject(key, versionId);
+                if (quiet) continue;
+                xml.start("Deleted").element("Key", key).element("VersionId", versionId);
+                if (deleted != null && deleted.isDeleteMarker()) {
+                    xml.element("DeleteMarker", true).element("DeleteMarkerVersionId", deleted.getVersionId());
+                }
+                xml.end("Deleted");
+            } catch (StubException e) {
+                xml.start("Error").element("Key", key).element("VersionId", versionId).element("Code", e.getCode())
+                        .element("Message", e.getMessage()).end("Error");
+            }
+        }
+        return ok().withXml(xml.build());
+    }
+
+    private StubResponse errorResponse(StubException e, StubRequest request) {
+        XmlBuilder xml = new XmlBuilder("Error", null).element("Code", e.getCode()).element("Message", e.getMessage())
+                .element("Resource", request.getPath());
+        return new StubResponse(e.getStatus()).withXml(xml.build());
+    }
+
+    private static StubResponse ok() {
+        return new StubResponse(200);
+    }
+
+    private static StubResponse versionHeader(StubResponse response, Bucket bucket, StubObject object) {
+        if (bucket.getVersioning() != null) response.withHeader(S3Constants.AMZ_VERSION_ID, object.getVersionId());
+        return response;
+    }
+
+    private static StubException notImplemented() {
+        return new StubException(501, "NotImplemented", "This operation is not implemented by the stub server");
+    }
+
+    private static Map<String, String> getUserMetadata(StubRequest request) {
+        Map<String, String> userMetadata = new TreeMap<String, String>();
+        for (Map.Entry<String, String> header : request.getHeaders().entrySet()) {
+            if (header.getKey().startsWith(S3Constants.AMZ_META_PREFIX))
+                userMetadata.put(header.getKey().substring(S3Constants.AMZ_META_PREFIX.length()), header.getValue());
+        }
+        return userMetadata;
+    }
+
+    private static void verifyContentMd5(StubRequest request, byte[] data) {
+        String contentMd5 = request.getHeader(RestUtil.HEADER_CONTENT_MD5);
+        if (contentMd5 != null && !contentMd5.equals(Base64.encodeBase64String(DigestUtils.md5(data))))
+            throw new StubException(400, "BadDigest", "The Content-MD5 you specified did not match what we received");
+    }
+
+    /**
+     * Parses a single byte range into inclusive bounds
+     */
+    private static long[] parseRange(String range, long length) {
+        if (!range.startsWith("bytes=")) throw new StubException(416, "InvalidRange", "Invalid range: " + range);
+        String spec = range.substring(6);
+        if (spec.contains(",")) throw notImplemented(); // multiple ranges
+        int dash = spec.indexOf('-');
+        long first, last;
+        if (dash == 0) { // suffix range
+            first = Math.max(0, length - Long.parseLong(spec.substring(1)));
+            last = length - 1;
+        } else {
+            first = Long.parseLong(spec.substring(0, dash));
+            last = dash == spec.length() - 1 ? length - 1 : Math.min(Long.parseLong(spec.substring(dash + 1)), length - 1);
+        }
+        if (first >= length || first > last)
+            throw new StubException(416, "InvalidRange", "The requested range cannot be satisfied");
+        return new long[]{first, last};
+    }
+
+    private static int getMaxKeys(StubRequest request, String param) {
+        String value = request.getParam(param);
+        return value == null ? DEFAULT_MAX_KEYS : Math.min(Integer.parseInt(value), DEFAULT_MAX_KEYS);
+    }
+
+    private static boolean eTagMatches(String header, String eTag) {
+        for (String value : header.split(",")) {
+            value = value.trim().replaceAll("\"", "");
+            if (value.equals("*") || value.equals(eTag)) return true;
+        }
+        return false;
+    }
+
+    private static String quote(String eTag) {
+        return "\"" + eTag + "\"";
+    }
+
+    private static String encode(String value, boolean encode) {
+        return encode ? RestUtil.urlEncode(value) : value;
+    }
+
+    private static String isoDate(Date date) {
+        return Iso8601DateTimeAdapter.getFormat().format(date);
+    }
+
+    private static Document parseXml(byte[] xml) {
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            return factory.newDocumentBuilder().parse(new ByteArrayInputStream(xml));
+        } catch (Exception e) {
+            throw new StubException(400, "MalformedXML", "The XML you provided was not well-formed");
+        }
+    }
+
+    private static List<Element> getElements(Element parent, String name) {
+        List<Element> elements = new ArrayList<Element>();
+        NodeList nodes = parent.getElementsByTagNameNS("*", name);
+        for (int i = 0; i < nodes.getLength(); i++) {
+            elements.add((Element) nodes.item(i));
+        }
+        return elements;
+    }
+
+    private static String getText(Element parent, String name) {
+        List<Element> elements = getElements(parent, name);
+        return elements.isEmpty() ? null : elements.get(0).getTextContent().trim();
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            if (closeable != null) closeable.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    // Socket is not Closeable in Java 6
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    private class Acceptor implements Runnable {
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    Socket socket = serverSocket.accept();
+                    connections.add(socket);
+                    executor.execute(new Connection(socket));
+                } catch (IOException e) {
+                    if (running) continue;
+                    return;
+                }
+            }
+        }
+    }
+
+    private class Connection implements Runnable {
+        private Socket socket;
+
+        Connection(Socket socket) {
+            this.socket = socket;
+        }
+
+        @Override
+        public void run() {
+            try {
+                socket.setTcpNoDelay(true);
+                InputStream in = new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE);
+                OutputStream out = new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE);
+                StubRequest request;
+                while (running && (request = StubRequest.read(in)) != null) {
+                    if (!service(request, out)) break;
+                }
+            } catch (IOException e) {
+                // client closed the connection
+            } finally {
+                connections.remove(socket);
+                closeQuietly(socket);
+            }
+        }
+    }
+
+    /**
+     * Builds simple S3 response documents
+     */
+    private static class XmlBuilder {
+        private StringBuilder xml = new StringBuilder("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+        private String root;
+
+        XmlBuilder(String root) {
+            this(root, XML_NAMESPACE);
+        }
+
+        XmlBuilder(String root, String namespace) {
+            this.root = root;
+            xml.append('<').append(root);
+            if (namespace != null) xml.append(" xmlns=\"").append(namespace).append('"');
+            xml.append('>');
+        }
+
+        XmlBuilder start(String name) {
+            xml.append('<').append(name).append('>');
+            return this;
+        }
+
+        XmlBuilder end(String name) {
+            xml.append("</").append(name).append('>');
+            return this;
+        }
+
+        /**
+         * Adds a simple element (skipped if value is null)
+         */
+        XmlBuilder element(String name, Object value) {
+            if (value == null) return this;
+            start(name);
+            String text = value.toString();
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                switch (c) {
+                    case '<':
+                        xml.append("&lt;");
+                        break;
+                    case '>':
+                        xml.append("&gt;");
+                        break;
+                    case '&':
+                        xml.append("&amp;");
+                        break;
+                    case '"':
+                        xml.append("&quot;");
+                        break;
+                    default:
+                        xml.append(c);
+                }
+            }
+            return end(name);
+        }
+
+        String build() {
+            return end(root).xml.toString();
+        }
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.s3.stub;
+
+import com.emc.object.Range;
+import com.emc.object.s3.LargeFileDownloader;
+import com.emc.object.s3.LargeFileUploader;
+import com.emc.object.s3.S3Client;
+import com.emc.object.s3.S3Exception;
+import com.emc.object.s3.S3ObjectMetadata;
+import com.emc.object.s3.bean.*;
+import com.emc.object.s3.jersey.S3JerseyClient;
+import com.emc.object.s3.request.DeleteObjectsRequest;
+import com.emc.object.s3.request.GetObjectRequest;
+import com.emc.object.s3.request.ListObjectsRequest;
+import com.emc.object.s3.request.ListVersionsRequest;
+import com.emc.object.s3.request.PutObjectRequest;
+import com.emc.util.RandomInputStream;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.Random;
+
+public class StubS3ServerTest {
+    private static final String BUCKET = "stub-test";
+
+    private StubS3Server server;
+    private S3Client client;
+
+    @Before
+    public void setup() throws Exception {
+        server = new StubS3Server().start();
+        client = new S3JerseyClient(server.createS3Config().withRetryLimit(1).withInitialRetryDelay(10));
+        client.createBucket(BUCKET);
+    }
+
+    @After
+    public void teardown() {
+        if (client != null) client.destroy();
+        if (server != null) server.stop();
+    }
+
+    @Test
+    public void testBuckets() {
+        Assert.assertTrue(client.bucketExists(BUCKET));
+        Assert.assertFalse(client.bucketExists("missing"));
+        Assert.assertEquals(BUCKET, client.listBuckets().getBuckets().get(0).getName());
+
+        client.putObject(BUCKET, "foo", "bar", null);
+        try {
+            client.deleteBucket(BUCKET);
+            Assert.fail("deleted a non-empty bucket");
+        } catch (S3Exception e) {
+            Assert.assertEquals("BucketNotEmpty", e.getErrorCode());
+        }
+        client.deleteObject(BUCKET, "foo");
+        client.deleteBucket(BUCKET);
+        Assert.assertFalse(client.bucketExists(BUCKET));
+    }
+
+    @Test
+    public void testSmartClientCalls() {
+        ListDataNode dataNodes = client.listDataNodes();
+        Assert.assertEquals(StubS3Server.HOST, dataNodes.getDataNodes().get(0));
+        Assert.assertNotNull(client.pingNode(StubS3Server.HOST));
+    }
+
+    @Test
+    public void testObjects() {
+        byte[] data = new byte[10000];
+        new Random().nextBytes(data);
+        S3ObjectMetadata metadata = new S3ObjectMetadata().withContentType("application/foo");
+        metadata.addUserMetadata("color", "blue");
+        PutObjectResult result = client.putObject(new PutObjectRequest(BUCKET, "dir/object", data)
+                .withObjectMetadata(metadata));
+        Assert.assertEquals(DigestUtils.md5Hex(data), result.getETag().replaceAll("\"", ""));
+
+        Assert.assertArrayEquals(data, client.readObject(BUCKET, "dir/object", byte[].class));
+        S3ObjectMetadata readMetadata = client.getObjectMetadata(BUCKET, "dir/object");
+        Assert.assertEquals("application/foo", readMetadata.getContentType());
+        Assert.assertEquals(Long.valueOf(data.length), readMetadata.getContentLength());
+        Assert.assertEquals("blue", readMetadata.getUserMetadata("color"));
+
+        byte[] range = new byte[100];
+        System.arraycopy(data, 500, range, 0, range.length);
+        GetObjectResult<byte[]> rangeResult = client.getObject(new GetObjectRequest(
+                BUCKET, "dir/object").withRange(new Range(500L, 599L)), byte[].class);
+        Assert.assertArrayEquals(range, rangeResult.getObject());
+
+        client.copyObject(BUCKET, "dir/object", BUCKET, "copy");
+        Assert.assertArrayEquals(data, client.readObject(BUCKET, "copy", byte[].class));
+        Assert.assertEquals("blue", client.getObjectMetadata(BUCKET, "copy").getUserMetadata("color"));
+
+        client.deleteObject(BUCKET, "copy");
+        try {
+            client.getObjectMetadata(BUCKET, "copy");
+            Assert.fail("deleted object still exists");
+        } catch (S3Exception e) {
+            Assert.assertEquals(404, e.getHttpCode());
+        }
+    }
+
+    @Test
+    public void testUpdateAndAppend() {
+        client.putObject(BUCKET, "log", "Hello World", "text/plain");
+        client.putObject(BUCKET, "log", Range.fromOffset(6), (Object) "Stubs");
+        Assert.assertEquals(11, client.appendObject(BUCKET, "log", "!"));
+        Assert.assertEquals("Hello Stubs!", client.readObject(BUCKET, "log", String.class));
+    }
+
+    @Test
+    public void testLargeFiles() throws Exception {
+        long size = 3 * LargeFileUploader.MIN_PART_SIZE + 1234;
+        LargeFileUploader uploader = new LargeFileUploader(client, BUCKET, "mpu", new RandomInputStream(size), size)
+                .withPartSize(LargeFileUploader.MIN_PART_SIZE).withThreads(4);
+        uploader.doMultipartUpload();
+        Assert.assertTrue(uploader.getETag().replaceAll("\"", "").endsWith("-4"));
+        Assert.assertTrue(client.listMultipartUploads(BUCKET).getUploads().isEmpty());
+
+        uploader = new LargeFileUploader(client, BUCKET, "ranges", new RandomInputStream(size), size)
+                .withPartSize(LargeFileUploader.MIN_PART_SIZE).withThreads(4);
+        uploader.doByteRangeUpload();
+        Assert.assertEquals(Long.valueOf(size), client.getObjectMetadata(BUCKET, "ranges").getContentLength());
+
+        File file = File.createTempFile("stub-download", null);
+        file.deleteOnExit();
+        LargeFileDownloader downloader = new LargeFileDownloader(client, BUCKET, "mpu", file);
+        downloader.setPartSize(LargeFileUploader.MIN_PART_SIZE);
+        downloader.setThreads(4);
+        downloader.run();
+        Assert.assertEquals(size, file.length());
+        FileInputStream in = new FileInputStream(file);
+        try {
+            Assert.assertEquals(DigestUtils.md5Hex(server.getStore().getBucket(BUCKET).getObject("mpu", null).getData()),
+                    DigestUtils.md5Hex(in));
+        } finally {
+            in.close();
+        }
+        file.delete();
+    }
+
+    @Test
+    public void testListObjects() {
+        for (int i = 0; i < 25; i++) {
+            client.putObject(BUCKET, "flat/" + i, "x", null);
+        }
+        client.putObject(BUCKET, "nested/a/1", "x", null);
+        client.putObject(BUCKET, "nested/b/1", "x", null);
+        client.putObject(BUCKET, "nested/c", "x", null);
+        client.putObject(BUCKET, "odd key+%", "x", null);
+
+        ListObjectsResult result = client.listObjects(new ListObjectsRequest(BUCKET).withPrefix("flat/").withMaxKeys(10));
+        int count = result.getObjects().size();
+        while (result.isTruncated()) {
+            result = client.listMoreObjects(result);
+            count += result.getObjects().size();
+        }
+        Assert.assertEquals(25, count);
+
+        result = client.listObjects(new ListObjectsRequest(BUCKET).withPrefix("nested/").withDelimiter("/"));
+        Assert.assertEquals(1, result.getObjects().size());
+        Assert.assertEquals("nested/c", result.getObjects().get(0).getKey());
+        Assert.assertEquals(2, result.getCommonPrefixes().size());
+        Assert.assertEquals("nested/a/", result.getCommonPrefixes().get(0));
+
+        result = client.listObjects(new ListObjectsRequest(BUCKET).withPrefix("odd")
+                .withEncodingType(EncodingType.url));
+        Assert.assertEquals("odd key+%", result.getObjects().get(0).getKey());
+    }
+
+    @Test
+    public void testVersions() {
+        client.setBucketVersioning(BUCKET,
+                new VersioningConfiguration().withStatus(VersioningConfiguration.Status.Enabled));
+        client.putObject(BUCKET, "versioned", "one", null);
+        client.putObject(BUCKET, "versioned", "two", null);
+        client.deleteObject(BUCKET, "versioned");
+
+        ListVersionsResult result = client.listVersions(new ListVersionsRequest(BUCKET).withPrefix("versioned"));
+        Assert.assertEquals(3, result.getVersions().size());
+        Assert.assertTrue(result.getVersions().get(0) instanceof DeleteMarker);
+        Assert.assertTrue(result.getVersions().get(0).isLatest());
+
+        String firstVersion = result.getVersions().get(2).getVersionId();
+        Assert.assertEquals("one", client.readObject(BUCKET, "versioned", firstVersion, String.class));
+
+        result = client.listVersions(new ListVersionsRequest(BUCKET).withMaxKeys(2));
+        Assert.assertTrue(result.isTruncated());
+        result = client.listMoreVersions(result);
+        Assert.assertEquals(1, result.getVersions().size());
+        Assert.assertEquals(firstVersion, result.getVersions().get(0).getVersionId());
+    }
+
+    @Test
+    public void testDeleteObjects() {
+        client.putObject(BUCKET, "a", "x", null);
+        client.putObject(BUCKET, "b", "x", null);
+        DeleteObjectsResult result = client.deleteObjects(new DeleteObjectsRequest(BUCKET)
+                .withKeys(new ObjectKey("a"), new ObjectKey("b")));
+        Assert.assertEquals(2, result.getResults().size());
+        Assert.assertTrue(client.listObjects(BUCKET).getObjects().isEmpty());
+    }
+
+    @Test
+    public void testErrorInjection() {
+        client.putObject(BUCKET, "retry", "x", null);
+
+        server.setErrorStatus(500, "InternalError");
+        server.failNextRequests(1);
+        Assert.assertEquals("x", client.readObject(BUCKET, "retry", String.class));
+        Assert.assertEquals(1, server.getInjectedErrorCount());
+
+        server.failNextRequests(5);
+        try {
+            client.readObject(BUCKET, "retry", String.class);
+            Assert.fail("request should fail after retry limit");
+        } catch (S3Exception e) {
+            Assert.assertEquals("InternalError", e.getErrorCode());
+        }
+    }
+
+    @Test
+    public void testContentMd5() {
+        S3ObjectMetadata metadata = new S3ObjectMetadata().withContentMd5("1B2M2Y8AsgTpgAmY7PhCfg==");
+        try {
+            client.putObject(new PutObjectRequest(BUCKET, "digest", new ByteArrayInputStream(new byte[1]))
+                    .withObjectMetadata(metadata.withContentLength(1)));
+            Assert.fail("bad digest accepted");
+        } catch (S3Exception e) {
+            Assert.assertEquals("BadDigest", e.getErrorCode());
+        }
+    }
+}
@@ -0,0 +1,502 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.s3.stub;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory buckets, object versions and multipart uploads for {@link StubS3Server}. Object data is kept on the heap,
+ * so size the JVM accordingly. All methods are thread-safe (mutations lock the bucket as a whole).
+ */
+public class StubStore {
+    public static final String NULL_VERSION = "null";
+    public static final String VERSIONING_ENABLED = "Enabled";
+    public static final String VERSIONING_SUSPENDED = "Suspended";
+
+    private static final AtomicLong ID_SEQUENCE = new AtomicLong();
+
+    private final ConcurrentNavigableMap<String, Bucket> buckets = new ConcurrentSkipListMap<String, Bucket>();
+
+    private static String nextId() {
+        return String.format("%016x", ID_SEQUENCE.incrementAndGet());
+    }
+
+    public Bucket createBucket(String name) {
+        Bucket bucket = new Bucket(name);
+        if (buckets.putIfAbsent(name, bucket) != null)
+            throw new StubException(409, "BucketAlreadyExists", "The requested bucket name is not available");
+        return bucket;
+    }
+
+    public Bucket getBucket(String name) {
+        Bucket bucket = buckets.get(name);
+        if (bucket == null) throw new StubException(404, "NoSuchBucket", "The specified bucket does not exist");
+        return bucket;
+    }
+
+    public void deleteBucket(String name) {
+        Bucket bucket = getBucket(name);
+        synchronized (bucket) {
+            if (!bucket.objects.isEmpty())
+                throw new StubException(409, "BucketNotEmpty", "The bucket you tried to delete is not empty");
+            buckets.remove(name);
+        }
+    }
+
+    public Collection<Bucket> getBuckets() {
+        return buckets.values();
+    }
+
+    /**
+     * Removes all buckets and objects
+     */
+    public void clear() {
+        buckets.clear();
+    }
+
+    public static class Bucket {
+        private final String name;
+        private final Date creationDate = new Date();
+        private volatile String versioning;
+        // versions of each key, newest first
+        private final NavigableMap<String, LinkedList<StubObject>> objects = new TreeMap<String, LinkedList<StubObject>>();
+        private final ConcurrentMap<String, Upload> uploads = new ConcurrentHashMap<String, Upload>();
+
+        Bucket(String name) {
+            this.name = name;
+        }
+
+        public synchronized StubObject putObject(String key, byte[] data, String contentType,
+                                                 Map<String, String> userMetadata) {
+            StubObject object = new StubObject(key, newVersionId(), data, DigestUtils.md5Hex(data), contentType,
+                    userMetadata, false);
+            addVersion(object);
+            return object;
+        }
+
+        /**
+         * Writes <code>data</code> into the latest version of an object at <code>offset</code> (extending it if
+         * necessary). An offset of -1 appends to the object. Returns the offset that was written
+         */
+        public synchronized long updateObject(String key, long offset, byte[] data) {
+            StubObject current = getObject(key, null);
+            int length = current.getData().length;
+            if (offset < 0) offset = length;
+            if (offset > length)
+                throw new StubException(416, "InvalidRange", "The requested range cannot be satisfied");
+            if (offset + data.length > Integer.MAX_VALUE)
+                throw new StubException(400, "EntityTooLarge", "Your proposed upload exceeds the maximum allowed size");
+
+            byte[] newData = Arrays.copyOf(current.getData(), Math.max(length, (int) offset + data.length));
+            System.arraycopy(data, 0, newData, (int) offset, data.length);
+            objects.get(key).set(0, new StubObject(key, current.getVersionId(), newData, DigestUtils.md5Hex(newData),
+                    current.getContentType(), current.getUserMetadata(), false));
+            return offset;
+        }
+
+        /**
+         * Returns the latest version of <code>key</code> if <code>versionId</code> is null, otherwise the specified
+         * version
+         */
+        public synchronized StubObject getObject(String key, String versionId) {
+            LinkedList<StubObject> versions = objects.get(key);
+            if (versions != null) {
+                if (versionId == null) {
+                    if (!versions.getFirst().isDeleteMarker()) return versions.getFirst();
+                } else {
+                    for (StubObject version : versions) {
+                        if (version.getVersionId().equals(versionId) && !version.isDeleteMarker()) return version;
+                    }
+                    throw new StubException(404, "NoSuchVersion", "The specified version does not exist");
+                }
+            }
+            throw new StubException(404, "NoSuchKey", "The specified key does not exist");
+        }
+
+        /**
+         * Deletes the specified version, or if <code>versionId</code> is null, the object (in a versioned bucket this
+         * adds a delete marker). Returns the version that was removed or the new delete marker (or null if nothing
+         * was deleted)
+         */
+        public synchronized StubObject deleteObject(String key, String versionId) {
+            LinkedList<StubObject> versions = objects.get(key);
+            if (versionId == null && versioning != null) {
+                StubObject marker = new StubObject(key, newVersionId(), new byte[0], null, null, null, true);
+                addVersion(marker);
+                return marker;
+            }
+            if (versions == null) return null;
+            StubObject removed = null;
+            for (Iterator<StubObject> i = versions.iterator(); i.hasNext(); ) {
+                StubObject version = i.next();
+                if (versionId == null || version.getVersionId().equals(versionId)) {
+                    i.remove();
+                    removed = version;
+                    break;
+                }
+            }
+            if (versions.isEmpty()) objects.remove(key);
+            return removed;
+        }
+
+        public synchronized Listing listObjects(String prefix, String delimiter, String marker, int maxKeys) {
+            Listing listing = new Listing();
+            NavigableMap<String, LinkedList<StubObject>> keys = marker == null ? objects : objects.tailMap(marker, false);
+            String last = null;
+            for (Map.Entry<String, LinkedList<StubObject>> entry : keys.entrySet()) {
+                String key = entry.getKey();
+                if (prefix != null && !key.startsWith(prefix)) {
+                    if (key.compareTo(prefix) > 0) break;
+                    continue;
+                }
+                StubObject latest = entry.getValue().getFirst();
+                if (latest.isDeleteMarker()) continue;
+
+                String commonPrefix = getCommonPrefix(key, prefix, delimiter);
+                if (commonPrefix != null
+                        && (commonPrefix.equals(last) || (marker != null && commonPrefix.compareTo(marker) <= 0)))
+                    continue;
+                if (listing.size() >= maxKeys) {
+                    listing.truncated = true;
+                    listing.nextKeyMarker = last;
+                    break;
+                }
+                if (commonPrefix != null) {
+                    listing.commonPrefixes.add(commonPrefix);
+                    last = commonPrefix;
+                } else {
+                    listing.entries.add(latest);
+                    last = key;
+                }
+            }
+            return listing;
+        }
+
+        public synchronized Listing listVersions(String prefix, String delimiter, String keyMarker,
+                                                 String versionIdMarker, int maxKeys) {
+            Listing listing = new Listing();
+            NavigableMap<String, LinkedList<StubObject>> keys = keyMarker == null
+                    ? objects : objects.tailMap(keyMarker, versionIdMarker != null);
+            String nextKey = null, nextVersionId = null;
+            keys:
+            for (Map.Entry<String, LinkedList<StubObject>> entry : keys.entrySet()) {
+                String key = entry.getKey();
+                if (prefix != null && !key.startsWith(prefix)) {
+                    if (key.compareTo(prefix) > 0) break;
+                    continue;
+                }
+
+                String commonPrefix = getCommonPrefix(key, prefix, delimiter);
+                if (commonPrefix != null) {
+                    if (commonPrefix.equals(nextKey) || (keyMarker != null && commonPrefix.compareTo(keyMarker) <= 0))
+                        continue;
+                    if (listing.size() >= maxKeys) {
+                        listing.truncated = true;
+                        break;
+                    }
+                    listing.commonPrefixes.add(commonPrefix);
+                    nextKey = commonPrefix;
+                    nextVersionId = null;
+                    continue;
+                }
+
+                boolean skipping = versionIdMarker != null && key.equals(keyMarker);
+                for (StubObject version : entry.getValue()) {
+                    if (skipping) {
+                        if (version.getVersionId().equals(versionIdMarker)) skipping = false;
+                        continue;
+                    }
+                    if (listing.size() >= maxKeys) {
+                        listing.truncated = true;
+                        break keys;
+                    }
+                    listing.entries.add(version);
+                    if (version == entry.getValue().getFirst()) listing.latest.add(version);
+                    nextKey = key;
+                    nextVersionId = version.getVersionId();
+                }
+            }
+            if (listing.truncated) {
+                listing.nextKeyMarker = nextKey;
+                listing.nextVersionIdMarker = nextVersionId;
+            }
+            return listing;
+        }
+
+        public Upload initiateUpload(String key, String contentType, Map<String, String> userMetadata) {
+            Upload upload = new Upload(nextId(), key, contentType, userMetadata);
+            uploads.put(upload.getUploadId(), upload);
+            return upload;
+        }
+
+        public Upload getUpload(String key, String uploadId) {
+            Upload upload = uploads.get(uploadId);
+            if (upload == null || !upload.getKey().equals(key))
+                throw new StubException(404, "NoSuchUpload", "The specified multipart upload does not exist");
+            return upload;
+        }
+
+        public Collection<Upload> getUploads() {
+            return uploads.values();
+        }
+
+        public void abortUpload(String key, String uploadId) {
+            uploads.remove(getUpload(key, uploadId).getUploadId());
+        }
+
+        /**
+         * Assembles the listed parts (in order) into a new object version. The ETag of the object is the MD5 of the
+         * part MD5s followed by the part count (as in S3)
+         */
+        public synchronized StubObject completeUpload(String key, String uploadId, List<Integer> partNumbers,
+                                                      List<String> eTags) {
+            Upload upload = getUpload(key, uploadId);
+            ByteArrayOutputStream data = new ByteArrayOutputStream();
+            ByteArrayOutputStream md5s = new ByteArrayOutputStream();
+            int lastPartNumber = 0;
+            for (int i = 0; i < partNumbers.size(); i++) {
+                int partNumber = partNumbers.get(i);
+                if (partNumber <= lastPartNumber)
+                    throw new StubException(400, "InvalidPartOrder", "The list of parts was not in ascending order");
+                StubObject part = upload.getParts().get(partNumber);
+                if (part == null || !part.getETag().equals(eTags.get(i).replaceAll("\"", "")))
+                    throw new StubException(400, "InvalidPart", "One or more of the specified parts could not be found");
+                data.write(part.getData(), 0, part.getData().length);
+                byte[] md5 = DigestUtils.md5(part.getData());
+                md5s.write(md5, 0, md5.length);
+                lastPartNumber = partNumber;
+            }
+            String eTag = Hex.encodeHexString(DigestUtils.md5(md5s.toByteArray())) + "-" + partNumbers.size();
+
+            StubObject object = new StubObject(key, newVersionId(), data.toByteArray(), eTag, upload.getContentType(),
+                    upload.getUserMetadata(), false);
+            addVersion(object);
+            uploads.remove(uploadId);
+            return object;
+        }
+
+        private String newVersionId() {
+            return VERSIONING_ENABLED.equals(versioning) ? nextId() : NULL_VERSION;
+        }
+
+        private void addVersion(StubObject object) {
+            LinkedList<StubObject> versions = objects.get(object.getKey());
+            if (versions == null) {
+                versions = new LinkedList<StubObject>();
+                objects.put(object.getKey(), versions);
+            }
+            // only one "null" version may exist (it is replaced)
+            if (NULL_VERSION.equals(object.getVersionId())) {
+                for (Iterator<StubObject> i = versions.iterator(); i.hasNext(); ) {
+                    if (NULL_VERSION.equals(i.next().getVersionId())) i.remove();
+                }
+            }
+            versions.addFirst(object);
+        }
+
+        private static String getCommonPrefix(String key, String prefix, String delimiter) {
+            if (delimiter == null || delimiter.length() == 0) return null;
+            int start = prefix == null ? 0 : prefix.length();
+            int index = key.indexOf(delimiter, start);
+            if (index < 0) return null;
+            return key.substring(0, index + delimiter.length());
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public Date getCreationDate() {
+            return creationDate;
+        }
+
+        /**
+         * Returns the versioning status (Enabled or Suspended) or null if versioning was never enabled
+         */
+        public String getVersioning() {
+            return versioning;
+        }
+
+        public void setVersioning(String versioning) {
+            this.versioning = versioning;
+        }
+    }
+
+    public static class StubObject {
+        private final String key;
+        private final String versionId;
+        private final byte[] data;
+        private final String eTag;
+        private final String contentType;
+        private final Map<String, String> userMetadata;
+        private final boolean deleteMarker;
+        private final Date lastModified = new Date();
+
+        public StubObject(String key, String versionId, byte[] data, String eTag, String contentType,
+                          Map<String, String> userMetadata, boolean deleteMarker) {
+            this.key = key;
+            this.versionId = versionId;
+            this.data = data;
+            this.eTag = eTag;
+            this.contentType = contentType;
+            this.userMetadata = userMetadata;
+            this.deleteMarker = deleteMarker;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public String getVersionId() {
+            return versionId;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+
+        public String getETag() {
+            return eTag;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public Map<String, String> getUserMetadata() {
+            return userMetadata;
+        }
+
+        public boolean isDeleteMarker() {
+            return deleteMarker;
+        }
+
+        public Date getLastModified() {
+            return lastModified;
+        }
+    }
+
+    public static class Upload {
+        private final String uploadId;
+        private final String key;
+        private final String contentType;
+        private final Map<String, String> userMetadata;
+        private final Date initiated = new Date();
+        private final ConcurrentNavigableMap<Integer, StubObject> parts = new ConcurrentSkipListMap<Integer, StubObject>();
+
+        Upload(String uploadId, String key, String contentType, Map<String, String> userMetadata) {
+            this.uploadId = uploadId;
+            this.key = key;
+            this.contentType = contentType;
+            this.userMetadata = userMetadata;
+        }
+
+        public StubObject putPart(int partNumber, byte[] data) {
+            if (partNumber < 1 || partNumber > 10000)
+                throw new StubException(400, "InvalidArgument", "Part number must be an integer between 1 and 10000");
+            StubObject part = new StubObject(key, null, data, DigestUtils.md5Hex(data), null, null, false);
+            parts.put(partNumber, part);
+            return part;
+        }
+
+        public String getUploadId() {
+            return uploadId;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public Map<String, String> getUserMetadata() {
+            return userMetadata;
+        }
+
+        public Date getInitiated() {
+            return initiated;
+        }
+
+        public ConcurrentNavigableMap<Integer, StubObject> getParts() {
+            return parts;
+        }
+    }
+
+    /**
+     * One page of an object or version listing
+     */
+    public static class Listing {
+        private final List<StubObject> entries = new ArrayList<StubObject>();
+        private final Set<StubObject> latest = new HashSet<StubObject>();
+        private final List<String> commonPrefixes = new ArrayList<String>();
+        private boolean truncated;
+        private String nextKeyMarker;
+        private String nextVersionIdMarker;
+
+        int size() {
+            return entries.size() + commonPrefixes.size();
+        }
+
+        public List<StubObject> getEntries() {
+            return entries;
+        }
+
+        /**
+         * For version listings, whether <code>version</code> is the latest version of its key
+         */
+        public boolean isLatest(StubObject version) {
+            return latest.contains(version);
+        }
+
+        public List<String> getCommonPrefixes() {
+            return commonPrefixes;
+        }
+
+        public boolean isTruncated() {
+            return truncated;
+        }
+
+        public String getNextKeyMarker() {
+            return nextKeyMarker;
+        }
+
+        public String getNextVersionIdMarker() {
+            return nextVersionIdMarker;
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.s3.trace;
+
+import com.emc.object.Range;
+import com.emc.object.s3.S3Client;
+import com.emc.object.s3.S3Exception;
+import com.emc.object.s3.jersey.S3JerseyClient;
+import com.emc.object.s3.stub.StubS3Server;
+import com.emc.object.s3.stub.StubStore;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+public class TraceTest {
+    @Test
+    public void testRoundTrip() throws Exception {
+        List<TraceRecord> records = new ArrayList<TraceRecord>();
+        records.add(new TraceRecord("GET_OBJECT", 100, TraceRecord.hash("bucket"), TraceRecord.hash("key"), 0, 1024,
+                null, null, 200, 1500, false));
+        records.add(new TraceRecord("PUT_OBJECT", 50, TraceRecord.hash("bucket"), TraceRecord.hash("key"), 5000000,
+                -1, -1L, null, 200, 120000, false));
+        records.add(new TraceRecord("GET_OBJECT", 7000000000L, TraceRecord.hash("bucket"), TraceRecord.hash("key2"),
+                0, 100, 1000L, 1099L, 206, 800, false));
+        records.add(new TraceRecord("GET_SERVICE", 7000000001L, null, null, 0, 0, null, null, -1, 30000000, true));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        TraceWriter writer = new TraceWriter(out);
+        for (TraceRecord record : records) {
+            writer.write(record);
+        }
+        writer.close();
+        Assert.assertTrue("trace is not compact: " + out.size(), out.size() < 200);
+
+        TraceReader reader = new TraceReader(new ByteArrayInputStream(out.toByteArray()));
+        for (TraceRecord expected : records) {
+            Assert.assertEquals(expected.toString(), reader.read().toString());
+        }
+        Assert.assertNull(reader.read());
+        Assert.assertTrue(Math.abs(System.currentTimeMillis() - reader.getTraceStartTime()) < 60000);
+        reader.close();
+    }
+
+    @Test
+    public void testCaptureAndReplay() throws Exception {
+        File traceFile = File.createTempFile("trace", ".s3tr");
+        traceFile.deleteOnExit();
+
+        // capture
+        StubS3Server source = new StubS3Server().start();
+        TraceWriter writer = new TraceWriter(traceFile);
+        S3Client client = new S3JerseyClient(source.createS3Config().withTraceWriter(writer));
+        try {
+            source.getStore().createBucket("source");
+            source.getStore().getBucket("source").putObject("existing", new byte[2000], null, null);
+            client.readObject("source", "existing", byte[].class);
+            client.readObjectStream("source", "existing", new Range(1000L, 1499L)).close();
+            client.putObject("source", "new", new byte[300], null);
+            client.appendObject("source", "new", new byte[200]);
+            client.getObjectMetadata("source", "new");
+            client.listObjects("source");
+            client.deleteObject("source", "new");
+            try {
+                client.getObjectMetadata("source", "missing");
+                Assert.fail("object should not exist");
+            } catch (S3Exception e) {
+                Assert.assertEquals(404, e.getHttpCode());
+            }
+            client.initiateMultipartUpload("source", "skipped");
+        } finally {
+            client.destroy();
+            writer.close();
+            source.stop();
+        }
+        Assert.assertEquals(9, writer.getRecordCount());
+
+        TraceReader reader = new TraceReader(traceFile);
+        TraceRecord record = reader.read();
+        Assert.assertEquals("GET_OBJECT", record.getOperation());
+        Assert.assertEquals(Long.valueOf(TraceRecord.hash("source")), record.getBucketHash());
+        Assert.assertEquals(Long.valueOf(TraceRecord.hash("existing")), record.getKeyHash());
+        Assert.assertEquals(2000, record.getBytesReceived());
+        record = reader.read();
+        Assert.assertEquals(Long.valueOf(1000), record.getRangeFirst());
+        Assert.assertEquals(Long.valueOf(1499), record.getRangeLast());
+        record = reader.read();
+        Assert.assertEquals("PUT_OBJECT", record.getOperation());
+        Assert.assertEquals(300, record.getBytesSent());
+        record = reader.read();
+        Assert.assertEquals(Long.valueOf(-1), record.getRangeFirst());
+        Assert.assertEquals(200, record.getBytesSent());
+        reader.close();
+
+        // replay
+        StubS3Server target = new StubS3Server().start();
+        client = new S3JerseyClient(target.createS3Config());
+        try {
+            target.getStore().createBucket("target");
+            TraceReplayer replayer = new TraceReplayer(client, "target", traceFile).withPrepopulate(true)
+                    .withTimeScale(0.5).withThreads(1);
+            replayer.run();
+
+            Assert.assertEquals(1, replayer.getSkippedCount()); // multipart initiate
+            long replayed = 0;
+            for (TraceReplayer.OperationResult result : replayer.getResults()) {
+                replayed += result.getLatency().getCount();
+                Assert.assertEquals(result.getOperation(), result.getOriginalErrorCount(), result.getErrorCount());
+            }
+            Assert.assertEquals(8, replayed);
+
+            // only the prepopulated object remains (the new object was deleted)
+            StubStore.Bucket bucket = target.getStore().getBucket("target");
+            String prefix = TraceReplayer.DEFAULT_PREFIX + Long.toHexString(TraceRecord.hash("source")) + "/";
+            Assert.assertEquals(2000, bucket.getObject(prefix + Long.toHexString(TraceRecord.hash("existing")), null)
+                    .getData().length);
+            Assert.assertEquals(1, bucket.listObjects(null, null, null, 1000).getEntries().size());
+        } finally {
+            client.destroy();
+            target.stop();
+            traceFile.delete();
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CircuitBreakerTest {
+    @Test
+    public void testOpensOnFailureRate() {
+        CircuitBreaker breaker = new CircuitBreaker().withMinimumCalls(10).withFailureRate(0.5f);
+
+        // under the minimum number of calls, even all failures won't open it
+        for (int i = 0; i < 9; i++) {
+            breaker.recordFailure();
+        }
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+
+        breaker.recordFailure();
+        Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        Assert.assertFalse(breaker.isCallAllowed());
+        Assert.assertEquals(1, breaker.getOpenCount());
+    }
+
+    @Test
+    public void testStaysClosedUnderThreshold() {
+        CircuitBreaker breaker = new CircuitBreaker(20).withMinimumCalls(10).withFailureRate(0.5f);
+        for (int i = 0; i < 100; i++) {
+            if (i % 3 == 0) breaker.recordFailure();
+            else breaker.recordSuccess();
+        }
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        Assert.assertTrue(breaker.isCallAllowed());
+    }
+
+    @Test
+    public void testHalfOpen() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker().withMinimumCalls(1).withOpenTime(100);
+        breaker.recordFailure();
+        Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        Thread.sleep(150);
+        Assert.assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        Assert.assertTrue(breaker.isCallAllowed());
+
+        // a failed trial opens it again
+        breaker.recordFailure();
+        Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        Assert.assertEquals(2, breaker.getOpenCount());
+
+        // a successful trial closes it
+        Thread.sleep(150);
+        breaker.recordSuccess();
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void testSingleTrialPermit() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker().withMinimumCalls(1).withOpenTime(200);
+        breaker.recordFailure();
+        Thread.sleep(250);
+        Assert.assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+
+        // only one caller gets the trial
+        Assert.assertTrue(breaker.tryAcquire());
+        Assert.assertFalse(breaker.isCallAllowed());
+        Assert.assertFalse(breaker.tryAcquire());
+
+        // a returned permit can be taken again
+        breaker.release();
+        Assert.assertTrue(breaker.isCallAllowed());
+        Assert.assertTrue(breaker.tryAcquire());
+        Assert.assertFalse(breaker.tryAcquire());
+
+        // the trial's outcome settles the breaker
+        breaker.recordSuccess();
+        Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        Assert.assertTrue(breaker.tryAcquire());
+        Assert.assertTrue(breaker.tryAcquire());
+    }
+
+    @Test
+    public void testTrialPermitExpires() throws Exception {
+        CircuitBreaker breaker = new CircuitBreaker().withMinimumCalls(1).withOpenTime(200);
+        breaker.recordFailure();
+        Thread.sleep(250);
+        Assert.assertTrue(breaker.tryAcquire());
+        Assert.assertFalse(breaker.tryAcquire());
+
+        // the trial never reported back
+        Thread.sleep(250);
+        Assert.assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        Assert.assertTrue(breaker.tryAcquire());
+
+        breaker.recordFailure();
+        Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        Assert.assertFalse(breaker.tryAcquire());
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.util;
+
+import com.sun.jersey.api.client.ClientRequest;
+import com.sun.jersey.api.client.ClientRequestAdapter;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+
+public class CountingRequestAdapterTest {
+    @Test
+    public void testCountPerAttempt() throws Exception {
+        final List<Long> counts = new ArrayList<Long>();
+        CountingRequestAdapter adapter = new CountingRequestAdapter(new ClientRequestAdapter() {
+            @Override
+            public OutputStream adapt(ClientRequest request, OutputStream out) throws IOException {
+                return out;
+            }
+        }) {
+            @Override
+            protected void bytesWritten(long count) {
+                counts.add(count);
+            }
+        };
+        ClientRequest request = ClientRequest.create().build(new URI("http://localhost/"), "PUT");
+
+        OutputStream out = adapter.adapt(request, new ByteArrayOutputStream());
+        out.write(new byte[10], 2, 5);
+        out.write(1);
+        Assert.assertEquals(6, adapter.getCount());
+
+        // a retry writes the entity again
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        out = adapter.adapt(request, buffer);
+        Assert.assertEquals(0, adapter.getCount());
+        out.write(new byte[4]);
+        Assert.assertEquals(4, adapter.getCount());
+        Assert.assertEquals(4, buffer.size());
+
+        List<Long> expected = new ArrayList<Long>();
+        for (long count : new long[]{0, 5, 6, 0, 4}) expected.add(count);
+        Assert.assertEquals(expected, counts);
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.util;
+
+import com.emc.object.s3.jersey.HostLatencyFilter;
+import com.emc.object.s3.stub.MockClientHandler;
+import com.emc.rest.smart.Host;
+import com.sun.jersey.api.client.Client;
+import com.sun.jersey.api.client.ClientRequest;
+import com.sun.jersey.api.client.ClientResponse;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+public class LatencyAwareLoadBalancerTest {
+    @Test
+    public void testPrefersFastHosts() {
+        Host fast1 = new Host("fast1"), fast2 = new Host("fast2"), slow = new Host("slow");
+        LatencyAwareLoadBalancer loadBalancer = new LatencyAwareLoadBalancer(Arrays.asList(fast1, fast2, slow));
+        for (int i = 0; i < 10; i++) {
+            loadBalancer.recordLatency("fast1", 5);
+            loadBalancer.recordLatency("fast2", 5);
+            loadBalancer.recordLatency("slow", 100);
+        }
+
+        Map<String, Integer> counts = select(loadBalancer, 3000);
+
+        // the slow host can only win if it's chosen twice, which can't happen (two different hosts are always chosen)
+        Assert.assertNull(counts.get("slow"));
+        Assert.assertTrue(counts.get("fast1") > 1000);
+        Assert.assertTrue(counts.get("fast2") > 1000);
+    }
+
+    @Test
+    public void testOpenConnections() {
+        Host busy = new Host("busy"), idle = new Host("idle");
+        LatencyAwareLoadBalancer loadBalancer = new LatencyAwareLoadBalancer(Arrays.asList(busy, idle));
+        loadBalancer.recordLatency("busy", 5);
+        loadBalancer.recordLatency("idle", 10);
+        for (int i = 0; i < 5; i++) {
+            busy.connectionOpened();
+        }
+
+        Assert.assertEquals(idle, loadBalancer.getTopHost(new HashMap<String, Object>()));
+    }
+
+    @Test
+    public void testDecay() throws Exception {
+        Host host1 = new Host("host1"), host2 = new Host("host2");
+        LatencyAwareLoadBalancer loadBalancer = new LatencyAwareLoadBalancer(Arrays.asList(host1, host2))
+                .withDecayTime(100);
+        loadBalancer.recordLatency("host1", 10);
+        loadBalancer.recordLatency("host2", 1000);
+        Assert.assertTrue(loadBalancer.getLatency("host2") > 900);
+
+        Thread.sleep(500);
+
+        // stale averages decay toward the mean
+        Assert.assertTrue(loadBalancer.getLatency("host1") > 400);
+        Assert.assertTrue(loadBalancer.getLatency("host2") < 600);
+
+        // and a new sample mostly replaces a stale average
+        loadBalancer.recordLatency("host2", 10);
+        Assert.assertTrue(loadBalancer.getLatency("host2") < 100);
+    }
+
+    @Test
+    public void testIdleHosts() {
+        Host host1 = new Host("host1"), host2 = new Host("host2");
+        LatencyAwareLoadBalancer loadBalancer = new LatencyAwareLoadBalancer(Arrays.asList(host1, host2));
+        loadBalancer.recordLatency("host1", 10);
+
+        Assert.assertEquals(Arrays.asList(host2), loadBalancer.getIdleHosts(60000));
+    }
+
+    @Test
+    public void testFilterIgnoresUploads() {
+        LatencyAwareLoadBalancer loadBalancer = new LatencyAwareLoadBalancer(Arrays.asList(new Host("host1")));
+        Client client = new Client(new MockClientHandler(new MockClientHandler.Responder() {
+            @Override
+            public ClientResponse respond(ClientRequest request, byte[] entity) throws Exception {
+                if (entity != null) Thread.sleep(200); // a long upload
+                return MockClientHandler.response(200, new byte[0]);
+            }
+        }));
+        client.addFilter(new HostLatencyFilter(loadBalancer));
+
+        client.resource("http://host1/bucket/key").put(ClientResponse.class, new byte[1024]).close();
+        Assert.assertEquals(-1, loadBalancer.getLatency("host1"), 0);
+
+        client.resource("http://host1/bucket/key").get(ClientResponse.class).close();
+        Assert.assertTrue(loadBalancer.getLatency("host1") >= 0);
+        Assert.assertTrue(loadBalancer.getLatency("host1") < 100);
+    }
+
+    private Map<String, Integer> select(LatencyAwareLoadBalancer loadBalancer, int count) {
+        Map<String, Integer> counts = new HashMap<String, Integer>();
+        for (int i = 0; i < count; i++) {
+            String name = loadBalancer.getTopHost(new HashMap<String, Object>()).getName();
+            counts.put(name, counts.containsKey(name) ? counts.get(name) + 1 : 1);
+        }
+        return counts;
+    }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.util;
+
+import com.emc.rest.util.StreamUtil;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+public class ReplayableEntityTest {
+    @Test
+    public void testFileSegment() throws Exception {
+        File file = File.createTempFile("replayable-test", null);
+        file.deleteOnExit();
+        FileOutputStream fos = new FileOutputStream(file);
+        fos.write("0123456789Hello Middle!3456789".getBytes("UTF-8"));
+        fos.close();
+
+        FileSegmentEntity entity = new FileSegmentEntity(file, 10, 13);
+        Assert.assertEquals(13, entity.getLength());
+        Assert.assertEquals("Hello Middle!", StreamUtil.readAsString(entity.openStream()));
+        Assert.assertEquals("Hello Middle!", StreamUtil.readAsString(entity.openStream()));
+    }
+
+    @Test
+    public void testByteBuffer() throws Exception {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(30);
+        buffer.put("0123456789Hello Middle!3456789".getBytes("UTF-8"));
+        buffer.position(10).limit(23);
+
+        ByteBufferEntity entity = new ByteBufferEntity(buffer);
+        Assert.assertEquals(13, entity.getLength());
+        Assert.assertEquals("Hello Middle!", StreamUtil.readAsString(entity.openStream()));
+        Assert.assertEquals("Hello Middle!", StreamUtil.readAsString(entity.openStream()));
+        Assert.assertEquals(10, buffer.position());
+    }
+
+    @Test
+    public void testSpooledInMemory() throws Exception {
+        byte[] data = new byte[100 * 1024];
+        new Random().nextBytes(data);
+
+        SpooledEntity entity = new SpooledEntity(new ByteArrayInputStream(data));
+        try {
+            // partial read, then replay
+            InputStream stream = entity.openStream();
+            Assert.assertEquals(1000, stream.read(new byte[1000]));
+            Assert.assertArrayEquals(data, readAll(entity.openStream()));
+            Assert.assertArrayEquals(data, readAll(entity.openStream()));
+            Assert.assertNull(entity.getSpoolFile());
+        } finally {
+            entity.close();
+        }
+    }
+
+    @Test
+    public void testSpooledToDisk() throws Exception {
+        byte[] data = new byte[SpooledEntity.CHUNK_SIZE * 3 + 123];
+        new Random().nextBytes(data);
+
+        SpooledEntity entity = new SpooledEntity(new ByteArrayInputStream(data), data.length, SpooledEntity.CHUNK_SIZE + 17, null);
+        try {
+            Assert.assertArrayEquals(data, readAll(entity.openStream()));
+            File spoolFile = entity.getSpoolFile();
+            Assert.assertNotNull(spoolFile);
+            Assert.assertEquals(data.length - SpooledEntity.CHUNK_SIZE - 17, spoolFile.length());
+            Assert.assertArrayEquals(data, readAll(entity.openStream()));
+            entity.close();
+            Assert.assertFalse(spoolFile.exists());
+        } finally {
+            entity.close();
+        }
+    }
+
+    private byte[] readAll(InputStream is) throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = is.read(buffer)) != -1) {
+            baos.write(buffer, 0, read);
+        }
+        return baos.toByteArray();
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class RequestTimingsTest {
+    @Test
+    public void testPhases() throws Exception {
+        final AtomicInteger notified = new AtomicInteger();
+        RequestTimings timings = new RequestTimings("PUT", new RequestTimingListener() {
+            @Override
+            public void requestCompleted(RequestTimings timings) {
+                notified.incrementAndGet();
+            }
+        });
+
+        Thread.sleep(5);
+        timings.markHandlerStart();
+        timings.markLeaseStart();
+        Thread.sleep(5);
+        timings.markLeaseEnd(true);
+        Thread.sleep(5);
+        timings.markSendComplete();
+        Thread.sleep(5);
+        timings.markFirstByte();
+        Thread.sleep(5);
+        timings.complete();
+        timings.complete();
+
+        Assert.assertEquals(1, notified.get());
+        Assert.assertEquals(1, timings.getAttempts());
+        Assert.assertTrue(timings.isNewConnection());
+        for (long phase : new long[]{timings.getFilterTime(), timings.getLeaseTime(), timings.getSendTime(),
+                timings.getFirstByteTime(), timings.getBodyTime()}) {
+            Assert.assertTrue(phase >= 4000000);
+        }
+        Assert.assertTrue(timings.getTotalTime() >= 25000000);
+    }
+
+    @Test
+    public void testUnmeasuredPhases() {
+        RequestTimings timings = new RequestTimings("GET", null);
+        timings.markHandlerStart();
+        timings.markFirstByte();
+
+        // a retry clears the marks of the previous attempt
+        timings.markHandlerStart();
+        Assert.assertEquals(2, timings.getAttempts());
+        Assert.assertEquals(-1, timings.getLeaseTime());
+        Assert.assertEquals(-1, timings.getSendTime());
+        Assert.assertEquals(-1, timings.getFirstByteTime());
+        Assert.assertEquals(-1, timings.getBodyTime());
+        Assert.assertFalse(timings.isCompleted());
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.util;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SingleFlightTest {
+    @Test
+    public void testCoalesce() throws Exception {
+        final SingleFlight<String, Integer> flight = new SingleFlight<String, Integer>();
+        final AtomicInteger calls = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1), release = new CountDownLatch(1);
+        final Callable<Integer> slowCall = new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                started.countDown();
+                release.await();
+                return calls.incrementAndGet();
+            }
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            Future<SingleFlight.Result<Integer>> leader = executor.submit(new Callable<SingleFlight.Result<Integer>>() {
+                @Override
+                public SingleFlight.Result<Integer> call() throws Exception {
+                    return flight.execute("key", slowCall);
+                }
+            });
+            started.await();
+
+            List<Future<SingleFlight.Result<Integer>>> followers = new ArrayList<Future<SingleFlight.Result<Integer>>>();
+            for (int i = 0; i < 5; i++) {
+                followers.add(executor.submit(new Callable<SingleFlight.Result<Integer>>() {
+                    @Override
+                    public SingleFlight.Result<Integer> call() throws Exception {
+                        return flight.execute("key", slowCall);
+                    }
+                }));
+            }
+            while (flight.getCoalescedCount() < 5) Thread.sleep(10);
+            release.countDown();
+
+            Assert.assertTrue(leader.get().isLeader());
+            Assert.assertEquals(1, leader.get().getValue().intValue());
+            for (Future<SingleFlight.Result<Integer>> follower : followers) {
+                Assert.assertFalse(follower.get().isLeader());
+                Assert.assertEquals(1, follower.get().getValue().intValue());
+            }
+            Assert.assertEquals(1, calls.get());
+
+            // once complete, the next call runs again
+            Assert.assertEquals(2, flight.execute("key", slowCall).getValue().intValue());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testExceptionShared() throws Exception {
+        SingleFlight<String, Integer> flight = new SingleFlight<String, Integer>();
+        try {
+            flight.execute("key", new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    throw new IllegalStateException("boom");
+                }
+            });
+            Assert.fail("exception not thrown");
+        } catch (IllegalStateException e) {
+            Assert.assertEquals("boom", e.getMessage());
+        }
+
+        // failed call must not stay in flight
+        Assert.assertEquals(3, flight.execute("key", new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                return 3;
+            }
+        }).getValue().intValue());
+    }
+}
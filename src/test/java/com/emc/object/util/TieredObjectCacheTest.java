@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2015-2016, EMC Corporation.
+ * Redistribution and use in source and binary forms, with or without modification,
+ * are permitted provided that the following conditions are met:
+ *
+ * + Redistributions of source code must retain the above copyright notice,
+ *   this list of conditions and the following disclaimer.
+ * + Redistributions in binary form must reproduce the above copyright
+ *   notice, this list of conditions and the following disclaimer in the
+ *   documentation and/or other materials provided with the distribution.
+ * + The name of EMC Corporation may not be used to endorse or promote
+ *   products derived from this software without specific prior written
+ *   permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED
+ * TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS
+ * BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ */
+package com.emc.object.util;
+
+import com.emc.object.CacheConfig;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.*;
+
+public class TieredObjectCacheTest {
+    private static final Map<String, List<String>> HEADERS = Collections.emptyMap();
+    private static final int SIZE = TieredObjectCache.BLOCK_SIZE;
+
+    private File dir;
+
+    @Before
+    public void createDir() throws Exception {
+        dir = File.createTempFile("cache", null);
+        Assert.assertTrue(dir.delete());
+    }
+
+    @After
+    public void deleteDir() {
+        File[] files = dir.listFiles();
+        if (files != null) for (File file : files) file.delete();
+        dir.delete();
+    }
+
+    @Test
+    public void testDemoteAndPromote() {
+        TieredObjectCache cache = new TieredObjectCache(new CacheConfig()
+                .withMemoryCacheSize(2 * SIZE).withDiskCacheDir(dir).withDiskCacheSize(3 * SIZE).withMaxObjectSize(SIZE));
+        for (int i = 0; i < 5; i++) cache.put("key" + i, data(i, SIZE), "etag" + i, HEADERS);
+
+        // 2 in memory, 3 on disk
+        Assert.assertEquals(2 * SIZE, cache.getMemoryBytes());
+        Assert.assertEquals(3 * SIZE, cache.getDiskBytes());
+        Assert.assertEquals(3, dir.list().length);
+
+        // the data put in is copied
+        byte[] original = data(9, SIZE);
+        cache.put("copied", original, "etag", HEADERS);
+        original[0]++;
+        Assert.assertArrayEquals(data(9, SIZE), cache.get("copied").getData());
+
+        // key0 was pushed off the disk tier; key1 comes back from disk
+        Assert.assertNull(cache.get("key0"));
+        TieredObjectCache.Entry entry = cache.get("key1");
+        Assert.assertArrayEquals(data(1, SIZE), entry.getData());
+        cache.recordHit(entry);
+        Assert.assertEquals(1, cache.getDiskHits());
+        Assert.assertEquals(2 * SIZE, cache.getMemoryBytes());
+        Assert.assertEquals(3 * SIZE, cache.getDiskBytes());
+        Assert.assertEquals(3, dir.list().length);
+
+        cache.invalidate("key1");
+        Assert.assertNull(cache.get("key1"));
+        cache.clear();
+        Assert.assertEquals(0, cache.getEntryCount());
+        Assert.assertEquals(0, dir.list().length);
+    }
+
+    @Test
+    public void testBlocksAreReused() {
+        TieredObjectCache cache = new TieredObjectCache(new CacheConfig().withMemoryCacheSize(4 * SIZE));
+        Random random = new Random();
+        for (int i = 0; i < 100; i++) {
+            int size = 1 + random.nextInt(2 * SIZE);
+            cache.put("key" + i, data(i, size), "etag", HEADERS);
+            Assert.assertArrayEquals(data(i, size), cache.get("key" + i).getData());
+        }
+
+        // off-heap memory never exceeds the budget
+        TieredObjectCache.BlockPool pool = cache.getPool();
+        Assert.assertTrue(cache.getMemoryBytes() <= 4 * SIZE);
+        Assert.assertTrue(pool.getAllocatedBlocks() <= 4);
+        Assert.assertEquals(100 - cache.getEntryCount(), cache.getEvictions());
+
+        cache.clear();
+        Assert.assertEquals(pool.getAllocatedBlocks(), pool.getFreeBlocks());
+    }
+
+    @Test
+    public void testBlocksReleasedAfterRead() {
+        TieredObjectCache.BlockPool pool = new TieredObjectCache.BlockPool(2);
+        byte[] data = data(1, SIZE + 1);
+        TieredObjectCache.Blocks blocks = new TieredObjectCache.Blocks(pool, pool.acquire(2), data);
+        Assert.assertNull(pool.acquire(1));
+        Assert.assertArrayEquals(data, blocks.read(data.length));
+
+        blocks.release();
+        Assert.assertNull(blocks.read(data.length));
+        Assert.assertEquals(2, pool.getFreeBlocks());
+        Assert.assertEquals(2, pool.acquire(2).length);
+        Assert.assertEquals(2, pool.getAllocatedBlocks());
+    }
+
+    @Test
+    public void testConcurrentAccess() throws Exception {
+        final TieredObjectCache cache = new TieredObjectCache(new CacheConfig()
+                .withMemoryCacheSize(20 * 1024).withDiskCacheDir(dir).withDiskCacheSize(60 * 1024));
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (int t = 0; t < 8; t++) {
+                final int seed = t;
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        Random random = new Random(seed);
+                        for (int i = 0; i < 2000; i++) {
+                            int k = random.nextInt(100);
+                            if (random.nextInt(4) == 0) {
+                                cache.put("key" + k, data(k, 1024), "etag", HEADERS);
+                            } else {
+                                TieredObjectCache.Entry entry = cache.get("key" + k);
+                                byte[] data = entry == null ? null : entry.getData();
+                                // content may only be missing if the entry was evicted meanwhile
+                                if (data != null) Assert.assertArrayEquals(data(k, 1024), data);
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<?> future : futures) future.get();
+        } finally {
+            executor.shutdown();
+        }
+        Assert.assertTrue(cache.getMemoryBytes() <= 20 * 1024);
+        Assert.assertTrue(cache.getDiskBytes() <= 60 * 1024);
+        Assert.assertEquals(cache.getDiskBytes() / 1024, dir.list().length);
+        Assert.assertTrue(cache.getPool().getAllocatedBlocks() <= 20 * 1024 / SIZE);
+    }
+
+    private static byte[] data(int seed, int size) {
+        byte[] data = new byte[size];
+        new Random(seed).nextBytes(data);
+        return data;
+    }
+}